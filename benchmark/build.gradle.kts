@@ -0,0 +1,41 @@
+plugins {
+    alias(libs.plugins.kotlin.jvm)
+    alias(libs.plugins.jmh)
+}
+
+kotlin {
+    jvmToolchain(17)
+}
+
+// Pure-JVM hot-path sources are compiled straight from the Android modules, nothing else from them is pulled in.
+// The few framework calls they reach (SystemClock, Log, MediaCodec.BufferInfo) resolve to JVM stand-ins in src/main/kotlin/android.
+sourceSets {
+    main {
+        kotlin {
+            srcDir("../mjpeg/src/main/java")
+            srcDir("../rtsp/src/main/java")
+            include("android/**")
+            include("info/dvkr/screenstream/mjpeg/internal/jpeg/StripJpegEncoder.kt")
+            include("info/dvkr/screenstream/mjpeg/internal/JpegBuffers.kt")
+            include("info/dvkr/screenstream/mjpeg/internal/MjpegFrame.kt")
+            include("info/dvkr/screenstream/rtsp/internal/MediaFrame.kt")
+            include("info/dvkr/screenstream/rtsp/internal/audio/G711ALaw.kt")
+            include("info/dvkr/screenstream/rtsp/internal/rtsp/RtspMessage.kt")
+            include("info/dvkr/screenstream/rtsp/internal/rtsp/packets/*.kt")
+            include("info/dvkr/screenstream/rtsp/internal/rtsp/sockets/RtspMessageReader.kt")
+        }
+    }
+}
+
+dependencies {
+    compileOnly(libs.androidx.annotation)
+    implementation(libs.ktor.http)
+    implementation(libs.ktor.io)
+}
+
+jmh {
+    warmupIterations = 3
+    iterations = 5
+    fork = 1
+    profilers = listOf("gc")
+}
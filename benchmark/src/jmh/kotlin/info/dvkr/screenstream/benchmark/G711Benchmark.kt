@@ -0,0 +1,40 @@
+package info.dvkr.screenstream.benchmark
+
+import info.dvkr.screenstream.rtsp.internal.audio.G711ALaw
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+import kotlin.math.PI
+import kotlin.math.sin
+
+// 16-bit LE PCM at 8 kHz mono: a 20 ms packet and a 1024 sample capture read
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class G711Benchmark {
+
+    @Param("160", "1024")
+    var samples: Int = 0
+
+    private lateinit var pcm: ByteArray
+
+    @Setup(Level.Trial)
+    fun setup() {
+        pcm = ByteArray(samples * 2)
+        repeat(samples) { i ->
+            val sample = (sin(2 * PI * 440 * i / 8000) * 12000).toInt() + (i * 7919 % 2000 - 1000)
+            pcm[i * 2] = sample.toByte()
+            pcm[i * 2 + 1] = (sample shr 8).toByte()
+        }
+    }
+
+    @Benchmark
+    fun encode(): ByteArray = G711ALaw.encode(pcm, pcm.size)
+}
@@ -0,0 +1,95 @@
+package info.dvkr.screenstream.benchmark
+
+import info.dvkr.screenstream.mjpeg.internal.jpeg.StripJpegEncoder
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.awt.image.BufferedImage
+import java.io.OutputStream
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.TimeUnit
+import javax.imageio.IIOImage
+import javax.imageio.ImageIO
+import javax.imageio.ImageWriteParam
+
+// Strip encoder on 1 thread vs N threads
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class JpegEncoderBenchmark {
+
+    @Param("1280x720", "1920x1080", "2560x1600")
+    lateinit var resolution: String
+
+    @Param("1", "4")
+    var threads: Int = 1
+
+    private var width = 0
+    private var height = 0
+    private lateinit var pixels: IntArray
+    private lateinit var pool: ForkJoinPool
+    private lateinit var encoder: StripJpegEncoder
+
+    @Setup(Level.Trial)
+    fun setup() {
+        width = resolution.substringBefore('x').toInt()
+        height = resolution.substringAfter('x').toInt()
+        pixels = syntheticScreen(width, height)
+        pool = ForkJoinPool(threads)
+        encoder = StripJpegEncoder(pool)
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() = pool.shutdown()
+
+    @Benchmark
+    fun stripEncoder() = encoder.encode(pixels, width, height, width, JPEG_QUALITY, OutputStream.nullOutputStream())
+}
+
+// JDK single-threaded baseline JPEG encoder as a reference point for the strip encoder
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class ImageIoJpegBenchmark {
+
+    @Param("1280x720", "1920x1080", "2560x1600")
+    lateinit var resolution: String
+
+    private lateinit var image: BufferedImage
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val width = resolution.substringBefore('x').toInt()
+        val height = resolution.substringAfter('x').toInt()
+        image = BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+            .apply { setRGB(0, 0, width, height, syntheticScreen(width, height), 0, width) }
+    }
+
+    @Benchmark
+    fun imageIo() {
+        val writer = ImageIO.getImageWritersByFormatName("jpeg").next()
+        val param = writer.defaultWriteParam.apply {
+            compressionMode = ImageWriteParam.MODE_EXPLICIT
+            compressionQuality = JPEG_QUALITY / 100f
+        }
+        ImageIO.createImageOutputStream(OutputStream.nullOutputStream()).use { stream ->
+            writer.output = stream
+            writer.write(null, IIOImage(image, null, null), param)
+        }
+        writer.dispose()
+    }
+}
+
+private const val JPEG_QUALITY = 80
+
+// Gradient background with sharp-edged "UI" blocks: close enough to a captured screen for entropy coding purposes
+internal fun syntheticScreen(width: Int, height: Int): IntArray = IntArray(width * height) { i ->
+    val x = i % width
+    val y = i / width
+    val isBlock = (x / 64 + y / 48) % 5 == 0 && x % 64 > 8 && y % 48 > 6
+    if (isBlock) 0xFFF0F0F0.toInt() - ((x xor y) and 0x0F) * 0x010101
+    else (0xFF shl 24) or ((x * 255 / width) shl 16) or ((y * 255 / height) shl 8) or 0x80
+}
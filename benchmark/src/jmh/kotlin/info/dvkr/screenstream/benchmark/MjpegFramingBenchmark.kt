@@ -0,0 +1,45 @@
+package info.dvkr.screenstream.benchmark
+
+import info.dvkr.screenstream.mjpeg.internal.JpegBufferPool
+import info.dvkr.screenstream.mjpeg.internal.MjpegFrame
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+// Encoder output into a pooled buffer, multipart part built around it, buffer recycled on release
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class MjpegFramingBenchmark {
+
+    @Param("40000", "200000")
+    var jpegSize: Int = 0
+
+    @Param("false", "true")
+    var withTimestamp: Boolean = false
+
+    private lateinit var jpeg: ByteArray
+    private lateinit var framing: MjpegFrame.Framing
+
+    @Setup(Level.Trial)
+    fun setup() {
+        jpeg = ByteArray(jpegSize) { (it * 31).toByte() }
+        framing = MjpegFrame.Framing("ScreenStreamBoundary", JpegBufferPool())
+    }
+
+    @Benchmark
+    fun frame(): Int {
+        val output = framing.newOutput()
+        output.write(jpeg)
+        val frame = framing.frame(output, 0, withTimestamp) ?: return 0
+        frame.release()
+        return frame.size
+    }
+}
@@ -0,0 +1,131 @@
+package info.dvkr.screenstream.benchmark
+
+import info.dvkr.screenstream.rtsp.internal.MediaFrame
+import info.dvkr.screenstream.rtsp.internal.RtpFrame
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.AacPacket
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.Av1Packet
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.BaseRtpPacket
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.H264Packet
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.H265Packet
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.RtpPacketPool
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.nio.ByteBuffer
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+// One access unit in, RTP packets out: small P-frame, typical P-frame, large keyframe.
+// Packets are released after each call as the socket writers do, run with -prof gc to see allocations per frame.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class RtpPacketizerBenchmark {
+
+    @Param("1000", "30000", "150000")
+    var frameSize: Int = 0
+
+    private lateinit var h264: H264Packet
+    private lateinit var h265: H265Packet
+    private lateinit var av1: Av1Packet
+    private lateinit var h264Frame: MediaFrame
+    private lateinit var h265Frame: MediaFrame
+    private lateinit var av1Frame: MediaFrame
+    private val packetPool = RtpPacketPool(BaseRtpPacket.DEFAULT_MAX_PACKET_SIZE)
+    private val packets = ArrayList<RtpFrame>()
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val isKeyFrame = frameSize >= 100_000
+
+        val h264Sps = nal(byteArrayOf(0x67, 0x42, 0xC0.toByte(), 0x1F), 16)
+        val h264Pps = nal(byteArrayOf(0x68, 0xCE.toByte()), 4)
+        h264 = H264Packet().apply { setSSRC(0x12345678); setPacketPool(packetPool); setVideoInfo(h264Sps, h264Pps) }
+        h264Frame = videoFrame(annexB(nal(byteArrayOf(if (isKeyFrame) 0x65 else 0x41), frameSize)), isKeyFrame)
+
+        val h265Vps = nal(byteArrayOf(0x40, 0x01), 22)
+        val h265Sps = nal(byteArrayOf(0x42, 0x01), 40)
+        val h265Pps = nal(byteArrayOf(0x44, 0x01), 6)
+        h265 = H265Packet().apply { setSSRC(0x12345678); setPacketPool(packetPool); setVideoInfo(h265Sps, h265Pps, h265Vps) }
+        h265Frame = videoFrame(annexB(nal(byteArrayOf(if (isKeyFrame) 0x26 else 0x02, 0x01), frameSize)), isKeyFrame)
+
+        av1 = Av1Packet().apply { setSSRC(0x12345678); setPacketPool(packetPool); setSequenceHeader(obu(1, 12)) }
+        av1Frame = videoFrame(obu(2, 0) + obu(6, frameSize), isKeyFrame)
+    }
+
+    @Benchmark
+    fun h264(): Int = h264.packetize(h264Frame, packets)
+
+    @Benchmark
+    fun h265(): Int = h265.packetize(h265Frame, packets)
+
+    @Benchmark
+    fun av1(): Int = av1.packetize(av1Frame, packets)
+}
+
+// AAC-LC access units at typical 128 kbit/s and 48 kHz sizes
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class AacPacketizerBenchmark {
+
+    @Param("256", "768")
+    var frameSize: Int = 0
+
+    private lateinit var aac: AacPacket
+    private lateinit var aacFrame: MediaFrame
+    private val packets = ArrayList<RtpFrame>()
+
+    @Setup(Level.Trial)
+    fun setup() {
+        aac = AacPacket().apply { setSSRC(0x12345678); setPacketPool(RtpPacketPool(BaseRtpPacket.DEFAULT_MAX_PACKET_SIZE)); setAudioInfo(48000) }
+        aacFrame = MediaFrame.AudioFrame(ByteBuffer.wrap(payload(byteArrayOf(0x21), frameSize)), MediaFrame.Info(0, frameSize, 0, false)) {}
+    }
+
+    @Benchmark
+    fun aac(): Int = aac.packetize(aacFrame, packets)
+}
+
+private fun BaseRtpPacket.packetize(frame: MediaFrame, out: ArrayList<RtpFrame>): Int {
+    createPacket(frame, out)
+    var bytes = 0
+    for (i in out.indices) {
+        bytes += out[i].length
+        out[i].release()
+    }
+    out.clear()
+    return bytes
+}
+
+private fun videoFrame(data: ByteArray, isKeyFrame: Boolean): MediaFrame =
+    MediaFrame.VideoFrame(ByteBuffer.wrap(data), MediaFrame.Info(0, data.size, 33_333, isKeyFrame)) {}
+
+// Non-zero filler never forms a start code, as emulation prevention guarantees for real NAL units
+private fun payload(header: ByteArray, size: Int): ByteArray {
+    val random = Random(size)
+    return ByteArray(size) { i -> if (i < header.size) header[i] else random.nextInt(1, 256).toByte() }
+}
+
+private fun nal(header: ByteArray, size: Int): ByteArray = payload(header, size)
+
+private fun annexB(vararg nals: ByteArray): ByteArray =
+    nals.fold(ByteArray(0)) { acc, nal -> acc + byteArrayOf(0, 0, 0, 1) + nal }
+
+// AV1 OBU with obu_has_size_field set and a LEB128 size
+private fun obu(type: Int, size: Int): ByteArray {
+    val leb = mutableListOf<Byte>()
+    var value = size
+    do {
+        var byte = value and 0x7F
+        value = value ushr 7
+        if (value != 0) byte = byte or 0x80
+        leb += byte.toByte()
+    } while (value != 0)
+    return byteArrayOf(((type shl 3) or 0x02).toByte()) + leb.toByteArray() + payload(ByteArray(0), size)
+}
@@ -0,0 +1,64 @@
+package info.dvkr.screenstream.benchmark
+
+import info.dvkr.screenstream.rtsp.internal.rtsp.RtspMessage
+import info.dvkr.screenstream.rtsp.internal.rtsp.sockets.readRtspMessage
+import io.ktor.utils.io.ByteReadChannel
+import kotlinx.coroutines.runBlocking
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+// Same parser TcpStreamSocket runs on its input channel, fed from memory
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class RtspMessageBenchmark {
+
+    private lateinit var request: ByteArray
+    private lateinit var interleavedThenRequest: ByteArray
+    private lateinit var responseWithSdp: ByteArray
+
+    @Setup(Level.Trial)
+    fun setup() {
+        request = (
+                "SETUP rtsp://192.168.1.10:8554/screen/trackID=0 RTSP/1.0\r\n" +
+                        "CSeq: 3\r\n" +
+                        "User-Agent: LibVLC/3.0.20 (LIVE555 Streaming Media v2016.11.28)\r\n" +
+                        "Transport: RTP/AVP/TCP;unicast;interleaved=0-1\r\n" +
+                        "Session: 6B8B4567\r\n\r\n"
+                ).toByteArray(Charsets.ISO_8859_1)
+
+        // Receiver report on the RTCP channel arriving ahead of a keep-alive request
+        val rtcp = ByteArray(32) { it.toByte() }
+        interleavedThenRequest = byteArrayOf('$'.code.toByte(), 1, 0, rtcp.size.toByte()) + rtcp +
+                "GET_PARAMETER rtsp://192.168.1.10:8554/screen RTSP/1.0\r\nCSeq: 9\r\nSession: 6B8B4567\r\n\r\n".toByteArray(Charsets.ISO_8859_1)
+
+        val sdp = (
+                "v=0\r\no=- 0 0 IN IP4 127.0.0.1\r\ns=ScreenStream\r\nc=IN IP4 0.0.0.0\r\nt=0 0\r\n" +
+                        "m=video 0 RTP/AVP 96\r\na=rtpmap:96 H264/90000\r\n" +
+                        "a=fmtp:96 packetization-mode=1;sprop-parameter-sets=Z0LAH9oBQBbsBEAAAAMAQAAADyPGDKg=,aM4G4g==\r\n" +
+                        "a=control:trackID=0\r\n"
+                ).toByteArray(Charsets.ISO_8859_1)
+        responseWithSdp = (
+                "RTSP/1.0 200 OK\r\nCSeq: 2\r\nContent-Base: rtsp://192.168.1.10:8554/screen/\r\n" +
+                        "Content-Type: application/sdp\r\nContent-Length: ${sdp.size}\r\n\r\n"
+                ).toByteArray(Charsets.ISO_8859_1) + sdp
+    }
+
+    @Benchmark
+    fun request(): Int = runBlocking { ByteReadChannel(request).readRtspMessage() }.size()
+
+    @Benchmark
+    fun interleavedThenRequest(): Int = runBlocking { ByteReadChannel(interleavedThenRequest).readRtspMessage(null) }.size()
+
+    @Benchmark
+    fun responseWithSdp(): Int = runBlocking { ByteReadChannel(responseWithSdp).readRtspMessage(null) }.size()
+
+    private fun RtspMessage?.size(): Int = if (this == null) -1 else header.size + (body?.size ?: 0)
+}
@@ -0,0 +1,22 @@
+package android.media
+
+// JVM stand-in for the framework class, only what the compiled hot-path sources call
+class MediaCodec private constructor() {
+    class BufferInfo {
+        @JvmField
+        var offset: Int = 0
+
+        @JvmField
+        var size: Int = 0
+
+        @JvmField
+        var presentationTimeUs: Long = 0
+
+        @JvmField
+        var flags: Int = 0
+    }
+
+    companion object {
+        const val BUFFER_FLAG_KEY_FRAME: Int = 1
+    }
+}
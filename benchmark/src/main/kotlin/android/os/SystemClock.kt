@@ -0,0 +1,7 @@
+package android.os
+
+// JVM stand-in for the framework class, only what the compiled hot-path sources call
+object SystemClock {
+    @JvmStatic
+    fun elapsedRealtime(): Long = System.nanoTime() / 1_000_000
+}
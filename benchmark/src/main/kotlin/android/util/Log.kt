@@ -0,0 +1,10 @@
+package android.util
+
+// JVM stand-in for the framework class, only what the compiled hot-path sources call
+object Log {
+    @JvmStatic
+    fun w(tag: String, msg: String): Int = 0
+
+    @JvmStatic
+    fun e(tag: String, msg: String): Int = 0
+}
@@ -14,10 +14,14 @@ const pinWrongMsg = document.getElementById("pinWrongMsg");
 const blockedDiv = document.getElementById("blockedDiv");
 const errorDiv = document.getElementById("errorDiv");
 const pipStreamDiv = document.getElementById("pipStreamDiv");
+const latencyDiv = document.getElementById("latencyDiv");
 var keepImageOnReconnect = document.body.dataset.keepImageOnReconnect === "true";
 var hasStreamImage = false;
 var isReconnecting = false;
 var enableButtons = false;
+var showLatency = false;
+var webSocketStream = false;
+var socketStreamAddress = null;
 const buttonsHideFunction = () => { buttonsDiv.style.visibility = "hidden"; }
 var hideTimeout = setTimeout(buttonsHideFunction, 1500);
 function configureButtons(enable) {
@@ -127,6 +131,7 @@ function connect() {
     websocket.onopen = () => {
         isReconnecting = false;
         websocket.send(JSON.stringify({ type: "CONNECT" }));
+        syncClock();
         connectDiv.style.visibility = "hidden";
         hideReconnectBar();
     };
@@ -151,6 +156,7 @@ function connect() {
         MJPEGErrorCounter = 0;
 
         clearTimeout(showStreamTimeoutId);
+        stopStreamReader();
 
         if (document.pictureInPictureElement) {
             document.exitPictureInPicture();
@@ -160,6 +166,7 @@ function connect() {
     websocket.onmessage = (msg) => {
         const message = JSON.parse(msg.data);
         if (message.type === "HEARTBEAT") return;
+        if (message.type === "TIME") { onClockSync(message.data); return; }
 
         window.DD_LOGS && DD_LOGS.logger.debug("websocket.onmessage", { data: msg.data });
 
@@ -168,6 +175,9 @@ function connect() {
             blockedDiv.style.visibility = "hidden";
             pinWrongMsg.style.visibility = "inherit";
             isReconnecting = false;
+            showLatency = message.data.showLatency === true;
+            webSocketStream = message.data.webSocketStream === true;
+            socketStreamAddress = message.data.socketStreamAddress;
             showStream(message.data.streamAddress + `?clientId=${clientId}`);
             configureButtons(message.data.enableButtons);
             hideReconnectBar();
@@ -209,6 +219,11 @@ function connect() {
             configureFitWindow(message.data.fitWindow);
             keepImageOnReconnect = message.data.keepImageOnReconnect;
             document.body.dataset.keepImageOnReconnect = keepImageOnReconnect;
+            if (showLatency !== (message.data.showLatency === true) || webSocketStream !== (message.data.webSocketStream === true)) {
+                showLatency = message.data.showLatency === true;
+                webSocketStream = message.data.webSocketStream === true;
+                if (streamUrl) showStream(streamUrl);
+            }
             return;
         }
 
@@ -216,7 +231,11 @@ function connect() {
     };
 }
 
+var streamUrl = null;
+
 function showStream(url) {
+    streamUrl = url;
+    stopStreamReader();
     if (!(keepImageOnReconnect && hasStreamImage && isReconnecting)) {
         streamDiv.style.visibility = "hidden";
         stream.src = "";
@@ -227,6 +246,14 @@ function showStream(url) {
 
     new Promise((resolve, reject) => {
         window.DD_LOGS && DD_LOGS.logger.debug("showStream", { mode: "default", streamAddress: url });
+        if (webSocketStream && socketStreamAddress) {
+            readSocketStream(`${socketStreamAddress}?clientId=${clientId}`, resolve, reject);
+            return;
+        }
+        if (showLatency) {
+            readTimestampedStream(url, resolve, reject);
+            return;
+        }
         stream.onload = () => { stream.onload = null; stream.onerror = null; resolve(); }
         stream.onerror = (e) => { stream.onerror = null; stream.onload = null; reject(e); }
         stream.src = url;
@@ -250,6 +277,155 @@ function showStream(url) {
     });
 }
 
+// Latency mode: the stream is read with fetch() so the X-Timestamp header of every part is visible.
+// Server and page clocks are aligned over the websocket, keeping the offset of the fastest of the last few round trips.
+// WebSocket stream mode: every binary message is an 8 byte capture timestamp followed by a JPEG, acked once it is shown.
+var clockSamples = [];
+var clockOffset = 0;
+var streamAbort = null;
+var streamSocket = null;
+var streamObjectUrl = null;
+var lastFrameTimestamp = 0;
+var latencySamples = [];
+var lastLatencyReport = 0;
+
+setInterval(() => { if (showLatency) syncClock(); }, 10000);
+
+function syncClock() {
+    if (websocket) websocket.send(JSON.stringify({ type: "TIME", data: Date.now() }));
+}
+
+function onClockSync(data) {
+    const now = Date.now();
+    const rtt = now - data.client;
+    if (rtt < 0) return;
+    clockSamples.push({ rtt, offset: data.server + rtt / 2 - now });
+    if (clockSamples.length > 5) clockSamples.shift();
+    clockOffset = clockSamples.reduce((best, sample) => sample.rtt < best.rtt ? sample : best).offset;
+}
+
+function stopStreamReader() {
+    if (streamAbort) streamAbort.abort();
+    streamAbort = null;
+    if (streamSocket) {
+        streamSocket.onclose = null;
+        streamSocket.close();
+    }
+    streamSocket = null;
+    latencyDiv.style.display = "none";
+}
+
+function readSocketStream(url, onFirstFrame, onError) {
+    const socket = new WebSocket(`ws://${window.location.host}/${url}`);
+    socket.binaryType = "arraybuffer";
+    streamSocket = socket;
+    var started = false;
+
+    socket.onmessage = (event) => {
+        const view = new DataView(event.data);
+        const timestamp = view.getUint32(0) * 4294967296 + view.getUint32(4);
+        showTimestampedFrame(new Uint8Array(event.data, 8), timestamp, () => {
+            if (socket.readyState === WebSocket.OPEN) socket.send("ACK");
+        });
+        if (!started) {
+            started = true;
+            if (showLatency) latencyDiv.style.display = "block";
+            onFirstFrame();
+        }
+    };
+    socket.onclose = (event) => {
+        if (!started && streamSocket === socket) onError(event);
+    };
+}
+
+function readTimestampedStream(url, onFirstFrame, onError) {
+    const abort = new AbortController();
+    streamAbort = abort;
+    var started = false;
+    var buffer = new Uint8Array(0);
+
+    fetch(url, { cache: "no-store", signal: abort.signal }).then((response) => {
+        if (!response.ok || !response.body) throw new Error(`HTTP ${response.status}`);
+        const reader = response.body.getReader();
+        const pump = () => reader.read().then(({ done, value }) => {
+            if (done) throw new Error("Stream ended");
+            buffer = appendBytes(buffer, value);
+            var part;
+            while ((part = nextMultipartPart(buffer)) !== null) {
+                buffer = buffer.subarray(part.end);
+                showTimestampedFrame(part.jpeg, part.timestamp, null);
+                if (!started) {
+                    started = true;
+                    latencyDiv.style.display = "block";
+                    onFirstFrame();
+                }
+            }
+            return pump();
+        });
+        return pump();
+    }).catch((error) => {
+        if (!abort.signal.aborted && !started) onError(error);
+    });
+}
+
+function appendBytes(buffer, chunk) {
+    const result = new Uint8Array(buffer.length + chunk.length);
+    result.set(buffer, 0);
+    result.set(chunk, buffer.length);
+    return result;
+}
+
+function nextMultipartPart(buffer) {
+    var headerEnd = -1;
+    for (var i = 0; i + 3 < buffer.length; i++) {
+        if (buffer[i] === 13 && buffer[i + 1] === 10 && buffer[i + 2] === 13 && buffer[i + 3] === 10) { headerEnd = i; break; }
+    }
+    if (headerEnd < 0) return null;
+
+    const headers = new TextDecoder().decode(buffer.subarray(0, headerEnd));
+    const contentLength = /Content-Length:\s*(\d+)/i.exec(headers);
+    if (!contentLength) throw new Error("No Content-Length");
+    const start = headerEnd + 4;
+    const end = start + parseInt(contentLength[1], 10);
+    if (buffer.length < end) return null;
+
+    const timestamp = /X-Timestamp:\s*(\d+)/i.exec(headers);
+    return { jpeg: buffer.slice(start, end), timestamp: timestamp ? parseInt(timestamp[1], 10) : 0, end };
+}
+
+function showTimestampedFrame(jpeg, timestamp, onShown) {
+    const previousUrl = streamObjectUrl;
+    streamObjectUrl = URL.createObjectURL(new Blob([jpeg], { type: "image/jpeg" }));
+    stream.onerror = () => {
+        stream.onerror = null; stream.onload = null;
+        if (onShown) onShown();
+    };
+    stream.onload = () => {
+        stream.onload = null; stream.onerror = null;
+        hasStreamImage = true;
+        // Keep-alive repeats carry the same timestamp and say nothing about latency
+        if (showLatency && timestamp > 0 && timestamp !== lastFrameTimestamp) onLatencySample(Date.now() + clockOffset - timestamp);
+        lastFrameTimestamp = timestamp;
+        if (onShown) onShown();
+    };
+    stream.src = streamObjectUrl;
+    if (previousUrl) URL.revokeObjectURL(previousUrl);
+}
+
+function onLatencySample(latency) {
+    latencySamples.push(latency);
+    if (latencySamples.length > 30) latencySamples.shift();
+    const sorted = latencySamples.slice().sort((a, b) => a - b);
+    const median = sorted[Math.floor(sorted.length / 2)];
+    latencyDiv.textContent = `${Math.round(latency)} ms · median ${Math.round(median)} ms`;
+
+    const now = Date.now();
+    if (now - lastLatencyReport >= 1000) {
+        lastLatencyReport = now;
+        if (websocket) websocket.send(JSON.stringify({ type: "LATENCY", data: Math.round(latency) }));
+    }
+}
+
 var drawTimeoutId = null;
 
 function togglePiP() {
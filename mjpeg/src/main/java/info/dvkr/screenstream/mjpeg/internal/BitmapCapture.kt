@@ -18,6 +18,7 @@ import android.media.projection.MediaProjection
 import android.os.Handler
 import android.os.HandlerThread
 import android.os.Process
+import android.os.SystemClock
 import androidx.core.graphics.createBitmap
 import androidx.window.layout.WindowMetricsCalculator
 import com.elvishew.xlog.XLog
@@ -33,11 +34,15 @@ import kotlin.math.abs
 import kotlin.math.max
 import kotlin.math.min
 
+// captureMillis is SystemClock.elapsedRealtime() when the frame was taken from the ImageReader
+internal class CapturedBitmap(internal val bitmap: Bitmap, internal val captureMillis: Long = SystemClock.elapsedRealtime())
+
 internal class BitmapCapture(
     private val serviceContext: Context,
     private val mjpegSettings: MjpegSettings,
     private val mediaProjection: MediaProjection,
-    private val bitmapStateFlow: MutableStateFlow<Bitmap>,
+    private val bitmapStateFlow: MutableStateFlow<CapturedBitmap>,
+    private val onFrameUnchanged: () -> Unit,
     private val onError: (MjpegError) -> Unit
 ) {
     private enum class State { INIT, STARTED, DESTROYED, ERROR }
@@ -71,16 +76,22 @@ internal class BitmapCapture(
     private var imageReader: ImageReader? = null
     private var virtualDisplay: VirtualDisplay? = null
 
-    private var reusableBitmap: Bitmap? = null
-    private var outputBitmap: Bitmap? = null
+    // Double-buffered: the consumer reads one bitmap (under its monitor) while the next frame is written into the other
+    private val sourceBitmaps = arrayOfNulls<Bitmap>(2)
+    private val outputBitmaps = arrayOfNulls<Bitmap>(2)
+    private var bufferIndex = 0
 
     private var imageOptions: ImageOptions = ImageOptions()
     private val coroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
 
     private var lastImageMillis = 0L
+    private val frameChangeDetector = FrameChangeDetector()
 
     private var transformMatrix = Matrix()
     private var transformMatrixDirty = true
+
+    // Options or capture size changed since the last emitted frame, so even unchanged pixels need a new frame
+    private var frameOptionsChanged = true
     private var matrixSourceWidth = -1
     private var matrixSourceHeight = -1
     private var paint = Paint(Paint.ANTI_ALIAS_FLAG or Paint.DITHER_FLAG or Paint.FILTER_BITMAP_FLAG)
@@ -106,6 +117,7 @@ internal class BitmapCapture(
             )
 
             transformMatrixDirty = true
+            frameOptionsChanged = true
         }
 
         imageThread.start()
@@ -209,9 +221,11 @@ internal class BitmapCapture(
         currentWidth = width
         currentHeight = height
         transformMatrixDirty = true
+        frameOptionsChanged = true
         matrixSourceWidth = -1
         matrixSourceHeight = -1
         lastImageMillis = 0L
+        frameChangeDetector.reset()
 
         imageReader?.close()
 
@@ -237,8 +251,8 @@ internal class BitmapCapture(
             safeRelease()
         }
 
-        reusableBitmap = null
-        outputBitmap = null
+        sourceBitmaps.fill(null)
+        outputBitmaps.fill(null)
 
         XLog.d(getLog("resize", "End"))
     }
@@ -249,11 +263,13 @@ internal class BitmapCapture(
         virtualDisplay = null
         imageReader?.close()
         imageReader = null
-        reusableBitmap = null
-        outputBitmap = null
+        sourceBitmaps.fill(null)
+        outputBitmaps.fill(null)
         matrixSourceWidth = -1
         matrixSourceHeight = -1
         transformMatrixDirty = true
+        frameOptionsChanged = true
+        frameChangeDetector.reset()
     }
 
     private inner class ImageListener : ImageReader.OnImageAvailableListener {
@@ -264,6 +280,7 @@ internal class BitmapCapture(
                 var image: Image? = null
                 try {
                     image = reader.acquireLatestImage() ?: return
+                    val captureMillis = SystemClock.elapsedRealtime()
 
                     val minTimeBetweenFramesMillis = when {
                         imageOptions.maxFPS > 0 -> 1000 / imageOptions.maxFPS.toLong()
@@ -277,8 +294,16 @@ internal class BitmapCapture(
                     }
                     lastImageMillis = now
 
+                    val plane = image.planes[0]
+                    val changedBands = frameChangeDetector.changedBands(plane.buffer, image.width, image.height, plane.rowStride, plane.pixelStride)
+                    if (changedBands == 0 && frameOptionsChanged.not()) { // Same pixels, same transform: nothing new to encode
+                        onFrameUnchanged()
+                        return
+                    }
+
                     val bitmap = transformImageToBitmap(image)
-                    bitmapStateFlow.tryEmit(bitmap)
+                    bitmapStateFlow.tryEmit(CapturedBitmap(bitmap, captureMillis))
+                    frameOptionsChanged = false
 
                 } catch (throwable: Throwable) {
                     XLog.e(this@BitmapCapture.getLog("onImageAvailable"), throwable)
@@ -300,19 +325,10 @@ internal class BitmapCapture(
             matrixSourceWidth = fullWidth
             matrixSourceHeight = fullHeight
             transformMatrixDirty = true
+            frameOptionsChanged = true
         }
 
-        val planeWidth = plane.rowStride / plane.pixelStride
-        if (reusableBitmap == null || reusableBitmap!!.width != planeWidth || reusableBitmap!!.height != fullHeight) {
-            reusableBitmap = createBitmap(planeWidth, fullHeight, Bitmap.Config.ARGB_8888)
-        }
-        reusableBitmap!!.copyPixelsFromBuffer(plane.buffer)
-
-        val tmpBitmap = if (planeWidth > fullWidth) {
-            Bitmap.createBitmap(reusableBitmap!!, 0, 0, fullWidth, fullHeight)
-        } else {
-            reusableBitmap!!
-        }
+        bufferIndex = bufferIndex xor 1
 
         val vrLeft = if (imageOptions.vrMode == MjpegSettings.Default.VR_MODE_RIGHT) fullWidth / 2 else 0
         val vrRight = if (imageOptions.vrMode == MjpegSettings.Default.VR_MODE_LEFT) fullWidth / 2 else fullWidth
@@ -352,6 +368,17 @@ internal class BitmapCapture(
         val outputWidth = if (rotated) scaledHeight else scaledWidth
         val outputHeight = if (rotated) scaledWidth else scaledHeight
 
+        // Row padding is never copied out: the transform below only maps the [0, fullWidth) columns into the output
+        val planeWidth = plane.rowStride / plane.pixelStride
+        val isIdentity = planeWidth == fullWidth && cropWidth == fullWidth && cropHeight == fullHeight &&
+                outputWidth == fullWidth && outputHeight == fullHeight && imageOptions.rotationDegrees == 0 &&
+                imageOptions.flipMode == MjpegSettings.Values.FLIP_NONE && imageOptions.grayscale.not()
+
+        // Identity transform: the captured pixels are the frame, hand them over as is
+        val sourceBitmap = sourceBitmaps.obtain(if (isIdentity) bufferIndex else 0, planeWidth, fullHeight)
+        synchronized(sourceBitmap) { sourceBitmap.copyPixelsFromBuffer(plane.buffer) }
+        if (isIdentity) return sourceBitmap
+
         if (transformMatrixDirty) {
             transformMatrix.apply {
                 reset()
@@ -383,15 +410,20 @@ internal class BitmapCapture(
             transformMatrixDirty = false
         }
 
-        if (outputBitmap == null || outputBitmap!!.width != outputWidth || outputBitmap!!.height != outputHeight) {
-            outputBitmap?.recycle()
-            outputBitmap = createBitmap(outputWidth, outputHeight, Bitmap.Config.ARGB_8888)
+        val outputBitmap = outputBitmaps.obtain(bufferIndex, outputWidth, outputHeight)
+        synchronized(outputBitmap) {
+            val canvas = Canvas(outputBitmap)
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR)
+            canvas.drawBitmap(sourceBitmap, transformMatrix, paint)
         }
 
-        val canvas = Canvas(outputBitmap!!)
-        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR)
-        canvas.drawBitmap(tmpBitmap, transformMatrix, paint)
+        return outputBitmap
+    }
 
-        return outputBitmap!!.copy(outputBitmap!!.config ?: Bitmap.Config.ARGB_8888, false)
+    // Bitmaps are never recycled here: a replaced one may still be read by the consumer, GC takes it after that
+    private fun Array<Bitmap?>.obtain(index: Int, width: Int, height: Int): Bitmap {
+        val bitmap = this[index]
+        if (bitmap != null && bitmap.width == width && bitmap.height == height) return bitmap
+        return createBitmap(width, height, Bitmap.Config.ARGB_8888).also { this[index] = it }
     }
 }
@@ -0,0 +1,148 @@
+package info.dvkr.screenstream.mjpeg.internal
+
+import android.os.SystemClock
+import info.dvkr.screenstream.mjpeg.ui.MjpegState
+import org.json.JSONArray
+import org.json.JSONObject
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+// Fixed bucket histogram of milliseconds over a rolling window, percentiles resolve to bucket upper bounds.
+// Samples go into the current half, which replaces the previous half every ROTATE_MILLIS. Readings merge both,
+// so they cover the last 5 to 10 seconds and a stall shows up and ages out instead of being averaged into the whole run.
+internal class LatencyHistogram {
+    private companion object {
+        private val BOUNDS_MILLIS = longArrayOf(1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000)
+        private const val ROTATE_MILLIS = 5_000L
+    }
+
+    private class Half {
+        val counts = AtomicLongArray(BOUNDS_MILLIS.size + 1)
+        val max = AtomicLong(0)
+    }
+
+    @Volatile private var current = Half()
+    @Volatile private var previous = Half()
+    @Volatile private var rotatedAtMillis = SystemClock.elapsedRealtime()
+
+    internal fun record(millis: Long) {
+        var bucket = 0
+        while (bucket < BOUNDS_MILLIS.size && millis > BOUNDS_MILLIS[bucket]) bucket++
+        val half = rotateIfDue()
+        half.counts.incrementAndGet(bucket)
+        half.max.accumulateAndGet(millis, ::maxOf)
+    }
+
+    internal fun reset() = synchronized(this) {
+        current = Half()
+        previous = Half()
+        rotatedAtMillis = SystemClock.elapsedRealtime()
+    }
+
+    internal fun percentile(percent: Int): Long = snapshot().percentile(percent)
+
+    internal fun toJson(): JSONObject = snapshot().run {
+        JSONObject().apply {
+            val buckets = JSONArray()
+            for (bucket in counts.indices) {
+                val le = if (bucket < BOUNDS_MILLIS.size) BOUNDS_MILLIS[bucket].toString() else "+Inf"
+                buckets.put(JSONObject().put("le", le).put("count", counts[bucket]))
+            }
+            put("buckets", buckets)
+            put("p50", percentile(50))
+            put("p95", percentile(95))
+            put("p99", percentile(99))
+            put("max", max)
+        }
+    }
+
+    private fun rotateIfDue(): Half {
+        val now = SystemClock.elapsedRealtime()
+        if (now - rotatedAtMillis < ROTATE_MILLIS) return current
+        return synchronized(this) {
+            val elapsed = now - rotatedAtMillis
+            if (elapsed >= ROTATE_MILLIS) {
+                previous = if (elapsed < ROTATE_MILLIS * 2) current else Half() // Idle for a whole window, nothing to keep
+                current = Half()
+                rotatedAtMillis = now
+            }
+            current
+        }
+    }
+
+    private class Snapshot(val counts: LongArray, val max: Long) {
+        fun percentile(percent: Int): Long {
+            val total = counts.sum()
+            if (total == 0L) return 0
+            val rank = (total * percent + 99) / 100
+            var seen = 0L
+            for (bucket in BOUNDS_MILLIS.indices) {
+                seen += counts[bucket]
+                if (seen >= rank) return minOf(BOUNDS_MILLIS[bucket], max)
+            }
+            return max
+        }
+    }
+
+    private fun snapshot(): Snapshot {
+        rotateIfDue()
+        val current = current
+        val previous = previous
+        val counts = LongArray(BOUNDS_MILLIS.size + 1) { current.counts.get(it) + previous.counts.get(it) }
+        return Snapshot(counts, maxOf(current.max.get(), previous.max.get()))
+    }
+}
+
+// Per stream connection instrumentation, updated by the connection writer and sampled once per second by the statistics loop.
+// Keep-alive repeats of an already written frame count as written but stay out of the latency histograms.
+internal class ConnectionStats {
+    internal val writeMillis = LatencyHistogram()
+    internal val captureToFlushMillis = LatencyHistogram()
+    internal val encodedToFlushMillis = LatencyHistogram()
+    private val writtenFrames = AtomicLong(0)
+    private val droppedFrames = AtomicLong(0)
+    private var lastTickFrames = 0L
+    private var lastTickMillis = SystemClock.elapsedRealtime()
+
+    @Volatile
+    internal var fps: Int = 0
+        private set
+
+    internal fun onFrameWritten(writeMillis: Long, captureToFlushMillis: Long, encodedToFlushMillis: Long, droppedFrames: Long, repeated: Boolean) {
+        this.writeMillis.record(writeMillis)
+        if (repeated.not()) {
+            this.captureToFlushMillis.record(captureToFlushMillis)
+            this.encodedToFlushMillis.record(encodedToFlushMillis)
+        }
+        this.droppedFrames.addAndGet(droppedFrames)
+        writtenFrames.incrementAndGet()
+    }
+
+    internal fun tick(now: Long = SystemClock.elapsedRealtime()) {
+        val frames = writtenFrames.get()
+        val elapsed = now - lastTickMillis
+        if (elapsed <= 0) return
+        fps = ((frames - lastTickFrames) * 1000 / elapsed).toInt()
+        lastTickFrames = frames
+        lastTickMillis = now
+    }
+
+    internal fun toClientStats(glassToGlassMillis: LatencyHistogram): MjpegState.Client.Stats = MjpegState.Client.Stats(
+        fps = fps,
+        writeP50Millis = writeMillis.percentile(50),
+        writeP95Millis = writeMillis.percentile(95),
+        captureToFlushP95Millis = captureToFlushMillis.percentile(95),
+        encodedToFlushP95Millis = encodedToFlushMillis.percentile(95),
+        glassToGlassP50Millis = glassToGlassMillis.percentile(50),
+        glassToGlassP95Millis = glassToGlassMillis.percentile(95),
+        droppedFrames = droppedFrames.get()
+    )
+
+    internal fun toJson(): JSONObject = JSONObject()
+        .put("fps", fps)
+        .put("writtenFrames", writtenFrames.get())
+        .put("droppedFrames", droppedFrames.get())
+        .put("writeMillis", writeMillis.toJson())
+        .put("captureToFlushMillis", captureToFlushMillis.toJson())
+        .put("encodedToFlushMillis", encodedToFlushMillis.toJson())
+}
@@ -0,0 +1,50 @@
+package info.dvkr.screenstream.mjpeg.internal
+
+import java.nio.ByteBuffer
+
+// Hashes every visible pixel of a captured plane in bands of BAND_ROWS rows and compares with the previous frame.
+// Reading the plane once is far cheaper than transforming and JPEG-encoding it, so identical frames are dropped here.
+internal class FrameChangeDetector {
+    private companion object {
+        private const val BAND_ROWS = 16
+        private const val PRIME = 0x100000001B3L
+    }
+
+    private var bandHashes = LongArray(0)
+    private var width = -1
+    private var height = -1
+
+    // Returns the number of bands that differ from the previous frame. Any size change counts as fully changed.
+    internal fun changedBands(buffer: ByteBuffer, width: Int, height: Int, rowStride: Int, pixelStride: Int): Int {
+        val bandCount = (height + BAND_ROWS - 1) / BAND_ROWS
+        val sizeChanged = this.width != width || this.height != height
+        if (sizeChanged) {
+            this.width = width
+            this.height = height
+            bandHashes = LongArray(bandCount)
+        }
+
+        val rowBytes = width * pixelStride
+        val rowLongs = rowBytes / 8
+        var changed = 0
+        for (band in 0 until bandCount) {
+            var hash = band.toLong()
+            val lastRow = minOf(height, (band + 1) * BAND_ROWS)
+            for (row in band * BAND_ROWS until lastRow) {
+                val rowStart = row * rowStride
+                for (i in 0 until rowLongs) hash = (hash xor buffer.getLong(rowStart + i * 8)) * PRIME
+                for (i in rowLongs * 8 until rowBytes) hash = (hash xor buffer.get(rowStart + i).toLong()) * PRIME
+            }
+            if (sizeChanged || bandHashes[band] != hash) {
+                bandHashes[band] = hash
+                changed++
+            }
+        }
+        return if (sizeChanged) bandCount else changed
+    }
+
+    internal fun reset() {
+        width = -1
+        height = -1
+    }
+}
@@ -2,7 +2,7 @@ package info.dvkr.screenstream.mjpeg.internal
 
 import android.content.Context
 import android.content.pm.ApplicationInfo
-import android.graphics.Bitmap
+import android.os.SystemClock
 import com.elvishew.xlog.XLog
 import info.dvkr.screenstream.common.getLog
 import info.dvkr.screenstream.common.getVersionName
@@ -44,11 +44,11 @@ import io.ktor.server.routing.routing
 import io.ktor.server.websocket.WebSockets
 import io.ktor.server.websocket.webSocket
 import io.ktor.utils.io.ByteWriteChannel
-import io.ktor.utils.io.core.buildPacket
-import io.ktor.utils.io.core.writeFully
 import io.ktor.utils.io.writeFully
+import io.ktor.websocket.CloseReason
 import io.ktor.websocket.DefaultWebSocketSession
 import io.ktor.websocket.Frame
+import io.ktor.websocket.close
 import io.ktor.websocket.readText
 import io.ktor.websocket.send
 import kotlinx.coroutines.CancellationException
@@ -59,6 +59,7 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.currentCoroutineContext
 import kotlinx.coroutines.delay
@@ -70,7 +71,8 @@ import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.flow.conflate
 import kotlinx.coroutines.flow.distinctUntilChanged
-import kotlinx.coroutines.flow.filter
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.flatMapLatest
 import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.flow.flowOf
@@ -84,9 +86,8 @@ import kotlinx.coroutines.flow.takeWhile
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import kotlinx.io.readByteArray
+import kotlinx.coroutines.withTimeoutOrNull
 import org.json.JSONObject
-import java.io.ByteArrayOutputStream
 import java.io.IOException
 import java.net.BindException
 import java.net.SocketException
@@ -94,14 +95,19 @@ import java.nio.charset.StandardCharsets
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.atomic.AtomicReference
+import kotlin.time.Duration
 import kotlin.time.Duration.Companion.milliseconds
 
 internal class HttpServer(
     context: Context,
     private val mjpegSettings: MjpegSettings,
-    private val bitmapStateFlow: StateFlow<Bitmap>,
+    private val bitmapStateFlow: StateFlow<CapturedBitmap>,
     private val sendEvent: (MjpegEvent) -> Unit
 ) {
+    private companion object {
+        private const val SOCKET_STREAM_ACK_TIMEOUT_MILLIS = 5000L
+    }
+
     private val debuggable = context.applicationInfo.flags and ApplicationInfo.FLAG_DEBUGGABLE != 0
     private val favicon: ByteArray = context.getFileFromAssets("favicon.ico")
     private val logoSvg: ByteArray = context.getFileFromAssets("logo.svg")
@@ -119,9 +125,10 @@ internal class HttpServer(
         .replace("%APP_VERSION%", context.getVersionName())
 
     private val indexHtml: AtomicReference<String> = AtomicReference("")
-    private val lastJPEG: AtomicReference<ByteArray> = AtomicReference(ByteArray(0))
-    private val serverData: HttpServerData = HttpServerData(sendEvent)
-    private val mjpegSharedFlow: AtomicReference<SharedFlow<ByteArray>> = AtomicReference(null)
+    private val lastFrames: Map<MjpegTier, AtomicReference<MjpegFrame>> = MjpegTier.entries.associateWith { AtomicReference(null) }
+    private val jpegBufferPool: JpegBufferPool = JpegBufferPool()
+    private val serverData: HttpServerData = HttpServerData(sendEvent, jpegBufferPool)
+    private val mjpegSharedFlows: AtomicReference<Map<MjpegTier, SharedFlow<MjpegFrame>>> = AtomicReference(null)
     private val ktorServer: AtomicReference<Pair<EmbeddedServer<*, *>, CompletableDeferred<Unit>>> = AtomicReference(null)
 
     private data class HtmlIndexSettings(
@@ -134,7 +141,9 @@ internal class HttpServer(
         val enableButtons: Boolean,
         val backColor: String,
         val fitWindow: Boolean,
-        val keepImageOnReconnect: Boolean
+        val keepImageOnReconnect: Boolean,
+        val showLatency: Boolean,
+        val webSocketStream: Boolean
     )
 
     init {
@@ -167,63 +176,37 @@ internal class HttpServer(
                     enableButtons = it.htmlEnableButtons && serverData.enablePin.not(),
                     backColor = it.htmlBackColor.toColorHexString(),
                     fitWindow = it.htmlFitWindow,
-                    keepImageOnReconnect = it.htmlKeepImageOnReconnect
+                    keepImageOnReconnect = it.htmlKeepImageOnReconnect,
+                    showLatency = it.htmlShowLatency,
+                    webSocketStream = it.htmlWebSocketStream
                 )
             }
             .distinctUntilChanged()
-            .onEach { (enableButtons, backColor, fitWindow, keepImageOnReconnect) ->
+            .onEach { (enableButtons, backColor, fitWindow, keepImageOnReconnect, showLatency, webSocketStream) ->
                 val data = JSONObject(
                     mapOf(
                         "enableButtons" to enableButtons,
                         "backColor" to backColor,
                         "fitWindow" to fitWindow,
-                        "keepImageOnReconnect" to keepImageOnReconnect
+                        "keepImageOnReconnect" to keepImageOnReconnect,
+                        "showLatency" to showLatency,
+                        "webSocketStream" to webSocketStream
                     )
                 )
                 serverData.notifyClients("SETTINGS", data)
             }
             .launchIn(coroutineScope)
 
-        val resultJpegStream = ByteArrayOutputStream()
-        lastJPEG.set(ByteArray(0))
-
-        @OptIn(ExperimentalCoroutinesApi::class)
-        val mjpegFlow = combine(bitmapStateFlow, mjpegSettings.data) { bitmap, settings -> bitmap to settings }
-            .conflate()
-            .map { (bitmap, settings) ->
-                withContext(Dispatchers.IO) {
-                    resultJpegStream.reset()
-                    bitmap.compress(Bitmap.CompressFormat.JPEG, settings.jpegQuality, resultJpegStream)
-                    resultJpegStream.toByteArray() to settings.maxFPS
-                }
-            }
-            .filter { (jpeg, _) -> jpeg.isNotEmpty() }
-            .onEach { (jpeg, _) -> lastJPEG.set(jpeg) }
-            .catch { cause ->
-                XLog.e(getLog("mjpegFlow", "Producer failed"), cause)
-                throw cause
-            }
-            .flatMapLatest { (jpeg, maxFPS) ->
-                if (maxFPS > 0) { // If maxFPS > 0, repeatedly emit the same JPEG every second (keep-alive)
-                    flow {
-                        while (currentCoroutineContext().isActive) {
-                            emit(jpeg)
-                            delay(1000.milliseconds)
-                        }
-                    }
-                } else {
-                    flowOf(jpeg)
-                }
-            }
-            .conflate()
-            .onCompletion { cause ->
-                if (cause != null && cause !is CancellationException) {
-                    XLog.e(getLog("mjpegFlow", "Producer completed with error"), cause)
-                }
-            }
-            .shareIn(coroutineScope, SharingStarted.Eagerly, 1)
+        val multipartBoundary = randomString(20)
+        val framings = MjpegTier.entries.associateWith { MjpegFrame.Framing(multipartBoundary, jpegBufferPool) }
+        lastFrames.forEach { (tier, lastFrame) -> lastFrame.getAndSet(framings.getValue(tier).empty)?.release() }
 
-        mjpegSharedFlow.set(mjpegFlow)
+        // FULL also feeds the JPEG fallback endpoint, other tiers are encoded only while some client is subscribed to them
+        val mjpegFlows = MjpegTier.entries.associateWith { tier ->
+            val started = if (tier == MjpegTier.FULL) SharingStarted.Eagerly else SharingStarted.WhileSubscribed(replayExpiration = Duration.ZERO)
+            mjpegFlow(tier, framings.getValue(tier), coroutineScope, started)
+        }
+        mjpegSharedFlows.set(mjpegFlows)
 
         val serverPort = mjpegSettings.data.value.serverPort
         val server = embeddedServer(
@@ -234,7 +217,7 @@ internal class HttpServer(
                     if (throwable is SocketException) return@CoroutineExceptionHandler
                     XLog.i(this@HttpServer.getLog("parentCoroutineContext", "coroutineExceptionHandler: $throwable"), throwable)
                 }
-                module { appModule() }
+                module { appModule(framings.getValue(MjpegTier.FULL)) }
             },
             configure = {
                 connectionIdleTimeoutSeconds = 10
@@ -260,6 +243,8 @@ internal class HttpServer(
             XLog.i(getLog("monitor", "KtorStopped: ${it.hashCode()}"))
             coroutineScope.cancel()
             serverData.clear()
+            lastFrames.values.forEach { it.getAndSet(null)?.release() }
+            jpegBufferPool.clear()
             ktorServer.get()?.second?.complete(Unit)
         }
 
@@ -283,6 +268,8 @@ internal class HttpServer(
         XLog.d(getLog("startServer", "Done. Ktor: ${server.hashCode()} "))
     }
 
+    internal fun onFrameUnchanged() = serverData.onFrameUnchanged()
+
     internal suspend fun stop(reloadClients: Boolean) = coroutineScope {
         XLog.d(getLog("stopServer", "reloadClients: $reloadClients"))
         launch(Dispatchers.Default) {
@@ -295,7 +282,7 @@ internal class HttpServer(
                     XLog.i(this@HttpServer.getLog("stopServer", "Done. Ktor: $hashCode"))
                 }
             }
-            mjpegSharedFlow.set(null)
+            mjpegSharedFlows.set(null)
             XLog.d(this@HttpServer.getLog("stopServer", "Done"))
         }
     }
@@ -310,13 +297,59 @@ internal class HttpServer(
         if (isActive) send(JSONObject().put("type", type).apply { if (data != null) put("data", data) }.toString())
     }
 
-    private fun Application.appModule() {
-        val crlf = "\r\n".toByteArray()
-        val jpegBaseHeader = "Content-Type: image/jpeg\r\nContent-Length: ".toByteArray()
-        val multipartBoundary = randomString(20)
-        val contentType = ContentType.parse("multipart/x-mixed-replace; boundary=$multipartBoundary")
-        val jpegBoundary = "--$multipartBoundary\r\n".toByteArray()
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private fun mjpegFlow(tier: MjpegTier, framing: MjpegFrame.Framing, scope: CoroutineScope, started: SharingStarted): SharedFlow<MjpegFrame> {
+        val tierEncoder = MjpegTierEncoder(tier)
+        val lastFrame = lastFrames.getValue(tier)
+        return combine(bitmapStateFlow, mjpegSettings.data) { capturedBitmap, settings -> capturedBitmap to settings }
+            .conflate()
+            .map { (capturedBitmap, settings) ->
+                delay(tierEncoder.frameDelayMillis(settings, System.currentTimeMillis()))
+                withContext(Dispatchers.IO) {
+                    val encodeStartMillis = SystemClock.elapsedRealtime()
+                    val output = framing.newOutput()
+                    val frame = try {
+                        tierEncoder.encode(capturedBitmap.bitmap, settings, output)
+                        framing.frame(output, capturedBitmap.captureMillis, settings.htmlShowLatency)
+                    } catch (cause: Throwable) {
+                        framing.discard(output) // Never became a frame, the pool gets the buffer back
+                        throw cause
+                    }
+                    // Published before leaving withContext, a cancellation on the way out can't lose the frame and its buffer
+                    frame
+                        ?.also { lastFrame.getAndSet(it)?.release() }
+                        ?.also { if (tier == MjpegTier.FULL) serverData.onFrameEncoded(it, encodeStartMillis) }
+                        ?.let { it to settings.maxFPS }
+                }
+            }
+            .filterNotNull()
+            .catch { cause ->
+                XLog.e(getLog("mjpegFlow", "Producer $tier failed"), cause)
+                throw cause
+            }
+            .flatMapLatest { (frame, maxFPS) ->
+                if (maxFPS > 0) { // If maxFPS > 0, repeatedly emit the same JPEG every second (keep-alive)
+                    flow {
+                        while (currentCoroutineContext().isActive) {
+                            emit(frame)
+                            delay(1000.milliseconds)
+                        }
+                    }
+                } else {
+                    flowOf(frame)
+                }
+            }
+            .conflate()
+            .onCompletion { cause ->
+                if (tier != MjpegTier.FULL) lastFrame.getAndSet(framing.empty)?.release() // No subscribers left, free its buffer
+                if (cause != null && cause !is CancellationException) {
+                    XLog.e(getLog("mjpegFlow", "Producer $tier completed with error"), cause)
+                }
+            }
+            .shareIn(scope, started, 1)
+    }
 
+    private fun Application.appModule(framing: MjpegFrame.Framing) {
         install(Compression) {
             gzip()
             deflate()
@@ -356,6 +389,15 @@ internal class HttpServer(
                     sendEvent(MjpegStreamingService.InternalEvent.StartStopFromWebPage)
                 call.respond(HttpStatusCode.NoContent)
             }
+            get("stats") {
+                val clientId = call.request.getClientId()
+                val remoteAddress = call.request.origin.remoteAddress
+                if (serverData.isClientAllowed(clientId, remoteAddress).not()) {
+                    call.respond(HttpStatusCode.Forbidden)
+                    return@get
+                }
+                call.respondText(serverData.getStatsJson().toString(), ContentType.Application.Json)
+            }
             get(serverData.jpegFallbackAddress) {
                 if (serverData.isAddressBlocked(call.request.origin.remoteAddress)) call.respond(HttpStatusCode.Forbidden)
                 else {
@@ -363,9 +405,18 @@ internal class HttpServer(
                     val remoteAddress = call.request.origin.remoteAddress
                     val remotePort = call.request.origin.remotePort
                     serverData.addConnected(clientId, remoteAddress, remotePort)
-                    val bytes = lastJPEG.get()
-                    call.respondBytes(bytes, ContentType.Image.JPEG)
-                    serverData.setNextBytes(clientId, remoteAddress, remotePort, bytes.size)
+                    val frame = lastFrames.getValue(MjpegTier.FULL).get()?.takeIf { it.tryRetain() } ?: framing.empty
+                    try {
+                        call.respond(object : OutgoingContent.WriteChannelContent() {
+                            override val status: HttpStatusCode = HttpStatusCode.OK
+                            override val contentType: ContentType = ContentType.Image.JPEG
+                            override val contentLength: Long = frame.jpegSize.toLong()
+                            override suspend fun writeTo(channel: ByteWriteChannel) = frame.writeJpegTo(channel)
+                        })
+                    } finally {
+                        frame.release()
+                    }
+                    serverData.setNextBytes(clientId, remoteAddress, remotePort, frame.jpegSize)
                     serverData.setDisconnected(clientId, remoteAddress, remotePort)
                 }
             }
@@ -382,10 +433,17 @@ internal class HttpServer(
 
                         val enableButtons = mjpegSettings.data.value.htmlEnableButtons && serverData.enablePin.not()
                         val streamData = JSONObject().put("enableButtons", enableButtons).put("streamAddress", serverData.streamAddress)
+                            .put("showLatency", mjpegSettings.data.value.htmlShowLatency)
+                            .put("webSocketStream", mjpegSettings.data.value.htmlWebSocketStream)
+                            .put("socketStreamAddress", serverData.socketStreamAddress)
 
                         when (val type = msg.optString("type").uppercase()) {
                             "HEARTBEAT" -> send("HEARTBEAT", msg.optString("data"))
 
+                            "TIME" -> send("TIME", JSONObject().put("client", msg.optLong("data")).put("server", System.currentTimeMillis()))
+
+                            "LATENCY" -> serverData.onClientLatency(clientId, msg.optLong("data", -1))
+
                             "CONNECT" -> when {
                                 mjpegSettings.data.value.enablePin.not() -> send("STREAM_ADDRESS", streamData)
                                 serverData.isAddressBlocked(remoteAddress) -> send("UNAUTHORIZED", "ADDRESS_BLOCKED")
@@ -414,6 +472,63 @@ internal class HttpServer(
                 }
             }
 
+            // Binary alternative to the multipart stream: one JPEG per message, the next one is sent only after the client acks the previous.
+            // Write time here is send-to-ack, so it includes the network round trip and the browser decode.
+            webSocket(serverData.socketStreamAddress) {
+                val clientId = call.request.getClientId()
+                val remoteAddress = call.request.origin.remoteAddress
+                val remotePort = call.request.origin.remotePort
+
+                if (serverData.isClientAllowed(clientId, remoteAddress).not()) {
+                    close(CloseReason(CloseReason.Codes.VIOLATED_POLICY, "Forbidden"))
+                    return@webSocket
+                }
+
+                val mjpegFlow = mjpegSharedFlows.get()?.get(MjpegTier.FULL) ?: return@webSocket
+                val acks = Channel<Long>(Channel.CONFLATED)
+                val acksJob = launch {
+                    for (frame in incoming) if (frame is Frame.Text && frame.readText() == "ACK") acks.send(SystemClock.elapsedRealtime())
+                    acks.close()
+                }
+
+                XLog.i(this@appModule.getLog("socketStream", "Client: $clientId:$remotePort"))
+                serverData.addConnected(clientId, remoteAddress, remotePort)
+                var sentFrame: MjpegFrame? = null
+                var sentMillis = 0L
+                try {
+                    while (serverData.isAddressBlocked(remoteAddress).not() && serverData.isDisconnected(clientId, remoteAddress, remotePort).not()) {
+                        if (sentFrame != null) {
+                            val ack = withTimeoutOrNull(SOCKET_STREAM_ACK_TIMEOUT_MILLIS.milliseconds) { acks.receiveCatching() }
+                            if (ack == null) {
+                                serverData.setSlowConnection(clientId, remoteAddress, remotePort)
+                                continue
+                            }
+                            val ackMillis = ack.getOrNull() ?: break // Socket closed by the client
+                            serverData.onFrameWritten(clientId, remoteAddress, remotePort, sentFrame, ackMillis - sentMillis, 0, false)
+                        }
+
+                        val lastSentFrame = sentFrame
+                        val frame = mjpegFlow.first { it !== lastSentFrame && it.tryRetain() } // Keep-alive repeats are not needed here
+                        val payload = try {
+                            frame.timestampedJpeg()
+                        } finally {
+                            frame.release()
+                        }
+                        sentMillis = SystemClock.elapsedRealtime()
+                        send(Frame.Binary(true, payload))
+                        sentFrame = frame
+                        serverData.setNextBytes(clientId, remoteAddress, remotePort, payload.size)
+                    }
+                } catch (_: CancellationException) {
+                } catch (cause: Exception) {
+                    XLog.w(this@appModule.getLog("socketStream", "catch: ${cause.localizedMessage}"), cause)
+                } finally {
+                    XLog.i(this@appModule.getLog("socketStream", "finally: $clientId:$remotePort"))
+                    acksJob.cancel()
+                    serverData.setDisconnected(clientId, remoteAddress, remotePort)
+                }
+            }
+
             get(serverData.streamAddress) {
                 val clientId = call.request.getClientId()
                 val remoteAddress = call.request.origin.remoteAddress
@@ -430,17 +545,22 @@ internal class HttpServer(
                 call.respond(object : OutgoingContent.WriteChannelContent() {
                     override val status: HttpStatusCode = HttpStatusCode.OK
 
-                    override val contentType: ContentType = contentType
+                    override val contentType: ContentType = framing.contentType
 
+                    @OptIn(ExperimentalCoroutinesApi::class)
                     override suspend fun writeTo(channel: ByteWriteChannel) {
                         val emitCounter = AtomicLong(0L)
                         val collectCounter = AtomicLong(0L)
 
-                        val mjpegFlow = mjpegSharedFlow.get() ?: return
-                        mjpegFlow.onStart {
+                        val tierSelector = MjpegTierSelector()
+                        var lastBacklog = 0L
+                        var lastWrittenFrame: MjpegFrame? = null
+
+                        val mjpegFlows = mjpegSharedFlows.get() ?: return
+                        tierSelector.tier.flatMapLatest { tier -> mjpegFlows.getValue(tier) }.onStart {
                             XLog.i(this@appModule.getLog("onStart", "Client: $clientId:$remotePort"))
                             serverData.addConnected(clientId, remoteAddress, remotePort)
-                            channel.writeFully(jpegBoundary)
+                            channel.writeFully(framing.boundary)
                         }
                             .onCompletion {
                                 XLog.i(this@appModule.getLog("onCompletion", "Client: $clientId:$remotePort"))
@@ -449,37 +569,38 @@ internal class HttpServer(
                             .takeWhile { stopClientStream(channel).not() }
                             .map { Pair(emitCounter.incrementAndGet(), it) }
                             .conflate()
-                            .onEach { (emitCounter, jpeg) ->
+                            .onEach { (emitCounter, frame) ->
                                 if (stopClientStream(channel)) return@onEach
 
-                                if (emitCounter - collectCounter.incrementAndGet() >= 5) {
+                                val backlog = emitCounter - collectCounter.incrementAndGet()
+                                val droppedFrames = (backlog - lastBacklog).coerceAtLeast(0)
+                                lastBacklog = backlog
+                                if (backlog >= 5) {
                                     XLog.i(this@appModule.getLog("onEach", "Slow connection. Client: $clientId"))
                                     collectCounter.set(emitCounter)
+                                    lastBacklog = 0
                                     serverData.setSlowConnection(clientId, remoteAddress, remotePort)
                                 }
 
-                                // Write MJPEG frame
-                                val jpegSizeText = jpeg.size.toString().toByteArray()
-                                val mjpegHeader = buildPacket {
-                                    writeFully(jpegBaseHeader)
-                                    writeFully(jpegSizeText)
-                                    writeFully(crlf)
-                                    writeFully(crlf)
-                                }.readByteArray()
-
-                                val mjpegFooter = buildPacket {
-                                    writeFully(crlf)
-                                    writeFully(jpegBoundary)
-                                }.readByteArray()
-
-                                channel.writeFully(mjpegHeader)
-                                channel.writeFully(jpeg)
-                                channel.writeFully(mjpegFooter)
-                                channel.flush()
-                                // Write MJPEG frame
-
-                                val size = mjpegHeader.size + jpeg.size + mjpegFooter.size
-                                serverData.setNextBytes(clientId, remoteAddress, remotePort, size)
+                                if (frame.tryRetain().not()) return@onEach // Already replaced and recycled, next one is on the way
+                                val writeStart = SystemClock.elapsedRealtime()
+                                try {
+                                    frame.writeTo(channel)
+                                    channel.flush()
+                                } finally {
+                                    frame.release()
+                                }
+                                val now = SystemClock.elapsedRealtime()
+
+                                serverData.setNextBytes(clientId, remoteAddress, remotePort, frame.size)
+                                serverData.onFrameWritten(clientId, remoteAddress, remotePort, frame, now - writeStart, droppedFrames, frame === lastWrittenFrame)
+                                lastWrittenFrame = frame
+
+                                val frameIntervalMillis = tierSelector.tier.value.minFrameIntervalMillis(mjpegSettings.data.value)
+                                tierSelector.onFrameWritten(now - writeStart, droppedFrames, frameIntervalMillis, now)?.let { tier ->
+                                    XLog.i(this@appModule.getLog("onEach", "Client: $clientId:$remotePort. Tier: $tier"))
+                                    serverData.setTier(clientId, remoteAddress, remotePort, tier)
+                                }
                             }
                             .catch { /* Empty intentionally */ }
                             .collect()
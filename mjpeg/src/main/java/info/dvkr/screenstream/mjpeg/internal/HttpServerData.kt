@@ -1,5 +1,6 @@
 package info.dvkr.screenstream.mjpeg.internal
 
+import android.os.SystemClock
 import android.util.Base64
 import com.elvishew.xlog.XLog
 import info.dvkr.screenstream.common.getLog
@@ -19,6 +20,7 @@ import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.supervisorScope
 import kotlinx.coroutines.withTimeoutOrNull
+import org.json.JSONArray
 import org.json.JSONObject
 import java.security.MessageDigest
 import java.util.LinkedList
@@ -29,7 +31,7 @@ import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.atomic.AtomicReference
 import kotlin.time.Duration.Companion.milliseconds
 
-internal class HttpServerData(private val sendEvent: (MjpegEvent) -> Unit) {
+internal class HttpServerData(private val sendEvent: (MjpegEvent) -> Unit, private val jpegBufferPool: JpegBufferPool) {
 
     internal companion object {
         private const val WRONG_PIN_MAX_COUNT = 5
@@ -49,15 +51,18 @@ internal class HttpServerData(private val sendEvent: (MjpegEvent) -> Unit) {
         val pinCheckAttempt: AtomicInteger = AtomicInteger(0),
         val isPinValidated: AtomicBoolean = AtomicBoolean(false),
         val session: AtomicReference<DefaultWebSocketSession?> = AtomicReference(null),
-        val connectionsMap: ConcurrentHashMap<String, Connection> = ConcurrentHashMap<String, Connection>()
+        val connectionsMap: ConcurrentHashMap<String, Connection> = ConcurrentHashMap<String, Connection>(),
+        val glassToGlassMillis: LatencyHistogram = LatencyHistogram()
     ) {
 
         private class Connection(
             val address: String,
             val port: String,
             val isSlowConnection: AtomicBoolean = AtomicBoolean(false),
+            val isReducedTier: AtomicBoolean = AtomicBoolean(false),
             val isDisconnected: AtomicBoolean = AtomicBoolean(false),
             val transferBytes: AtomicLong = AtomicLong(0),
+            val stats: ConnectionStats = ConnectionStats(),
             val holdUntil: AtomicLong = AtomicLong(0)
         )
 
@@ -90,6 +95,18 @@ internal class HttpServerData(private val sendEvent: (MjpegEvent) -> Unit) {
             connectionsMap["$address:$port"]?.apply { if (isDisconnected.get().not()) isSlowConnection.set(true) }
         }
 
+        fun setTier(address: String, port: String, tier: MjpegTier) {
+            connectionsMap["$address:$port"]?.apply { isReducedTier.set(tier != MjpegTier.FULL) }
+        }
+
+        fun onFrameWritten(
+            address: String, port: String, writeMillis: Long, captureToFlushMillis: Long, encodedToFlushMillis: Long, droppedFrames: Long, repeated: Boolean
+        ) {
+            connectionsMap["$address:$port"]?.stats?.onFrameWritten(writeMillis, captureToFlushMillis, encodedToFlushMillis, droppedFrames, repeated)
+        }
+
+        fun tickStats(now: Long) = connectionsMap.values.forEach { if (it.isDisconnected.get().not()) it.stats.tick(now) }
+
         fun appendBytes(address: String, port: String, bytesCount: Int) {
             connectionsMap["$address:$port"]?.apply { transferBytes.addAndGet(bytesCount.toLong()) }
         }
@@ -111,11 +128,24 @@ internal class HttpServerData(private val sendEvent: (MjpegEvent) -> Unit) {
                         connection.isDisconnected.get() -> MjpegState.Client.State.DISCONNECTED
                         connection.isSlowConnection.get() -> MjpegState.Client.State.SLOW_CONNECTION
                         else -> MjpegState.Client.State.CONNECTED
-                    }
+                    },
+                    connection.isReducedTier.get(),
+                    connection.stats.toClientStats(glassToGlassMillis)
                 )
             }
         }
 
+        // No client id or port here: the id is the session key, and the fallback id is derived from address and port
+        fun toStatsJson(index: Int): List<JSONObject> = connectionsMap.values.map { connection ->
+            connection.stats.toJson()
+                .put("client", index)
+                .put("address", connection.address)
+                .put("disconnected", connection.isDisconnected.get())
+                .put("slowConnection", connection.isSlowConnection.get())
+                .put("reducedTier", connection.isReducedTier.get())
+                .put("glassToGlassMillis", glassToGlassMillis.toJson())
+        }
+
         override fun equals(other: Any?): Boolean {
             if (this === other) return true
             if (javaClass != other?.javaClass) return false
@@ -131,10 +161,16 @@ internal class HttpServerData(private val sendEvent: (MjpegEvent) -> Unit) {
     @Volatile internal var blockAddress: Boolean = false
     @Volatile internal var streamAddress: String = ""
     @Volatile internal var jpegFallbackAddress: String = ""
+    @Volatile internal var socketStreamAddress: String = ""
 
     private val statisticScope = CoroutineScope(Job() + Dispatchers.Default)
     private val clients = ConcurrentHashMap<String, Client>()
     private val blockedAddresses = ConcurrentHashMap<String, Long>()
+    private val encodedFrames = AtomicLong(0)
+    private val unchangedFrames = AtomicLong(0)
+    private val captureToEncodeMillis = LatencyHistogram()
+    private val encodeMillis = LatencyHistogram()
+    @Volatile private var frameStats: MjpegState.FrameStats = MjpegState.FrameStats()
     private val trafficHistory: LinkedList<MjpegState.TrafficPoint> = LinkedList<MjpegState.TrafficPoint>().also {
         val past = System.currentTimeMillis() - TRAFFIC_HISTORY_SECONDS * 1000
         repeat(TRAFFIC_HISTORY_SECONDS) { i -> it.addLast(MjpegState.TrafficPoint(i * 1000 + past, 0f)) }
@@ -149,6 +185,7 @@ internal class HttpServerData(private val sendEvent: (MjpegEvent) -> Unit) {
         val streamAddressBase = if (enablePin) randomString(16) else "stream"
         streamAddress = "$streamAddressBase.mjpeg"
         jpegFallbackAddress = "$streamAddressBase.jpeg"
+        socketStreamAddress = "$streamAddressBase.socket"
     }
 
     init {
@@ -166,8 +203,23 @@ internal class HttpServerData(private val sendEvent: (MjpegEvent) -> Unit) {
                 val trafficAtNow = clientsList.sumOf { it.getBytes() }.bytesToMbit()
                 trafficHistory.removeFirst()
                 trafficHistory.addLast(MjpegState.TrafficPoint(now, trafficAtNow))
-                sendEvent(MjpegStreamingService.InternalEvent.Traffic(now, trafficHistory.sortedBy { it.time }))
+                val frames = encodedFrames.getAndSet(0)
+                val poolStats = jpegBufferPool.takeStats()
+                frameStats = MjpegState.FrameStats(
+                    encodedFps = frames.toInt(),
+                    skippedFps = unchangedFrames.getAndSet(0).toInt(),
+                    allocatedBytesPerFrame = if (frames > 0) poolStats.allocatedBytes / frames else 0,
+                    poolHits = poolStats.hits,
+                    poolMisses = poolStats.misses,
+                    buffersInFlight = poolStats.inFlight,
+                    captureToEncodeP95Millis = captureToEncodeMillis.percentile(95),
+                    encodeP50Millis = encodeMillis.percentile(50),
+                    encodeP95Millis = encodeMillis.percentile(95)
+                )
+                sendEvent(MjpegStreamingService.InternalEvent.Traffic(now, trafficHistory.sortedBy { it.time }, frameStats))
 
+                val elapsedRealtime = SystemClock.elapsedRealtime()
+                clientsList.forEach { it.tickStats(elapsedRealtime) }
                 val clients = clientsList.flatMap { c -> c.toMjpegClients(blockedAddresses) }.sortedBy { it.address }
                 if (clients.size != publishedClients.size || clients.any { c ->
                         publishedClients.find { it.id == c.id }?.equals(c) != true
@@ -234,6 +286,45 @@ internal class HttpServerData(private val sendEvent: (MjpegEvent) -> Unit) {
         }
     }
 
+    internal fun setTier(clientId: String, remoteAddress: String, remotePort: Int, tier: MjpegTier) {
+        clients[clientId]?.setTier(remoteAddress, remotePort.toString(), tier)
+    }
+
+    internal fun onFrameWritten(
+        clientId: String, remoteAddress: String, remotePort: Int, frame: MjpegFrame, writeMillis: Long, droppedFrames: Long, repeated: Boolean
+    ) {
+        val now = SystemClock.elapsedRealtime()
+        clients[clientId]?.onFrameWritten(
+            remoteAddress, remotePort.toString(), writeMillis, now - frame.captureMillis, now - frame.encodedMillis, droppedFrames, repeated
+        )
+    }
+
+    internal fun onClientLatency(clientId: String, glassToGlassMillis: Long) {
+        if (glassToGlassMillis >= 0) clients[clientId]?.glassToGlassMillis?.record(glassToGlassMillis)
+    }
+
+    internal fun getStatsJson(): JSONObject {
+        val stats = frameStats
+        return JSONObject()
+            .put("encodedFps", stats.encodedFps)
+            .put("skippedFps", stats.skippedFps)
+            .put("allocatedBytesPerFrame", stats.allocatedBytesPerFrame)
+            .put("captureToEncodeMillis", captureToEncodeMillis.toJson())
+            .put("encodeMillis", encodeMillis.toJson())
+            .put("bufferPool", JSONObject().put("hits", stats.poolHits).put("misses", stats.poolMisses).put("inUse", stats.buffersInFlight))
+            .put("connections", JSONArray(clients.values.flatMapIndexed { index, client -> client.toStatsJson(index) }))
+    }
+
+    internal fun onFrameEncoded(frame: MjpegFrame, encodeStartMillis: Long) {
+        encodedFrames.incrementAndGet()
+        captureToEncodeMillis.record(encodeStartMillis - frame.captureMillis)
+        encodeMillis.record(frame.encodedMillis - encodeStartMillis)
+    }
+
+    internal fun onFrameUnchanged() {
+        unchangedFrames.incrementAndGet()
+    }
+
     internal suspend fun notifyClients(type: String, data: Any? = null, timeout: Long = 2000) = supervisorScope {
         val message = JSONObject().put("type", type).put("data", data).toString()
         withTimeoutOrNull(timeout.milliseconds) {
@@ -246,6 +337,8 @@ internal class HttpServerData(private val sendEvent: (MjpegEvent) -> Unit) {
     internal fun clear() {
         clients.clear()
         blockedAddresses.clear()
+        captureToEncodeMillis.reset()
+        encodeMillis.reset()
     }
 
     internal fun destroy() {
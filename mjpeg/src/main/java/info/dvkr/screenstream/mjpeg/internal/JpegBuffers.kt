@@ -0,0 +1,77 @@
+package info.dvkr.screenstream.mjpeg.internal
+
+import java.io.OutputStream
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.max
+
+internal class JpegBufferPool(private val capacity: Int = 6) {
+    private companion object {
+        private const val SIZE_STEP = 64 * 1024
+    }
+
+    internal data class Stats(val hits: Long, val misses: Long, val allocatedBytes: Long, val inFlight: Int)
+
+    private val buffers = ConcurrentLinkedQueue<ByteArray>()
+    private val hits = AtomicLong(0)
+    private val misses = AtomicLong(0)
+    private val allocatedBytes = AtomicLong(0)
+    private val inFlight = AtomicInteger(0)
+
+    internal fun get(minSize: Int): ByteArray {
+        inFlight.incrementAndGet()
+        while (true) {
+            val buffer = buffers.poll() ?: break
+            if (buffer.size >= minSize) {
+                hits.incrementAndGet()
+                return buffer
+            }
+        }
+        misses.incrementAndGet()
+        val size = (minSize + SIZE_STEP - 1) / SIZE_STEP * SIZE_STEP
+        allocatedBytes.addAndGet(size.toLong())
+        return ByteArray(size)
+    }
+
+    internal fun recycle(buffer: ByteArray) {
+        inFlight.decrementAndGet()
+        if (buffers.size < capacity) buffers.offer(buffer)
+    }
+
+    internal fun takeStats(): Stats = Stats(hits.getAndSet(0), misses.getAndSet(0), allocatedBytes.getAndSet(0), inFlight.get())
+
+    internal fun clear() = buffers.clear()
+}
+
+// Writes into pooled buffers starting at [start], leaving the head free for the multipart header.
+internal class JpegOutputStream(private val pool: JpegBufferPool, private val start: Int, sizeHint: Int) : OutputStream() {
+
+    internal var buffer: ByteArray = pool.get(start + sizeHint)
+        private set
+
+    internal var position: Int = start
+        private set
+
+    internal val size: Int
+        get() = position - start
+
+    override fun write(b: Int) {
+        ensureCapacity(1)
+        buffer[position++] = b.toByte()
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+        ensureCapacity(len)
+        System.arraycopy(b, off, buffer, position, len)
+        position += len
+    }
+
+    internal fun ensureCapacity(extra: Int) {
+        if (position + extra <= buffer.size) return
+        val newBuffer = pool.get(max(buffer.size * 2, position + extra))
+        System.arraycopy(buffer, 0, newBuffer, 0, position)
+        pool.recycle(buffer)
+        buffer = newBuffer
+    }
+}
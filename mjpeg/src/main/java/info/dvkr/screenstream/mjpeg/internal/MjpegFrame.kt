@@ -0,0 +1,126 @@
+package info.dvkr.screenstream.mjpeg.internal
+
+import android.os.SystemClock
+import io.ktor.http.ContentType
+import io.ktor.utils.io.ByteWriteChannel
+import io.ktor.utils.io.writeFully
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicInteger
+
+// One multipart part, built once per encoded JPEG and written as is to every client.
+// Layout: [part header][timestamp][JPEG][CRLF][next boundary]. The part header optionally carries X-Timestamp: capture time in epoch millis.
+// [timestamp] is the same capture time as 8 bytes big-endian. It is skipped in the multipart part and leads the WebSocket payload.
+// captureMillis and encodedMillis are SystemClock.elapsedRealtime() of the source bitmap capture and of the encoder finish.
+// Reference counted: the producer owns the first reference, every reader must tryRetain() before reading and release() after.
+internal class MjpegFrame private constructor(
+    private val buffer: ByteArray,
+    private val offset: Int,
+    private val headerEnd: Int,
+    private val jpegOffset: Int,
+    internal val jpegSize: Int,
+    private val end: Int,
+    internal val captureMillis: Long,
+    internal val encodedMillis: Long,
+    private val onRecycle: ((ByteArray) -> Unit)?
+) {
+    private val refs = AtomicInteger(1)
+
+    // Multipart part size, without the timestamp slot
+    internal val size: Int = headerEnd - offset + end - jpegOffset
+
+    @Volatile
+    private var timestampedJpeg: ByteArray? = null
+
+    internal fun tryRetain(): Boolean {
+        while (true) {
+            val current = refs.get()
+            if (current <= 0) return false
+            if (refs.compareAndSet(current, current + 1)) return true
+        }
+    }
+
+    internal fun release() {
+        while (true) {
+            val current = refs.get()
+            if (current <= 0) return
+            if (refs.compareAndSet(current, current - 1)) {
+                if (current == 1) onRecycle?.invoke(buffer)
+                return
+            }
+        }
+    }
+
+    internal suspend fun writeTo(channel: ByteWriteChannel) {
+        channel.writeFully(buffer, offset, headerEnd)
+        channel.writeFully(buffer, jpegOffset, end)
+    }
+
+    internal suspend fun writeJpegTo(channel: ByteWriteChannel) = channel.writeFully(buffer, jpegOffset, jpegOffset + jpegSize)
+
+    // WebSocket message payload: the timestamp slot and the JPEG. Copied out of the pooled buffer once per frame and shared
+    // by every WebSocket client, as a WebSocket frame keeps its own array. Caller must hold a reference while calling
+    internal fun timestampedJpeg(): ByteArray = timestampedJpeg ?: synchronized(this) {
+        timestampedJpeg ?: buffer.copyOfRange(jpegOffset - Long.SIZE_BYTES, jpegOffset + jpegSize).also { timestampedJpeg = it }
+    }
+
+    internal class Framing(multipartBoundary: String, private val pool: JpegBufferPool) {
+        private val jpegBaseHeader = "Content-Type: image/jpeg\r\nContent-Length: ".toByteArray()
+        private val timestampHeader = "X-Timestamp: ".toByteArray()
+        private val crlf = "\r\n".toByteArray()
+        private val headerReserve = jpegBaseHeader.size + Int.MAX_VALUE.toString().length +
+                timestampHeader.size + Long.MAX_VALUE.toString().length + crlf.size * 3 + Long.SIZE_BYTES
+
+        @Volatile
+        private var lastJpegSize: Int = 64 * 1024
+
+        internal val contentType: ContentType = ContentType.parse("multipart/x-mixed-replace; boundary=$multipartBoundary")
+        internal val boundary: ByteArray = "--$multipartBoundary\r\n".toByteArray()
+
+        internal val empty: MjpegFrame = MjpegFrame(ByteArray(Long.SIZE_BYTES), 0, 0, Long.SIZE_BYTES, 0, Long.SIZE_BYTES, 0, 0, null)
+
+        internal fun newOutput(): JpegOutputStream = JpegOutputStream(pool, headerReserve, lastJpegSize + lastJpegSize / 8)
+
+        // Returns the buffer of an output that did not become a frame
+        internal fun discard(output: JpegOutputStream) = pool.recycle(output.buffer)
+
+        internal fun frame(output: JpegOutputStream, captureMillis: Long, withTimestamp: Boolean): MjpegFrame? {
+            val encodedMillis = SystemClock.elapsedRealtime()
+            val jpegSize = output.size
+            if (jpegSize == 0) {
+                discard(output)
+                return null
+            }
+            lastJpegSize = jpegSize
+
+            output.ensureCapacity(crlf.size + boundary.size)
+            val buffer = output.buffer
+            buffer.put(buffer.put(output.position, crlf), boundary)
+
+            val captureEpochMillis = System.currentTimeMillis() - (encodedMillis - captureMillis)
+            val headerEnd = headerReserve - Long.SIZE_BYTES
+            ByteBuffer.wrap(buffer, headerEnd, Long.SIZE_BYTES).putLong(captureEpochMillis)
+
+            val jpegSizeText = jpegSize.toString().toByteArray()
+            val timestampText = if (withTimestamp) captureEpochMillis.toString().toByteArray() else null
+            val timestampSize = if (timestampText != null) timestampHeader.size + timestampText.size + crlf.size else 0
+            val offset = headerEnd - (jpegBaseHeader.size + jpegSizeText.size + timestampSize + crlf.size * 2)
+            var position = buffer.put(offset, jpegBaseHeader)
+            position = buffer.put(position, jpegSizeText)
+            position = buffer.put(position, crlf)
+            if (timestampText != null) {
+                position = buffer.put(position, timestampHeader)
+                position = buffer.put(position, timestampText)
+                position = buffer.put(position, crlf)
+            }
+            buffer.put(position, crlf)
+
+            val end = output.position + crlf.size + boundary.size
+            return MjpegFrame(buffer, offset, headerEnd, headerReserve, jpegSize, end, captureMillis, encodedMillis) { pool.recycle(it) }
+        }
+
+        private fun ByteArray.put(position: Int, src: ByteArray): Int {
+            System.arraycopy(src, 0, this, position, src.size)
+            return position + src.size
+        }
+    }
+}
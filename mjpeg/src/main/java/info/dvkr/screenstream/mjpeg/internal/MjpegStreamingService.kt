@@ -80,7 +80,7 @@ internal class MjpegStreamingService(
     private val coroutineDispatcher: CoroutineDispatcher by lazy(LazyThreadSafetyMode.NONE) { handler.asCoroutineDispatcher("MJPEG-HT_Dispatcher") }
     private val supervisorJob = SupervisorJob()
     private val coroutineScope by lazy(LazyThreadSafetyMode.NONE) { CoroutineScope(supervisorJob + coroutineDispatcher) }
-    private val bitmapStateFlow = MutableStateFlow(createBitmap(1, 1))
+    private val bitmapStateFlow = MutableStateFlow(CapturedBitmap(createBitmap(1, 1)))
     private val httpServer by lazy(mode = LazyThreadSafetyMode.NONE) {
         HttpServer(service, mjpegSettings, bitmapStateFlow.asStateFlow(), ::sendEvent)
     }
@@ -146,6 +146,7 @@ internal class MjpegStreamingService(
     private var clients: List<MjpegState.Client> = emptyList()
     private var slowClients: List<MjpegState.Client> = emptyList()
     private var traffic: List<MjpegState.TrafficPoint> = emptyList()
+    private var frameStats: MjpegState.FrameStats = MjpegState.FrameStats()
     private var isStreaming: Boolean = false
     @Volatile private var pendingStartAttemptId: String? = null
     @Volatile private var foregroundPreflightStartAttemptId: String? = null
@@ -175,7 +176,8 @@ internal class MjpegStreamingService(
         data class Error(val error: MjpegError) : InternalEvent(Priority.RECOVER_IGNORE)
 
         data class Destroy(val destroyJob: CompletableJob) : InternalEvent(Priority.DESTROY_IGNORE)
-        data class Traffic(val time: Long, val traffic: List<MjpegState.TrafficPoint>) : InternalEvent(Priority.DESTROY_IGNORE) {
+        data class Traffic(val time: Long, val traffic: List<MjpegState.TrafficPoint>, val frameStats: MjpegState.FrameStats) :
+            InternalEvent(Priority.DESTROY_IGNORE) {
             override fun toString(): String = "Traffic(time=$time)"
         }
     }
@@ -418,7 +420,7 @@ internal class MjpegStreamingService(
                 if (pendingServer.not()) httpServer.stop(false)
                 httpServer.start(event.interfaces.toList())
 
-                if (isStreaming.not() && mjpegSettings.data.value.htmlShowPressStart) bitmapStateFlow.value = getStartBitmap()
+                if (isStreaming.not() && mjpegSettings.data.value.htmlShowPressStart) bitmapStateFlow.value = CapturedBitmap(getStartBitmap())
 
                 netInterfaces = event.interfaces
                 pendingServer = false
@@ -559,7 +561,7 @@ internal class MjpegStreamingService(
                     projectionCoordinator.startProjection(event.intent) { _, mediaProjection, _, isStartupStillValid ->
                         mediaProjection.registerCallback(projectionCallback, mainHandler)
 
-                        val bitmapCapture = BitmapCapture(service, mjpegSettings, mediaProjection, bitmapStateFlow) { error ->
+                        val bitmapCapture = BitmapCapture(service, mjpegSettings, mediaProjection, bitmapStateFlow, httpServer::onFrameUnchanged) { error ->
                             sendEvent(InternalEvent.Error(error))
                         }
                         val captureStarted = bitmapCapture.start(isStartupStillValid)
@@ -706,7 +708,7 @@ internal class MjpegStreamingService(
                 if (wasStreaming && mjpegSettings.data.value.enablePin && mjpegSettings.data.value.autoChangePin)
                     mjpegSettings.updateData { copy(pin = randomPin()) }
 
-                if (wasStreaming && mjpegSettings.data.value.htmlShowPressStart) bitmapStateFlow.value = getStartBitmap()
+                if (wasStreaming && mjpegSettings.data.value.htmlShowPressStart) bitmapStateFlow.value = CapturedBitmap(getStartBitmap())
             }
 
             is InternalEvent.ScreenOff -> if (isStreaming && mjpegSettings.data.value.stopOnSleep)
@@ -771,7 +773,7 @@ internal class MjpegStreamingService(
 
             InternalEvent.UpdateStartBitmap -> {
                 startBitmap = null
-                if (isStreaming.not() && mjpegSettings.data.value.htmlShowPressStart) bitmapStateFlow.value = getStartBitmap()
+                if (isStreaming.not() && mjpegSettings.data.value.htmlShowPressStart) bitmapStateFlow.value = CapturedBitmap(getStartBitmap())
             }
 
             is MjpegEvent.Intentable.RecoverError -> {
@@ -806,7 +808,10 @@ internal class MjpegStreamingService(
                 }
             }
 
-            is InternalEvent.Traffic -> traffic = event.traffic
+            is InternalEvent.Traffic -> {
+                traffic = event.traffic
+                frameStats = event.frameStats
+            }
 
             is MjpegEvent.CreateNewPin -> when {
                 destroyPending -> XLog.i(getLog("CreateNewPin", "DestroyPending. Ignoring"), IllegalStateException("CreateNewPin: DestroyPending"))
@@ -886,6 +891,7 @@ internal class MjpegStreamingService(
             pin = MjpegState.Pin(mjpegSettings.data.value.enablePin, mjpegSettings.data.value.pin, mjpegSettings.data.value.hidePinOnStart),
             clients = clients.toList(),
             traffic = traffic.toList(),
+            frameStats = frameStats,
             error = currentError
         )
 
@@ -0,0 +1,106 @@
+package info.dvkr.screenstream.mjpeg.internal
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Rect
+import android.os.SystemClock
+import info.dvkr.screenstream.mjpeg.internal.jpeg.JpegEncoder
+import info.dvkr.screenstream.mjpeg.internal.jpeg.ParallelJpegEncoder
+import info.dvkr.screenstream.mjpeg.internal.jpeg.PlatformJpegEncoder
+import info.dvkr.screenstream.mjpeg.settings.MjpegSettings
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlin.math.abs
+
+// Encoded renditions of the stream. FULL follows the settings, REDUCED is half resolution, lower quality and half frame rate.
+internal enum class MjpegTier(internal val scaleDivider: Int, internal val fpsDivider: Int) {
+    FULL(1, 1),
+    REDUCED(2, 2);
+
+    internal fun jpegQuality(settings: MjpegSettings.Data): Int =
+        if (this == FULL) settings.jpegQuality else (settings.jpegQuality * 2 / 3).coerceAtLeast(10)
+
+    internal fun minFrameIntervalMillis(settings: MjpegSettings.Data): Long = when {
+        settings.maxFPS > 0 -> 1000L * fpsDivider / settings.maxFPS
+        else -> 1000L * fpsDivider * abs(settings.maxFPS)
+    }
+}
+
+// Produces one tier's JPEGs. Not thread safe: each tier flow owns its own instance.
+internal class MjpegTierEncoder(private val tier: MjpegTier) {
+    private val platformJpegEncoder: JpegEncoder = PlatformJpegEncoder()
+    private val parallelJpegEncoder: JpegEncoder by lazy { ParallelJpegEncoder() }
+    private val scalePaint = Paint(Paint.FILTER_BITMAP_FLAG)
+    private val scaledRect = Rect()
+    private var scaledBitmap: Bitmap? = null
+    private var lastFrameMillis: Long = 0
+
+    // Time to hold the next frame back so the tier stays within its frame rate. Upstream conflation keeps the newest bitmap meanwhile.
+    internal fun frameDelayMillis(settings: MjpegSettings.Data, now: Long): Long {
+        if (tier.fpsDivider == 1) return 0
+        val delayMillis = (lastFrameMillis + tier.minFrameIntervalMillis(settings) - now).coerceAtLeast(0)
+        lastFrameMillis = now + delayMillis
+        return delayMillis
+    }
+
+    internal fun encode(bitmap: Bitmap, settings: MjpegSettings.Data, output: JpegOutputStream) {
+        val jpegEncoder = if (settings.jpegEncoderParallel) parallelJpegEncoder else platformJpegEncoder
+        if (tier.scaleDivider == 1) {
+            synchronized(bitmap) { jpegEncoder.encode(bitmap, tier.jpegQuality(settings), output) } // BitmapCapture double-buffering
+            return
+        }
+
+        val width = (bitmap.width / tier.scaleDivider).coerceAtLeast(1)
+        val height = (bitmap.height / tier.scaleDivider).coerceAtLeast(1)
+        val scaled = scaledBitmap?.takeIf { it.width == width && it.height == height }
+            ?: Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888).also { scaledBitmap = it }
+        scaledRect.set(0, 0, width, height)
+        synchronized(bitmap) { Canvas(scaled).drawBitmap(bitmap, null, scaledRect, scalePaint) }
+        jpegEncoder.encode(scaled, tier.jpegQuality(settings), output)
+    }
+}
+
+// Picks a tier for one client from how long its channel writes take compared to the frame interval and how many frames it drops.
+// Downgrades quickly, upgrades only after the client kept up with plenty of headroom for a while.
+internal class MjpegTierSelector {
+    private companion object {
+        private const val LOAD_SMOOTHING = 0.2
+        private const val DOWNGRADE_LOAD = 0.9
+        private const val UPGRADE_LOAD = 0.2
+        private const val DOWNGRADE_DROPS = 3
+        private const val MIN_HOLD_MILLIS = 3_000L
+        private const val UPGRADE_AFTER_MILLIS = 10_000L
+    }
+
+    private val _tier = MutableStateFlow(MjpegTier.FULL)
+    internal val tier: StateFlow<MjpegTier> = _tier.asStateFlow()
+
+    private var load: Double = 0.0
+    private var drops: Int = 0
+    private var switchedAt: Long = SystemClock.elapsedRealtime()
+    private var calmSince: Long = switchedAt
+
+    // Returns the new tier if the client should switch, null otherwise
+    internal fun onFrameWritten(writeMillis: Long, droppedFrames: Long, frameIntervalMillis: Long, now: Long): MjpegTier? {
+        val currentLoad = writeMillis.toDouble() / frameIntervalMillis.coerceAtLeast(1)
+        load += (currentLoad - load) * LOAD_SMOOTHING
+        drops = if (droppedFrames > 0) drops + droppedFrames.toInt() else (drops - 1).coerceAtLeast(0)
+        if (load > UPGRADE_LOAD || droppedFrames > 0) calmSince = now
+        if (now - switchedAt < MIN_HOLD_MILLIS) return null
+
+        val current = _tier.value
+        val next = when {
+            current == MjpegTier.FULL && (load > DOWNGRADE_LOAD || drops >= DOWNGRADE_DROPS) -> MjpegTier.REDUCED
+            current == MjpegTier.REDUCED && now - calmSince >= UPGRADE_AFTER_MILLIS -> MjpegTier.FULL
+            else -> return null
+        }
+        _tier.value = next
+        load = 0.0
+        drops = 0
+        switchedAt = now
+        calmSince = now
+        return next
+    }
+}
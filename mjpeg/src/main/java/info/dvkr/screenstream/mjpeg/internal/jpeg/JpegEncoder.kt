@@ -0,0 +1,27 @@
+package info.dvkr.screenstream.mjpeg.internal.jpeg
+
+import android.graphics.Bitmap
+import java.io.OutputStream
+import java.util.concurrent.ForkJoinPool
+
+internal interface JpegEncoder {
+    fun encode(bitmap: Bitmap, quality: Int, output: OutputStream)
+}
+
+internal class PlatformJpegEncoder : JpegEncoder {
+    override fun encode(bitmap: Bitmap, quality: Int, output: OutputStream) {
+        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, output)
+    }
+}
+
+internal class ParallelJpegEncoder(pool: ForkJoinPool = ForkJoinPool.commonPool()) : JpegEncoder {
+    private val encoder = StripJpegEncoder(pool)
+    private var pixels = IntArray(0)
+
+    override fun encode(bitmap: Bitmap, quality: Int, output: OutputStream) {
+        val size = bitmap.width * bitmap.height
+        if (pixels.size < size) pixels = IntArray(size)
+        bitmap.getPixels(pixels, 0, bitmap.width, 0, 0, bitmap.width, bitmap.height)
+        encoder.encode(pixels, bitmap.width, bitmap.height, bitmap.width, quality, output)
+    }
+}
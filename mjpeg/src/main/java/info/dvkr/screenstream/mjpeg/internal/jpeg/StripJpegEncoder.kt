@@ -0,0 +1,377 @@
+package info.dvkr.screenstream.mjpeg.internal.jpeg
+
+import java.io.OutputStream
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinTask
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Pure-JVM baseline JPEG encoder (YCbCr 4:2:0, standard Huffman tables, IJG quality scaling).
+ *
+ * The image is split into horizontal strips of whole MCU rows. Every strip is one restart interval (DRI),
+ * so strips share no DC prediction state and are entropy-coded in parallel on [pool].
+ * The strips are then stitched in order, separated by RSTn markers, into a single valid JPEG.
+ *
+ * Not thread safe: strip buffers are reused between calls, one [encode] at a time.
+ */
+internal class StripJpegEncoder(private val pool: ForkJoinPool = ForkJoinPool.commonPool()) {
+
+    private var quality: Int = -1
+    private val lumaTable = IntArray(64)
+    private val chromaTable = IntArray(64)
+    private val lumaDivisors = FloatArray(64)
+    private val chromaDivisors = FloatArray(64)
+
+    private var strips: Array<Strip> = emptyArray()
+
+    /**
+     * @param pixels ARGB_8888 pixels, as returned by `Bitmap.getPixels()`
+     * @param stride pixels per row in [pixels]
+     * @param quality 1..100, same scale as `Bitmap.compress()`
+     */
+    internal fun encode(pixels: IntArray, width: Int, height: Int, stride: Int, quality: Int, output: OutputStream) {
+        require(width in 1..65535 && height in 1..65535) { "Unsupported size: ${width}x$height" }
+        setQuality(quality.coerceIn(1, 100))
+
+        val mcuColumns = (width + 15) / 16
+        val mcuRows = (height + 15) / 16
+        // DRI is 16 bit: a strip holds at most 65535 MCUs, so few threads on a tall frame still need enough strips
+        val maxMcuRowsPerStrip = 65535 / mcuColumns
+        val minStripCount = (mcuRows + maxMcuRowsPerStrip - 1) / maxMcuRowsPerStrip
+        val stripCount = min(mcuRows, max(minStripCount, pool.parallelism * 2))
+        val mcuRowsPerStrip = (mcuRows + stripCount - 1) / stripCount
+        val usedStrips = (mcuRows + mcuRowsPerStrip - 1) / mcuRowsPerStrip
+
+        if (strips.size < usedStrips) strips = Array(usedStrips) { i -> strips.getOrNull(i) ?: Strip() }
+
+        val tasks = ArrayList<ForkJoinTask<*>>(usedStrips)
+        for (i in 0 until usedStrips) {
+            val strip = strips[i]
+            val fromRow = i * mcuRowsPerStrip
+            val toRow = min(mcuRows, fromRow + mcuRowsPerStrip)
+            tasks.add(pool.submit { strip.encode(pixels, width, height, stride, fromRow, toRow, mcuColumns) })
+        }
+
+        writeHeaders(output, width, height, restartInterval = mcuColumns * mcuRowsPerStrip)
+        for (i in 0 until usedStrips) {
+            tasks[i].join()
+            output.write(strips[i].bytes, 0, strips[i].size)
+            if (i < usedStrips - 1) {
+                output.write(0xFF)
+                output.write(0xD0 + (i and 7))
+            }
+        }
+        output.write(0xFF)
+        output.write(0xD9)
+    }
+
+    private fun setQuality(newQuality: Int) {
+        if (quality == newQuality) return
+        quality = newQuality
+        val scale = if (newQuality < 50) 5000 / newQuality else 200 - newQuality * 2
+        for (i in 0 until 64) {
+            lumaTable[i] = ((LUMA_QUANT[i] * scale + 50) / 100).coerceIn(1, 255)
+            chromaTable[i] = ((CHROMA_QUANT[i] * scale + 50) / 100).coerceIn(1, 255)
+        }
+        for (row in 0 until 8) for (col in 0 until 8) {
+            val i = row * 8 + col
+            val aan = AAN_SCALE[row] * AAN_SCALE[col] * 8f
+            lumaDivisors[i] = 1f / (lumaTable[i] * aan)
+            chromaDivisors[i] = 1f / (chromaTable[i] * aan)
+        }
+    }
+
+    private fun writeHeaders(out: OutputStream, width: Int, height: Int, restartInterval: Int) {
+        out.write(SOI_APP0)
+
+        out.writeMarker(0xDB, 2 + 2 * 65) // DQT
+        out.write(0x00)
+        for (k in 0 until 64) out.write(lumaTable[ZIGZAG[k]])
+        out.write(0x01)
+        for (k in 0 until 64) out.write(chromaTable[ZIGZAG[k]])
+
+        out.writeMarker(0xC0, 17) // SOF0
+        out.write(8)
+        out.writeShort(height)
+        out.writeShort(width)
+        out.write(3)
+        out.write(byteArrayOf(1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1))
+
+        out.write(DHT)
+
+        out.writeMarker(0xDD, 4) // DRI
+        out.writeShort(restartInterval)
+
+        out.writeMarker(0xDA, 12) // SOS
+        out.write(3)
+        out.write(byteArrayOf(1, 0x00, 2, 0x11, 3, 0x11, 0, 63, 0))
+    }
+
+    private inner class Strip {
+        var bytes: ByteArray = ByteArray(64 * 1024)
+        var size: Int = 0
+
+        private var bitBuffer: Int = 0
+        private var bitCount: Int = 0
+
+        private val yBlocks = Array(4) { FloatArray(64) }
+        private val cbBlock = FloatArray(64)
+        private val crBlock = FloatArray(64)
+        private val quantized = IntArray(64)
+
+        fun encode(pixels: IntArray, width: Int, height: Int, stride: Int, fromRow: Int, toRow: Int, mcuColumns: Int) {
+            size = 0
+            bitBuffer = 0
+            bitCount = 0
+            var dcY = 0
+            var dcCb = 0
+            var dcCr = 0
+
+            for (mcuRow in fromRow until toRow) for (mcuColumn in 0 until mcuColumns) {
+                loadMcu(pixels, width, height, stride, mcuColumn * 16, mcuRow * 16)
+                for (block in yBlocks) dcY = encodeBlock(block, lumaDivisors, dcY, LUMA_DC, LUMA_AC)
+                dcCb = encodeBlock(cbBlock, chromaDivisors, dcCb, CHROMA_DC, CHROMA_AC)
+                dcCr = encodeBlock(crBlock, chromaDivisors, dcCr, CHROMA_DC, CHROMA_AC)
+            }
+
+            if (bitCount > 0) writeBits(0xFF, 8 - bitCount) // Pad last byte with 1-bits
+        }
+
+        private fun loadMcu(pixels: IntArray, width: Int, height: Int, stride: Int, x0: Int, y0: Int) {
+            cbBlock.fill(0f)
+            crBlock.fill(0f)
+            for (dy in 0 until 16) {
+                val rowOffset = min(y0 + dy, height - 1) * stride
+                for (dx in 0 until 16) {
+                    val argb = pixels[rowOffset + min(x0 + dx, width - 1)]
+                    val r = (argb shr 16) and 0xFF
+                    val g = (argb shr 8) and 0xFF
+                    val b = argb and 0xFF
+
+                    yBlocks[(dy shr 3) * 2 + (dx shr 3)][(dy and 7) * 8 + (dx and 7)] = 0.299f * r + 0.587f * g + 0.114f * b - 128f
+                    val c = (dy shr 1) * 8 + (dx shr 1)
+                    cbBlock[c] += 0.25f * (-0.168736f * r - 0.331264f * g + 0.5f * b)
+                    crBlock[c] += 0.25f * (0.5f * r - 0.418688f * g - 0.081312f * b)
+                }
+            }
+        }
+
+        private fun encodeBlock(block: FloatArray, divisors: FloatArray, previousDc: Int, dcTable: HuffmanTable, acTable: HuffmanTable): Int {
+            forwardDct(block)
+            for (i in 0 until 64) {
+                val v = block[i] * divisors[i]
+                quantized[i] = if (v >= 0) (v + 0.5f).toInt() else (v - 0.5f).toInt()
+            }
+
+            val dc = quantized[0]
+            writeValue(dc - previousDc, dcTable, 0)
+
+            var run = 0
+            for (k in 1 until 64) {
+                val v = quantized[ZIGZAG[k]]
+                if (v == 0) {
+                    run++
+                    continue
+                }
+                while (run > 15) {
+                    writeBits(acTable.codes[0xF0], acTable.lengths[0xF0])
+                    run -= 16
+                }
+                writeValue(v, acTable, run shl 4)
+                run = 0
+            }
+            if (run > 0) writeBits(acTable.codes[0x00], acTable.lengths[0x00])
+            return dc
+        }
+
+        private fun writeValue(value: Int, table: HuffmanTable, symbolHigh: Int) {
+            val magnitude = if (value < 0) -value else value
+            val category = 32 - Integer.numberOfLeadingZeros(magnitude)
+            val symbol = symbolHigh or category
+            writeBits(table.codes[symbol], table.lengths[symbol])
+            if (category > 0) writeBits(if (value < 0) value - 1 else value, category)
+        }
+
+        private fun writeBits(value: Int, count: Int) {
+            bitBuffer = (bitBuffer shl count) or (value and ((1 shl count) - 1))
+            bitCount += count
+            while (bitCount >= 8) {
+                bitCount -= 8
+                val byte = (bitBuffer shr bitCount) and 0xFF
+                putByte(byte)
+                if (byte == 0xFF) putByte(0x00)
+            }
+            bitBuffer = bitBuffer and ((1 shl bitCount) - 1)
+        }
+
+        private fun putByte(byte: Int) {
+            if (size == bytes.size) bytes = bytes.copyOf(bytes.size * 2)
+            bytes[size++] = byte.toByte()
+        }
+    }
+
+    private class HuffmanTable(bits: IntArray, values: IntArray) {
+        val codes = IntArray(256)
+        val lengths = IntArray(256)
+
+        init {
+            var code = 0
+            var k = 0
+            for (length in 1..16) {
+                repeat(bits[length - 1]) {
+                    codes[values[k]] = code
+                    lengths[values[k]] = length
+                    code++
+                    k++
+                }
+                code = code shl 1
+            }
+        }
+    }
+
+    private companion object {
+        private val ZIGZAG = intArrayOf(
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+        )
+
+        private val LUMA_QUANT = intArrayOf(
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99
+        )
+
+        private val CHROMA_QUANT = IntArray(64) { 99 }.apply {
+            intArrayOf(17, 18, 24, 47, 18, 21, 26, 66, 24, 26, 56, 99, 47, 66, 99, 99)
+                .forEachIndexed { i, v -> this[(i / 4) * 8 + i % 4] = v }
+        }
+
+        private val AAN_SCALE = floatArrayOf(1f, 1.3870399f, 1.306563f, 1.1758755f, 1f, 0.78569496f, 0.5411961f, 0.27589938f)
+
+        private val DC_LUMA_BITS = intArrayOf(0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0)
+        private val DC_CHROMA_BITS = intArrayOf(0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0)
+        private val DC_VALUES = IntArray(12) { it }
+
+        private val AC_LUMA_BITS = intArrayOf(0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7D)
+        private val AC_LUMA_VALUES = intArrayOf(
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xA1, 0x08, 0x23, 0x42, 0xB1, 0xC1, 0x15, 0x52, 0xD1, 0xF0,
+            0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0A, 0x16, 0x17, 0x18, 0x19, 0x1A, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2A, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3A, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4A, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5A, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6A, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7A, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8A, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9A, 0xA2, 0xA3, 0xA4, 0xA5, 0xA6, 0xA7,
+            0xA8, 0xA9, 0xAA, 0xB2, 0xB3, 0xB4, 0xB5, 0xB6, 0xB7, 0xB8, 0xB9, 0xBA, 0xC2, 0xC3, 0xC4, 0xC5,
+            0xC6, 0xC7, 0xC8, 0xC9, 0xCA, 0xD2, 0xD3, 0xD4, 0xD5, 0xD6, 0xD7, 0xD8, 0xD9, 0xDA, 0xE1, 0xE2,
+            0xE3, 0xE4, 0xE5, 0xE6, 0xE7, 0xE8, 0xE9, 0xEA, 0xF1, 0xF2, 0xF3, 0xF4, 0xF5, 0xF6, 0xF7, 0xF8,
+            0xF9, 0xFA
+        )
+
+        private val AC_CHROMA_BITS = intArrayOf(0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77)
+        private val AC_CHROMA_VALUES = intArrayOf(
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+            0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xA1, 0xB1, 0xC1, 0x09, 0x23, 0x33, 0x52, 0xF0,
+            0x15, 0x62, 0x72, 0xD1, 0x0A, 0x16, 0x24, 0x34, 0xE1, 0x25, 0xF1, 0x17, 0x18, 0x19, 0x1A, 0x26,
+            0x27, 0x28, 0x29, 0x2A, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3A, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+            0x49, 0x4A, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5A, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6A, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7A, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+            0x88, 0x89, 0x8A, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9A, 0xA2, 0xA3, 0xA4, 0xA5,
+            0xA6, 0xA7, 0xA8, 0xA9, 0xAA, 0xB2, 0xB3, 0xB4, 0xB5, 0xB6, 0xB7, 0xB8, 0xB9, 0xBA, 0xC2, 0xC3,
+            0xC4, 0xC5, 0xC6, 0xC7, 0xC8, 0xC9, 0xCA, 0xD2, 0xD3, 0xD4, 0xD5, 0xD6, 0xD7, 0xD8, 0xD9, 0xDA,
+            0xE2, 0xE3, 0xE4, 0xE5, 0xE6, 0xE7, 0xE8, 0xE9, 0xEA, 0xF2, 0xF3, 0xF4, 0xF5, 0xF6, 0xF7, 0xF8,
+            0xF9, 0xFA
+        )
+
+        private val LUMA_DC = HuffmanTable(DC_LUMA_BITS, DC_VALUES)
+        private val CHROMA_DC = HuffmanTable(DC_CHROMA_BITS, DC_VALUES)
+        private val LUMA_AC = HuffmanTable(AC_LUMA_BITS, AC_LUMA_VALUES)
+        private val CHROMA_AC = HuffmanTable(AC_CHROMA_BITS, AC_CHROMA_VALUES)
+
+        private val SOI_APP0 = byteArrayOf(
+            0xFF.toByte(), 0xD8.toByte(), // SOI
+            0xFF.toByte(), 0xE0.toByte(), 0, 16, 'J'.code.toByte(), 'F'.code.toByte(), 'I'.code.toByte(), 'F'.code.toByte(), 0,
+            1, 1, 0, 0, 1, 0, 1, 0, 0 // JFIF 1.1, aspect 1:1, no thumbnail
+        )
+
+        private val DHT: ByteArray = java.io.ByteArrayOutputStream().apply {
+            fun table(classAndId: Int, bits: IntArray, values: IntArray) {
+                write(0xFF); write(0xC4)
+                val length = 2 + 1 + 16 + values.size
+                write(length shr 8); write(length and 0xFF)
+                write(classAndId)
+                bits.forEach { write(it) }
+                values.forEach { write(it) }
+            }
+            table(0x00, DC_LUMA_BITS, DC_VALUES)
+            table(0x10, AC_LUMA_BITS, AC_LUMA_VALUES)
+            table(0x01, DC_CHROMA_BITS, DC_VALUES)
+            table(0x11, AC_CHROMA_BITS, AC_CHROMA_VALUES)
+        }.toByteArray()
+
+        private fun OutputStream.writeShort(value: Int) {
+            write(value shr 8)
+            write(value and 0xFF)
+        }
+
+        private fun OutputStream.writeMarker(marker: Int, length: Int) {
+            write(0xFF)
+            write(marker)
+            writeShort(length)
+        }
+
+        // AAN float forward DCT (jfdctflt.c); output is scaled by AAN_SCALE[row] * AAN_SCALE[col] * 8
+        private fun forwardDct(d: FloatArray) {
+            for (pass in 0 until 2) {
+                val step = if (pass == 0) 1 else 8
+                val next = if (pass == 0) 8 else 1
+                var p = 0
+                repeat(8) {
+                    val tmp0 = d[p] + d[p + 7 * step]
+                    val tmp7 = d[p] - d[p + 7 * step]
+                    val tmp1 = d[p + step] + d[p + 6 * step]
+                    val tmp6 = d[p + step] - d[p + 6 * step]
+                    val tmp2 = d[p + 2 * step] + d[p + 5 * step]
+                    val tmp5 = d[p + 2 * step] - d[p + 5 * step]
+                    val tmp3 = d[p + 3 * step] + d[p + 4 * step]
+                    val tmp4 = d[p + 3 * step] - d[p + 4 * step]
+
+                    var tmp10 = tmp0 + tmp3
+                    val tmp13 = tmp0 - tmp3
+                    var tmp11 = tmp1 + tmp2
+                    var tmp12 = tmp1 - tmp2
+
+                    d[p] = tmp10 + tmp11
+                    d[p + 4 * step] = tmp10 - tmp11
+                    val z1 = (tmp12 + tmp13) * 0.70710677f
+                    d[p + 2 * step] = tmp13 + z1
+                    d[p + 6 * step] = tmp13 - z1
+
+                    tmp10 = tmp4 + tmp5
+                    tmp11 = tmp5 + tmp6
+                    tmp12 = tmp6 + tmp7
+                    val z5 = (tmp10 - tmp12) * 0.38268343f
+                    val z2 = 0.5411961f * tmp10 + z5
+                    val z4 = 1.306563f * tmp12 + z5
+                    val z3 = tmp11 * 0.70710677f
+                    val z11 = tmp7 + z3
+                    val z13 = tmp7 - z3
+
+                    d[p + 5 * step] = z13 + z2
+                    d[p + 3 * step] = z13 - z2
+                    d[p + step] = z11 + z4
+                    d[p + 7 * step] = z11 - z4
+
+                    p += next
+                }
+            }
+        }
+    }
+}
@@ -21,6 +21,8 @@ public interface MjpegSettings {
         public val HTML_KEEP_IMAGE_ON_RECONNECT: Preferences.Key<Boolean> = booleanPreferencesKey("HTML_KEEP_IMAGE_ON_RECONNECT")
         public val HTML_BACK_COLOR: Preferences.Key<Int> = intPreferencesKey("HTML_BACK_COLOR")
         public val HTML_FIT_WINDOW: Preferences.Key<Boolean> = booleanPreferencesKey("HTML_FIT_WINDOW")
+        public val HTML_SHOW_LATENCY: Preferences.Key<Boolean> = booleanPreferencesKey("HTML_SHOW_LATENCY")
+        public val HTML_WEBSOCKET_STREAM: Preferences.Key<Boolean> = booleanPreferencesKey("HTML_WEBSOCKET_STREAM")
 
         public val VR_MODE: Preferences.Key<Int> = intPreferencesKey("VR_MODE")
         public val IMAGE_CROP: Preferences.Key<Boolean> = booleanPreferencesKey("IMAGE_CROP")
@@ -30,6 +32,7 @@ public interface MjpegSettings {
         public val IMAGE_CROP_RIGHT: Preferences.Key<Int> = intPreferencesKey("IMAGE_CROP_RIGHT")
         public val IMAGE_GRAYSCALE: Preferences.Key<Boolean> = booleanPreferencesKey("IMAGE_GRAYSCALE")
         public val JPEG_QUALITY: Preferences.Key<Int> = intPreferencesKey("JPEG_QUALITY")
+        public val JPEG_ENCODER_PARALLEL: Preferences.Key<Boolean> = booleanPreferencesKey("JPEG_ENCODER_PARALLEL")
         public val RESIZE_FACTOR: Preferences.Key<Int> = intPreferencesKey("RESIZE_FACTOR")
         public val RESOLUTION_WIDTH: Preferences.Key<Int> = intPreferencesKey("RESOLUTION_WIDTH")
         public val RESOLUTION_HEIGHT: Preferences.Key<Int> = intPreferencesKey("RESOLUTION_HEIGHT")
@@ -63,6 +66,8 @@ public interface MjpegSettings {
         public const val HTML_KEEP_IMAGE_ON_RECONNECT: Boolean = true
         public const val HTML_BACK_COLOR: Int = -15723496// "FF101418".toLong(radix = 16).toInt()
         public const val HTML_FIT_WINDOW: Boolean = true
+        public const val HTML_SHOW_LATENCY: Boolean = false
+        public const val HTML_WEBSOCKET_STREAM: Boolean = false
 
         public const val VR_MODE_DISABLE: Int = 0
         public const val VR_MODE_LEFT: Int = 1
@@ -74,6 +79,7 @@ public interface MjpegSettings {
         public const val IMAGE_CROP_RIGHT: Int = 0
         public const val IMAGE_GRAYSCALE: Boolean = false
         public const val JPEG_QUALITY: Int = 80
+        public const val JPEG_ENCODER_PARALLEL: Boolean = false
         public const val RESIZE_FACTOR: Int = 50
         public const val RESOLUTION_WIDTH: Int = 0
         public const val RESOLUTION_HEIGHT: Int = 0
@@ -139,6 +145,8 @@ public interface MjpegSettings {
         public val htmlKeepImageOnReconnect: Boolean = Default.HTML_KEEP_IMAGE_ON_RECONNECT,
         public val htmlBackColor: Int = Default.HTML_BACK_COLOR,
         public val htmlFitWindow: Boolean = Default.HTML_FIT_WINDOW,
+        public val htmlShowLatency: Boolean = Default.HTML_SHOW_LATENCY,
+        public val htmlWebSocketStream: Boolean = Default.HTML_WEBSOCKET_STREAM,
 
         public val vrMode: Int = Default.VR_MODE_DISABLE,
         public val imageCrop: Boolean = Default.IMAGE_CROP,
@@ -148,6 +156,7 @@ public interface MjpegSettings {
         public val imageCropRight: Int = Default.IMAGE_CROP_RIGHT,
         public val imageGrayscale: Boolean = Default.IMAGE_GRAYSCALE,
         public val jpegQuality: Int = Default.JPEG_QUALITY,
+        public val jpegEncoderParallel: Boolean = Default.JPEG_ENCODER_PARALLEL,
         public val resizeFactor: Int = Default.RESIZE_FACTOR,
         public val resolutionWidth: Int = Default.RESOLUTION_WIDTH,
         public val resolutionHeight: Int = Default.RESOLUTION_HEIGHT,
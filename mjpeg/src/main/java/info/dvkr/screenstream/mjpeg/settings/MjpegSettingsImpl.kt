@@ -75,6 +75,12 @@ internal class MjpegSettingsImpl(context: Context) : MjpegSettings {
                 if (newSettings.htmlFitWindow != MjpegSettings.Default.HTML_FIT_WINDOW)
                     set(MjpegSettings.Key.HTML_FIT_WINDOW, newSettings.htmlFitWindow)
 
+                if (newSettings.htmlShowLatency != MjpegSettings.Default.HTML_SHOW_LATENCY)
+                    set(MjpegSettings.Key.HTML_SHOW_LATENCY, newSettings.htmlShowLatency)
+
+                if (newSettings.htmlWebSocketStream != MjpegSettings.Default.HTML_WEBSOCKET_STREAM)
+                    set(MjpegSettings.Key.HTML_WEBSOCKET_STREAM, newSettings.htmlWebSocketStream)
+
 
                 if (newSettings.vrMode != MjpegSettings.Default.VR_MODE_DISABLE)
                     set(MjpegSettings.Key.VR_MODE, newSettings.vrMode)
@@ -100,6 +106,9 @@ internal class MjpegSettingsImpl(context: Context) : MjpegSettings {
                 if (newSettings.jpegQuality != MjpegSettings.Default.JPEG_QUALITY)
                     set(MjpegSettings.Key.JPEG_QUALITY, newSettings.jpegQuality)
 
+                if (newSettings.jpegEncoderParallel != MjpegSettings.Default.JPEG_ENCODER_PARALLEL)
+                    set(MjpegSettings.Key.JPEG_ENCODER_PARALLEL, newSettings.jpegEncoderParallel)
+
                 if (newSettings.resizeFactor != MjpegSettings.Default.RESIZE_FACTOR)
                     set(MjpegSettings.Key.RESIZE_FACTOR, newSettings.resizeFactor)
 
@@ -170,6 +179,8 @@ internal class MjpegSettingsImpl(context: Context) : MjpegSettings {
         htmlKeepImageOnReconnect = this[MjpegSettings.Key.HTML_KEEP_IMAGE_ON_RECONNECT] ?: MjpegSettings.Default.HTML_KEEP_IMAGE_ON_RECONNECT,
         htmlBackColor = this[MjpegSettings.Key.HTML_BACK_COLOR] ?: MjpegSettings.Default.HTML_BACK_COLOR,
         htmlFitWindow = this[MjpegSettings.Key.HTML_FIT_WINDOW] ?: MjpegSettings.Default.HTML_FIT_WINDOW,
+        htmlShowLatency = this[MjpegSettings.Key.HTML_SHOW_LATENCY] ?: MjpegSettings.Default.HTML_SHOW_LATENCY,
+        htmlWebSocketStream = this[MjpegSettings.Key.HTML_WEBSOCKET_STREAM] ?: MjpegSettings.Default.HTML_WEBSOCKET_STREAM,
 
         vrMode = this[MjpegSettings.Key.VR_MODE] ?: MjpegSettings.Default.VR_MODE_DISABLE,
         imageCrop = this[MjpegSettings.Key.IMAGE_CROP] ?: MjpegSettings.Default.IMAGE_CROP,
@@ -179,6 +190,7 @@ internal class MjpegSettingsImpl(context: Context) : MjpegSettings {
         imageCropRight = this[MjpegSettings.Key.IMAGE_CROP_RIGHT] ?: MjpegSettings.Default.IMAGE_CROP_RIGHT,
         imageGrayscale = this[MjpegSettings.Key.IMAGE_GRAYSCALE] ?: MjpegSettings.Default.IMAGE_GRAYSCALE,
         jpegQuality = this[MjpegSettings.Key.JPEG_QUALITY] ?: MjpegSettings.Default.JPEG_QUALITY,
+        jpegEncoderParallel = this[MjpegSettings.Key.JPEG_ENCODER_PARALLEL] ?: MjpegSettings.Default.JPEG_ENCODER_PARALLEL,
         resizeFactor = this[MjpegSettings.Key.RESIZE_FACTOR] ?: MjpegSettings.Default.RESIZE_FACTOR,
         resolutionWidth = this[MjpegSettings.Key.RESOLUTION_WIDTH] ?: MjpegSettings.Default.RESOLUTION_WIDTH,
         resolutionHeight = this[MjpegSettings.Key.RESOLUTION_HEIGHT] ?: MjpegSettings.Default.RESOLUTION_HEIGHT,
@@ -128,7 +128,7 @@ internal fun MjpegMainScreenUI(
             }
 
             item(key = "TRAFFIC") {
-                TrafficCard(traffic = state.traffic, modifier = Modifier.padding(8.dp))
+                TrafficCard(traffic = state.traffic, frameStats = state.frameStats, modifier = Modifier.padding(8.dp))
             }
 
             item(key = "CLIENTS") {
@@ -1,9 +1,11 @@
 package info.dvkr.screenstream.mjpeg.ui.main.cards
 
+import androidx.compose.foundation.layout.Column
 import androidx.compose.foundation.layout.Row
 import androidx.compose.foundation.layout.fillMaxWidth
 import androidx.compose.foundation.layout.padding
 import androidx.compose.material3.HorizontalDivider
+import androidx.compose.material3.MaterialTheme
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
 import androidx.compose.runtime.mutableStateOf
@@ -62,15 +64,37 @@ private fun MjpegClient(
     client: MjpegState.Client,
     modifier: Modifier = Modifier
 ) {
-    Row(modifier = modifier.fillMaxWidth()) {
-        val clientState = when (client.state) {
-            MjpegState.Client.State.CONNECTED -> stringResource(id = R.string.mjpeg_stream_client_connected)
-            MjpegState.Client.State.SLOW_CONNECTION -> stringResource(id = R.string.mjpeg_stream_client_slow_network)
-            MjpegState.Client.State.DISCONNECTED -> stringResource(id = R.string.mjpeg_stream_client_disconnected)
-            MjpegState.Client.State.BLOCKED -> stringResource(id = R.string.mjpeg_stream_client_blocked)
+    Column(modifier = modifier.fillMaxWidth()) {
+        Row(modifier = Modifier.fillMaxWidth()) {
+            val clientState = when (client.state) {
+                MjpegState.Client.State.CONNECTED -> stringResource(id = R.string.mjpeg_stream_client_connected)
+                MjpegState.Client.State.SLOW_CONNECTION -> stringResource(id = R.string.mjpeg_stream_client_slow_network)
+                MjpegState.Client.State.DISCONNECTED -> stringResource(id = R.string.mjpeg_stream_client_disconnected)
+                MjpegState.Client.State.BLOCKED -> stringResource(id = R.string.mjpeg_stream_client_blocked)
+            }
+
+            Text(text = client.address, modifier = Modifier.weight(1F))
+            Text(text = if (client.reducedTier) stringResource(id = R.string.mjpeg_stream_client_reduced_tier, clientState) else clientState)
         }
 
-        Text(text = client.address, modifier = Modifier.weight(1F))
-        Text(text = clientState)
+        if (client.state == MjpegState.Client.State.CONNECTED || client.state == MjpegState.Client.State.SLOW_CONNECTION) {
+            Text(
+                text = stringResource(
+                    id = R.string.mjpeg_stream_client_stats,
+                    client.stats.fps, client.stats.writeP50Millis, client.stats.writeP95Millis,
+                    client.stats.captureToFlushP95Millis, client.stats.droppedFrames
+                ),
+                style = MaterialTheme.typography.bodySmall
+            )
+            if (client.stats.glassToGlassP95Millis > 0) {
+                Text(
+                    text = stringResource(
+                        id = R.string.mjpeg_stream_client_latency_stats,
+                        client.stats.encodedToFlushP95Millis, client.stats.glassToGlassP50Millis, client.stats.glassToGlassP95Millis
+                    ),
+                    style = MaterialTheme.typography.bodySmall
+                )
+            }
+        }
     }
 }
@@ -28,6 +28,8 @@ import info.dvkr.screenstream.mjpeg.ui.main.settings.general.HtmlBackColorRow
 import info.dvkr.screenstream.mjpeg.ui.main.settings.general.HtmlEnableButtonsRow
 import info.dvkr.screenstream.mjpeg.ui.main.settings.general.HtmlFitWindowRow
 import info.dvkr.screenstream.mjpeg.ui.main.settings.general.HtmlKeepImageOnReconnectRow
+import info.dvkr.screenstream.mjpeg.ui.main.settings.general.HtmlShowLatencyRow
+import info.dvkr.screenstream.mjpeg.ui.main.settings.general.HtmlWebSocketStreamRow
 import info.dvkr.screenstream.mjpeg.ui.main.settings.general.HtmlShowPressStartRow
 import info.dvkr.screenstream.mjpeg.ui.main.settings.general.KeepAwakeRow
 import info.dvkr.screenstream.mjpeg.ui.main.settings.general.NotifySlowConnectionsRow
@@ -109,6 +111,16 @@ internal fun GeneralSettingsCard(
         HtmlKeepImageOnReconnectRow(settings.htmlKeepImageOnReconnect) { newValue ->
             updateSettings { copy(htmlKeepImageOnReconnect = newValue) }
         }
+        HorizontalDivider()
+
+        HtmlShowLatencyRow(settings.htmlShowLatency) { newValue ->
+            updateSettings { copy(htmlShowLatency = newValue) }
+        }
+        HorizontalDivider()
+
+        HtmlWebSocketStreamRow(settings.htmlWebSocketStream) { newValue ->
+            updateSettings { copy(htmlWebSocketStream = newValue) }
+        }
 
         selectedSheet?.let { sheet ->
             MjpegSettingModal(
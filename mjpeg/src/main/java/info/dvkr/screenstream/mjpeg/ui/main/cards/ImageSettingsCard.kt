@@ -29,6 +29,7 @@ import info.dvkr.screenstream.mjpeg.ui.main.settings.image.JpegQualityEditor
 import info.dvkr.screenstream.mjpeg.ui.main.settings.image.JpegQualityRow
 import info.dvkr.screenstream.mjpeg.ui.main.settings.image.MaxFpsEditor
 import info.dvkr.screenstream.mjpeg.ui.main.settings.image.MaxFpsRow
+import info.dvkr.screenstream.mjpeg.ui.main.settings.image.ParallelJpegEncoderRow
 import info.dvkr.screenstream.mjpeg.ui.main.settings.image.ResizeImageEditor
 import info.dvkr.screenstream.mjpeg.ui.main.settings.image.ResizeImageRow
 import info.dvkr.screenstream.mjpeg.ui.main.settings.image.RotationEditor
@@ -103,6 +104,11 @@ internal fun ImageSettingsCard(
         HorizontalDivider()
 
         JpegQualityRow(settings.jpegQuality) { selectedSheet = ImageSettingSheet.JpegQuality }
+        HorizontalDivider()
+
+        ParallelJpegEncoderRow(settings.jpegEncoderParallel) { value ->
+            updateSettings { copy(jpegEncoderParallel = value) }
+        }
 
         selectedSheet?.let { sheet ->
             MjpegSettingModal(
@@ -45,6 +45,7 @@ import kotlin.math.max
 @Composable
 internal fun TrafficCard(
     traffic: List<MjpegState.TrafficPoint>,
+    frameStats: MjpegState.FrameStats,
     modifier: Modifier = Modifier,
 ) {
     val expanded = rememberSaveable { mutableStateOf(false) }
@@ -99,6 +100,29 @@ internal fun TrafficCard(
                     .height(160.dp)
             )
         }
+
+        Text(
+            text = stringResource(
+                id = R.string.mjpeg_stream_frame_stats, frameStats.encodedFps, frameStats.skippedFps, frameStats.allocatedBytesPerFrame
+            ),
+            style = MaterialTheme.typography.bodySmall,
+            modifier = Modifier.padding(start = 16.dp, end = 16.dp, top = 8.dp)
+        )
+        Text(
+            text = stringResource(
+                id = R.string.mjpeg_stream_buffer_pool_stats, frameStats.poolHits, frameStats.poolMisses, frameStats.buffersInFlight
+            ),
+            style = MaterialTheme.typography.bodySmall,
+            modifier = Modifier.padding(start = 16.dp, end = 16.dp, top = 8.dp)
+        )
+        Text(
+            text = stringResource(
+                id = R.string.mjpeg_stream_latency_stats,
+                frameStats.captureToEncodeP95Millis, frameStats.encodeP50Millis, frameStats.encodeP95Millis
+            ),
+            style = MaterialTheme.typography.bodySmall,
+            modifier = Modifier.padding(horizontal = 16.dp, vertical = 8.dp)
+        )
     }
 }
 
@@ -0,0 +1,21 @@
+package info.dvkr.screenstream.mjpeg.ui.main.settings.general
+
+import androidx.compose.runtime.Composable
+import androidx.compose.ui.res.stringResource
+import info.dvkr.screenstream.mjpeg.R
+import info.dvkr.screenstream.mjpeg.ui.main.settings.common.SettingSwitchRow
+
+@Composable
+internal fun HtmlShowLatencyRow(
+    htmlShowLatency: Boolean,
+    onValueChange: (Boolean) -> Unit
+) {
+    SettingSwitchRow(
+        enabled = true,
+        checked = htmlShowLatency,
+        iconRes = R.drawable.timer_24px,
+        title = stringResource(R.string.mjpeg_pref_html_show_latency),
+        summary = stringResource(R.string.mjpeg_pref_html_show_latency_summary),
+        onValueChange = onValueChange
+    )
+}
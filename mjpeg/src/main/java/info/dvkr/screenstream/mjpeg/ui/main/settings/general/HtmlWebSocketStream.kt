@@ -0,0 +1,21 @@
+package info.dvkr.screenstream.mjpeg.ui.main.settings.general
+
+import androidx.compose.runtime.Composable
+import androidx.compose.ui.res.stringResource
+import info.dvkr.screenstream.mjpeg.R
+import info.dvkr.screenstream.mjpeg.ui.main.settings.common.SettingSwitchRow
+
+@Composable
+internal fun HtmlWebSocketStreamRow(
+    htmlWebSocketStream: Boolean,
+    onValueChange: (Boolean) -> Unit
+) {
+    SettingSwitchRow(
+        enabled = true,
+        checked = htmlWebSocketStream,
+        iconRes = R.drawable.settings_ethernet_24px,
+        title = stringResource(R.string.mjpeg_pref_html_websocket_stream),
+        summary = stringResource(R.string.mjpeg_pref_html_websocket_stream_summary),
+        onValueChange = onValueChange
+    )
+}
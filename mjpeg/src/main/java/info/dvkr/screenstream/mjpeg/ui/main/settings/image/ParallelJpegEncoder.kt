@@ -0,0 +1,21 @@
+package info.dvkr.screenstream.mjpeg.ui.main.settings.image
+
+import androidx.compose.runtime.Composable
+import androidx.compose.ui.res.stringResource
+import info.dvkr.screenstream.mjpeg.R
+import info.dvkr.screenstream.mjpeg.ui.main.settings.common.SettingSwitchRow
+
+@Composable
+internal fun ParallelJpegEncoderRow(
+    jpegEncoderParallel: Boolean,
+    onValueChange: (Boolean) -> Unit
+) {
+    SettingSwitchRow(
+        enabled = true,
+        checked = jpegEncoderParallel,
+        iconRes = R.drawable.burst_mode_24px,
+        title = stringResource(R.string.mjpeg_pref_jpeg_encoder_parallel),
+        summary = stringResource(R.string.mjpeg_pref_jpeg_encoder_parallel_summary),
+        onValueChange = onValueChange
+    )
+}
@@ -16,6 +16,7 @@ internal data class MjpegState(
     val pin: Pin = Pin(MjpegSettings.Default.ENABLE_PIN, MjpegSettings.Default.PIN, MjpegSettings.Default.HIDE_PIN_ON_START),
     val clients: List<Client> = emptyList(),
     val traffic: List<TrafficPoint> = emptyList(),
+    val frameStats: FrameStats = FrameStats(),
     val error: MjpegError? = null
 ) {
     @Immutable
@@ -25,13 +26,44 @@ internal data class MjpegState(
     internal data class Pin(val enablePin: Boolean, val pin: String, val hidePinOnStream: Boolean)
 
     @Immutable
-    internal data class Client(val id: String, val address: String, val state: State) {
+    internal data class Client(
+        val id: String,
+        val address: String,
+        val state: State,
+        val reducedTier: Boolean = false,
+        val stats: Stats = Stats()
+    ) {
         internal enum class State { CONNECTED, SLOW_CONNECTION, DISCONNECTED, BLOCKED }
+
+        @Immutable
+        internal data class Stats(
+            val fps: Int = 0,
+            val writeP50Millis: Long = 0,
+            val writeP95Millis: Long = 0,
+            val captureToFlushP95Millis: Long = 0,
+            val encodedToFlushP95Millis: Long = 0,
+            val glassToGlassP50Millis: Long = 0,
+            val glassToGlassP95Millis: Long = 0,
+            val droppedFrames: Long = 0
+        )
     }
 
     @Immutable
     internal data class TrafficPoint(val time: Long, val MBytes: Float)
 
+    @Immutable
+    internal data class FrameStats(
+        val encodedFps: Int = 0,
+        val skippedFps: Int = 0,
+        val allocatedBytesPerFrame: Long = 0,
+        val poolHits: Long = 0,
+        val poolMisses: Long = 0,
+        val buffersInFlight: Int = 0,
+        val captureToEncodeP95Millis: Long = 0,
+        val encodeP50Millis: Long = 0,
+        val encodeP95Millis: Long = 0
+    )
+
     override fun toString(): String =
         "MjpegState(busy=$isBusy wait=$waitingCastPermission start=$startAttemptId str=$isStreaming ifs=${serverNetInterfaces.size} clients=${clients.size} err=$error)"
 }
@@ -0,0 +1,68 @@
+package info.dvkr.screenstream.rtsp.internal
+
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.RtpPacketPool
+import java.nio.ByteBuffer
+
+internal sealed class MediaFrame {
+    data class Info(val offset: Int, val size: Int, val timestamp: Long, val isKeyFrame: Boolean)
+
+    abstract val data: ByteBuffer
+    abstract val info: Info
+
+    /**
+     * Must be called once you have finished reading from [data].
+     * This releases the MediaCodec buffer back to the codec.
+     */
+    abstract fun release()
+
+    data class VideoFrame(override val data: ByteBuffer, override val info: Info, private val releaseCallback: () -> Unit) : MediaFrame() {
+        override fun release() = releaseCallback.invoke()
+    }
+
+    data class AudioFrame(override val data: ByteBuffer, override val info: Info, private val releaseCallback: () -> Unit) : MediaFrame() {
+        override fun release() = releaseCallback.invoke()
+    }
+
+    internal fun detachedCopy(): MediaFrame {
+        val source = data.duplicate().apply {
+            position(info.offset)
+            limit(info.offset + info.size)
+        }
+        val bytes = ByteArray(info.size).also { source.get(it) }
+        val copiedInfo = info.copy(offset = 0, size = bytes.size)
+        val copiedBuffer = ByteBuffer.wrap(bytes)
+
+        return when (this) {
+            is VideoFrame -> VideoFrame(copiedBuffer, copiedInfo) {}
+            is AudioFrame -> AudioFrame(copiedBuffer, copiedInfo) {}
+        }
+    }
+}
+
+internal sealed class RtpFrame(val trackId: Int, val buffer: ByteArray, timeStamp: Long, length: Int) {
+    class Video(buffer: ByteArray, timeStamp: Long, length: Int) : RtpFrame(VIDEO_TRACK_ID, buffer, timeStamp, length)
+    class Audio(buffer: ByteArray, timeStamp: Long, length: Int) : RtpFrame(AUDIO_TRACK_ID, buffer, timeStamp, length)
+
+    var timeStamp: Long = timeStamp
+        internal set
+
+    // Valid bytes in [buffer], pooled buffers are larger than the packet
+    var length: Int = length
+        internal set
+
+    internal var pool: RtpPacketPool? = null
+    internal var inPool: Boolean = false
+
+    /**
+     * Must be called once the packet is written to every socket, returns pooled packets to their [RtpPacketPool].
+     * The packet must not be used after release.
+     */
+    internal fun release() {
+        pool?.recycle(this)
+    }
+
+    companion object {
+        const val VIDEO_TRACK_ID: Int = 0
+        const val AUDIO_TRACK_ID: Int = 1
+    }
+}
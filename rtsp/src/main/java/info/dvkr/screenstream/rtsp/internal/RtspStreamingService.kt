@@ -9,6 +9,7 @@ import android.content.res.Configuration
 import android.hardware.display.DisplayManager
 import android.hardware.display.VirtualDisplay
 import android.media.MediaCodec
+import android.media.MediaCodecInfo
 import android.media.MediaRecorder
 import android.media.projection.MediaProjection
 import android.media.projection.MediaProjectionManager
@@ -43,17 +44,22 @@ import info.dvkr.screenstream.rtsp.internal.audio.AudioEncoder
 import info.dvkr.screenstream.rtsp.internal.audio.AudioSource
 import info.dvkr.screenstream.rtsp.internal.onvif.OnvifServer
 import info.dvkr.screenstream.rtsp.internal.rtsp.RtspUrl
+import info.dvkr.screenstream.rtsp.internal.rtsp.client.ClientSendStats
 import info.dvkr.screenstream.rtsp.internal.rtsp.client.RtspClient
 import info.dvkr.screenstream.rtsp.internal.rtsp.server.ClientStats
+import info.dvkr.screenstream.rtsp.internal.rtsp.server.KeyFrameRequestStats
 import info.dvkr.screenstream.rtsp.internal.rtsp.server.NetworkHelper
 import info.dvkr.screenstream.rtsp.internal.rtsp.server.RtspServer
+import info.dvkr.screenstream.rtsp.internal.video.BitrateController
 import info.dvkr.screenstream.rtsp.internal.video.VideoEncoder
+import info.dvkr.screenstream.rtsp.internal.video.VideoTransform
 import info.dvkr.screenstream.rtsp.settings.RtspSettings
 import info.dvkr.screenstream.rtsp.ui.RtspBindError
 import info.dvkr.screenstream.rtsp.ui.RtspBinding
 import info.dvkr.screenstream.rtsp.ui.RtspClientStatus
 import info.dvkr.screenstream.rtsp.ui.RtspError
 import info.dvkr.screenstream.rtsp.ui.RtspState
+import info.dvkr.screenstream.rtsp.ui.VideoRenderStats
 import info.dvkr.screenstream.rtsp.ui.isStartupPolicyError
 import kotlinx.coroutines.CompletableJob
 import kotlinx.coroutines.CoroutineDispatcher
@@ -76,6 +82,7 @@ import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.withTimeoutOrNull
 import java.net.URISyntaxException
+import kotlin.math.min
 import kotlin.time.Duration.Companion.milliseconds
 import kotlin.uuid.Uuid
 
@@ -169,12 +176,16 @@ internal class RtspStreamingService(
         val mediaProjection: MediaProjection,
         val virtualDisplay: VirtualDisplay,
         val videoEncoder: VideoEncoder,
+        val subVideoEncoder: VideoEncoder? = null,
+        val subBitRate: Int = 0,
         var captureSurface: Surface,
         var audioEncoder: AudioEncoder? = null,
         var deviceConfiguration: Configuration,
+        val bitrateController: BitrateController? = null,
         val onVideoReconfigureStart: () -> Unit = {}
     ) {
         fun stop(projectionCallback: MediaProjection.Callback) {
+            subVideoEncoder?.stop()
             videoEncoder.stop()
             virtualDisplay.surface = null
             virtualDisplay.release()
@@ -185,18 +196,31 @@ internal class RtspStreamingService(
             mediaProjection.unregisterCallback(projectionCallback)
         }
 
-        fun reconfigureVideo(width: Int, height: Int, fps: Int, bitRate: Int, densityDpi: Int) {
+        fun encoderFor(rendition: VideoRendition): VideoEncoder? = when (rendition) {
+            VideoRendition.MAIN -> videoEncoder
+            VideoRendition.SUB -> subVideoEncoder
+        }
+
+        fun reconfigureVideo(
+            width: Int, height: Int, fps: Int, bitRate: Int, densityDpi: Int, captureWidth: Int, captureHeight: Int, transform: VideoTransform,
+            substreamSize: Pair<Int, Int>?
+        ) {
             val oldSurface = captureSurface
             onVideoReconfigureStart()
             virtualDisplay.surface = null
+            subVideoEncoder?.stop()
             videoEncoder.stop()
-            videoEncoder.prepare(width, height, fps, bitRate)
+            videoEncoder.prepare(width, height, fps, bitrateController?.bitrate ?: bitRate, captureWidth, captureHeight, transform)
+            if (subVideoEncoder != null && substreamSize != null) {
+                subVideoEncoder.prepareSecondary(videoEncoder, substreamSize.first, substreamSize.second, fps, subBitRate)
+            }
             val inputSurfaceTexture = videoEncoder.inputSurfaceTexture ?: throw IllegalStateException("VideoEncoder input surface is null")
             val newSurface = Surface(inputSurfaceTexture)
-            virtualDisplay.resize(width, height, densityDpi)
+            virtualDisplay.resize(captureWidth, captureHeight, densityDpi)
             virtualDisplay.surface = newSurface
             captureSurface = newSurface
             runCatching { oldSurface.release() }
+            subVideoEncoder?.start()
             videoEncoder.start()
         }
     }
@@ -208,6 +232,7 @@ internal class RtspStreamingService(
         var cachedIntent: Intent? = null,
         var active: ActiveProjection? = null,
         var lastVideoParams: VideoParams? = null,
+        var lastSubVideoParams: VideoParams? = null,
         var lastAudioParams: AudioParams? = null
     )
 
@@ -220,7 +245,9 @@ internal class RtspStreamingService(
         val enableIPv6: Boolean,
         val serverPort: Int,
         val serverPath: String,
-        val serverProtocol: RtspSettings.Values.ProtocolPolicy
+        val serverProtocol: RtspSettings.Values.ProtocolPolicy,
+        val udpPacketSize: Int,
+        val tcpPacketSize: Int
     )
 
     // All vars must be read/write on this (RTSP_HT) thread
@@ -231,6 +258,7 @@ internal class RtspStreamingService(
     private var clientController: RtspClientController? = null
 
     private var currentError: RtspError? = null
+    private var videoRenderStats: VideoRenderStats = VideoRenderStats()
     private var previousError: RtspError? = null
     private var audioCaptureDisabled: Boolean = false
     private var audioIssueToastShown: Boolean = false
@@ -241,11 +269,11 @@ internal class RtspStreamingService(
 
     private inner class ResizeConflateActor(
         private val projection: ActiveProjection,
-        initialEncodedWidth: Int,
-        initialEncodedHeight: Int
+        initialCaptureWidth: Int,
+        initialCaptureHeight: Int
     ) {
         private val resizeRequests = Channel<Pair<Int, Int>>(Channel.CONFLATED)
-        private var encodedSize: Pair<Int, Int> = initialEncodedWidth to initialEncodedHeight
+        private var captureSize: Pair<Int, Int> = initialCaptureWidth to initialCaptureHeight
         private val job: Job = coroutineScope.launch {
             for (source in resizeRequests) {
                 val activeProjection = projectionState.active
@@ -253,10 +281,15 @@ internal class RtspStreamingService(
 
                 val videoCapabilities = selectedVideoEncoderInfo?.capabilities?.videoCapabilities ?: continue
                 val settings = rtspSettings.data.value
-                val (_, targetWidth, targetHeight) = videoCapabilities.adjustResizeFactor(
+                val (_, captureWidth, captureHeight) = videoCapabilities.adjustResizeFactor(
                     source.first, source.second, settings.videoResizeFactor / 100
                 )
-                if (targetWidth == encodedSize.first && targetHeight == encodedSize.second) continue
+                if (captureWidth == captureSize.first && captureHeight == captureSize.second) continue
+                val videoTransform = VideoTransform.from(settings, source.first, source.second)
+                val (targetWidth, targetHeight) = videoCapabilities.adjustOutputSize(videoTransform, captureWidth, captureHeight)
+                val substreamSize = projection.subVideoEncoder?.let {
+                    videoCapabilities.adjustSubstreamSize(targetWidth, targetHeight, settings.videoSubstreamHeight)
+                }
 
                 try {
                     activeProjection.reconfigureVideo(
@@ -264,9 +297,13 @@ internal class RtspStreamingService(
                         height = targetHeight,
                         fps = settings.videoFps.coerceIn(videoCapabilities.supportedFrameRates.toClosedRange()),
                         bitRate = settings.videoBitrateBits.coerceIn(videoCapabilities.bitrateRange.toClosedRange()),
-                        densityDpi = service.resources.displayMetrics.densityDpi
+                        densityDpi = service.resources.displayMetrics.densityDpi,
+                        captureWidth = captureWidth,
+                        captureHeight = captureHeight,
+                        transform = videoTransform,
+                        substreamSize = substreamSize
                     )
-                    encodedSize = targetWidth to targetHeight
+                    captureSize = captureWidth to captureHeight
                 } catch (cause: Throwable) {
                     sendEvent(InternalEvent.Error(cause.toVideoReconfigureError()))
                     return@launch
@@ -294,6 +331,9 @@ internal class RtspStreamingService(
         val statsSnapshot: List<ClientStats>
             get() = server?.getClientStatsSnapshot().orEmpty()
 
+        val keyFrameRequests: KeyFrameRequestStats
+            get() = server?.getKeyFrameRequestStats() ?: KeyFrameRequestStats()
+
         private var generation: Long = 0L
         private var statsHeartbeatJob: Job? = null
         private var discoveredBindings: List<DiscoveredBinding> = emptyList()
@@ -347,6 +387,7 @@ internal class RtspStreamingService(
                             val port = rtspSettings.data.value.serverPort
                             val path = rtspSettings.data.value.serverPath
                             val protocolPolicy = rtspSettings.data.value.serverProtocol
+                            val packetSize = rtspSettings.data.value.run { RtpPacketSize(udp = udpPacketSize, tcp = tcpPacketSize) }
 
                             discoveredBindings = netInterfaces.map { netInterface ->
                                 DiscoveredBinding(
@@ -366,15 +407,19 @@ internal class RtspStreamingService(
                                     XLog.d(getLog("RtspServer.onEvent", it.toString()))
                                     sendEvent(it)
                                 },
-                                onRequestKeyFrame = { projectionState.active?.videoEncoder?.requestKeyFrame() }
+                                onRequestKeyFrame = { rendition -> projectionState.active?.encoderFor(rendition)?.requestKeyFrame() }
                             ).apply {
-                                start(netInterfaces.toList(), port, path, protocolPolicy)
+                                start(netInterfaces.toList(), port, path, protocolPolicy, packetSize, rtspSettings.data.value.videoFps)
                             }
 
                             projectionState.lastVideoParams?.let { params ->
                                 server?.setVideoData(params.codec, params.sps, params.pps, params.vps)
                                 projectionState.active?.videoEncoder?.requestKeyFrame()
                             }
+                            projectionState.lastSubVideoParams?.let { params ->
+                                server?.setVideoData(params.codec, params.sps, params.pps, params.vps, VideoRendition.SUB)
+                                projectionState.active?.subVideoEncoder?.requestKeyFrame()
+                            }
                             projectionState.lastAudioParams?.let { params ->
                                 server?.setAudioData(params)
                             }
@@ -399,6 +444,7 @@ internal class RtspStreamingService(
                         endpoints = event.endpoints
                     ).also { server ->
                         updateOnvifVideoMetadata(server, projectionState.lastVideoParams)
+                        updateOnvifSubstreamMetadata(server, projectionState.lastSubVideoParams)
                         server.setEnabled(rtspSettings.data.value.onvifDiscoveryEnabled)
                     }
                 }
@@ -416,7 +462,10 @@ internal class RtspStreamingService(
                 }
 
                 is InternalEvent.RtspServer.OnStop -> clearServer()
-                is InternalEvent.RtspServer.OnClientStats -> Unit // Intentional to trigger serverClientStats update
+                is InternalEvent.RtspServer.OnClientStats -> // Also triggers serverClientStats update
+                    projectionState.active?.bitrateController?.onFeedback(
+                        server?.getClientStatsSnapshot(VideoRendition.MAIN).orEmpty().map { it.toBitrateFeedback() }
+                    )
                 is InternalEvent.RtspServer.OnvifDiscoveryChanged -> {
                     onvifServer?.setEnabled(rtspSettings.data.value.onvifDiscoveryEnabled)
                 }
@@ -444,17 +493,25 @@ internal class RtspStreamingService(
             } else {
                 server?.disconnectAllClients()
                 server?.clearMediaParams()
-                onvifServer?.let { updateOnvifVideoMetadata(it, null) }
+                onvifServer?.let {
+                    updateOnvifVideoMetadata(it, null)
+                    updateOnvifSubstreamMetadata(it, null)
+                }
             }
         }
 
-        fun setVideoParams(video: VideoParams, width: Int = 0, height: Int = 0) {
-            server?.setVideoData(video.codec, video.sps, video.pps, video.vps)
+        fun setVideoParams(video: VideoParams, width: Int = 0, height: Int = 0, rendition: VideoRendition = VideoRendition.MAIN) {
+            server?.setVideoData(video.codec, video.sps, video.pps, video.vps, rendition)
             val currentOnvifServer = onvifServer
             if (currentOnvifServer != null) {
                 coroutineScope.launch {
-                    if (onvifServer === currentOnvifServer && projectionState.lastVideoParams === video) {
-                        updateOnvifVideoMetadata(currentOnvifServer, video, width, height)
+                    if (onvifServer !== currentOnvifServer) return@launch
+                    when (rendition) {
+                        VideoRendition.MAIN -> if (projectionState.lastVideoParams === video)
+                            updateOnvifVideoMetadata(currentOnvifServer, video, width, height)
+
+                        VideoRendition.SUB -> if (projectionState.lastSubVideoParams === video)
+                            updateOnvifSubstreamMetadata(currentOnvifServer, video, width, height)
                     }
                 }
             }
@@ -464,8 +521,8 @@ internal class RtspStreamingService(
             server?.setAudioData(audio)
         }
 
-        fun onFrame(frame: MediaFrame) = when (frame) {
-            is MediaFrame.VideoFrame -> server?.onVideoFrame(frame) ?: frame.release()
+        fun onFrame(frame: MediaFrame, rendition: VideoRendition = VideoRendition.MAIN) = when (frame) {
+            is MediaFrame.VideoFrame -> server?.onVideoFrame(frame, rendition) ?: frame.release()
             is MediaFrame.AudioFrame -> server?.onAudioFrame(frame) ?: frame.release()
         }
 
@@ -479,6 +536,16 @@ internal class RtspStreamingService(
             )
         }
 
+        private suspend fun updateOnvifSubstreamMetadata(onvifServer: OnvifServer, videoParams: VideoParams?, width: Int = 0, height: Int = 0) {
+            val subVideoEncoder = projectionState.active?.subVideoEncoder
+            onvifServer.setSubstreamMetadata(
+                videoParams = videoParams,
+                width = width.takeIf { it > 0 } ?: subVideoEncoder?.width ?: 0,
+                height = height.takeIf { it > 0 } ?: subVideoEncoder?.height ?: 0,
+                fps = rtspSettings.data.value.videoFps
+            )
+        }
+
         private suspend fun clearServer() {
             statsHeartbeatJob?.cancel()
             statsHeartbeatJob = null
@@ -499,6 +566,9 @@ internal class RtspStreamingService(
         private var client: RtspClient? = null
         private var generation: Long = 0L
 
+        val sendStats: ClientSendStats
+            get() = client?.sendStats?.value ?: ClientSendStats()
+
         fun startClient(rtspUrl: RtspUrl, onlyVideo: Boolean) {
             if (service.isLocalNetworkPermissionGranted().not()) {
                 stop()
@@ -507,7 +577,12 @@ internal class RtspStreamingService(
                 return
             }
             currentError = null
-            client = RtspClient(appVersion, ++generation, rtspUrl, rtspSettings.data.value.clientProtocol, onlyVideo) {
+            val settings = rtspSettings.data.value
+            val packetSize = RtpPacketSize(udp = settings.udpPacketSize, tcp = settings.tcpPacketSize)
+            val pacingBurstBytes = settings.clientPacingBurstKb * 1024
+            client = RtspClient(
+                appVersion, ++generation, rtspUrl, settings.clientProtocol, packetSize, onlyVideo, pacingBurstBytes, settings.clientReconnectAttempts
+            ) {
                 XLog.d(getLog("RtspClient.sendEvent", it.toString()))
                 sendEvent(it)
             }
@@ -549,12 +624,22 @@ internal class RtspStreamingService(
                     currentError = null
                 }
 
+                is InternalEvent.RtspClient.OnReconnecting -> status = RtspClientStatus.STARTING
+
+                is InternalEvent.RtspClient.OnReconnected -> {
+                    status = RtspClientStatus.ACTIVE
+                    currentError = null
+                    projectionState.active?.videoEncoder?.requestKeyFrame()
+                }
+
                 is InternalEvent.RtspClient.OnDisconnect -> {
                     stopStream(stopServer = true, stopReason = "RtspClientDisconnect")
                     status = RtspClientStatus.IDLE
                 }
 
-                is InternalEvent.RtspClient.OnBitrate -> Unit //TODO Skip for now
+                is InternalEvent.RtspClient.OnBitrate -> projectionState.active?.bitrateController?.onFeedback(
+                    listOf(BitrateController.Feedback("client", event.queueFill, event.videoFramesDropped))
+                )
 
                 is InternalEvent.RtspClient.OnError -> {
                     stopStream(stopServer = true, stopReason = "RtspClientError")
@@ -602,8 +687,12 @@ internal class RtspStreamingService(
 
             data class OnConnectionSuccess(override val generation: Long) : RtspClient(Priority.RECOVER_IGNORE)
             data class OnDisconnect(override val generation: Long) : RtspClient(Priority.DESTROY_IGNORE)
-            data class OnBitrate(override val generation: Long, val bitrate: Long) : RtspClient(Priority.DESTROY_IGNORE)
+            data class OnBitrate(override val generation: Long, val bitrate: Long, val queueFill: Float, val videoFramesDropped: Long) :
+                RtspClient(Priority.DESTROY_IGNORE)
             data class OnError(override val generation: Long, val error: RtspError.ClientError) : RtspClient(Priority.RECOVER_IGNORE)
+            data class OnReconnecting(override val generation: Long, val attempt: Int) : RtspClient(Priority.RECOVER_IGNORE)
+            data class OnReconnected(override val generation: Long, val reconnects: Int, val recoveryMs: Long) :
+                RtspClient(Priority.RECOVER_IGNORE)
         }
 
         sealed class RtspServer(priority: Int) : InternalEvent(priority) {
@@ -624,7 +713,7 @@ internal class RtspStreamingService(
             }
         }
 
-        data class OnVideoFps(val fps: Int) : InternalEvent(Priority.DESTROY_IGNORE)
+        data class OnVideoFps(val fps: Int, val skippedFps: Int) : InternalEvent(Priority.DESTROY_IGNORE)
     }
 
     @Suppress("OVERRIDE_DEPRECATION")
@@ -705,7 +794,9 @@ internal class RtspStreamingService(
                 enableIPv6 = it.enableIPv6,
                 serverPort = it.serverPort,
                 serverPath = it.serverPath,
-                serverProtocol = it.serverProtocol
+                serverProtocol = it.serverProtocol,
+                udpPacketSize = it.udpPacketSize,
+                tcpPacketSize = it.tcpPacketSize
             )
         }.listenForChange(coroutineScope, 1) { config ->
             XLog.i(getLog("SettingsChanged", config.toString()))
@@ -823,6 +914,9 @@ internal class RtspStreamingService(
             selectedVideoEncoder = selectedVideoEncoderInfo,
             selectedAudioEncoder = selectedAudioEncoderInfo,
             serverClientStats = serverController?.statsSnapshot.orEmpty(),
+            serverKeyFrameRequests = serverController?.keyFrameRequests ?: KeyFrameRequestStats(),
+            videoRenderStats = if (projectionState.active != null) videoRenderStats else VideoRenderStats(),
+            clientSendStats = if (isServerMode) ClientSendStats() else clientController?.sendStats ?: ClientSendStats(),
             error = currentError
         )
     }
@@ -1208,19 +1302,47 @@ internal class RtspStreamingService(
                         val bounds = WindowMetricsCalculator.getOrCreate().computeMaximumWindowMetrics(service).bounds
                         val sourceWidth = bounds.width()
                         val sourceHeight = bounds.height()
-                        val (_, encodedWidth, encodedHeight) = videoCapabilities.adjustResizeFactor(
+                        val (_, captureWidth, captureHeight) = videoCapabilities.adjustResizeFactor(
                             sourceWidth, sourceHeight, settings.videoResizeFactor / 100
                         )
+                        val videoTransform = VideoTransform.from(settings, sourceWidth, sourceHeight)
+                        val (encodedWidth, encodedHeight) = videoCapabilities.adjustOutputSize(videoTransform, captureWidth, captureHeight)
+                        val videoFps = settings.videoFps.coerceIn(videoCapabilities.supportedFrameRates.toClosedRange())
+                        val subBitRate = settings.videoSubstreamBitrateBits.coerceIn(videoCapabilities.bitrateRange.toClosedRange())
+
+                        // Server mode second rendition, drawn by the main encoder renderer from the same capture
+                        var subVideoEncoder: VideoEncoder? = null
+                        if (serverController != null && settings.videoSubstream) subVideoEncoder = VideoEncoder(
+                            codecInfo = videoEncoderInfo,
+                            keyFrameIntervalSec = RtspServer.KEY_FRAME_INTERVAL_SEC,
+                            idleRefreshMs = 0L,
+                            onVideoInfo = { sps, pps, vps ->
+                                val params = VideoParams(videoEncoderInfo.codec, sps, pps, vps)
+                                projectionState.lastSubVideoParams = params
+                                serverController.setVideoParams(
+                                    params, subVideoEncoder?.width ?: 0, subVideoEncoder?.height ?: 0, VideoRendition.SUB
+                                )
+                            },
+                            onVideoFrame = { frame -> serverController.onFrame(frame, VideoRendition.SUB) },
+                            onFps = { _, _ -> },
+                            onError = {
+                                XLog.w(getLog("SubVideoEncoder.onError", it.message), it)
+                                sendEvent(InternalEvent.Error(it.toVideoPipelineError()))
+                            }
+                        )
 
                         val videoEncoder = VideoEncoder(
                             codecInfo = videoEncoderInfo,
+                            // Server clients ask for keyframes with PLI/FIR, a publishing client has no such feedback
+                            keyFrameIntervalSec = if (modeLocal == RtspSettings.Values.Mode.SERVER) RtspServer.KEY_FRAME_INTERVAL_SEC else 1,
+                            idleRefreshMs = if (settings.videoRenderOnChange) settings.videoIdleRefreshMs.toLong() else 0L,
                             onVideoInfo = { sps, pps, vps ->
                                 val params = VideoParams(videoEncoderInfo.codec, sps, pps, vps)
                                 projectionState.lastVideoParams = params
                                 setVideoParams(params, encodedWidth, encodedHeight)
                             },
                             onVideoFrame = onFrame,
-                            onFps = { sendEvent(InternalEvent.OnVideoFps(it)) },
+                            onFps = { fps, skippedFps -> sendEvent(InternalEvent.OnVideoFps(fps, skippedFps)) },
                             onError = {
                                 XLog.w(getLog("VideoEncoder.onError", it.message), it)
                                 sendEvent(InternalEvent.Error(it.toVideoPipelineError()))
@@ -1229,11 +1351,20 @@ internal class RtspStreamingService(
                             prepare(
                                 encodedWidth,
                                 encodedHeight,
-                                fps = settings.videoFps.coerceIn(videoCapabilities.supportedFrameRates.toClosedRange()),
-                                bitRate = settings.videoBitrateBits.coerceIn(videoCapabilities.bitrateRange.toClosedRange())
+                                fps = videoFps,
+                                bitRate = settings.videoBitrateBits.coerceIn(videoCapabilities.bitrateRange.toClosedRange()),
+                                sourceWidth = captureWidth,
+                                sourceHeight = captureHeight,
+                                transform = videoTransform
                             )
+                            subVideoEncoder?.let { subEncoder ->
+                                val (subWidth, subHeight) =
+                                    videoCapabilities.adjustSubstreamSize(encodedWidth, encodedHeight, settings.videoSubstreamHeight)
+                                subEncoder.prepareSecondary(this, subWidth, subHeight, videoFps, subBitRate)
+                            }
                             if (!isStartupStillValid()) {
                                 XLog.i(getLog("StartProjection", "Startup invalidated before virtual display creation."))
+                                subVideoEncoder?.stop()
                                 stop()
                                 mediaProjection.unregisterCallback(projectionCallback)
                                 return@startProjection false
@@ -1243,8 +1374,8 @@ internal class RtspStreamingService(
                                 captureSurface = Surface(surfaceTexture)
                                 virtualDisplay = mediaProjection.createVirtualDisplay(
                                     "ScreenStreamVirtualDisplay",
-                                    encodedWidth,
-                                    encodedHeight,
+                                    captureWidth,
+                                    captureHeight,
                                     service.resources.displayMetrics.densityDpi,
                                     DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR,
                                     captureSurface,
@@ -1256,12 +1387,14 @@ internal class RtspStreamingService(
                             if (virtualDisplay == null || !isStartupStillValid()) {
                                 val reason = if (virtualDisplay == null) "virtualDisplay is null" else "startup invalidated"
                                 XLog.i(getLog("startDisplayCapture", "$reason. Stopping projection."))
+                                subVideoEncoder?.stop()
                                 stop()
                                 mediaProjection.unregisterCallback(projectionCallback)
                                 runCatching { captureSurface?.release() }
                                 return@startProjection false
                             }
 
+                            subVideoEncoder?.start()
                             start()
                         }
 
@@ -1329,6 +1462,7 @@ internal class RtspStreamingService(
 
                         if (!isStartupStillValid()) {
                             XLog.i(getLog("StartProjection", "Startup invalidated after encoder startup."))
+                            subVideoEncoder?.stop()
                             videoEncoder.stop()
                             virtualDisplay?.surface = null
                             virtualDisplay?.release()
@@ -1342,21 +1476,31 @@ internal class RtspStreamingService(
                             mediaProjection = mediaProjection,
                             virtualDisplay = virtualDisplay!!,
                             videoEncoder = videoEncoder,
+                            subVideoEncoder = subVideoEncoder,
+                            subBitRate = subBitRate,
                             captureSurface = captureSurface ?: run {
                                 XLog.i(getLog("StartProjection", "captureSurface is null. Stopping projection."))
+                                subVideoEncoder?.stop()
                                 videoEncoder.stop()
                                 mediaProjection.unregisterCallback(projectionCallback)
                                 return@startProjection false
                             },
                             audioEncoder = audioEncoder,
                             deviceConfiguration = deviceConfiguration,
+                            bitrateController = if (settings.videoAdaptiveBitrate.not()) null else {
+                                val bitrateRange = videoCapabilities.bitrateRange.toClosedRange()
+                                val maxBitrate = settings.videoBitrateBits.coerceIn(bitrateRange)
+                                BitrateController(settings.videoMinBitrateBits.coerceIn(bitrateRange.start, maxBitrate), maxBitrate) {
+                                    videoEncoder.setBitrate(it)
+                                }
+                            },
                             onVideoReconfigureStart = { clientController?.beginVideoReconfigure() }
                         )
                         resizeActor?.close()
                         resizeActor = ResizeConflateActor(
                             projection = projectionState.active!!,
-                            initialEncodedWidth = encodedWidth,
-                            initialEncodedHeight = encodedHeight
+                            initialCaptureWidth = captureWidth,
+                            initialCaptureHeight = captureHeight
                         )
                         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
                             projectionState.cachedIntent = event.intent
@@ -1581,7 +1725,7 @@ internal class RtspStreamingService(
                 serverController.onEvent(event)
             }
 
-            is InternalEvent.OnVideoFps -> Unit //TODO Skipp for now
+            is InternalEvent.OnVideoFps -> videoRenderStats = VideoRenderStats(event.fps, event.skippedFps)
 
             else -> throw IllegalArgumentException("Unknown RtspEvent: ${event::class.java}")
         }
@@ -1625,6 +1769,7 @@ internal class RtspStreamingService(
         projectionState.active?.stop(projectionCallback)
         projectionState.active = null
         projectionState.lastVideoParams = null
+        projectionState.lastSubVideoParams = null
         projectionState.lastAudioParams = null
         projectionCoordinator.stop()
 
@@ -1649,6 +1794,31 @@ internal class RtspStreamingService(
         mainHandler.post { Toast.makeText(service, R.string.rtsp_audio_capture_issue_detected, Toast.LENGTH_LONG).show() }
     }
 
+    // RTCP figures count only while receiver reports keep coming
+    private fun ClientStats.toBitrateFeedback(): BitrateController.Feedback {
+        val hasRecentReport = System.currentTimeMillis() - lastReportAtMs < 5000L
+        return BitrateController.Feedback(
+            key = sessionId,
+            queueFill = if (video.queueCapacity > 0) video.queueSize.toFloat() / video.queueCapacity else 0F,
+            framesDropped = video.packetsDropped,
+            fractionLost = video.fractionLost.takeIf { hasRecentReport },
+            rttMs = video.rttMs?.takeIf { hasRecentReport }
+        )
+    }
+
+    // Encoder frame size for the transformed capture, aligned to what the codec supports
+    private fun MediaCodecInfo.VideoCapabilities.adjustOutputSize(transform: VideoTransform, captureWidth: Int, captureHeight: Int): Pair<Int, Int> {
+        val (targetWidth, targetHeight) = transform.targetSize(captureWidth, captureHeight)
+        val (_, width, height) = adjustResizeFactor(targetWidth, targetHeight, 1F)
+        return width to height
+    }
+
+    // Substream frame size with [shortSide] as its shorter side, never larger than the [width] x [height] main stream
+    private fun MediaCodecInfo.VideoCapabilities.adjustSubstreamSize(width: Int, height: Int, shortSide: Int): Pair<Int, Int> {
+        val (_, subWidth, subHeight) = adjustResizeFactor(width, height, (shortSide.toFloat() / min(width, height)).coerceAtMost(1F))
+        return subWidth to subHeight
+    }
+
     private fun Throwable.toVideoPipelineError(): RtspError.UnknownError =
         if (this is MediaCodec.CodecException) RtspError.VideoCodecError(this)
         else RtspError.VideoRendererError(this)
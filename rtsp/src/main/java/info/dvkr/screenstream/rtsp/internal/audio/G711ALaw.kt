@@ -0,0 +1,58 @@
+package info.dvkr.screenstream.rtsp.internal.audio
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.math.abs
+
+internal object G711ALaw {
+
+    /**
+     * Convert PCM 16-bit LE data into A-Law G711 data.
+     */
+    fun encode(buffer: ByteArray, size: Int): ByteArray {
+        val sampleCount = size / 2
+        val output = ByteArray(sampleCount)
+        val inputBuffer = ByteBuffer.wrap(buffer, 0, size).order(ByteOrder.LITTLE_ENDIAN)
+        repeat(sampleCount) { i ->
+            val sample = inputBuffer.short
+            output[i] = linearToALawSample(sample)
+        }
+        return output
+    }
+
+    /**
+     * Convert one 16-bit PCM sample to A-Law format.
+     */
+    private fun linearToALawSample(sampleIn: Short): Byte {
+        val absSample = abs(sampleIn.toInt()).coerceAtMost(C_CLIP)
+        val sign = if (sampleIn >= 0) 0x00 else 0x80
+        val compressed = if (absSample >= 256) {
+            val exponent = aLawCompressTable[(absSample shr 8) and 0x7F].toInt()
+            val mantissa = (absSample shr (exponent + 3)) and 0x0F
+            (exponent shl 4) or mantissa
+        } else {
+            absSample shr 4
+        }
+        return (compressed xor (sign xor 0x55)).toByte()
+    }
+
+    private const val C_CLIP = 32635
+    private val aLawCompressTable = byteArrayOf(
+        1, 1, 2, 2, 3, 3, 3, 3,
+        4, 4, 4, 4, 4, 4, 4, 4,
+        5, 5, 5, 5, 5, 5, 5, 5,
+        5, 5, 5, 5, 5, 5, 5, 5,
+        6, 6, 6, 6, 6, 6, 6, 6,
+        6, 6, 6, 6, 6, 6, 6, 6,
+        6, 6, 6, 6, 6, 6, 6, 6,
+        6, 6, 6, 6, 6, 6, 6, 6,
+        7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7
+    )
+}
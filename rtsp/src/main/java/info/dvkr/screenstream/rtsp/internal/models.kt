@@ -2,57 +2,15 @@ package info.dvkr.screenstream.rtsp.internal
 
 import android.media.MediaCodecInfo
 import androidx.compose.runtime.Immutable
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.BaseRtpPacket
 import java.net.Inet6Address
 import java.net.InetAddress
-import java.nio.ByteBuffer
-
-internal sealed class MediaFrame {
-    data class Info(val offset: Int, val size: Int, val timestamp: Long, val isKeyFrame: Boolean)
-
-    abstract val data: ByteBuffer
-    abstract val info: Info
-
-    /**
-     * Must be called once you have finished reading from [data].
-     * This releases the MediaCodec buffer back to the codec.
-     */
-    abstract fun release()
-
-    data class VideoFrame(override val data: ByteBuffer, override val info: Info, private val releaseCallback: () -> Unit) : MediaFrame() {
-        override fun release() = releaseCallback.invoke()
-    }
-
-    data class AudioFrame(override val data: ByteBuffer, override val info: Info, private val releaseCallback: () -> Unit) : MediaFrame() {
-        override fun release() = releaseCallback.invoke()
-    }
-
-    internal fun detachedCopy(): MediaFrame {
-        val source = data.duplicate().apply {
-            position(info.offset)
-            limit(info.offset + info.size)
-        }
-        val bytes = ByteArray(info.size).also { source.get(it) }
-        val copiedInfo = info.copy(offset = 0, size = bytes.size)
-        val copiedBuffer = ByteBuffer.wrap(bytes)
-
-        return when (this) {
-            is VideoFrame -> VideoFrame(copiedBuffer, copiedInfo) {}
-            is AudioFrame -> AudioFrame(copiedBuffer, copiedInfo) {}
-        }
-    }
-}
+import java.net.NetworkInterface
 
 internal enum class Protocol { TCP, UDP }
 
-internal sealed class RtpFrame(val trackId: Int, val buffer: ByteArray, val timeStamp: Long, val length: Int) {
-    class Video(buffer: ByteArray, timeStamp: Long, length: Int) : RtpFrame(VIDEO_TRACK_ID, buffer, timeStamp, length)
-    class Audio(buffer: ByteArray, timeStamp: Long, length: Int) : RtpFrame(AUDIO_TRACK_ID, buffer, timeStamp, length)
-
-    companion object {
-        const val VIDEO_TRACK_ID: Int = 0
-        const val AUDIO_TRACK_ID: Int = 1
-    }
-}
+// Server mode video encodings of the same capture, [pathSuffix] is appended to the server path
+internal enum class VideoRendition(val pathSuffix: String) { MAIN("main"), SUB("sub") }
 
 internal sealed class Codec(val name: String, val mimeType: String) {
 
@@ -112,6 +70,18 @@ internal data class RtspNetInterface(val label: String, val address: InetAddress
     }
 }
 
+// Maximum RTP packet size, RTP header included, per transport
+internal data class RtpPacketSize(val udp: Int, val tcp: Int) {
+
+    // UDP packets are kept within the MTU of the interface [localAddress] belongs to, to avoid IP fragmentation
+    internal fun forProtocol(protocol: Protocol, localAddress: InetAddress?): Int {
+        if (protocol == Protocol.TCP) return tcp
+        val mtu = localAddress?.let { runCatching { NetworkInterface.getByInetAddress(it)?.mtu }.getOrNull() } ?: 0
+        if (mtu <= 0) return udp
+        return minOf(udp, mtu - if (localAddress is Inet6Address) 48 else 28).coerceAtLeast(BaseRtpPacket.MIN_PACKET_SIZE)
+    }
+}
+
 internal data class RtspServerEndpoint(val address: InetAddress, val bindHost: String, val rtspUrl: String)
 
 internal class VideoParams(val codec: Codec.Video, val sps: ByteArray, val pps: ByteArray?, val vps: ByteArray?) {
@@ -2,7 +2,9 @@ package info.dvkr.screenstream.rtsp.internal.onvif
 
 import com.elvishew.xlog.XLog
 import info.dvkr.screenstream.common.getLog
+import info.dvkr.screenstream.rtsp.internal.Codec
 import info.dvkr.screenstream.rtsp.internal.RtspServerEndpoint
+import info.dvkr.screenstream.rtsp.internal.VideoRendition
 import info.dvkr.screenstream.rtsp.settings.RtspSettings
 import io.ktor.network.selector.SelectorManager
 import io.ktor.network.sockets.ServerSocket
@@ -42,6 +44,7 @@ internal class OnvifHttpServer(
     private val activeSocketsMutex = Mutex()
     private val activeSockets = mutableSetOf<Socket>()
     private val videoMetadata = AtomicReference<OnvifVideoMetadata?>()
+    private val subVideoMetadata = AtomicReference<OnvifVideoMetadata?>()
 
     private companion object {
         const val PREFERRED_DEVICE_SERVICE_PORT: Int = 8000
@@ -58,6 +61,8 @@ internal class OnvifHttpServer(
         val GET_PROFILES_REGEX = Regex("<[^>:/]*:?GetProfiles[\\s>/]")
         val GET_STREAM_URI_REGEX = Regex("<[^>:/]*:?GetStreamUri[\\s>/]")
         val GET_VIDEO_SOURCES_REGEX = Regex("<[^>:/]*:?GetVideoSources[\\s>/]")
+        const val MAIN_PROFILE_TOKEN: String = "Profile_1"
+        const val SUB_PROFILE_TOKEN: String = "Profile_2"
         val PROFILE_TOKEN_REGEX = Regex("<[^>:/]*:?ProfileToken[^>]*>(.*?)</[^>:/]*:?ProfileToken>", RegexOption.DOT_MATCHES_ALL)
         val STREAM_TYPE_REGEX = Regex("<[^>:/]*:?Stream(?:\\s[^>]*)?>(.*?)</[^>:/]*:?Stream>", RegexOption.DOT_MATCHES_ALL)
         val STREAM_PROTOCOL_REGEX = Regex("<[^>:/]*:?Protocol[^>]*>(.*?)</[^>:/]*:?Protocol>", RegexOption.DOT_MATCHES_ALL)
@@ -67,6 +72,10 @@ internal class OnvifHttpServer(
         videoMetadata.set(metadata)
     }
 
+    fun setSubVideoMetadata(metadata: OnvifVideoMetadata?) {
+        subVideoMetadata.set(metadata)
+    }
+
     suspend fun start(scope: CoroutineScope, endpoints: List<RtspServerEndpoint>): List<OnvifServiceEndpoint> {
         val selectorManager = SelectorManager(scope.coroutineContext).also { this.selectorManager = it }
         val clientJob = SupervisorJob(scope.coroutineContext[Job]).also { this.clientJob = it }
@@ -190,6 +199,7 @@ internal class OnvifHttpServer(
             return
         }
         val metadata = videoMetadata.get()
+        val subMetadata = subVideoMetadata.get()?.takeIf { it.codec == Codec.Video.H264 }
         var action = "Unsupported"
         var faultReason: String? = null
         val soapResponse = when {
@@ -225,15 +235,18 @@ internal class OnvifHttpServer(
 
             GET_PROFILES_REGEX.containsMatchIn(requestBody) -> {
                 action = "GetProfiles"
-                OnvifMessages.getProfiles(metadata)
+                OnvifMessages.getProfiles(metadata, subMetadata)
             }
 
             GET_STREAM_URI_REGEX.containsMatchIn(requestBody) -> {
                 action = "GetStreamUri"
-                validateStreamUriRequest(requestBody)
+                val profileToken = PROFILE_TOKEN_REGEX.find(requestBody)?.groupValues?.get(1)?.trim()
+                validateStreamUriRequest(requestBody, profileToken, subMetadata != null)
                     ?.also { faultReason = it }
                     ?.let { OnvifMessages.fault(it) }
-                    ?: OnvifMessages.getStreamUri(endpoint)
+                    ?: OnvifMessages.getStreamUri(
+                        endpoint, if (profileToken == SUB_PROFILE_TOKEN) VideoRendition.SUB.pathSuffix else null
+                    )
             }
 
             GET_VIDEO_SOURCES_REGEX.containsMatchIn(requestBody) -> {
@@ -262,9 +275,8 @@ internal class OnvifHttpServer(
         sendHttpResponse(writeChannel, statusCode, statusText, soapResponse)
     }
 
-    private fun validateStreamUriRequest(requestBody: String): String? {
-        val profileToken = PROFILE_TOKEN_REGEX.find(requestBody)?.groupValues?.get(1)?.trim()
-        if (profileToken != "Profile_1") return "Profile not found"
+    private fun validateStreamUriRequest(requestBody: String, profileToken: String?, hasSubstream: Boolean): String? {
+        if (profileToken != MAIN_PROFILE_TOKEN && (profileToken != SUB_PROFILE_TOKEN || !hasSubstream)) return "Profile not found"
 
         val streamType = STREAM_TYPE_REGEX.find(requestBody)?.groupValues?.get(1)?.trim()
         if (streamType != "RTP-Unicast") return "Stream type not supported"
@@ -186,22 +186,35 @@ internal object OnvifMessages {
         """.trimIndent()
         )
 
-    fun getProfiles(metadata: OnvifVideoMetadata?): String {
+    // Profile_1 is the main stream, Profile_2 the substream when it runs, both encode the same video source
+    fun getProfiles(metadata: OnvifVideoMetadata?, subMetadata: OnvifVideoMetadata?): String {
         val width = metadata?.width?.takeIf { it > 0 } ?: DEFAULT_WIDTH
         val height = metadata?.height?.takeIf { it > 0 } ?: DEFAULT_HEIGHT
-        val fps = metadata?.fps?.takeIf { it > 0 } ?: DEFAULT_FPS
+        val useCount = if (subMetadata != null) 2 else 1
         return soapEnvelope(
             """
             <trt:GetProfilesResponse>
-              <trt:Profiles token="Profile_1" fixed="true">
-                <tt:Name>ScreenStream</tt:Name>
+            ${profile(1, "ScreenStream", metadata, width, height, useCount)}
+            ${subMetadata?.let { profile(2, "ScreenStream Substream", it, width, height, useCount) }.orEmpty()}
+            </trt:GetProfilesResponse>
+        """.trimIndent()
+        )
+    }
+
+    private fun profile(index: Int, name: String, metadata: OnvifVideoMetadata?, sourceWidth: Int, sourceHeight: Int, useCount: Int): String {
+        val width = metadata?.width?.takeIf { it > 0 } ?: DEFAULT_WIDTH
+        val height = metadata?.height?.takeIf { it > 0 } ?: DEFAULT_HEIGHT
+        val fps = metadata?.fps?.takeIf { it > 0 } ?: DEFAULT_FPS
+        return """
+              <trt:Profiles token="Profile_$index" fixed="true">
+                <tt:Name>$name</tt:Name>
                 <tt:VideoSourceConfiguration token="VideoSource_1">
                   <tt:Name>Screen</tt:Name>
-                  <tt:UseCount>1</tt:UseCount>
+                  <tt:UseCount>$useCount</tt:UseCount>
                   <tt:SourceToken>VideoSource_1</tt:SourceToken>
-                  <tt:Bounds x="0" y="0" width="$width" height="$height"/>
+                  <tt:Bounds x="0" y="0" width="$sourceWidth" height="$sourceHeight"/>
                 </tt:VideoSourceConfiguration>
-                <tt:VideoEncoderConfiguration token="VideoEncoder_1">
+                <tt:VideoEncoderConfiguration token="VideoEncoder_$index">
                   <tt:Name>VideoEncoder</tt:Name>
                   <tt:UseCount>1</tt:UseCount>
                   <tt:Encoding>H264</tt:Encoding>
@@ -231,17 +244,16 @@ internal object OnvifMessages {
                   <tt:SessionTimeout>PT0S</tt:SessionTimeout>
                 </tt:VideoEncoderConfiguration>
               </trt:Profiles>
-            </trt:GetProfilesResponse>
         """.trimIndent()
-        )
     }
 
-    fun getStreamUri(endpoint: OnvifServiceEndpoint): String =
-        soapEnvelope(
+    fun getStreamUri(endpoint: OnvifServiceEndpoint, pathSuffix: String? = null): String {
+        val rtspUrl = endpoint.rtspEndpoint.rtspUrl.let { url -> if (pathSuffix == null) url else "${url.trimEnd('/')}/$pathSuffix" }
+        return soapEnvelope(
             """
             <trt:GetStreamUriResponse>
               <trt:MediaUri>
-                <tt:Uri>${endpoint.rtspEndpoint.rtspUrl.escapeXml()}</tt:Uri>
+                <tt:Uri>${rtspUrl.escapeXml()}</tt:Uri>
                 <tt:InvalidAfterConnect>false</tt:InvalidAfterConnect>
                 <tt:InvalidAfterReboot>false</tt:InvalidAfterReboot>
                 <tt:Timeout>PT0S</tt:Timeout>
@@ -249,6 +261,7 @@ internal object OnvifMessages {
             </trt:GetStreamUriResponse>
         """.trimIndent()
         )
+    }
 
     fun getVideoSources(metadata: OnvifVideoMetadata?): String {
         val width = metadata?.width?.takeIf { it > 0 } ?: DEFAULT_WIDTH
@@ -43,6 +43,12 @@ internal class OnvifServer(
         }
     }
 
+    // Null [videoParams] removes the substream profile
+    suspend fun setSubstreamMetadata(videoParams: VideoParams?, width: Int, height: Int, fps: Int) {
+        val metadata = videoParams?.let { OnvifVideoMetadata.fromVideoParams(it, width, height, fps) }
+        stateMutex.withLock { httpServer.setSubVideoMetadata(metadata) }
+    }
+
     suspend fun setEnabled(value: Boolean) {
         stateMutex.withLock {
             enabled = value
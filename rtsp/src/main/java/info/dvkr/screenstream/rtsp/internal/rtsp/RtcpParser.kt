@@ -0,0 +1,184 @@
+package info.dvkr.screenstream.rtsp.internal.rtsp
+
+/**
+ * Incoming RTCP packets from a compound packet, RFC 3550 and RFC 4585.
+ * Packet types other than these are skipped.
+ */
+internal sealed interface RtcpPacket {
+
+    // Report block of an SR or RR about one of our sources. Jitter is in RTP timestamp units, LSR and DLSR in 1/65536 s
+    data class ReceptionReport(
+        val ssrc: Long,
+        val fractionLost: Int,
+        val cumulativeLost: Int,
+        val highestSeq: Long,
+        val jitter: Long,
+        val lastSr: Long,
+        val delaySinceLastSr: Long
+    ) {
+        // Round trip time per RFC 3550 6.4.1 using the NTP time of [nowMs], null without an SR echoed back
+        fun rttMs(nowMs: Long): Long? {
+            if (lastSr == 0L) return null
+            val rtt = (RtcpParser.compactNtp(nowMs) - lastSr - delaySinceLastSr) and 0xFFFFFFFFL
+            if (rtt > 0x7FFFFFFFL) return null
+            return rtt * 1000L / 65536L
+        }
+    }
+
+    data class ReceiverReport(val senderSsrc: Long, val reports: List<ReceptionReport>) : RtcpPacket
+
+    data class SourceDescription(val cnames: Map<Long, String>) : RtcpPacket
+
+    data class Bye(val ssrcs: List<Long>, val reason: String?) : RtcpPacket
+
+    data class Nack(val senderSsrc: Long, val mediaSsrc: Long, val lostSeqs: List<Int>) : RtcpPacket
+
+    data class Pli(val senderSsrc: Long, val mediaSsrc: Long) : RtcpPacket
+
+    // Full Intra Request, RFC 5104. [seqNr] grows per new request, a repeated one is a retransmission of the same request
+    data class Fir(val senderSsrc: Long, val ssrc: Long, val seqNr: Int) : RtcpPacket
+}
+
+internal object RtcpParser {
+    private const val PT_SR = 200
+    private const val PT_RR = 201
+    private const val PT_SDES = 202
+    private const val PT_BYE = 203
+    private const val PT_RTPFB = 205
+    private const val PT_PSFB = 206
+    private const val FMT_NACK = 1
+    private const val FMT_PLI = 1
+    private const val FMT_FIR = 4
+    private const val REPORT_BLOCK_LENGTH = 24
+
+    // Middle 32 bits of the NTP timestamp for [timeMs], the form SRs are echoed back in LSR
+    internal fun compactNtp(timeMs: Long): Long {
+        val ntpSec = (timeMs / 1000L) + 2208988800L
+        val ntpFrac = ((timeMs % 1000L) * 0x100000000L) / 1000L
+        return ((ntpSec and 0xFFFF) shl 16) or (ntpFrac ushr 16)
+    }
+
+    /**
+     * Parses the compound RTCP packet in the first [length] bytes of [data].
+     * Parsing stops at the first malformed packet, packets parsed before it are returned.
+     */
+    internal fun parse(data: ByteArray, length: Int): List<RtcpPacket> {
+        val packets = ArrayList<RtcpPacket>(2)
+        val end = minOf(length, data.size)
+        var offset = 0
+        while (offset + 4 <= end) {
+            val first = data[offset].toInt() and 0xFF
+            if (first ushr 6 != 2) break
+            val count = first and 0x1F
+            val packetType = data[offset + 1].toInt() and 0xFF
+            val packetEnd = offset + (data.u16(offset + 2) + 1) * 4
+            if (packetEnd > end) break
+
+            when (packetType) {
+                PT_SR -> if (offset + 28 <= packetEnd)
+                    packets += RtcpPacket.ReceiverReport(data.u32(offset + 4), data.reportBlocks(offset + 28, count, packetEnd))
+
+                PT_RR -> if (offset + 8 <= packetEnd)
+                    packets += RtcpPacket.ReceiverReport(data.u32(offset + 4), data.reportBlocks(offset + 8, count, packetEnd))
+
+                PT_SDES -> packets += RtcpPacket.SourceDescription(data.cnames(offset + 4, count, packetEnd))
+
+                PT_BYE -> packets += data.bye(offset + 4, count, packetEnd)
+
+                PT_RTPFB -> if (count == FMT_NACK && offset + 12 <= packetEnd)
+                    packets += RtcpPacket.Nack(data.u32(offset + 4), data.u32(offset + 8), data.nackSeqs(offset + 12, packetEnd))
+
+                PT_PSFB -> if (count == FMT_PLI && offset + 12 <= packetEnd)
+                    packets += RtcpPacket.Pli(data.u32(offset + 4), data.u32(offset + 8))
+                else if (count == FMT_FIR && offset + 12 <= packetEnd)
+                    data.firs(data.u32(offset + 4), offset + 12, packetEnd, packets)
+            }
+            offset = packetEnd
+        }
+        return packets
+    }
+
+    private fun ByteArray.reportBlocks(from: Int, count: Int, end: Int): List<RtcpPacket.ReceptionReport> {
+        val reports = ArrayList<RtcpPacket.ReceptionReport>(count)
+        var offset = from
+        repeat(count) {
+            if (offset + REPORT_BLOCK_LENGTH > end) return reports
+            val lost = (u8(offset + 5) shl 16) or (u8(offset + 6) shl 8) or u8(offset + 7)
+            reports += RtcpPacket.ReceptionReport(
+                ssrc = u32(offset),
+                fractionLost = u8(offset + 4),
+                cumulativeLost = (lost shl 8) shr 8, // Signed 24 bit
+                highestSeq = u32(offset + 8),
+                jitter = u32(offset + 12),
+                lastSr = u32(offset + 16),
+                delaySinceLastSr = u32(offset + 20)
+            )
+            offset += REPORT_BLOCK_LENGTH
+        }
+        return reports
+    }
+
+    private fun ByteArray.cnames(from: Int, count: Int, end: Int): Map<Long, String> {
+        val cnames = HashMap<Long, String>(count)
+        var offset = from
+        repeat(count) {
+            if (offset + 4 > end) return cnames
+            val ssrc = u32(offset)
+            offset += 4
+            while (offset < end) {
+                val type = u8(offset)
+                if (type == 0) break
+                if (offset + 2 > end) return cnames
+                val itemLength = u8(offset + 1)
+                if (offset + 2 + itemLength > end) return cnames
+                if (type == 1) cnames[ssrc] = String(this, offset + 2, itemLength, Charsets.UTF_8)
+                offset += 2 + itemLength
+            }
+            offset = (offset + 4) and 3.inv() // END item and padding up to the next 32 bit boundary
+        }
+        return cnames
+    }
+
+    private fun ByteArray.bye(from: Int, count: Int, end: Int): RtcpPacket.Bye {
+        val ssrcs = ArrayList<Long>(count)
+        var offset = from
+        repeat(count) {
+            if (offset + 4 > end) return RtcpPacket.Bye(ssrcs, null)
+            ssrcs += u32(offset)
+            offset += 4
+        }
+        val reasonLength = if (offset < end) u8(offset) else 0
+        val reason = if (reasonLength > 0 && offset + 1 + reasonLength <= end) String(this, offset + 1, reasonLength, Charsets.UTF_8) else null
+        return RtcpPacket.Bye(ssrcs, reason)
+    }
+
+    // Generic NACK FCI: packet ID and a bitmask of the 16 following lost packets
+    private fun ByteArray.nackSeqs(from: Int, end: Int): List<Int> {
+        val seqs = ArrayList<Int>(4)
+        var offset = from
+        while (offset + 4 <= end) {
+            val pid = u16(offset)
+            val blp = u16(offset + 2)
+            seqs += pid
+            for (bit in 0 until 16) if (blp and (1 shl bit) != 0) seqs += (pid + bit + 1) and 0xFFFF
+            offset += 4
+        }
+        return seqs
+    }
+
+    // FIR FCI: one 8 byte entry per requested SSRC, media SSRC field in the header is unused
+    private fun ByteArray.firs(senderSsrc: Long, from: Int, end: Int, out: MutableList<RtcpPacket>) {
+        var offset = from
+        while (offset + 8 <= end) {
+            out += RtcpPacket.Fir(senderSsrc, u32(offset), u8(offset + 4))
+            offset += 8
+        }
+    }
+
+    private fun ByteArray.u8(offset: Int): Int = this[offset].toInt() and 0xFF
+
+    private fun ByteArray.u16(offset: Int): Int = (u8(offset) shl 8) or u8(offset + 1)
+
+    private fun ByteArray.u32(offset: Int): Long =
+        (u8(offset).toLong() shl 24) or (u8(offset + 1).toLong() shl 16) or (u8(offset + 2).toLong() shl 8) or u8(offset + 3).toLong()
+}
@@ -0,0 +1,16 @@
+package info.dvkr.screenstream.rtsp.internal.rtsp.client
+
+// Publisher send queue state, [queueDelayMs] is the longest time a frame waited in the queue during the last second.
+// [lastRecoveryMs] is the time from a lost connection to streaming again, without the wait for the next key frame.
+// [videoFramesAwaitingKeyFrame] counts frames skipped during that wait, they are not part of [videoFramesDropped]
+internal data class ClientSendStats(
+    val queueSize: Int = 0,
+    val queueCapacity: Int = 0,
+    val queueDelayMs: Long = 0,
+    val videoFramesDropped: Long = 0,
+    val audioFramesDropped: Long = 0,
+    val videoFramesAwaitingKeyFrame: Long = 0,
+    val bitrate: Long = 0,
+    val reconnects: Int = 0,
+    val lastRecoveryMs: Long = 0,
+)
@@ -0,0 +1,76 @@
+package info.dvkr.screenstream.rtsp.internal.rtsp.client
+
+import info.dvkr.screenstream.rtsp.internal.RtpFrame
+import kotlinx.coroutines.delay
+
+/**
+ * Spreads the RTP packets of one video frame over most of the frame interval, so a large keyframe does not reach
+ * shallow router buffers as a single burst. Up to [burstBytes] go out back to back, the next burst waits for its slot.
+ * Frames waiting in the send queue shorten the window, so pacing never holds a frame longer than the backlog would.
+ * With [burstBytes] 0 every frame is written at once.
+ */
+internal class RtpPacer(private val burstBytes: Int) {
+
+    private companion object {
+        private const val DEFAULT_FRAME_INTERVAL_US = 33_333L
+        private const val MIN_FRAME_INTERVAL_US = 5_000L
+        private const val MAX_FRAME_INTERVAL_US = 200_000L
+
+        // Share of the frame interval used for sending, the rest is left for audio and jitter
+        private const val WINDOW_SHARE = 0.8
+    }
+
+    private var frameIntervalUs = DEFAULT_FRAME_INTERVAL_US
+    private var lastTimestampUs = -1L
+
+    // Frame interval from the encoder timestamps, smoothed
+    internal fun onVideoFrame(timestampUs: Long) {
+        if (lastTimestampUs >= 0) {
+            val intervalUs = timestampUs - lastTimestampUs
+            if (intervalUs in MIN_FRAME_INTERVAL_US..MAX_FRAME_INTERVAL_US) frameIntervalUs = (frameIntervalUs * 7 + intervalUs) / 8
+        }
+        lastTimestampUs = timestampUs
+    }
+
+    internal fun reset() {
+        frameIntervalUs = DEFAULT_FRAME_INTERVAL_US
+        lastTimestampUs = -1L
+    }
+
+    /**
+     * Writes [packets] with [write], in bursts when they are larger than [burstBytes].
+     * [queuedFrames] is the number of frames waiting behind this one.
+     */
+    internal suspend fun send(packets: List<RtpFrame>, queuedFrames: Int, write: suspend (List<RtpFrame>) -> Unit) {
+        val totalBytes = packets.sumOf { it.length }
+        if (burstBytes <= 0 || totalBytes <= burstBytes) {
+            write(packets)
+            return
+        }
+
+        val bursts = (totalBytes + burstBytes - 1) / burstBytes
+        val windowNs = (frameIntervalUs * 1000 * WINDOW_SHARE / (1 + queuedFrames.coerceAtLeast(0))).toLong()
+        val gapNs = windowNs / bursts
+        val startNs = System.nanoTime()
+
+        var burst = 0
+        var from = 0
+        while (from < packets.size) {
+            var to = from
+            var bytes = 0
+            while (to < packets.size && (to == from || bytes + packets[to].length <= burstBytes)) {
+                bytes += packets[to].length
+                to++
+            }
+
+            if (burst > 0) {
+                val waitMs = (startNs + gapNs * burst - System.nanoTime()) / 1_000_000
+                if (waitMs > 0) delay(waitMs)
+            }
+            write(packets.subList(from, to))
+
+            from = to
+            burst++
+        }
+    }
+}
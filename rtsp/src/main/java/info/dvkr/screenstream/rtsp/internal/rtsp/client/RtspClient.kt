@@ -8,9 +8,9 @@ import info.dvkr.screenstream.rtsp.internal.Codec
 import info.dvkr.screenstream.rtsp.internal.MediaFrame
 import info.dvkr.screenstream.rtsp.internal.Protocol
 import info.dvkr.screenstream.rtsp.internal.RtpFrame
+import info.dvkr.screenstream.rtsp.internal.RtpPacketSize
 import info.dvkr.screenstream.rtsp.internal.RtspStreamingService
 import info.dvkr.screenstream.rtsp.internal.VideoParams
-import info.dvkr.screenstream.rtsp.internal.interleavedHeader
 import info.dvkr.screenstream.rtsp.internal.rtsp.BitrateCalculator
 import info.dvkr.screenstream.rtsp.internal.rtsp.RtcpReporter
 import info.dvkr.screenstream.rtsp.internal.rtsp.RtspUrl
@@ -21,6 +21,7 @@ import info.dvkr.screenstream.rtsp.internal.rtsp.packets.G711Packet
 import info.dvkr.screenstream.rtsp.internal.rtsp.packets.H264Packet
 import info.dvkr.screenstream.rtsp.internal.rtsp.packets.H265Packet
 import info.dvkr.screenstream.rtsp.internal.rtsp.packets.OpusPacket
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.RtpPacketPool
 import info.dvkr.screenstream.rtsp.internal.rtsp.packets.RtpBufferInaccessibleException
 import info.dvkr.screenstream.rtsp.internal.rtsp.sockets.TcpStreamSocket
 import info.dvkr.screenstream.rtsp.internal.rtsp.sockets.UdpStreamSocket
@@ -41,8 +42,13 @@ import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.ChannelResult
 import kotlinx.coroutines.channels.onFailure
 import kotlinx.coroutines.channels.onSuccess
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.currentCoroutineContext
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
@@ -66,15 +72,23 @@ internal class RtspClient(
     private val generation: Long,
     private val rtspUrl: RtspUrl,
     private val protocolPolicy: RtspSettings.Values.ProtocolPolicy,
+    private val packetSize: RtpPacketSize,
     private val onlyVideo: Boolean,
+    pacingBurstBytes: Int,
+    private val reconnectAttempts: Int,
     private val scope: CoroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.IO),
     private val onEvent: (RtspStreamingService.InternalEvent) -> Unit
 ) {
 
+    private companion object {
+        private const val RECONNECT_BASE_DELAY_MS = 500L
+        private const val RECONNECT_MAX_DELAY_MS = 10_000L
+    }
+
     private enum class State { IDLE, CONNECTING, STREAMING }
 
     private sealed class QueuedItem {
-        class Frame(val frame: MediaFrame, val videoGeneration: Int?) : QueuedItem()
+        class Frame(val frame: MediaFrame, val videoGeneration: Int?, val enqueuedAtNs: Long = System.nanoTime()) : QueuedItem()
         class NewVideoParams(val videoParams: VideoParams, val videoGeneration: Int) : QueuedItem()
     }
 
@@ -91,6 +105,8 @@ internal class RtspClient(
         private val sendAudioFrames = AtomicLong(0)
         private val droppedVideoFrames = AtomicLong(0)
         private val droppedAudioFrames = AtomicLong(0)
+        private val keyFrameWaitVideoFrames = AtomicLong(0)
+        private val maxQueueDelayNs = AtomicLong(0)
 
         // Guarded by rtspLock
         fun trySendFrame(frame: MediaFrame, videoGeneration: Int?): ChannelResult<Unit> =
@@ -113,6 +129,7 @@ internal class RtspClient(
             val item = withTimeoutOrNull(timeMillis.milliseconds) { itemsChannel.receive() } ?: return null
             if (item is QueuedItem.Frame) {
                 bufferedFrameCount.decrementAndGet()
+                maxQueueDelayNs.accumulateAndGet(System.nanoTime() - item.enqueuedAtNs, ::maxOf)
                 when (item.frame) {
                     is MediaFrame.VideoFrame -> sendVideoFrames.incrementAndGet()
                     is MediaFrame.AudioFrame -> sendAudioFrames.incrementAndGet()
@@ -121,6 +138,30 @@ internal class RtspClient(
             return item
         }
 
+        // Video frames lost to a full queue or skipped by the sending loop under congestion
+        fun onVideoFrameSkipped() = droppedVideoFrames.incrementAndGet()
+
+        // Video frames skipped after a reconnect until the next key frame, not a sign of congestion
+        fun onVideoFrameAwaitingKeyFrame() = keyFrameWaitVideoFrames.incrementAndGet()
+
+        val videoFramesDropped: Long
+            get() = droppedVideoFrames.get()
+
+        val audioFramesDropped: Long
+            get() = droppedAudioFrames.get()
+
+        val videoFramesAwaitingKeyFrame: Long
+            get() = keyFrameWaitVideoFrames.get()
+
+        val size: Int
+            get() = bufferedFrameCount.get()
+
+        // Longest queue wait since the last call
+        fun takeMaxQueueDelayMs(): Long = maxQueueDelayNs.getAndSet(0) / 1_000_000
+
+        val queueFill: Float
+            get() = bufferedFrameCount.get().toFloat() / capacity
+
         fun hasCongestion(percentUsed: Float = 20f): Boolean {
             require(percentUsed in 0f..100f)
             val currentSize = bufferedFrameCount.get().toFloat()
@@ -142,6 +183,8 @@ internal class RtspClient(
             sendAudioFrames.set(0)
             droppedVideoFrames.set(0)
             droppedAudioFrames.set(0)
+            keyFrameWaitVideoFrames.set(0)
+            maxQueueDelayNs.set(0)
         }
     }
 
@@ -196,8 +239,15 @@ internal class RtspClient(
     )
     private val selectorManager = SelectorManager(scope.coroutineContext)
     private val mediaFramesBuffer = MediaFramesBuffer()
+    private val rtpPacer = RtpPacer(pacingBurstBytes)
+    private val _sendStats = MutableStateFlow(ClientSendStats(queueCapacity = mediaFramesBuffer.capacity))
+
+    // Updated every second while streaming
+    internal val sendStats: StateFlow<ClientSendStats> = _sendStats.asStateFlow()
     private val videoParams = AtomicReference<CompletableDeferred<VideoParams>>(CompletableDeferred())
     private val audioParams = AtomicReference<AudioParams?>(null)
+    private val reconnects = AtomicInteger(0)
+    private val lastRecoveryMs = AtomicLong(0)
 
     private val rtspLock = Any()
 
@@ -212,6 +262,9 @@ internal class RtspClient(
     private var currentVideoGeneration = 0
     private var acceptVideoFrames = true
 
+    // Guarded by rtspLock. Used by the next handshake after a reconnect
+    private var latestVideoParams: VideoParams? = null
+
     @Throws
     @AnyThread
     internal fun setVideoData(videoCodec: Codec.Video, sps: ByteArray, pps: ByteArray?, vps: ByteArray?) = synchronized(rtspLock) {
@@ -222,6 +275,7 @@ internal class RtspClient(
             Codec.Video.H265 -> VideoParams(codec = videoCodec, sps = sps, pps = pps, vps = vps)
             Codec.Video.AV1 -> VideoParams(videoCodec, sps, pps, vps)
         }
+        latestVideoParams = params
         if (currentState == State.STREAMING) {
             mediaFramesBuffer.trySendNewVideoParams(params, currentVideoGeneration)
             acceptVideoFrames = true
@@ -284,7 +338,6 @@ internal class RtspClient(
 
     internal fun connect() {
         scope.launch {
-            var tcpSocket: TcpStreamSocket? = null
             var error: Throwable? = null
             try {
                 synchronized(rtspLock) {
@@ -297,21 +350,89 @@ internal class RtspClient(
                 val videoParams = withTimeoutOrNull(5_000.milliseconds) { this@RtspClient.videoParams.get().await() }
                 if (videoParams?.isOk != true) error("SPS/PPS/VPS not set or incomplete for video codec.")
 
-                val tcp = TcpStreamSocket(Dispatchers.Default, selectorManager, rtspUrl.host, rtspUrl.port, rtspUrl.tlsEnabled)
-                    .apply {
-                        tcpSocket = this
-                        withWriteLock { connect() }
-                    }
-
                 val audioParams = if (onlyVideo) null else this@RtspClient.audioParams.get()
 
-                val ports = doRtspHandshake(tcp, rtspUrl, videoParams, audioParams)
+                // Encoders keep running while the session is replayed, frames are dropped until it is back
+                var established = false
+                var lostAtNs = 0L
+                var attempt = 0
+                while (true) {
+                    var tcpSocket: TcpStreamSocket? = null
+                    val sessionError = try {
+                        val tcp = TcpStreamSocket(Dispatchers.Default, selectorManager, rtspUrl.host, rtspUrl.port, rtspUrl.tlsEnabled)
+                            .apply {
+                                tcpSocket = this
+                                withWriteLock { connect() }
+                            }
 
-                onEvent(RtspStreamingService.InternalEvent.RtspClient.OnConnectionSuccess(generation))
+                        val sessionVideoParams = synchronized(rtspLock) { latestVideoParams } ?: videoParams
+                        val ports = doRtspHandshake(tcp, rtspUrl, sessionVideoParams, audioParams)
 
-                val sendingJob = launch { sendingLoop(tcp, ports, videoParams, audioParams) }
-                launch { keepAliveLoop(tcp) }.join()
-                sendingJob.cancelAndJoin()
+                        synchronized(rtspLock) {
+                            currentState = State.STREAMING
+                            mediaFramesBuffer.clear()
+                            latestVideoParams?.takeIf { it !== sessionVideoParams }
+                                ?.let { mediaFramesBuffer.trySendNewVideoParams(it, currentVideoGeneration) }
+                        }
+
+                        val resumed = lostAtNs > 0L
+                        if (resumed) {
+                            val recoveryMs = (System.nanoTime() - lostAtNs) / 1_000_000
+                            lastRecoveryMs.set(recoveryMs)
+                            val count = reconnects.incrementAndGet()
+                            _sendStats.value = _sendStats.value.copy(reconnects = count, lastRecoveryMs = recoveryMs)
+                            XLog.i(getLog("connect", "Reconnected after $attempt attempt(s) in $recoveryMs ms"))
+                            onEvent(RtspStreamingService.InternalEvent.RtspClient.OnReconnected(generation, count, recoveryMs))
+                        } else {
+                            onEvent(RtspStreamingService.InternalEvent.RtspClient.OnConnectionSuccess(generation))
+                        }
+                        established = true
+                        lostAtNs = 0L
+                        attempt = 0
+
+                        coroutineScope {
+                            val sendingJob = launch { sendingLoop(tcp, ports, sessionVideoParams, audioParams, resumed) }
+                            keepAliveLoop(tcp)
+                            sendingJob.cancelAndJoin()
+                        }
+                        null
+                    } catch (e: Throwable) {
+                        if (e is CancellationException && e !is TimeoutCancellationException) throw e
+                        e
+                    } finally {
+                        val stopping = currentCoroutineContext().isActive.not()
+                        withContext(NonCancellable) {
+                            tcpSocket?.let { socket ->
+                                socket.withWriteLock {
+                                    if (isConnected()) {
+                                        runCatching { writeAndFlush(commandsManager.createTeardown()) }
+                                    }
+                                }
+                                // A lost connection is not waited on, the reconnect would be delayed by the response timeout
+                                if (stopping) {
+                                    runCatching { commandsManager.getResponseWithTimeout(socket, RtspBaseMessageHandler.Method.TEARDOWN) }
+                                }
+                                socket.close()
+                            }
+                        }
+                    }
+
+                    currentCoroutineContext().ensureActive()
+                    if (established.not()) throw sessionError!!
+                    if (sessionError != null && sessionError.isRecoverable().not()) throw sessionError
+                    if (attempt >= reconnectAttempts) {
+                        if (sessionError != null) throw sessionError
+                        break
+                    }
+
+                    if (lostAtNs == 0L) lostAtNs = System.nanoTime()
+                    attempt++
+                    val delayMs = reconnectDelayMs(attempt)
+                    XLog.w(getLog("connect", "Connection lost: ${sessionError?.message}. Reconnect $attempt/$reconnectAttempts in $delayMs ms"))
+                    synchronized(rtspLock) { currentState = State.CONNECTING }
+                    onEvent(RtspStreamingService.InternalEvent.RtspClient.OnReconnecting(generation, attempt))
+                    delay(delayMs)
+                }
             } catch (e: Throwable) {
                 val mappedMessage = when (e) {
                     is UnresolvedAddressException -> "Invalid address"
@@ -346,21 +467,12 @@ internal class RtspClient(
                     }
                 }
             } finally {
-                withContext(NonCancellable) {
-                    tcpSocket?.let { socket ->
-                        socket.withWriteLock {
-                            if (isConnected()) {
-                                runCatching { writeAndFlush(commandsManager.createTeardown()) }
-                            }
-                        }
-                        runCatching { commandsManager.getResponseWithTimeout(socket, RtspBaseMessageHandler.Method.TEARDOWN) }
-                        socket.close()
-                    }
-                }
-
                 videoParams.getAndSet(CompletableDeferred()).cancel()
                 audioParams.set(null)
-                synchronized(rtspLock) { currentState = State.IDLE }
+                synchronized(rtspLock) {
+                    currentState = State.IDLE
+                    latestVideoParams = null
+                }
 
                 if (error == null) onEvent(RtspStreamingService.InternalEvent.RtspClient.OnDisconnect(generation))
             }
@@ -369,6 +481,21 @@ internal class RtspClient(
         }
     }
 
+    // A dropped connection or a failing server is retried, rejected credentials or certificates are not
+    private fun Throwable.isRecoverable(): Boolean = when (this) {
+        is RtspError.ClientError.Failed -> true
+        is RtspError.ClientError -> false
+        is SSLHandshakeException, is CertificateException -> false
+        is IOException, is TimeoutCancellationException, is UnresolvedAddressException -> true
+        else -> false
+    }
+
+    // Exponential backoff with jitter, so clients dropped together do not reconnect together
+    private fun reconnectDelayMs(attempt: Int): Long {
+        val delayMs = (RECONNECT_BASE_DELAY_MS shl (attempt - 1).coerceAtMost(5)).coerceAtMost(RECONNECT_MAX_DELAY_MS)
+        return delayMs / 2 + Random.nextLong(delayMs / 2 + 1)
+    }
+
     internal fun destroy() = runBlocking {
         XLog.d(this@RtspClient.getLog("destroy"))
         connectionJob.getAndSet(null)?.cancelAndJoin()
@@ -570,37 +697,45 @@ internal class RtspClient(
             } catch (e: Throwable) {
                 if (currentCoroutineContext().isActive.not()) return
                 if (tcpSocket.isConnected().not()) return
-                if (e is RtspError.ClientError) {
-                    onEvent(RtspStreamingService.InternalEvent.RtspClient.OnError(generation, e))
-                } else {
-                    onEvent(
-                        RtspStreamingService.InternalEvent.RtspClient.OnError(
-                            generation, RtspError.ClientError.Failed("Keep-alive failed: ${e.message}")
-                        )
-                    )
-                }
-                tcpSocket.close()
-                currentCoroutineContext().cancel()
-                return
+                throw e as? RtspError.ClientError ?: RtspError.ClientError.Failed("Keep-alive failed: ${e.message}")
             }
         }
     }
 
-    private suspend fun sendingLoop(tcpSocket: TcpStreamSocket, ports: SelectedPorts, videoParams: VideoParams, audioParams: AudioParams?) {
+    // After a reconnect ([resumed]) video is held back until the next key frame
+    private suspend fun sendingLoop(
+        tcpSocket: TcpStreamSocket, ports: SelectedPorts, videoParams: VideoParams, audioParams: AudioParams?, resumed: Boolean
+    ) {
         val hasAudio = audioParams != null
         var activeVideoGeneration = 0
+        var awaitingKeyFrame = resumed
         var ssrcVideo = Random.nextInt().toLong() and 0xFFFFFFFFL
         val ssrcAudio = if (hasAudio) Random.nextInt().toLong() and 0xFFFFFFFFL else 0L
         val protocol = ports.protocol
 
         val videoUdpSocket = if (protocol == Protocol.TCP) null else
-            UdpStreamSocket(selectorManager, rtspUrl.host, ports.videoServer.client, ports.videoClient.client).apply { connect() }
+            UdpStreamSocket(rtspUrl.host, ports.videoServer.client, ports.videoClient.client).apply { connect() }
 
         val audioUdpSocket = if (protocol == Protocol.TCP || !hasAudio) null else
-            UdpStreamSocket(selectorManager, rtspUrl.host, ports.audioServer.client, ports.audioClient.client).apply { connect() }
+            UdpStreamSocket(rtspUrl.host, ports.audioServer.client, ports.audioClient.client).apply { connect() }
 
         val bitrateCalculator = BitrateCalculator(scope) { bitrate ->
-            onEvent(RtspStreamingService.InternalEvent.RtspClient.OnBitrate(generation, bitrate))
+            _sendStats.value = ClientSendStats(
+                queueSize = mediaFramesBuffer.size,
+                queueCapacity = mediaFramesBuffer.capacity,
+                queueDelayMs = mediaFramesBuffer.takeMaxQueueDelayMs(),
+                videoFramesDropped = mediaFramesBuffer.videoFramesDropped,
+                audioFramesDropped = mediaFramesBuffer.audioFramesDropped,
+                videoFramesAwaitingKeyFrame = mediaFramesBuffer.videoFramesAwaitingKeyFrame,
+                bitrate = bitrate,
+                reconnects = reconnects.get(),
+                lastRecoveryMs = lastRecoveryMs.get()
+            )
+            onEvent(
+                RtspStreamingService.InternalEvent.RtspClient.OnBitrate(
+                    generation, bitrate, mediaFramesBuffer.queueFill, mediaFramesBuffer.videoFramesDropped
+                )
+            )
         }
 
         val videoRtcpChannel = ports.videoInterleaved.second
@@ -621,32 +756,34 @@ internal class RtspClient(
                 tcpSocket.withWriteLock { if (isConnected()) writeAndFlush(tcpHeader, data) }
             },
             videoUdpSocket = if (protocol == Protocol.TCP) null else
-                UdpStreamSocket(selectorManager, rtspUrl.host, ports.videoServer.server, ports.videoClient.server).apply { connect() },
+                UdpStreamSocket(rtspUrl.host, ports.videoServer.server, ports.videoClient.server).apply { connect() },
             audioUdpSocket = if (protocol == Protocol.TCP || !hasAudio) null else
-                UdpStreamSocket(selectorManager, rtspUrl.host, ports.audioServer.server, ports.audioClient.server).apply { connect() },
+                UdpStreamSocket(rtspUrl.host, ports.audioServer.server, ports.audioClient.server).apply { connect() },
             ssrcVideo = ssrcVideo,
             ssrcAudio = ssrcAudio
         )
 
+        // Packets are written right away, so both the pool and the packet list are reused for every frame
+        val maxPacketSize = packetSize.forProtocol(protocol, tcpSocket.localAddress)
+        val packetPool = RtpPacketPool(maxPacketSize)
+        val rtpFrames = ArrayList<RtpFrame>(64)
+
         val videoPacket = when (videoParams.codec) {
             Codec.Video.H264 -> H264Packet().apply { setVideoInfo(videoParams.sps, videoParams.pps!!) }
             Codec.Video.H265 -> H265Packet().apply { setVideoInfo(videoParams.sps, videoParams.pps!!, videoParams.vps!!) }
             Codec.Video.AV1 -> Av1Packet()
-        }.apply { setSSRC(ssrcVideo) }
+        }.apply { setSSRC(ssrcVideo); setMaxPacketSize(maxPacketSize); setPacketPool(packetPool) }
 
         val audioPacket = audioParams?.run {
             when (audioParams.codec) {
                 Codec.Audio.G711 -> G711Packet().apply { setAudioInfo(audioParams.sampleRate) }
                 Codec.Audio.AAC -> AacPacket().apply { setAudioInfo(audioParams.sampleRate) }
                 Codec.Audio.OPUS -> OpusPacket().apply { setAudioInfo(audioParams.sampleRate) }
-            }.apply { setSSRC(ssrcAudio) }
+            }.apply { setSSRC(ssrcAudio); setMaxPacketSize(maxPacketSize); setPacketPool(packetPool) }
         }
 
         try {
-            synchronized(rtspLock) {
-                currentState = State.STREAMING
-                mediaFramesBuffer.clear()
-            }
+            rtpPacer.reset()
             bitrateCalculator.start()
 
             while (currentCoroutineContext().isActive) {
@@ -658,32 +795,47 @@ internal class RtspClient(
                             if (queuedItem.frame is MediaFrame.VideoFrame && queuedItem.videoGeneration != activeVideoGeneration) {
                                 continue
                             }
+                            if (queuedItem.frame is MediaFrame.VideoFrame && awaitingKeyFrame) {
+                                if (queuedItem.frame.info.isKeyFrame.not()) {
+                                    mediaFramesBuffer.onVideoFrameAwaitingKeyFrame()
+                                    continue
+                                }
+                                awaitingKeyFrame = false
+                            }
                             // If queue is congested, drop non-key video frames to reduce latency
                             if (queuedItem.frame is MediaFrame.VideoFrame && mediaFramesBuffer.hasCongestion(75f) && queuedItem.frame.info.isKeyFrame.not()) {
+                                mediaFramesBuffer.onVideoFrameSkipped()
                                 continue
                             }
-                            val rtpFrames = when (val mediaFrame = queuedItem.frame) {
-                                is MediaFrame.VideoFrame -> videoPacket.createPacket(mediaFrame)
-                                is MediaFrame.AudioFrame -> audioPacket?.createPacket(mediaFrame) ?: emptyList()
+                            when (val mediaFrame = queuedItem.frame) {
+                                is MediaFrame.VideoFrame -> {
+                                    rtpPacer.onVideoFrame(mediaFrame.info.timestamp)
+                                    videoPacket.createPacket(mediaFrame, rtpFrames)
+                                }
+
+                                is MediaFrame.AudioFrame -> audioPacket?.createPacket(mediaFrame, rtpFrames)
                             }
 
-                            for (rtpFrame in rtpFrames) {
-                                when {
-                                    protocol == Protocol.TCP -> tcpSocket.withWriteLock {
-                                        if (isConnected()) {
-                                            val channel = when (rtpFrame) {
-                                                is RtpFrame.Video -> ports.videoInterleaved.first
-                                                is RtpFrame.Audio -> ports.audioInterleaved.first
-                                            }
-                                            val tcpHeader = interleavedHeader(channel, rtpFrame.length)
-                                            writeAndFlush(tcpHeader, rtpFrame.buffer, 0, rtpFrame.length)
+                            // All packets of a frame belong to one track. TCP takes them in a single batch,
+                            // UDP video is paced over the frame interval
+                            if (rtpFrames.isNotEmpty()) {
+                                val isVideo = rtpFrames[0] is RtpFrame.Video
+                                when (protocol) {
+                                    Protocol.TCP -> tcpSocket.writeInterleaved(
+                                        if (isVideo) ports.videoInterleaved.first else ports.audioInterleaved.first, rtpFrames
+                                    ) { it.buffer }
+
+                                    Protocol.UDP -> if (isVideo) {
+                                        rtpPacer.send(rtpFrames, mediaFramesBuffer.size) { packets ->
+                                            videoUdpSocket?.writeBatch(packets) { it.buffer }
                                         }
+                                    } else {
+                                        audioUdpSocket?.writeBatch(rtpFrames) { it.buffer }
                                     }
-
-                                    rtpFrame is RtpFrame.Video -> videoUdpSocket?.write(rtpFrame.buffer, 0, rtpFrame.length)
-                                    rtpFrame is RtpFrame.Audio -> audioUdpSocket?.write(rtpFrame.buffer, 0, rtpFrame.length)
                                 }
+                            }
 
+                            for (rtpFrame in rtpFrames) {
                                 bitrateCalculator.addBytes(rtpFrame.length + if (protocol == Protocol.TCP) 4 else 0)
                                 reporter.update(rtpFrame)
                             }
@@ -719,16 +871,13 @@ internal class RtspClient(
                 } catch (error: Throwable) {
                     if (currentCoroutineContext().isActive.not()) return
                     XLog.w(getLog("sendingLoop", "Error sending packet: ${error.message}"), error)
-                    onEvent(
-                        RtspStreamingService.InternalEvent.RtspClient.OnError(
-                            generation, RtspError.ClientError.Failed("Error sending packet: ${error.message}")
-                        )
-                    )
-                    currentCoroutineContext().cancel()
+                    throw RtspError.ClientError.Failed("Error sending packet: ${error.message}")
                 } finally {
                     if (queuedItem is QueuedItem.Frame) {
                         queuedItem.frame.release()
                     }
+                    for (i in rtpFrames.indices) rtpFrames[i].release()
+                    rtpFrames.clear()
                 }
             }
         } finally {
@@ -744,6 +893,9 @@ internal class RtspClient(
                 acceptVideoFrames = true
                 mediaFramesBuffer.clear()
             }
+            _sendStats.value = ClientSendStats(
+                queueCapacity = mediaFramesBuffer.capacity, reconnects = reconnects.get(), lastRecoveryMs = lastRecoveryMs.get()
+            )
         }
     }
 }
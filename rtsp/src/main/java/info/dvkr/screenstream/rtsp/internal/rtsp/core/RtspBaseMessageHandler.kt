@@ -12,7 +12,7 @@ internal abstract class RtspBaseMessageHandler(
 
     protected data class DigestChallenge(val realm: String, val nonce: String, val qop: String, val opaque: String?, val algorithm: String?)
 
-    protected val path = "/" + path.trimStart('/')
+    protected var path: String = "/" + path.trimStart('/')
 
     protected val baseUri: String
         get() = "rtsp://${formatHostForRtspAuthority(host)}:$port$path"
@@ -15,14 +15,25 @@ import kotlin.io.encoding.Base64
 
 internal class SdpBuilder {
 
-    fun createSdpBody(videoParams: VideoParams, audioParams: AudioParams?, sdpSessionId: Int): String {
+    /**
+     * [nack] advertises RTCP generic NACK (RFC 4585). Only a server that can retransmit over UDP should set it.
+     * [keyFrameRequests] advertises PLI and FIR (RFC 5104), which only the server side acts on.
+     * Client ANNOUNCE keeps the plain SDP.
+     */
+    fun createSdpBody(
+        videoParams: VideoParams,
+        audioParams: AudioParams?,
+        sdpSessionId: Int,
+        nack: Boolean = false,
+        keyFrameRequests: Boolean = false
+    ): String {
         val spsString = videoParams.sps.encodeBase64()
         val ppsString = videoParams.pps?.encodeBase64().orEmpty()
         val vpsString = videoParams.vps?.encodeBase64().orEmpty()
         val videoCodecBody = when (videoParams.codec) {
-            Codec.Video.H264 -> createH264Body(0, spsString, ppsString)
-            Codec.Video.H265 -> createH265Body(0, spsString, ppsString, vpsString)
-            Codec.Video.AV1 -> createAV1Body(0)
+            Codec.Video.H264 -> createH264Body(0, spsString, ppsString, nack, keyFrameRequests)
+            Codec.Video.H265 -> createH265Body(0, spsString, ppsString, vpsString, nack, keyFrameRequests)
+            Codec.Video.AV1 -> createAV1Body(0, nack, keyFrameRequests)
         }
 
         val audioCodecBody = when (audioParams) {
@@ -87,17 +98,29 @@ internal class SdpBuilder {
         }
     }
 
-    private fun createAV1Body(trackVideo: Int): String = buildString {
+    private fun createAV1Body(trackVideo: Int, nack: Boolean, keyFrameRequests: Boolean): String = buildString {
         val payload = Av1Packet.PAYLOAD_TYPE + trackVideo
         append("m=video 0 RTP/AVP $payload\r\n")
         append("a=rtpmap:$payload AV1/${BaseRtpPacket.VIDEO_CLOCK_FREQUENCY}\r\n")
+        if (nack) append("a=rtcp-fb:$payload nack\r\n")
+        if (keyFrameRequests) {
+            append("a=rtcp-fb:$payload nack pli\r\n")
+            append("a=rtcp-fb:$payload ccm fir\r\n")
+        }
         append("a=control:trackID=$trackVideo\r\n")
     }
 
-    private fun createH264Body(trackVideo: Int, sps: String, pps: String): String = buildString {
+    private fun createH264Body(
+        trackVideo: Int, sps: String, pps: String, nack: Boolean, keyFrameRequests: Boolean
+    ): String = buildString {
         val payload = H264Packet.PAYLOAD_TYPE + trackVideo
         append("m=video 0 RTP/AVP $payload\r\n")
         append("a=rtpmap:$payload H264/${BaseRtpPacket.VIDEO_CLOCK_FREQUENCY}\r\n")
+        if (nack) append("a=rtcp-fb:$payload nack\r\n")
+        if (keyFrameRequests) {
+            append("a=rtcp-fb:$payload nack pli\r\n")
+            append("a=rtcp-fb:$payload ccm fir\r\n")
+        }
         val parsedProfile = runCatching { extractH264ProfileLevelId(sps) }.getOrNull()
         val profileLevelId = parsedProfile ?: "42E01F"
 
@@ -118,10 +141,17 @@ internal class SdpBuilder {
         String.format("%02X%02X%02X", profileIdc, constraints, levelIdc)
     }.getOrNull()
 
-    private fun createH265Body(trackVideo: Int, sps: String, pps: String, vps: String): String = buildString {
+    private fun createH265Body(
+        trackVideo: Int, sps: String, pps: String, vps: String, nack: Boolean, keyFrameRequests: Boolean
+    ): String = buildString {
         val payload = H265Packet.PAYLOAD_TYPE + trackVideo
         append("m=video 0 RTP/AVP $payload\r\n")
         append("a=rtpmap:$payload H265/${BaseRtpPacket.VIDEO_CLOCK_FREQUENCY}\r\n")
+        if (nack) append("a=rtcp-fb:$payload nack\r\n")
+        if (keyFrameRequests) {
+            append("a=rtcp-fb:$payload nack pli\r\n")
+            append("a=rtcp-fb:$payload ccm fir\r\n")
+        }
         val parts = buildList {
             if (vps.isNotEmpty()) add("sprop-vps=$vps")
             if (sps.isNotEmpty()) add("sprop-sps=$sps")
@@ -5,7 +5,7 @@ import info.dvkr.screenstream.rtsp.internal.RtpFrame
 import java.nio.ByteBuffer
 import kotlin.experimental.and
 
-internal class AacPacket : BaseRtpPacket(0, PAYLOAD_TYPE + 1) {
+internal class AacPacket : BaseRtpPacket(0, PAYLOAD_TYPE + 1, RtpFrame.AUDIO_TRACK_ID) {
 
     companion object {
         const val PAYLOAD_TYPE = 96
@@ -18,7 +18,7 @@ internal class AacPacket : BaseRtpPacket(0, PAYLOAD_TYPE + 1) {
         nextRtpTs = -1L
     }
 
-    override fun createPacket(mediaFrame: MediaFrame): List<RtpFrame> {
+    override fun createPacket(mediaFrame: MediaFrame, out: MutableList<RtpFrame>) {
         var fixedBuffer = mediaFrame.data.removeInfo(mediaFrame.info)
         // If ADTS present, strip it and use RFC 3640 AU headers path.
         val adtsHeaderLen = parseAdtsHeader(fixedBuffer)
@@ -29,15 +29,15 @@ internal class AacPacket : BaseRtpPacket(0, PAYLOAD_TYPE + 1) {
         }
         val length = fixedBuffer.remaining()
         val tsNs = mediaFrame.info.timestamp * 1000
-        val frames = mutableListOf<RtpFrame>()
 
         val rtpTsForThisAu = if (nextRtpTs >= 0) nextRtpTs else toRtpTimestampFromNs(tsNs)
 
-        val maxPayload = MAX_PACKET_SIZE - (RTP_HEADER_LENGTH + 4)
+        val maxPayload = maxPacketSize - (RTP_HEADER_LENGTH + 4)
         var sum = 0
         while (sum < length) {
             val size = if (length - sum < maxPayload) (length - sum) else maxPayload
-            val buffer = getBuffer(size + RTP_HEADER_LENGTH + 4)
+            val packet = getPacket(size + RTP_HEADER_LENGTH + 4)
+            val buffer = packet.buffer
             fixedBuffer.get(buffer, RTP_HEADER_LENGTH + 4, size)
 
             // AU-headers-length: 16 bits (one AU-header)
@@ -52,11 +52,11 @@ internal class AacPacket : BaseRtpPacket(0, PAYLOAD_TYPE + 1) {
             setRtpTimestamp(buffer, rtpTsForThisAu)
             updateSeq(buffer)
             if (sum + size >= length) markPacket(buffer)
-            frames.add(RtpFrame.Audio(buffer, rtpTsForThisAu, buffer.size))
+            packet.timeStamp = rtpTsForThisAu
+            out.add(packet)
             sum += size
         }
         nextRtpTs = rtpTsForThisAu + 1024
-        return frames
     }
 
     private fun parseAdtsHeader(buf: ByteBuffer): Int? {
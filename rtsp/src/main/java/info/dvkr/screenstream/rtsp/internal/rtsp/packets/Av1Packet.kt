@@ -11,7 +11,7 @@ import kotlin.experimental.or
  * Implementation of AV1 over RTP based on
  * https://aomediacodec.github.io/av1-rtp-spec/
  */
-internal class Av1Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
+internal class Av1Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE, RtpFrame.VIDEO_TRACK_ID) {
 
     companion object {
         const val PAYLOAD_TYPE = 96
@@ -193,7 +193,7 @@ internal class Av1Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
     /**
      * Creates one or more RTP packets from a single AV1 frame and sends them.
      */
-    override fun createPacket(mediaFrame: MediaFrame): List<RtpFrame> {
+    override fun createPacket(mediaFrame: MediaFrame, out: MutableList<RtpFrame>) {
         // Remove any extra info from the encoded buffer
         val src = mediaFrame.data.removeInfo(mediaFrame.info)
 
@@ -201,7 +201,7 @@ internal class Av1Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
 
         // Parse OBUs and keep structured header/leb/payload
         val parsedObus = getObus(src.toByteArray()).filter { getObuType(it.header[0]) != ObuType.TEMPORAL_DELIMITER }
-        if (parsedObus.isEmpty()) return emptyList()
+        if (parsedObus.isEmpty()) return
 
         // Transform to RTP wire-form per RFC: clear HAS_SIZE_FIELD and drop OBU-size LEB for each OBU
         val wireObus = mutableListOf<ByteArray>()
@@ -228,8 +228,7 @@ internal class Av1Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
         headerLensForPacket += headerLens
 
         val ts = mediaFrame.info.timestamp * 1000L
-        val maxPayload = MAX_PACKET_SIZE - RTP_HEADER_LENGTH - 1 // 1 byte for aggregation header
-        val frames = mutableListOf<RtpFrame>()
+        val maxPayload = maxPacketSize - RTP_HEADER_LENGTH - 1 // 1 byte for aggregation header
 
         var firstPacket = true
         var obuIndex = 0
@@ -317,38 +316,38 @@ internal class Av1Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
 
             // Compute total size: 1 (agg hdr) + sum(LEB(len) + len) for W=0 (length-present)
             val payloadSize = elems.sumOf { lebLenInt(it.len) + it.len }
-            val out = getBuffer(payloadSize + RTP_HEADER_LENGTH + 1)
-            val rtpTs = updateTimeStamp(out, ts)
+            val packet = getPacket(payloadSize + RTP_HEADER_LENGTH + 1)
+            val buffer = packet.buffer
+            packet.timeStamp = updateTimeStamp(buffer, ts)
 
             // Aggregation header: Z,Y,W(=0 -> single element, length present),N
             val z = if (startingWithContinuation) 1 else 0
             val y = if (lastIsFragmented) 1 else 0
             val w = 0 // single element; length present via LEB
             val n = if (newSequence && includeSeqHeader && firstPacket) 1 else 0
-            out[RTP_HEADER_LENGTH] = (((z shl 7) or (y shl 6) or (w shl 4) or (n shl 3))).toByte()
+            buffer[RTP_HEADER_LENGTH] = (((z shl 7) or (y shl 6) or (w shl 4) or (n shl 3))).toByte()
 
             // Write per-element LEB length followed by element bytes (W=0)
             var pos = RTP_HEADER_LENGTH + 1
             for (e in elems) {
                 val leb = writeLeb128(e.len.toLong())
-                for (i in leb.indices) out[pos + i] = leb[i]
+                for (i in leb.indices) buffer[pos + i] = leb[i]
                 pos += leb.size
                 val fullBytes = listForPacket[e.idx]
                 for (i in 0 until e.len) {
-                    out[pos + i] = fullBytes[e.start + i]
+                    buffer[pos + i] = fullBytes[e.start + i]
                 }
                 pos += e.len
             }
 
             val isLast = (obuIndex >= listForPacket.size && offsetInObu == 0)
-            if (isLast) markPacket(out)
-            updateSeq(out)
-            frames.add(RtpFrame.Video(out, rtpTs, out.size))
+            if (isLast) markPacket(buffer)
+            updateSeq(buffer)
+            out.add(packet)
             if (newSequence && includeSeqHeader && firstPacket) newSequence = false
 
             firstPacket = false
         }
-        return frames
     }
 
     private fun ByteBuffer.toByteArray(): ByteArray {
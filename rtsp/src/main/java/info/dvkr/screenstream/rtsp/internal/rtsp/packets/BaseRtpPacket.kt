@@ -10,18 +10,27 @@ import kotlin.random.Random
 
 internal class RtpBufferInaccessibleException(cause: Throwable) : IllegalStateException("Frame buffer is inaccessible", cause)
 
-internal abstract class BaseRtpPacket(private var clock: Long, private val payloadType: Int) {
+internal abstract class BaseRtpPacket(private var clock: Long, private val payloadType: Int, private val trackId: Int) {
     companion object {
-        const val MTU = 1028
         const val RTP_HEADER_LENGTH = 12
         const val VIDEO_CLOCK_FREQUENCY = 90000L
-        protected const val MAX_PACKET_SIZE = MTU - 28
+        const val DEFAULT_MAX_PACKET_SIZE = 1400
+        const val MIN_PACKET_SIZE = 512
     }
 
     private var seq = Random.nextInt(0, 0x10000)
     private var ssrc = 0
+    private var packetPool: RtpPacketPool? = null
 
-    abstract fun createPacket(mediaFrame: MediaFrame): List<RtpFrame>
+    // Largest RTP packet, header included, the packetizer produces. Larger NAL units and OBUs are fragmented
+    protected var maxPacketSize: Int = DEFAULT_MAX_PACKET_SIZE
+        private set
+
+    /**
+     * Appends RTP packets of [mediaFrame] to [out]. With a packet pool set, each packet must be released
+     * with [RtpFrame.release] after it was written.
+     */
+    abstract fun createPacket(mediaFrame: MediaFrame, out: MutableList<RtpFrame>)
 
     @CallSuper
     open fun reset() {
@@ -33,6 +42,14 @@ internal abstract class BaseRtpPacket(private var clock: Long, private val paylo
         this.ssrc = (ssrc and 0xFFFFFFFF).toInt()
     }
 
+    fun setPacketPool(pool: RtpPacketPool?) {
+        packetPool = pool
+    }
+
+    fun setMaxPacketSize(size: Int) {
+        maxPacketSize = size.coerceIn(MIN_PACKET_SIZE, 65535)
+    }
+
     fun setInitialSeq(initial: Int) {
         seq = initial and 0xFFFF
     }
@@ -41,10 +58,16 @@ internal abstract class BaseRtpPacket(private var clock: Long, private val paylo
         this.clock = clock
     }
 
-    protected fun getBuffer(size: Int): ByteArray = ByteArray(size).also { b ->
-        b[0] = 0x80.toByte()
-        b[1] = payloadType.toByte() and 0x7F
-        b.setLong(ssrc.toLong(), 8, 12)
+    // Packet of [size] bytes with version, payload type and SSRC set, timestamp and sequence are set by the packetizer
+    protected fun getPacket(size: Int): RtpFrame {
+        val packet = packetPool?.obtain(trackId, size) ?: when (trackId) {
+            RtpFrame.VIDEO_TRACK_ID -> RtpFrame.Video(ByteArray(size), 0L, size)
+            else -> RtpFrame.Audio(ByteArray(size), 0L, size)
+        }
+        packet.buffer[0] = 0x80.toByte()
+        packet.buffer[1] = payloadType.toByte() and 0x7F
+        packet.buffer.setLong(ssrc.toLong(), 8, 12)
+        return packet
     }
 
     protected fun updateTimeStamp(buffer: ByteArray, timestamp: Long): Long {
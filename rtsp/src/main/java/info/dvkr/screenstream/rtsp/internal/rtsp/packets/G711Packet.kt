@@ -3,7 +3,7 @@ package info.dvkr.screenstream.rtsp.internal.rtsp.packets
 import info.dvkr.screenstream.rtsp.internal.MediaFrame
 import info.dvkr.screenstream.rtsp.internal.RtpFrame
 
-internal class G711Packet : BaseRtpPacket(0, PAYLOAD_TYPE) {
+internal class G711Packet : BaseRtpPacket(0, PAYLOAD_TYPE, RtpFrame.AUDIO_TRACK_ID) {
 
     companion object {
         const val PAYLOAD_TYPE = 8 // PCMA
@@ -16,19 +16,19 @@ internal class G711Packet : BaseRtpPacket(0, PAYLOAD_TYPE) {
         nextRtpTs = -1L
     }
 
-    override fun createPacket(mediaFrame: MediaFrame): List<RtpFrame> {
+    override fun createPacket(mediaFrame: MediaFrame, out: MutableList<RtpFrame>) {
         val fixedBuffer = mediaFrame.data.removeInfo(mediaFrame.info)
         val length = fixedBuffer.remaining()
-        val maxPayload = MAX_PACKET_SIZE - RTP_HEADER_LENGTH
+        val maxPayload = maxPacketSize - RTP_HEADER_LENGTH
         val tsNs = mediaFrame.info.timestamp * 1000
         var sum = 0
-        val frames = mutableListOf<RtpFrame>()
 
         var rtpTs = if (nextRtpTs >= 0) nextRtpTs else toRtpTimestampFromNs(tsNs)
 
         while (sum < length) {
             val size = if (length - sum < maxPayload) (length - sum) else maxPayload
-            val buffer = getBuffer(size + RTP_HEADER_LENGTH)
+            val packet = getPacket(size + RTP_HEADER_LENGTH)
+            val buffer = packet.buffer
             fixedBuffer.get(buffer, RTP_HEADER_LENGTH, size)
             setRtpTimestamp(buffer, rtpTs)
             updateSeq(buffer)
@@ -37,14 +37,13 @@ internal class G711Packet : BaseRtpPacket(0, PAYLOAD_TYPE) {
                 markPacket(buffer)
             }
 
-            val rtpFrame = RtpFrame.Audio(buffer, rtpTs, buffer.size)
+            packet.timeStamp = rtpTs
             sum += size
-            frames.add(rtpFrame)
+            out.add(packet)
 
             // For PCMA mono, 1 byte == 1 sample
             rtpTs += size
         }
         nextRtpTs = rtpTs
-        return frames
     }
 }
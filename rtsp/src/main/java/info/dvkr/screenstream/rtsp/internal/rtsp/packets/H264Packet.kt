@@ -5,11 +5,12 @@ import info.dvkr.screenstream.rtsp.internal.RtpFrame
 import java.nio.ByteBuffer
 import kotlin.experimental.and
 
-internal class H264Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
+internal class H264Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE, RtpFrame.VIDEO_TRACK_ID) {
 
     companion object {
         const val PAYLOAD_TYPE = 96
         const val IDR = 5
+        private val AUD = byteArrayOf(0x09, 0xF0.toByte())
 
         fun extractSpsPps(outputBuffer: ByteBuffer): Pair<ByteArray, ByteArray>? {
             val csd = ByteArray(outputBuffer.remaining()).also {
@@ -65,7 +66,7 @@ internal class H264Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
         forceStapOnce = true
     }
 
-    override fun createPacket(mediaFrame: MediaFrame): List<RtpFrame> {
+    override fun createPacket(mediaFrame: MediaFrame, out: MutableList<RtpFrame>) {
         var fixedBuffer = mediaFrame.data.removeInfo(mediaFrame.info)
 
         var headerSize = getHeaderSize(fixedBuffer)
@@ -75,7 +76,6 @@ internal class H264Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
         }
 
         val ts = mediaFrame.info.timestamp * 1000L
-        val frames = mutableListOf<RtpFrame>()
 
         fixedBuffer.rewind()
         if (headerSize > 0) fixedBuffer.position(headerSize)
@@ -92,11 +92,7 @@ internal class H264Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
                 val isIdr = (naluType == IDR)
                 if (((!sendKeyFrame) || isIdr || forceStapOnce) && !stapForThisAuSent) {
                     stapA?.let {
-                        val b = getBuffer(it.size + RTP_HEADER_LENGTH)
-                        val rtpTs = updateTimeStamp(b, ts)
-                        updateSeq(b)
-                        System.arraycopy(it, 0, b, RTP_HEADER_LENGTH, it.size)
-                        frames.add(RtpFrame.Video(b, rtpTs, b.size))
+                        addPacket(it, ts, out)
                         sendKeyFrame = true
                         stapForThisAuSent = true
                         if (forceStapOnce) forceStapOnce = false
@@ -104,15 +100,10 @@ internal class H264Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
                 }
                 if (!audForThisAuSent) {
                     // Insert an Access Unit Delimiter (AUD) to help some clients resync
-                    val aud = byteArrayOf(0x09, 0xF0.toByte())
-                    val b = getBuffer(aud.size + RTP_HEADER_LENGTH)
-                    val rtpTs = updateTimeStamp(b, ts)
-                    updateSeq(b)
-                    System.arraycopy(aud, 0, b, RTP_HEADER_LENGTH, aud.size)
-                    frames.add(RtpFrame.Video(b, rtpTs, b.size))
+                    addPacket(AUD, ts, out)
                     audForThisAuSent = true
                 }
-                packetizeSingleNal(slice, startPos, slice.remaining(), ts, frames, markLast = true)
+                packetizeSingleNal(slice, startPos, slice.remaining(), ts, out, markLast = true)
                 break
             }
 
@@ -121,9 +112,8 @@ internal class H264Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
             if (startPos >= slice.limit()) break
 
             // Find next start code to delimit this NAL
-            val search = slice.duplicate().apply { position(startPos) }
-            val next = findNextStartCodeIndex(search)
-            val naluLen = next?.first ?: (slice.limit() - startPos)
+            val next = findNextStartCodeIndex(slice, startPos)
+            val naluLen = if (next >= 0) next else slice.limit() - startPos
 
             // NAL header to decide if we should prepend SPS/PPS for IDR
             val nalHeader = slice.get(startPos)
@@ -132,11 +122,7 @@ internal class H264Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
             // Prepend SPS/PPS for every IDR to improve compatibility with strict players (e.g., IINA/mpv).
             if ((isIdr || forceStapOnce || !sendKeyFrame) && !stapForThisAuSent) {
                 stapA?.let {
-                    val b = getBuffer(it.size + RTP_HEADER_LENGTH)
-                    val rtpTs = updateTimeStamp(b, ts)
-                    updateSeq(b)
-                    System.arraycopy(it, 0, b, RTP_HEADER_LENGTH, it.size)
-                    frames.add(RtpFrame.Video(b, rtpTs, b.size))
+                    addPacket(it, ts, out)
                     sendKeyFrame = true
                     stapForThisAuSent = true
                     if (forceStapOnce) forceStapOnce = false
@@ -144,23 +130,25 @@ internal class H264Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
             }
 
             if (!audForThisAuSent) {
-                val aud = byteArrayOf(0x09, 0xF0.toByte())
-                val b = getBuffer(aud.size + RTP_HEADER_LENGTH)
-                val rtpTs = updateTimeStamp(b, ts)
-                updateSeq(b)
-                System.arraycopy(aud, 0, b, RTP_HEADER_LENGTH, aud.size)
-                frames.add(RtpFrame.Video(b, rtpTs, b.size))
+                addPacket(AUD, ts, out)
                 audForThisAuSent = true
             }
 
-            val isLastNal = next == null
-            packetizeSingleNal(slice, startPos, naluLen, ts, frames, markLast = isLastNal)
+            val isLastNal = next < 0
+            packetizeSingleNal(slice, startPos, naluLen, ts, out, markLast = isLastNal)
 
             // Advance slice to next NAL start (position after this NAL and before next start code)
             slice.position(startPos + naluLen)
-            if (next == null) break
+            if (isLastNal) break
         }
-        return frames
+    }
+
+    private fun addPacket(payload: ByteArray, ts: Long, out: MutableList<RtpFrame>) {
+        val packet = getPacket(payload.size + RTP_HEADER_LENGTH)
+        packet.timeStamp = updateTimeStamp(packet.buffer, ts)
+        updateSeq(packet.buffer)
+        System.arraycopy(payload, 0, packet.buffer, RTP_HEADER_LENGTH, payload.size)
+        out.add(packet)
     }
 
     private fun packetizeSingleNal(
@@ -171,30 +159,32 @@ internal class H264Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
         out: MutableList<RtpFrame>,
         markLast: Boolean
     ) {
-        val maxPayloadSingle = MAX_PACKET_SIZE - RTP_HEADER_LENGTH
+        val maxPayloadSingle = maxPacketSize - RTP_HEADER_LENGTH
+        val dup = base.duplicate()
         if (naluLen <= maxPayloadSingle) {
-            val buffer = getBuffer(naluLen + RTP_HEADER_LENGTH)
-            val dup = base.duplicate()
+            val packet = getPacket(naluLen + RTP_HEADER_LENGTH)
+            val buffer = packet.buffer
             dup.limit(startPos + naluLen)
             dup.position(startPos)
             dup.get(buffer, RTP_HEADER_LENGTH, naluLen)
-            val rtpTs = updateTimeStamp(buffer, ts)
+            packet.timeStamp = updateTimeStamp(buffer, ts)
             updateSeq(buffer)
             if (markLast) markPacket(buffer)
-            out.add(RtpFrame.Video(buffer, rtpTs, buffer.size))
+            out.add(packet)
         } else {
             // FU-A fragmentation
             val nalHeader = base.get(startPos)
             val indicator = ((nalHeader.toInt() and 0x60) or 28).toByte()
             val fuHeaderBase = (nalHeader and 0x1F)
-            val maxFrag = MAX_PACKET_SIZE - RTP_HEADER_LENGTH - 2
+            val maxFrag = maxPacketSize - RTP_HEADER_LENGTH - 2
 
             var offset = 1 // skip original nal header in payload
             var first = true
             while (offset < naluLen) {
                 val remaining = naluLen - offset
                 val chunk = if (remaining > maxFrag) maxFrag else remaining
-                val buffer = getBuffer(chunk + RTP_HEADER_LENGTH + 2)
+                val packet = getPacket(chunk + RTP_HEADER_LENGTH + 2)
+                val buffer = packet.buffer
                 buffer[RTP_HEADER_LENGTH] = indicator
                 var fuHeader = fuHeaderBase
                 if (first) fuHeader = fuHeader.plus(0x80).toByte() // S
@@ -202,9 +192,8 @@ internal class H264Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
                 // regardless of whether this NAL is the last in the access unit.
                 if (remaining <= maxFrag) fuHeader = fuHeader.plus(0x40).toByte() // E
                 buffer[RTP_HEADER_LENGTH + 1] = fuHeader
-                val rtpTs = updateTimeStamp(buffer, ts)
+                packet.timeStamp = updateTimeStamp(buffer, ts)
 
-                val dup = base.duplicate()
                 dup.limit(startPos + offset + chunk)
                 dup.position(startPos + offset)
                 dup.get(buffer, RTP_HEADER_LENGTH + 2, chunk)
@@ -213,7 +202,7 @@ internal class H264Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
                 // RTP marker bit is only set on the very last packet of the access unit.
                 if (remaining <= maxFrag && markLast) markPacket(buffer)
                 updateSeq(buffer)
-                out.add(RtpFrame.Video(buffer, rtpTs, buffer.size))
+                out.add(packet)
                 first = false
             }
         }
@@ -278,23 +267,29 @@ internal class H264Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
         val sps = this.sps
         val pps = this.pps
         if (sps != null && pps != null) {
-            val dup = byteBuffer.duplicate()
-            val startCodeSize = dup.getVideoStartCodeSize()
+            val startCodeSize = byteBuffer.getVideoStartCodeSize()
             if (startCodeSize == 0) return 0
-            val startCode = ByteArray(startCodeSize) { 0x00 }
-            startCode[startCodeSize - 1] = 0x01
-            val avcHeader = startCode + sps + startCode + pps + startCode
-            if (dup.remaining() < avcHeader.size) return 0
-
-            val possibleHeader = ByteArray(avcHeader.size)
-            dup.get(possibleHeader, 0, possibleHeader.size)
-            return if (avcHeader.contentEquals(possibleHeader)) {
-                avcHeader.size
-            } else 0
+            // Compared in place: start code + SPS + start code + PPS + start code
+            val headerSize = startCodeSize * 3 + sps.size + pps.size
+            if (byteBuffer.remaining() < headerSize) return 0
+
+            var pos = byteBuffer.position()
+            if (!byteBuffer.matchesAt(pos, startCodeSize, sps)) return 0
+            pos += startCodeSize + sps.size
+            if (!byteBuffer.matchesAt(pos, startCodeSize, pps)) return 0
+            pos += startCodeSize + pps.size
+            return if (byteBuffer.matchesAt(pos, startCodeSize, null)) headerSize else 0
         }
         return 0
     }
 
+    private fun ByteBuffer.matchesAt(pos: Int, startCodeSize: Int, nal: ByteArray?): Boolean {
+        for (i in 0 until startCodeSize - 1) if (get(pos + i) != 0x00.toByte()) return false
+        if (get(pos + startCodeSize - 1) != 0x01.toByte()) return false
+        if (nal != null) for (i in nal.indices) if (get(pos + startCodeSize + i) != nal[i]) return false
+        return true
+    }
+
     private fun ByteBuffer.getVideoStartCodeSize(): Int {
         val p = position()
         val rem = remaining()
@@ -305,19 +300,19 @@ internal class H264Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
         }
     }
 
-    private fun findNextStartCodeIndex(buffer: ByteBuffer): Pair<Int, Int>? {
-        val dup = buffer.duplicate()
-        val limit = dup.limit()
-        var i = dup.position()
+    // Offset of the next start code from [from], or -1 if there is none
+    private fun findNextStartCodeIndex(buffer: ByteBuffer, from: Int): Int {
+        val limit = buffer.limit()
+        var i = from
         val end = limit - 3
         while (i < end) {
-            if (dup.get(i).toInt() == 0 && dup.get(i + 1).toInt() == 0) {
-                if (dup.get(i + 2).toInt() == 1) return (i - dup.position()) to 3
-                if (i + 3 < limit && dup.get(i + 2).toInt() == 0 && dup.get(i + 3).toInt() == 1) return (i - dup.position()) to 4
+            if (buffer.get(i).toInt() == 0 && buffer.get(i + 1).toInt() == 0) {
+                if (buffer.get(i + 2).toInt() == 1) return i - from
+                if (i + 3 < limit && buffer.get(i + 2).toInt() == 0 && buffer.get(i + 3).toInt() == 1) return i - from
             }
             i++
         }
-        return null
+        return -1
     }
 
     override fun reset() {
@@ -4,12 +4,13 @@ import info.dvkr.screenstream.rtsp.internal.MediaFrame
 import info.dvkr.screenstream.rtsp.internal.RtpFrame
 import java.nio.ByteBuffer
 
-internal class H265Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
+internal class H265Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE, RtpFrame.VIDEO_TRACK_ID) {
 
     companion object {
         const val PAYLOAD_TYPE = 96
         const val IDR_N_LP = 20
         const val IDR_W_DLP = 19
+        private val AUD = byteArrayOf(((35 and 0x3F) shl 1).toByte(), 0x01, 0x80.toByte())
 
         fun extractSpsPpsVps(csd0Buffer: ByteBuffer): Triple<ByteArray, ByteArray, ByteArray>? {
             val csd = ByteArray(csd0Buffer.remaining()).also {
@@ -71,17 +72,16 @@ internal class H265Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
         forceParamsOnce = true
     }
 
-    override fun createPacket(mediaFrame: MediaFrame): List<RtpFrame> {
+    override fun createPacket(mediaFrame: MediaFrame, out: MutableList<RtpFrame>) {
         var fixedBuffer = mediaFrame.data.removeInfo(mediaFrame.info)
         if (fixedBuffer.getVideoStartCodeSize() == 0) {
             convertHvccToAnnexB(fixedBuffer)?.let { fixedBuffer = it }
         }
 
         // If still no start code, we can't safely packetize
-        if (fixedBuffer.remaining() < 4 && fixedBuffer.getVideoStartCodeSize() == 0) return emptyList()
+        if (fixedBuffer.remaining() < 4 && fixedBuffer.getVideoStartCodeSize() == 0) return
 
         val ts = mediaFrame.info.timestamp * 1000L
-        val frames = mutableListOf<RtpFrame>()
 
         var paramsInjectedForThisAu = false
         var audForThisAuSent = false
@@ -100,28 +100,17 @@ internal class H265Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
 
                 if (!audForThisAuSent) {
                     // Insert HEVC AUD (NAL type 35) to help delimiting access units over TCP
-                    val aud = byteArrayOf(((35 and 0x3F) shl 1).toByte(), 0x01, 0x80.toByte())
-                    val b = getBuffer(aud.size + RTP_HEADER_LENGTH)
-                    val rtpTs = updateTimeStamp(b, ts)
-                    updateSeq(b)
-                    System.arraycopy(aud, 0, b, RTP_HEADER_LENGTH, aud.size)
-                    frames.add(RtpFrame.Video(b, rtpTs, b.size))
+                    addPacket(AUD, ts, out)
                 }
 
                 if (((nalType == IDR_W_DLP) || (nalType == IDR_N_LP) || mediaFrame.info.isKeyFrame || forceParamsOnce) && !isParamNal && !paramsInjectedForThisAu) {
-                    listOfNotNull(vps, sps, pps).forEach { nal ->
-                        val b = getBuffer(nal.size + RTP_HEADER_LENGTH)
-                        val rtpTs = updateTimeStamp(b, ts)
-                        System.arraycopy(nal, 0, b, RTP_HEADER_LENGTH, nal.size)
-                        updateSeq(b)
-                        frames.add(RtpFrame.Video(b, rtpTs, b.size))
-                    }
+                    addParams(ts, out)
                     sendKeyFrame = true
                     if (forceParamsOnce) forceParamsOnce = false
                 }
 
                 val naluLen = slice.remaining()
-                packetizeHevcNal(slice, startPos, naluLen, ts, frames, markLast = true)
+                packetizeHevcNal(slice, startPos, naluLen, ts, out, markLast = true)
                 slice.position(startPos + naluLen)
                 break
             }
@@ -130,45 +119,45 @@ internal class H265Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
             if (startPos >= slice.limit()) break
 
             // Find the next start code to delimit this NAL
-            val search = slice.duplicate().apply { position(startPos) }
-            val next = findNextStartCodeIndex(search)
-            val naluLen = next?.first ?: (slice.limit() - startPos)
+            val next = findNextStartCodeIndex(slice, startPos)
+            val naluLen = if (next >= 0) next else slice.limit() - startPos
 
             // Injection of VPS/SPS/PPS once per AU before first non-parameter NAL if requested
             val header0 = slice.get(startPos).toInt() and 0xFF
             val nalType = (header0 shr 1) and 0x3F
             val isParamNal = (nalType == 32 || nalType == 33 || nalType == 34)
             if (!audForThisAuSent) {
-                val aud = byteArrayOf(((35 and 0x3F) shl 1).toByte(), 0x01, 0x80.toByte())
-                val b = getBuffer(aud.size + RTP_HEADER_LENGTH)
-                val rtpTs = updateTimeStamp(b, ts)
-                updateSeq(b)
-                System.arraycopy(aud, 0, b, RTP_HEADER_LENGTH, aud.size)
-                frames.add(RtpFrame.Video(b, rtpTs, b.size))
+                addPacket(AUD, ts, out)
                 audForThisAuSent = true
             }
             if (((nalType == IDR_W_DLP) || (nalType == IDR_N_LP) || mediaFrame.info.isKeyFrame || forceParamsOnce) && !isParamNal && !paramsInjectedForThisAu) {
-                listOfNotNull(vps, sps, pps).forEach { nal ->
-                    val b = getBuffer(nal.size + RTP_HEADER_LENGTH)
-                    val rtpTs = updateTimeStamp(b, ts)
-                    System.arraycopy(nal, 0, b, RTP_HEADER_LENGTH, nal.size)
-                    updateSeq(b)
-                    frames.add(RtpFrame.Video(b, rtpTs, b.size))
-                }
+                addParams(ts, out)
                 sendKeyFrame = true
                 paramsInjectedForThisAu = true
                 if (forceParamsOnce) forceParamsOnce = false
             }
 
-            val isLastNal = (next == null)
-            packetizeHevcNal(slice, startPos, naluLen, ts, frames, markLast = isLastNal)
+            val isLastNal = (next < 0)
+            packetizeHevcNal(slice, startPos, naluLen, ts, out, markLast = isLastNal)
 
             // Advance to next NAL start (position after this NAL and before next start code)
             slice.position(startPos + naluLen)
             if (isLastNal) break
         }
+    }
+
+    private fun addPacket(payload: ByteArray, ts: Long, out: MutableList<RtpFrame>) {
+        val packet = getPacket(payload.size + RTP_HEADER_LENGTH)
+        packet.timeStamp = updateTimeStamp(packet.buffer, ts)
+        System.arraycopy(payload, 0, packet.buffer, RTP_HEADER_LENGTH, payload.size)
+        updateSeq(packet.buffer)
+        out.add(packet)
+    }
 
-        return frames
+    private fun addParams(ts: Long, out: MutableList<RtpFrame>) {
+        vps?.let { addPacket(it, ts, out) }
+        sps?.let { addPacket(it, ts, out) }
+        pps?.let { addPacket(it, ts, out) }
     }
 
     internal fun ByteBuffer.getVideoStartCodeSize(): Int = when {
@@ -187,19 +176,19 @@ internal class H265Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
         }
     }
 
-    private fun findNextStartCodeIndex(buffer: ByteBuffer): Pair<Int, Int>? {
-        val dup = buffer.duplicate()
-        val limit = dup.limit()
-        var i = dup.position()
+    // Offset of the next start code from [from], or -1 if there is none
+    private fun findNextStartCodeIndex(buffer: ByteBuffer, from: Int): Int {
+        val limit = buffer.limit()
+        var i = from
         val end = limit - 3
         while (i < end) {
-            if (dup.get(i).toInt() == 0 && dup.get(i + 1).toInt() == 0) {
-                if (dup.get(i + 2).toInt() == 1) return (i - dup.position()) to 3
-                if (i + 3 < limit && dup.get(i + 2).toInt() == 0 && dup.get(i + 3).toInt() == 1) return (i - dup.position()) to 4
+            if (buffer.get(i).toInt() == 0 && buffer.get(i + 1).toInt() == 0) {
+                if (buffer.get(i + 2).toInt() == 1) return i - from
+                if (i + 3 < limit && buffer.get(i + 2).toInt() == 0 && buffer.get(i + 3).toInt() == 1) return i - from
             }
             i++
         }
-        return null
+        return -1
     }
 
     private fun packetizeHevcNal(
@@ -211,17 +200,18 @@ internal class H265Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
         markLast: Boolean
     ) {
         // The NAL length includes the 2-byte HEVC NAL header
-        val maxPayloadSingle = MAX_PACKET_SIZE - RTP_HEADER_LENGTH
+        val maxPayloadSingle = maxPacketSize - RTP_HEADER_LENGTH
+        val dup = base.duplicate()
         if (naluLen <= maxPayloadSingle) {
-            val buffer = getBuffer(naluLen + RTP_HEADER_LENGTH)
-            val dup = base.duplicate()
+            val packet = getPacket(naluLen + RTP_HEADER_LENGTH)
+            val buffer = packet.buffer
             dup.limit(startPos + naluLen)
             dup.position(startPos)
             dup.get(buffer, RTP_HEADER_LENGTH, naluLen)
-            val rtpTs = updateTimeStamp(buffer, ts)
+            packet.timeStamp = updateTimeStamp(buffer, ts)
             updateSeq(buffer)
             if (markLast) markPacket(buffer)
-            out.add(RtpFrame.Video(buffer, rtpTs, buffer.size))
+            out.add(packet)
             return
         }
 
@@ -233,13 +223,14 @@ internal class H265Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
         val fuIndicator0 = (((49 and 0x3F) shl 1) or (nalHeader0 and 0x81)).toByte() // replace type with 49, keep F and reserved bits
         val fuIndicator1 = nalHeader1.toByte() // preserve nuh_layer_id and nuh_temporal_id_plus1
 
-        val maxFrag = MAX_PACKET_SIZE - RTP_HEADER_LENGTH - 3
+        val maxFrag = maxPacketSize - RTP_HEADER_LENGTH - 3
         var offset = 2 // skip original 2-byte NAL header
         var first = true
         while (offset < naluLen) {
             val remaining = naluLen - offset
             val chunk = if (remaining > maxFrag) maxFrag else remaining
-            val buffer = getBuffer(chunk + RTP_HEADER_LENGTH + 3)
+            val packet = getPacket(chunk + RTP_HEADER_LENGTH + 3)
+            val buffer = packet.buffer
             buffer[RTP_HEADER_LENGTH] = fuIndicator0
             buffer[RTP_HEADER_LENGTH + 1] = fuIndicator1
             var fuHeader = (nalType and 0x3F).toByte()
@@ -247,9 +238,8 @@ internal class H265Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
             if (remaining <= maxFrag) fuHeader = (fuHeader.toInt() or 0x40).toByte() // E bit on last fragment of this NAL
             buffer[RTP_HEADER_LENGTH + 2] = fuHeader
 
-            val rtpTs = updateTimeStamp(buffer, ts)
+            packet.timeStamp = updateTimeStamp(buffer, ts)
 
-            val dup = base.duplicate()
             dup.limit(startPos + offset + chunk)
             dup.position(startPos + offset)
             dup.get(buffer, RTP_HEADER_LENGTH + 3, chunk)
@@ -257,7 +247,7 @@ internal class H265Packet : BaseRtpPacket(VIDEO_CLOCK_FREQUENCY, PAYLOAD_TYPE) {
 
             if (remaining <= maxFrag && markLast) markPacket(buffer)
             updateSeq(buffer)
-            out.add(RtpFrame.Video(buffer, rtpTs, buffer.size))
+            out.add(packet)
             first = false
         }
     }
@@ -3,7 +3,7 @@ package info.dvkr.screenstream.rtsp.internal.rtsp.packets
 import info.dvkr.screenstream.rtsp.internal.MediaFrame
 import info.dvkr.screenstream.rtsp.internal.RtpFrame
 
-internal class OpusPacket : BaseRtpPacket(0, PAYLOAD_TYPE + 1) {
+internal class OpusPacket : BaseRtpPacket(0, PAYLOAD_TYPE + 1, RtpFrame.AUDIO_TRACK_ID) {
 
     companion object {
         const val PAYLOAD_TYPE = 96
@@ -21,12 +21,13 @@ internal class OpusPacket : BaseRtpPacket(0, PAYLOAD_TYPE + 1) {
         rtpTimestamp = 0
     }
 
-    override fun createPacket(mediaFrame: MediaFrame): List<RtpFrame> {
+    override fun createPacket(mediaFrame: MediaFrame, out: MutableList<RtpFrame>) {
         // RFC 7587: one Opus packet per RTP packet (no fragmentation)
         val fixed = mediaFrame.data.removeInfo(mediaFrame.info)
         val length = fixed.remaining()
         val tsNs = mediaFrame.info.timestamp * 1000
-        val buffer = getBuffer(length + RTP_HEADER_LENGTH)
+        val packet = getPacket(length + RTP_HEADER_LENGTH)
+        val buffer = packet.buffer
         fixed.get(buffer, RTP_HEADER_LENGTH, length)
         if (!tsInitialized) {
             rtpTimestamp = toRtpTimestampFromNs(tsNs)
@@ -36,6 +37,7 @@ internal class OpusPacket : BaseRtpPacket(0, PAYLOAD_TYPE + 1) {
         }
         setRtpTimestamp(buffer, rtpTimestamp)
         updateSeq(buffer)
-        return listOf(RtpFrame.Audio(buffer, rtpTimestamp, buffer.size))
+        packet.timeStamp = rtpTimestamp
+        out.add(packet)
     }
 }
@@ -0,0 +1,52 @@
+package info.dvkr.screenstream.rtsp.internal.rtsp.packets
+
+import info.dvkr.screenstream.rtsp.internal.RtpFrame
+
+/**
+ * Reusable RTP packets with [bufferSize] byte buffers for packetizers set up with [BaseRtpPacket.setPacketPool],
+ * [bufferSize] should match [BaseRtpPacket.setMaxPacketSize]. Packets are returned with [RtpFrame.release] after the socket write.
+ * Packets larger than [bufferSize] are allocated and dropped on release. Recycling never allocates, the free lists are fixed size arrays.
+ */
+internal class RtpPacketPool(internal val bufferSize: Int, private val capacity: Int = (POOL_BYTES / bufferSize).coerceIn(16, 512)) {
+    private companion object {
+        private const val POOL_BYTES = 1024 * 1024
+    }
+
+    private val freeVideo = arrayOfNulls<RtpFrame>(capacity)
+    private val freeAudio = arrayOfNulls<RtpFrame>(capacity)
+    private var freeVideoCount = 0
+    private var freeAudioCount = 0
+
+    @Volatile
+    internal var allocatedPackets: Long = 0L
+        private set
+
+    internal fun obtain(trackId: Int, length: Int): RtpFrame {
+        if (length > bufferSize) return create(trackId, ByteArray(length), length)
+
+        val packet = synchronized(this) {
+            if (trackId == RtpFrame.VIDEO_TRACK_ID) {
+                if (freeVideoCount > 0) freeVideo[--freeVideoCount].also { freeVideo[freeVideoCount] = null } else null
+            } else {
+                if (freeAudioCount > 0) freeAudio[--freeAudioCount].also { freeAudio[freeAudioCount] = null } else null
+            }
+        } ?: create(trackId, ByteArray(bufferSize), length).also { it.pool = this; allocatedPackets++ }
+
+        packet.inPool = false
+        packet.length = length
+        return packet
+    }
+
+    internal fun recycle(packet: RtpFrame): Unit = synchronized(this) {
+        if (packet.inPool) return
+        packet.inPool = true
+        if (packet.trackId == RtpFrame.VIDEO_TRACK_ID) {
+            if (freeVideoCount < capacity) freeVideo[freeVideoCount++] = packet
+        } else {
+            if (freeAudioCount < capacity) freeAudio[freeAudioCount++] = packet
+        }
+    }
+
+    private fun create(trackId: Int, buffer: ByteArray, length: Int): RtpFrame =
+        if (trackId == RtpFrame.VIDEO_TRACK_ID) RtpFrame.Video(buffer, 0L, length) else RtpFrame.Audio(buffer, 0L, length)
+}
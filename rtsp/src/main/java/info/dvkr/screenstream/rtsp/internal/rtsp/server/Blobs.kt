@@ -1,30 +1,11 @@
 package info.dvkr.screenstream.rtsp.internal.rtsp.server
 
-import java.util.concurrent.ConcurrentLinkedQueue
+import info.dvkr.screenstream.rtsp.internal.RtpFrame
 import java.util.concurrent.atomic.AtomicInteger
 
-internal object ByteArrayPool {
-    private const val MAX_PER_BUCKET = 32
-    private val buckets = intArrayOf(4 * 1024, 8 * 1024, 16 * 1024, 32 * 1024, 64 * 1024, 128 * 1024, 256 * 1024, 512 * 1024, 1024 * 1024, 2 * 1024 * 1024)
-    private val pools: Map<Int, ConcurrentLinkedQueue<ByteArray>> = buckets.associateWith { ConcurrentLinkedQueue<ByteArray>() }
-
-    private fun bucketSize(size: Int): Int = buckets.firstOrNull { it >= size } ?: size
-
-    fun get(size: Int): ByteArray {
-        val bsz = bucketSize(size)
-        val q = pools[bsz]
-        return q?.poll() ?: ByteArray(bsz)
-    }
-
-    fun recycle(array: ByteArray) {
-        val bsz = bucketSize(array.size)
-        val q = pools[bsz] ?: return
-        if (q.size >= MAX_PER_BUCKET) return
-        q.offer(array)
-    }
-}
-
-internal class SharedBuffer(val bytes: ByteArray) {
+// Packets are shared by all connections and must not be modified, see SharedPacketizer.
+// Every holder releases the blob once, the last release returns the packets to the pool.
+internal sealed class RtpBlob(val packets: List<RtpFrame>) {
     private val refs = AtomicInteger(0)
 
     fun retain(count: Int = 1) {
@@ -36,13 +17,16 @@ internal class SharedBuffer(val bytes: ByteArray) {
             val current = refs.get()
             if (current <= 0) return
             if (refs.compareAndSet(current, current - 1)) {
-                if (current == 1) ByteArrayPool.recycle(bytes)
+                if (current == 1) for (i in packets.indices) packets[i].release()
                 return
             }
         }
     }
 }
 
-internal data class VideoBlob(val buf: SharedBuffer, val length: Int, val timestampUs: Long, val isKeyFrame: Boolean)
+internal class VideoBlob(packets: List<RtpFrame>, val timestampUs: Long, val isKeyFrame: Boolean) : RtpBlob(packets) {
+    // Packetizing time, how long the frame has waited in a connection queue
+    val createdAtNs: Long = System.nanoTime()
+}
 
-internal data class AudioBlob(val buf: SharedBuffer, val length: Int, val timestampUs: Long)
+internal class AudioBlob(packets: List<RtpFrame>, val timestampUs: Long) : RtpBlob(packets)
@@ -12,6 +12,16 @@ internal data class MediaStats(
     val enqueued: Long = 0,
     val queueSize: Int = 0,
     val queueCapacity: Int = 0,
+    val sendQueueDepth: Int = 0,
+    // From the client receiver reports
+    val fractionLost: Float = 0F,
+    val packetsLost: Int = 0,
+    val jitterMs: Float = 0F,
+    val rttMs: Long? = null,
+    val nacksReceived: Long = 0,
+    val plisReceived: Long = 0,
+    val firsReceived: Long = 0,
+    val packetsRetransmitted: Long = 0,
 )
 
 internal data class ClientStats(
@@ -20,10 +30,15 @@ internal data class ClientStats(
     val protocol: Protocol,
     val startedAtMs: Long,
     val lastSentAtMs: Long = 0,
+    val lastReportAtMs: Long = 0,
+    val cname: String? = null,
     val video: MediaStats = MediaStats(),
     val audio: MediaStats = MediaStats(),
 )
 
+// Keyframe requests of all clients (PLAY, PLI, FIR) and how many of them reached the encoder after coalescing
+internal data class KeyFrameRequestStats(val received: Long = 0, val served: Long = 0)
+
 internal class ClientStatsReporter(
     sessionId: String,
     remoteHost: String,
@@ -47,10 +62,37 @@ internal class ClientStatsReporter(
 
     fun setProtocol(protocol: Protocol) = state.update { it.copy(protocol = protocol) }
 
-    fun setQueueSizes(video: Int, audio: Int) = state.update {
-        it.copy(video = it.video.copy(queueSize = video), audio = it.audio.copy(queueSize = audio))
+    fun setQueueSizes(video: Int, audio: Int, videoSendQueue: Int, audioSendQueue: Int) = state.update {
+        it.copy(
+            video = it.video.copy(queueSize = video, sendQueueDepth = videoSendQueue),
+            audio = it.audio.copy(queueSize = audio, sendQueueDepth = audioSendQueue)
+        )
+    }
+
+    fun setCname(cname: String) = state.update { it.copy(cname = cname) }
+
+    fun onReceptionReport(isVideo: Boolean, fractionLost: Float, packetsLost: Int, jitterMs: Float, rttMs: Long?) = state.update {
+        val media = (if (isVideo) it.video else it.audio).let { media ->
+            media.copy(fractionLost = fractionLost, packetsLost = packetsLost, jitterMs = jitterMs, rttMs = rttMs ?: media.rttMs)
+        }
+        if (isVideo) it.copy(lastReportAtMs = System.currentTimeMillis(), video = media)
+        else it.copy(lastReportAtMs = System.currentTimeMillis(), audio = media)
     }
 
+    fun onNack(isVideo: Boolean) = state.update {
+        if (isVideo) it.copy(video = it.video.copy(nacksReceived = it.video.nacksReceived + 1))
+        else it.copy(audio = it.audio.copy(nacksReceived = it.audio.nacksReceived + 1))
+    }
+
+    fun onRetransmit(isVideo: Boolean, packetCount: Int) = state.update {
+        if (isVideo) it.copy(video = it.video.copy(packetsRetransmitted = it.video.packetsRetransmitted + packetCount))
+        else it.copy(audio = it.audio.copy(packetsRetransmitted = it.audio.packetsRetransmitted + packetCount))
+    }
+
+    fun onPli() = state.update { it.copy(video = it.video.copy(plisReceived = it.video.plisReceived + 1)) }
+
+    fun onFir() = state.update { it.copy(video = it.video.copy(firsReceived = it.video.firsReceived + 1)) }
+
     fun onVideoDrop() = state.update { it.copy(video = it.video.copy(packetsDropped = it.video.packetsDropped + 1)) }
     fun onAudioDrop() = state.update { it.copy(audio = it.audio.copy(packetsDropped = it.audio.packetsDropped + 1)) }
 
@@ -0,0 +1,58 @@
+package info.dvkr.screenstream.rtsp.internal.rtsp.server
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Coalesces keyframe requests of all connections (PLAY, PLI, FIR) into encoder requests, at most one per [minIntervalMs].
+ * A request inside the interval stays pending: a keyframe sent meanwhile satisfies it,
+ * otherwise it is forwarded with the first video frame after the interval.
+ */
+internal class KeyFrameRequester(private val minIntervalMs: Long = 500L, private val onRequestKeyFrame: () -> Unit) {
+    private var lastRequestMs: Long = 0L
+    private var pending: Boolean = false
+
+    private val received = AtomicLong(0)
+    private val served = AtomicLong(0)
+
+    internal val requestsReceived: Long get() = received.get()
+    internal val requestsServed: Long get() = served.get()
+
+    // Returns true if the request went to the encoder right away
+    internal fun request(): Boolean {
+        received.incrementAndGet()
+        val forward = synchronized(this) {
+            val now = System.currentTimeMillis()
+            if (now - lastRequestMs < minIntervalMs) {
+                pending = true
+                false
+            } else {
+                lastRequestMs = now
+                pending = false
+                true
+            }
+        }
+        if (forward) forward()
+        return forward
+    }
+
+    internal fun onVideoFrame(isKeyFrame: Boolean) {
+        val forward = synchronized(this) {
+            if (!pending) return
+            if (isKeyFrame) {
+                pending = false
+                return
+            }
+            val now = System.currentTimeMillis()
+            if (now - lastRequestMs < minIntervalMs) return
+            lastRequestMs = now
+            pending = false
+            true
+        }
+        if (forward) forward()
+    }
+
+    private fun forward() {
+        served.incrementAndGet()
+        onRequestKeyFrame()
+    }
+}
@@ -0,0 +1,41 @@
+package info.dvkr.screenstream.rtsp.internal.rtsp.server
+
+import info.dvkr.screenstream.rtsp.internal.RtpFrame
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.BaseRtpPacket
+
+/**
+ * Recently sent RTP packets of one track as stamped for one connection, used to answer Generic NACK.
+ * Slots are indexed by sequence number and reused, packets older than [windowMs] are not resent.
+ */
+internal class RtpRetransmissionCache(capacity: Int, private val windowMs: Long = 1000L) {
+    private val mask = Integer.highestOneBit(capacity.coerceAtLeast(16)) - 1
+    private val slots = arrayOfNulls<ByteArray>(mask + 1)
+    private val lengths = IntArray(mask + 1)
+    private val seqs = IntArray(mask + 1) { -1 }
+    private val sentAtMs = LongArray(mask + 1)
+
+    // [header] is the stamped RTP header actually sent for [packet]
+    internal fun store(header: ByteArray, packet: RtpFrame, nowMs: Long) = synchronized(this) {
+        val seq = ((header[2].toInt() and 0xFF) shl 8) or (header[3].toInt() and 0xFF)
+        val index = seq and mask
+        val slot = slots[index]?.takeIf { it.size >= packet.length } ?: ByteArray(packet.length).also { slots[index] = it }
+        System.arraycopy(header, 0, slot, 0, BaseRtpPacket.RTP_HEADER_LENGTH)
+        System.arraycopy(
+            packet.buffer, BaseRtpPacket.RTP_HEADER_LENGTH, slot, BaseRtpPacket.RTP_HEADER_LENGTH, packet.length - BaseRtpPacket.RTP_HEADER_LENGTH
+        )
+        lengths[index] = packet.length
+        seqs[index] = seq
+        sentAtMs[index] = nowMs
+    }
+
+    // Copy of the packet sent with [seq], null when it was overwritten or is too old to help the receiver
+    internal fun get(seq: Int, nowMs: Long): ByteArray? = synchronized(this) {
+        val index = seq and mask
+        if (seqs[index] != seq || nowMs - sentAtMs[index] > windowMs) return null
+        slots[index]?.copyOf(lengths[index])
+    }
+
+    internal fun clear() = synchronized(this) {
+        seqs.fill(-1)
+    }
+}
@@ -2,13 +2,19 @@ package info.dvkr.screenstream.rtsp.internal.rtsp.server
 
 import android.system.ErrnoException
 import android.system.OsConstants
+import com.elvishew.xlog.XLog
+import info.dvkr.screenstream.common.getLog
 import info.dvkr.screenstream.rtsp.internal.AudioParams
 import info.dvkr.screenstream.rtsp.internal.Codec
 import info.dvkr.screenstream.rtsp.internal.MediaFrame
+import info.dvkr.screenstream.rtsp.internal.RtpFrame
+import info.dvkr.screenstream.rtsp.internal.RtpPacketSize
 import info.dvkr.screenstream.rtsp.internal.RtspNetInterface
 import info.dvkr.screenstream.rtsp.internal.RtspServerEndpoint
 import info.dvkr.screenstream.rtsp.internal.RtspStreamingService
 import info.dvkr.screenstream.rtsp.internal.VideoParams
+import info.dvkr.screenstream.rtsp.internal.VideoRendition
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.RtpBufferInaccessibleException
 import info.dvkr.screenstream.rtsp.internal.rtsp.sockets.TcpStreamSocket
 import info.dvkr.screenstream.rtsp.settings.RtspSettings
 import info.dvkr.screenstream.rtsp.ui.RtspBindError
@@ -37,7 +43,7 @@ internal class RtspServer(
     private val appVersion: String,
     private val generation: Long,
     private val onEvent: (RtspStreamingService.InternalEvent) -> Unit,
-    private val onRequestKeyFrame: () -> Unit
+    private val onRequestKeyFrame: (VideoRendition) -> Unit
 ) {
     private var scopeJob: Job = SupervisorJob()
     private var scope: CoroutineScope = CoroutineScope(scopeJob + Dispatchers.IO)
@@ -48,44 +54,64 @@ internal class RtspServer(
     private val serverSockets: MutableList<BoundSocket> = mutableListOf()
 
     private val rtspServerConnections = mutableListOf<RtspServerConnection>()
-    private val videoParams = AtomicReference<VideoParams?>()
     private val audioParams = AtomicReference<AudioParams?>()
+    private val streams: Map<VideoRendition, RtspServerStream> =
+        VideoRendition.entries.associateWith { rendition -> RtspServerStream(rendition) { onRequestKeyFrame(rendition) } }
 
     private data class BoundSocket(val socket: ServerSocket, val netInterface: RtspNetInterface, val advertisedHost: String)
     private data class BindFailure(val key: String, val host: String, val bindError: RtspBindError, val technicalDetails: String?)
     private data class BindResult(val boundSockets: List<BoundSocket>, val bindFailures: List<BindFailure>)
 
-    internal fun setVideoData(videoCodec: Codec.Video, sps: ByteArray, pps: ByteArray?, vps: ByteArray?) {
+    internal fun setVideoData(
+        videoCodec: Codec.Video, sps: ByteArray, pps: ByteArray?, vps: ByteArray?, rendition: VideoRendition = VideoRendition.MAIN
+    ) {
+        val stream = streams.getValue(rendition)
         val newParams = VideoParams(videoCodec, sps, pps, vps)
-        if (videoParams.get()?.contentEquals(newParams) == true) return
-        this.videoParams.set(newParams)
+        if (stream.videoParams.get()?.contentEquals(newParams) == true) return
+        stream.videoParams.set(newParams)
+        stream.packetizer.setVideoParams(newParams)
 
-        val snapshot = synchronized(rtspServerConnections) { rtspServerConnections.toList() }
+        val snapshot = synchronized(rtspServerConnections) { rtspServerConnections.filter { it.rendition == rendition } }
         if (snapshot.isNotEmpty()) {
-            onRequestKeyFrame()
+            stream.keyFrameRequester.request()
             snapshot.forEach { it.onVideoParamsChanged() }
         }
     }
 
     internal fun setAudioData(audioParams: AudioParams?) {
         this.audioParams.set(audioParams)
+        streams.values.forEach { it.packetizer.setAudioParams(audioParams) }
     }
 
     internal fun clearMediaParams() {
-        videoParams.set(null)
         audioParams.set(null)
+        streams.values.forEach { stream ->
+            stream.videoParams.set(null)
+            stream.packetizer.setVideoParams(null)
+            stream.packetizer.setAudioParams(null)
+        }
     }
 
-    internal fun getClientStatsSnapshot(): List<ClientStats> =
-        synchronized(rtspServerConnections) { rtspServerConnections.map { it.stats.value } }
+    internal fun getClientStatsSnapshot(rendition: VideoRendition? = null): List<ClientStats> =
+        synchronized(rtspServerConnections) {
+            rtspServerConnections.filter { rendition == null || it.rendition == rendition }.map { it.stats.value }
+        }
+
+    internal fun getKeyFrameRequestStats(): KeyFrameRequestStats = KeyFrameRequestStats(
+        received = streams.values.sumOf { it.keyFrameRequester.requestsReceived },
+        served = streams.values.sumOf { it.keyFrameRequester.requestsServed }
+    )
 
     internal fun start(
         addresses: List<RtspNetInterface>,
         port: Int,
         path: String,
-        protocol: RtspSettings.Values.ProtocolPolicy
+        protocol: RtspSettings.Values.ProtocolPolicy,
+        packetSize: RtpPacketSize,
+        videoFps: Int
     ) {
         if (serverJob?.isActive == true) stop()
+        val videoLatencyBudgetNs = videoLatencyBudgetMs(videoFps) * 1_000_000
 
         if (!scopeJob.isActive) {
             scopeJob = SupervisorJob()
@@ -135,7 +161,7 @@ internal class RtspServer(
                     )
                 )
 
-                bindResult.boundSockets.forEach { launchAcceptor(it, selectorManager, port, path, protocol) }
+                bindResult.boundSockets.forEach { launchAcceptor(it, selectorManager, port, path, protocol, packetSize, videoLatencyBudgetNs) }
             } catch (e: CancellationException) {
                 throw e
             } catch (e: Throwable) {
@@ -188,7 +214,9 @@ internal class RtspServer(
         selectorManager: SelectorManager,
         port: Int,
         path: String,
-        protocol: RtspSettings.Values.ProtocolPolicy
+        protocol: RtspSettings.Values.ProtocolPolicy,
+        packetSize: RtpPacketSize,
+        videoLatencyBudgetNs: Long
     ) {
         launch {
             while (isActive) {
@@ -204,10 +232,12 @@ internal class RtspServer(
                     parentJob = scopeJob,
                     tcpStreamSocket = TcpStreamSocket(scope.coroutineContext, selectorManager, clientSocket),
                     serverMessageHandler = RtspServerMessageHandler(appVersion, boundSocket.advertisedHost, port, path),
-                    videoParams,
+                    serverPath = path,
+                    selectStream = { requestUri -> RtspServerStream.select(streams, requestUri) },
                     audioParams,
                     serverProtocolPolicy = protocol,
-                    onRequestKeyFrame = onRequestKeyFrame,
+                    packetSize = packetSize,
+                    videoLatencyBudgetNs = videoLatencyBudgetNs,
                     onClosed = { synchronized(rtspServerConnections) { rtspServerConnections.remove(it) } }
                 )
                 synchronized(rtspServerConnections) { rtspServerConnections.add(serverConnection) }
@@ -247,56 +277,83 @@ internal class RtspServer(
         snapshot.forEach { runCatching { it.stop() } }
     }
 
-    internal fun onVideoFrame(frame: MediaFrame.VideoFrame) {
-        val snapshot = synchronized(rtspServerConnections) { rtspServerConnections.toList() }
+    // Packetized once per packet size here, connections only stamp their own SSRC and sequence number while writing
+    internal fun onVideoFrame(frame: MediaFrame.VideoFrame, rendition: VideoRendition = VideoRendition.MAIN) {
+        val stream = streams.getValue(rendition)
+        stream.keyFrameRequester.onVideoFrame(frame.info.isKeyFrame)
+        val snapshot = synchronized(rtspServerConnections) { rtspServerConnections.filter { it.isStreaming && it.rendition == rendition } }
         if (snapshot.isEmpty()) {
             frame.release()
             return
         }
 
-        val buffer = frame.data
-        val size = frame.info.size
-        val bytes = ByteArrayPool.get(size)
-        buffer.limit(frame.info.offset + size)
-        buffer.position(frame.info.offset)
-        buffer.get(bytes, 0, size)
-        frame.release()
-
-        val shared = SharedBuffer(bytes).also { it.retain(1) }
-        val blob = VideoBlob(shared, size, frame.info.timestamp, frame.info.isKeyFrame)
-
-        snapshot.forEach { conn ->
-            shared.retain(1)
-            if (!conn.enqueueVideo(blob)) shared.releaseOne()
+        val blobs = ArrayList<Pair<VideoBlob, List<RtspServerConnection>>>(1)
+        try {
+            snapshot.groupBy { it.maxPacketSize }.forEach { (maxPacketSize, connections) ->
+                val packets = ArrayList<RtpFrame>(frame.info.size / maxPacketSize + 4)
+                try {
+                    stream.packetizer.packetizeVideo(frame, maxPacketSize, packets)
+                } catch (error: RtpBufferInaccessibleException) {
+                    packets.forEach { it.release() }
+                    throw error
+                }
+                if (packets.isNotEmpty()) blobs += VideoBlob(packets, frame.info.timestamp, frame.info.isKeyFrame) to connections
+            }
+        } catch (error: RtpBufferInaccessibleException) {
+            XLog.w(getLog("onVideoFrame", "Dropping frame: ${error.message}"), error)
+            blobs.forEach { (blob, _) -> blob.packets.forEach { it.release() } }
+            return
+        } finally {
+            frame.release()
         }
 
-        shared.releaseOne()
+        blobs.forEach { (blob, connections) ->
+            blob.retain(1)
+            connections.forEach { conn ->
+                blob.retain(1)
+                if (!conn.enqueueVideo(blob)) blob.releaseOne()
+            }
+            blob.releaseOne()
+        }
     }
 
     internal fun onAudioFrame(frame: MediaFrame.AudioFrame) {
-        val snapshot = synchronized(rtspServerConnections) { rtspServerConnections.toList() }
+        val snapshot = synchronized(rtspServerConnections) { rtspServerConnections.filter { it.isStreaming } }
         if (snapshot.isEmpty()) {
             frame.release()
             return
         }
 
-        val buffer = frame.data
-        val size = frame.info.size
-        val bytes = ByteArrayPool.get(size)
-        buffer.limit(frame.info.offset + size)
-        buffer.position(frame.info.offset)
-        buffer.get(bytes, 0, size)
-        frame.release()
-
-        val shared = SharedBuffer(bytes).also { it.retain(1) }
-        val blob = AudioBlob(shared, size, frame.info.timestamp)
-
-        snapshot.forEach { conn ->
-            shared.retain(1)
-            if (!conn.enqueueAudio(blob)) shared.releaseOne()
+        // Each stream stamps RTP timestamps with its own packetizer, audio is packetized per stream too
+        val blobs = ArrayList<Pair<AudioBlob, List<RtspServerConnection>>>(1)
+        try {
+            snapshot.groupBy { it.rendition to it.maxPacketSize }.forEach { (key, connections) ->
+                val (rendition, maxPacketSize) = key
+                val packets = ArrayList<RtpFrame>(2)
+                try {
+                    streams.getValue(rendition).packetizer.packetizeAudio(frame, maxPacketSize, packets)
+                } catch (error: RtpBufferInaccessibleException) {
+                    packets.forEach { it.release() }
+                    throw error
+                }
+                if (packets.isNotEmpty()) blobs += AudioBlob(packets, frame.info.timestamp) to connections
+            }
+        } catch (error: RtpBufferInaccessibleException) {
+            XLog.w(getLog("onAudioFrame", "Dropping frame: ${error.message}"), error)
+            blobs.forEach { (blob, _) -> blob.packets.forEach { it.release() } }
+            return
+        } finally {
+            frame.release()
         }
 
-        shared.releaseOne()
+        blobs.forEach { (blob, connections) ->
+            blob.retain(1)
+            connections.forEach { conn ->
+                blob.retain(1)
+                if (!conn.enqueueAudio(blob)) blob.releaseOne()
+            }
+            blob.releaseOne()
+        }
     }
 
     private fun classifyBindError(error: Throwable): RtspBindError {
@@ -347,4 +404,16 @@ internal class RtspServer(
             else -> RtspBindError.Unknown(message ?: "Bind failed")
         }
     }
+
+    internal companion object {
+        // Server mode encoders, clients ask for keyframes in between with PLI/FIR
+        internal const val KEY_FRAME_INTERVAL_SEC: Int = 3
+
+        // A late frame is shed with the rest of its GOP and a keyframe is requested. A sixth of the GOP keeps the
+        // worst lag well under the natural keyframe spacing, ten frame times keep normal send jitter from tripping it
+        internal fun videoLatencyBudgetMs(videoFps: Int): Long {
+            val gopMs = KEY_FRAME_INTERVAL_SEC * 1000L
+            return maxOf(gopMs / 6, 10 * 1000L / videoFps.coerceAtLeast(1)).coerceAtMost(gopMs)
+        }
+    }
 }
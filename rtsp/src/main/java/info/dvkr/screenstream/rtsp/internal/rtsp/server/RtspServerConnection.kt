@@ -1,23 +1,21 @@
 package info.dvkr.screenstream.rtsp.internal.rtsp.server
 
+import com.elvishew.xlog.XLog
+import info.dvkr.screenstream.common.getLog
 import info.dvkr.screenstream.rtsp.internal.AudioParams
 import info.dvkr.screenstream.rtsp.internal.Codec
 import info.dvkr.screenstream.rtsp.internal.MasterClock
-import info.dvkr.screenstream.rtsp.internal.MediaFrame
 import info.dvkr.screenstream.rtsp.internal.Protocol
 import info.dvkr.screenstream.rtsp.internal.RtpFrame
+import info.dvkr.screenstream.rtsp.internal.RtpPacketSize
 import info.dvkr.screenstream.rtsp.internal.VideoParams
-import info.dvkr.screenstream.rtsp.internal.interleavedHeader
+import info.dvkr.screenstream.rtsp.internal.VideoRendition
+import info.dvkr.screenstream.rtsp.internal.rtsp.RtcpPacket
+import info.dvkr.screenstream.rtsp.internal.rtsp.RtcpParser
 import info.dvkr.screenstream.rtsp.internal.rtsp.RtcpReporter
 import info.dvkr.screenstream.rtsp.internal.rtsp.core.RtspBaseMessageHandler
 import info.dvkr.screenstream.rtsp.internal.rtsp.core.TransportHeader
-import info.dvkr.screenstream.rtsp.internal.rtsp.packets.AacPacket
-import info.dvkr.screenstream.rtsp.internal.rtsp.packets.Av1Packet
 import info.dvkr.screenstream.rtsp.internal.rtsp.packets.BaseRtpPacket
-import info.dvkr.screenstream.rtsp.internal.rtsp.packets.G711Packet
-import info.dvkr.screenstream.rtsp.internal.rtsp.packets.H264Packet
-import info.dvkr.screenstream.rtsp.internal.rtsp.packets.H265Packet
-import info.dvkr.screenstream.rtsp.internal.rtsp.packets.OpusPacket
 import info.dvkr.screenstream.rtsp.internal.rtsp.sockets.TcpStreamSocket
 import info.dvkr.screenstream.rtsp.internal.rtsp.sockets.UdpStreamSocket
 import info.dvkr.screenstream.rtsp.settings.RtspSettings
@@ -33,7 +31,6 @@ import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
-import java.nio.ByteBuffer
 import java.security.SecureRandom
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicReference
@@ -43,10 +40,12 @@ internal class RtspServerConnection(
     parentJob: Job,
     private val tcpStreamSocket: TcpStreamSocket,
     private val serverMessageHandler: RtspServerMessageHandler,
-    private val videoParams: AtomicReference<VideoParams?>,
+    private val serverPath: String,
+    private val selectStream: (requestUri: String?) -> RtspServerStream,
     private val audioParams: AtomicReference<AudioParams?>,
     private val serverProtocolPolicy: RtspSettings.Values.ProtocolPolicy,
-    private val onRequestKeyFrame: () -> Unit,
+    private val packetSize: RtpPacketSize,
+    private val videoLatencyBudgetNs: Long,
     private val onClosed: (RtspServerConnection) -> Unit,
 ) {
     private val scope: CoroutineScope = CoroutineScope(SupervisorJob(parentJob) + Dispatchers.IO)
@@ -76,12 +75,33 @@ internal class RtspServerConnection(
 
     private var state: State = State.Init
 
+    // Picked by the first DESCRIBE or SETUP URI, fixed once a track is set up
+    @Volatile
+    private var stream: RtspServerStream = selectStream(null)
+
+    internal val rendition: VideoRendition
+        get() = stream.rendition
+
+    private val videoParams: AtomicReference<VideoParams?>
+        get() = stream.videoParams
+
+    private val sharedPacketizer: SharedPacketizer
+        get() = stream.packetizer
+
+    private val keyFrameRequester: KeyFrameRequester
+        get() = stream.keyFrameRequester
+
     private var protocol: Protocol = Protocol.TCP
     private var sessionId: String = generateSessionId()
 
     @Volatile
     internal var isStreaming: Boolean = false
 
+    // Selected at SETUP for the negotiated transport
+    @Volatile
+    internal var maxPacketSize: Int = BaseRtpPacket.DEFAULT_MAX_PACKET_SIZE
+        private set
+
     // Interleaved channels for TCP mode (video 0/1, audio 2/3 by default)
     private var videoCh: Pair<Int, Int> = 0 to 1
     private var audioCh: Pair<Int, Int> = 2 to 3
@@ -92,16 +112,18 @@ internal class RtspServerConnection(
     private var audioRtpSocket: UdpStreamSocket? = null
     private var audioRtcpSocket: UdpStreamSocket? = null
 
-    // Packetizers
-    private var videoPacketizer: BaseRtpPacket? = null
-    private var audioPacketizer: BaseRtpPacket? = null
+    // Sent packets kept for NACK retransmission, UDP only
+    @Volatile private var videoRtxCache: RtpRetransmissionCache? = null
+    @Volatile private var audioRtxCache: RtpRetransmissionCache? = null
+
+    // Own SSRC and sequence numbers over the packets shared by all connections
+    @Volatile private var videoStamp: RtpTrackStamp? = null
+    @Volatile private var audioStamp: RtpTrackStamp? = null
 
     // RTCP reporting
     private var rtcpReporter: RtcpReporter? = null
     private var videoSsrc: Long = 0L
     private var audioSsrc: Long = 0L
-    private var initialVideoSeq: Int? = null
-    private var initialAudioSeq: Int? = null
 
     private var clientJob: Job? = null
     private var videoWriterJob: Job? = null
@@ -114,39 +136,14 @@ internal class RtspServerConnection(
     @Volatile
     private var audioSetupDone: Boolean = false
 
-    internal class ParamInjector() {
-        private var lastInjectNs: Long = 0L
-
-        fun maybeInjectForH264(packet: H264Packet, isKeyFrame: Boolean) {
-            if (isKeyFrame) return
-            val now = System.nanoTime()
-            if (now - lastInjectNs > 2_000_000_000L) {
-                packet.forceStapAOnce()
-                lastInjectNs = now
-            }
-        }
-
-        fun maybeInjectForH265(packet: H265Packet, isKeyFrame: Boolean) {
-            if (isKeyFrame) return
-            val now = System.nanoTime()
-            if (now - lastInjectNs > 2_000_000_000L) {
-                packet.forceParamsOnce()
-                lastInjectNs = now
-            }
-        }
-
-        fun reset() {
-            lastInjectNs = 0L
-        }
-    }
-
-    private val paramInjector = ParamInjector()
     private var waitingForKeyframe: Boolean = false
+    // Set when a frame was dropped, every frame up to the next keyframe depends on it. Written by enqueueVideo only
+    @Volatile private var skipUntilKeyFrame: Boolean = false
     private var sendRtpPackets: suspend (trackId: Int, packets: List<RtpFrame>) -> Unit = { _, _ -> }
     @Volatile private var videoParamsChanged: Boolean = false
 
-    private val videoQueue = Channel<VideoBlob>(capacity = 32) { it.buf.releaseOne() }
-    private val audioQueue = Channel<AudioBlob>(capacity = 64) { it.buf.releaseOne() }
+    private val videoQueue = Channel<VideoBlob>(capacity = 32) { it.releaseOne() }
+    private val audioQueue = Channel<AudioBlob>(capacity = 64) { it.releaseOne() }
     private val videoQueueSize = AtomicInteger(0)
     private val audioQueueSize = AtomicInteger(0)
 
@@ -154,11 +151,80 @@ internal class RtspServerConnection(
     private fun allowedInterleavedChannels(): Set<Int> =
         if (protocol == Protocol.TCP) negotiatedInterleavedChannels.toSet() else emptySet()
 
+    // Interleaved RTCP arrives in chunks, assembled here until the frame is complete. Used by the command loop only
+    private var interleavedRtcp = ByteArray(1500)
+    private var interleavedRtcpLength = 0
+    private var lastFirSeqNr: Int = -1
+
     private suspend fun onInterleavedChunk(channel: Int, data: ByteArray, length: Int, isLast: Boolean) {
         val isRtcp = channel == videoCh.second || channel == audioCh.second
         if (!isRtcp) return
-        // Currently no RTCP parsing; hook kept to allow future receiver-report handling.
-        if (data.isEmpty() || length == 0 || !isLast) return
+        if (interleavedRtcpLength + length > interleavedRtcp.size) interleavedRtcp = interleavedRtcp.copyOf(interleavedRtcpLength + length)
+        System.arraycopy(data, 0, interleavedRtcp, interleavedRtcpLength, length)
+        interleavedRtcpLength += length
+        if (!isLast) return
+        onRtcp(interleavedRtcp, interleavedRtcpLength)
+        interleavedRtcpLength = 0
+    }
+
+    private suspend fun onRtcp(data: ByteArray, length: Int) {
+        val nowMs = System.currentTimeMillis()
+        for (packet in RtcpParser.parse(data, length)) when (packet) {
+            is RtcpPacket.ReceiverReport -> for (report in packet.reports) {
+                val trackId = trackIdOf(report.ssrc) ?: continue
+                val clockRate = if (trackId == RtpFrame.VIDEO_TRACK_ID) BaseRtpPacket.VIDEO_CLOCK_FREQUENCY
+                else audioParams.get()?.sampleRate?.toLong() ?: continue
+                statsReporter.onReceptionReport(
+                    isVideo = trackId == RtpFrame.VIDEO_TRACK_ID,
+                    fractionLost = report.fractionLost / 256F,
+                    packetsLost = report.cumulativeLost,
+                    jitterMs = report.jitter * 1000F / clockRate,
+                    rttMs = report.rttMs(nowMs)
+                )
+            }
+
+            is RtcpPacket.SourceDescription -> packet.cnames.values.firstOrNull()?.let { statsReporter.setCname(it) }
+
+            is RtcpPacket.Bye -> XLog.i(getLog("onRtcp", "BYE from ${tcpStreamSocket.remoteHost}, reason: ${packet.reason}"))
+
+            is RtcpPacket.Nack -> trackIdOf(packet.mediaSsrc)?.let { trackId ->
+                statsReporter.onNack(trackId == RtpFrame.VIDEO_TRACK_ID)
+                retransmit(trackId, packet.lostSeqs, nowMs)
+            }
+
+            is RtcpPacket.Pli -> if (trackIdOf(packet.mediaSsrc) == RtpFrame.VIDEO_TRACK_ID) {
+                statsReporter.onPli()
+                keyFrameRequester.request()
+            }
+
+            // A repeated sequence number is the client resending a FIR it already made, RFC 5104 4.3.1.2
+            is RtcpPacket.Fir -> if (trackIdOf(packet.ssrc) == RtpFrame.VIDEO_TRACK_ID && packet.seqNr != lastFirSeqNr) {
+                lastFirSeqNr = packet.seqNr
+                statsReporter.onFir()
+                keyFrameRequester.request()
+            }
+        }
+    }
+
+    // Resends the requested packets unchanged, same SSRC and sequence number, for the receiver jitter buffer to fill the gap
+    private suspend fun retransmit(trackId: Int, seqs: List<Int>, nowMs: Long) {
+        val isVideo = trackId == RtpFrame.VIDEO_TRACK_ID
+        val cache = (if (isVideo) videoRtxCache else audioRtxCache) ?: return
+        val socket = (if (isVideo) videoRtpSocket else audioRtpSocket) ?: return
+        var resent = 0
+        for (seq in seqs) {
+            val packet = cache.get(seq, nowMs) ?: continue
+            socket.write(packet)
+            resent++
+        }
+        if (resent > 0) statsReporter.onRetransmit(isVideo, resent)
+    }
+
+    // SSRCs are sent as their low 32 bits
+    private fun trackIdOf(ssrc: Long): Int? = when (ssrc) {
+        videoSsrc and 0xFFFFFFFFL -> if (videoStamp != null) RtpFrame.VIDEO_TRACK_ID else null
+        audioSsrc and 0xFFFFFFFFL -> if (audioStamp != null) RtpFrame.AUDIO_TRACK_ID else null
+        else -> null
     }
 
     private val statsReporter = ClientStatsReporter(
@@ -170,36 +236,46 @@ internal class RtspServerConnection(
     )
     internal val stats: StateFlow<ClientStats> = statsReporter.stats
 
-    private fun updateQueueStats() = statsReporter.setQueueSizes(videoQueueSize.get(), audioQueueSize.get())
+    // UDP send queue depth is sampled here, while the track writers may be sending
+    private fun updateQueueStats() = statsReporter.setQueueSizes(
+        videoQueueSize.get(), audioQueueSize.get(), videoRtpSocket?.sendQueueDepth ?: 0, audioRtpSocket?.sendQueueDepth ?: 0
+    )
 
+    /**
+     * Queues [blob] for this client. A queue overflow never drops a single P-frame: the whole dependent run up to the next
+     * keyframe is skipped and a keyframe is requested, so a slow client freezes on a clean picture instead of decoding garbage.
+     * A keyframe arriving at a full queue replaces everything queued, all of it is older than the keyframe.
+     */
     internal fun enqueueVideo(blob: VideoBlob): Boolean {
         if (!isStreaming || !videoSetupDone) return false
+        if (blob.isKeyFrame) skipUntilKeyFrame = false
+        else if (skipUntilKeyFrame) {
+            statsReporter.onVideoDrop()
+            return false
+        }
+
         if (!videoQueue.trySend(blob).isSuccess) {
-            if (blob.isKeyFrame) {
-                while (true) {
-                    val drained = videoQueue.tryReceive().getOrNull() ?: break
-                    drained.buf.releaseOne()
-                    videoQueueSize.decrementAndGet()
-                }
-                val ok = videoQueue.trySend(blob).isSuccess
-                if (!ok) {
-                    statsReporter.onVideoDrop()
-                } else {
-                    videoQueueSize.incrementAndGet()
-                    updateQueueStats()
-                    statsReporter.onVideoEnqueue()
-                }
-                return ok
-            } else {
+            if (!blob.isKeyFrame) {
+                skipUntilKeyFrame = true
+                keyFrameRequester.request()
+                statsReporter.onVideoDrop()
+                return false
+            }
+            while (true) {
+                val drained = videoQueue.tryReceive().getOrNull() ?: break
+                drained.releaseOne()
+                videoQueueSize.decrementAndGet()
+                statsReporter.onVideoDrop()
+            }
+            if (!videoQueue.trySend(blob).isSuccess) {
                 statsReporter.onVideoDrop()
                 return false
             }
-        } else {
-            videoQueueSize.incrementAndGet()
-            updateQueueStats()
-            statsReporter.onVideoEnqueue()
-            return true
         }
+        videoQueueSize.incrementAndGet()
+        updateQueueStats()
+        statsReporter.onVideoEnqueue()
+        return true
     }
 
     internal fun enqueueAudio(blob: AudioBlob): Boolean {
@@ -207,7 +283,7 @@ internal class RtspServerConnection(
         if (!audioQueue.trySend(blob).isSuccess) {
             val evicted = audioQueue.tryReceive().getOrNull()
             if (evicted != null) {
-                evicted.buf.releaseOne()
+                evicted.releaseOne()
                 audioQueueSize.decrementAndGet()
             }
             if (!audioQueue.trySend(blob).isSuccess) {
@@ -253,11 +329,13 @@ internal class RtspServerConnection(
                 }
 
                 RtspBaseMessageHandler.Method.DESCRIBE -> tcpStreamSocket.withWriteLock {
+                    if (state == State.Init) selectStreamFor(request)
                     val videoParams = this@RtspServerConnection.videoParams.get()
                     if (videoParams == null) {
                         writeAndFlush(serverMessageHandler.createErrorResponse(503, cSeq))
                     } else {
-                        writeAndFlush(serverMessageHandler.createDescribeResponse(cSeq, videoParams, audioParams.get()))
+                        val nack = serverProtocolPolicy != RtspSettings.Values.ProtocolPolicy.TCP
+                        writeAndFlush(serverMessageHandler.createDescribeResponse(cSeq, videoParams, audioParams.get(), nack))
                     }
                 }
 
@@ -266,6 +344,7 @@ internal class RtspServerConnection(
                         tcpStreamSocket.withWriteLock { writeAndFlush(serverMessageHandler.createErrorResponse(455, cSeq)) }
                         continue
                     }
+                    if (state == State.Init && !videoSetupDone && !audioSetupDone) selectStreamFor(request)
                     if (this@RtspServerConnection.videoParams.get() == null) {
                         tcpStreamSocket.withWriteLock { writeAndFlush(serverMessageHandler.createErrorResponse(503, cSeq)) }
                         continue
@@ -315,6 +394,7 @@ internal class RtspServerConnection(
                         // TCP selected (AUTO prefers TCP when offered).
                         protocol = Protocol.TCP
                         statsReporter.setProtocol(protocol)
+                        maxPacketSize = packetSize.forProtocol(protocol, tcpStreamSocket.localAddress)
                         val channelPair = selectedParsed.interleaved
                             ?: Regex("interleaved=([0-9]+)-([0-9]+)").find(spec)?.destructured?.let { (a, b) -> a.toInt() to b.toInt() }
                         if (channelPair == null) {
@@ -344,19 +424,10 @@ internal class RtspServerConnection(
                         negotiatedInterleavedChannels += channelPair.first
                         negotiatedInterleavedChannels += channelPair.second
 
-                        val sender: suspend (trackId: Int, packets: List<RtpFrame>) -> Unit = { tid, packets ->
+                        val sender: suspend (trackId: Int, packets: List<RtpFrame>) -> Unit = sender@{ tid, packets ->
                             val ch = if (tid == RtpFrame.VIDEO_TRACK_ID) videoCh.first else audioCh.first
-                            var i = 0
-                            val n = packets.size
-                            for (packet in packets) {
-                                tcpStreamSocket.withWriteLock {
-                                    write(interleavedHeader(ch, packet.length), packet.buffer, 0, packet.length)
-                                    val isAudio = (tid == RtpFrame.AUDIO_TRACK_ID)
-                                    val shouldFlush = isAudio || i == n - 1 || (i and 0x7) == 0
-                                    if (shouldFlush) flush()
-                                }
-                                i++
-                            }
+                            val stamp = (if (tid == RtpFrame.VIDEO_TRACK_ID) videoStamp else audioStamp) ?: return@sender
+                            tcpStreamSocket.writeInterleaved(ch, packets, stamp::header)
                         }
                         stateLock.withLock { sendRtpPackets = sender }
 
@@ -364,10 +435,10 @@ internal class RtspServerConnection(
                             writeAndFlush(serverMessageHandler.createSetupResponse(cSeq, spec, 0, 0, sessionId, channelPair))
                         }
                         if (trackId == RtpFrame.VIDEO_TRACK_ID) {
-                            prepareVideoPacketizerIfNeeded()
+                            prepareVideoStampIfNeeded()
                             stateLock.withLock { videoSetupDone = true }
                         } else {
-                            prepareAudioPacketizerIfNeeded()
+                            prepareAudioStampIfNeeded()
                             stateLock.withLock { audioSetupDone = true }
                         }
                         state = State.Ready
@@ -375,6 +446,7 @@ internal class RtspServerConnection(
                         // UDP selected per server policy.
                         protocol = Protocol.UDP
                         statsReporter.setProtocol(protocol)
+                        maxPacketSize = packetSize.forProtocol(protocol, tcpStreamSocket.localAddress)
                         val clientPorts = serverMessageHandler.parseClientPorts(spec)
                         if (clientPorts == null) {
                             tcpStreamSocket.withWriteLock { writeAndFlush(serverMessageHandler.createErrorResponse(400, cSeq)) }
@@ -393,9 +465,8 @@ internal class RtspServerConnection(
                         }
                         val (clientRtp, clientRtcp) = clientPorts
                         val remoteHost = tcpStreamSocket.remoteHost
-                        val selectorManager = tcpStreamSocket.selectorManager
-                        val rtp = UdpStreamSocket(selectorManager, remoteHost, clientRtp, 0)
-                        val rtcp = UdpStreamSocket(selectorManager, remoteHost, clientRtcp, 0)
+                        val rtp = UdpStreamSocket(remoteHost, clientRtp, 0)
+                        val rtcp = UdpStreamSocket(remoteHost, clientRtcp, 0)
                         rtp.connect()
                         rtcp.connect()
                         val serverRtp = rtp.localPort() ?: 0
@@ -403,17 +474,20 @@ internal class RtspServerConnection(
 
                         if (trackId == RtpFrame.VIDEO_TRACK_ID) {
                             videoRtpSocket = rtp; videoRtcpSocket = rtcp
+                            videoRtxCache = RtpRetransmissionCache(capacity = 1024)
                             scope.launch { drainRtcp(videoRtcpSocket) }
                         } else {
                             audioRtpSocket = rtp; audioRtcpSocket = rtcp
+                            audioRtxCache = RtpRetransmissionCache(capacity = 128)
                             scope.launch { drainRtcp(audioRtcpSocket) }
                         }
 
-                        val sender: suspend (trackId: Int, packets: List<RtpFrame>) -> Unit = { tid, packets ->
+                        val sender: suspend (trackId: Int, packets: List<RtpFrame>) -> Unit = sender@{ tid, packets ->
                             val sock = if (tid == RtpFrame.VIDEO_TRACK_ID) videoRtpSocket else audioRtpSocket
-                            if (sock != null) {
-                                for (packet in packets) sock.write(packet.buffer, 0, packet.length)
-                            }
+                            val stamp = (if (tid == RtpFrame.VIDEO_TRACK_ID) videoStamp else audioStamp) ?: return@sender
+                            val rtxCache = if (tid == RtpFrame.VIDEO_TRACK_ID) videoRtxCache else audioRtxCache
+                            val nowMs = System.currentTimeMillis()
+                            sock?.writeBatch(packets) { packet -> stamp.header(packet).also { rtxCache?.store(it, packet, nowMs) } }
                         }
                         stateLock.withLock { sendRtpPackets = sender }
 
@@ -422,10 +496,10 @@ internal class RtspServerConnection(
                         }
 
                         if (trackId == RtpFrame.VIDEO_TRACK_ID) {
-                            prepareVideoPacketizerIfNeeded()
+                            prepareVideoStampIfNeeded()
                             stateLock.withLock { videoSetupDone = true }
                         } else {
-                            prepareAudioPacketizerIfNeeded()
+                            prepareAudioStampIfNeeded()
                             stateLock.withLock { audioSetupDone = true }
                         }
                         state = State.Ready
@@ -447,8 +521,8 @@ internal class RtspServerConnection(
                         continue
                     }
 
-                    if (videoSetupDone) prepareVideoPacketizerIfNeeded()
-                    if (audioSetupDone) prepareAudioPacketizerIfNeeded()
+                    if (videoSetupDone) prepareVideoStampIfNeeded()
+                    if (audioSetupDone) prepareAudioStampIfNeeded()
 
                     tcpStreamSocket.withWriteLock {
                         runCatching {
@@ -485,21 +559,21 @@ internal class RtspServerConnection(
                         }
                         val trackInfo = mutableMapOf<Int, RtspServerMessageHandler.PlayTrackInfo>()
                         val nowUs = MasterClock.relativeTimeUs()
-                        if (videoPacketizer != null && videoSetupDone) {
-                            val seqV = videoPacketizer!!.peekNextSeq()
-                            val tsV = videoPacketizer!!.rtpTimestampFromUs(nowUs)
-                            trackInfo[RtpFrame.VIDEO_TRACK_ID] = RtspServerMessageHandler.PlayTrackInfo(seqV, tsV, videoSsrc)
+                        val videoStamp = videoStamp
+                        val tsV = sharedPacketizer.rtpTimestampFromUs(RtpFrame.VIDEO_TRACK_ID, maxPacketSize, nowUs)
+                        if (videoStamp != null && tsV != null && videoSetupDone) {
+                            trackInfo[RtpFrame.VIDEO_TRACK_ID] = RtspServerMessageHandler.PlayTrackInfo(videoStamp.peekNextSeq(), tsV, videoSsrc)
                         }
-                        if (audioPacketizer != null && audioSetupDone) {
-                            val seqA = audioPacketizer!!.peekNextSeq()
-                            val tsA = audioPacketizer!!.rtpTimestampFromUs(nowUs)
-                            trackInfo[RtpFrame.AUDIO_TRACK_ID] = RtspServerMessageHandler.PlayTrackInfo(seqA, tsA, audioSsrc)
+                        val audioStamp = audioStamp
+                        val tsA = sharedPacketizer.rtpTimestampFromUs(RtpFrame.AUDIO_TRACK_ID, maxPacketSize, nowUs)
+                        if (audioStamp != null && tsA != null && audioSetupDone) {
+                            trackInfo[RtpFrame.AUDIO_TRACK_ID] = RtspServerMessageHandler.PlayTrackInfo(audioStamp.peekNextSeq(), tsA, audioSsrc)
                         }
                         writeAndFlush(serverMessageHandler.createPlayResponse(cSeq, sessionId, trackInfo, setupUrls))
                         stateLock.withLock { isStreaming = true }
                         state = State.Playing
                     }
-                    if (videoSetupDone) onRequestKeyFrame()
+                    if (videoSetupDone) keyFrameRequester.request()
                 }
 
                 RtspBaseMessageHandler.Method.PAUSE -> {
@@ -545,14 +619,21 @@ internal class RtspServerConnection(
         }
     }
 
+    private fun selectStreamFor(request: String) {
+        val selected = selectStream(serverMessageHandler.getRequestUri(request))
+        if (selected === stream) return
+        stream = selected
+        val path = if (selected.rendition == VideoRendition.MAIN) serverPath else "${serverPath.trimEnd('/')}/${selected.rendition.pathSuffix}"
+        serverMessageHandler.setPath(path)
+    }
+
     private suspend fun handleVideoParamsChanged() {
         videoParamsChanged = false
         stateLock.withLock { waitingForKeyframe = true }
-        videoPacketizer = null
-        paramInjector.reset()
+        videoStamp = null
         while (true) {
             val drained = videoQueue.tryReceive().getOrNull() ?: break
-            drained.buf.releaseOne()
+            drained.releaseOne()
             videoQueueSize.decrementAndGet()
         }
         updateQueueStats()
@@ -576,53 +657,48 @@ internal class RtspServerConnection(
             updateQueueStats()
 
             if (videoParamsChanged) {
-                videoBlob.buf.releaseOne()
+                videoBlob.releaseOne()
                 handleVideoParamsChanged()
                 continue
             }
 
-            if (videoParams.get() == null) {
-                videoBlob.buf.releaseOne()
+            if (videoParams.get() == null || !setupDone) {
+                videoBlob.releaseOne()
                 continue
             }
 
-            if (!setupDone) {
-                videoBlob.buf.releaseOne()
+            // Drop non-keyframes until the first IDR to help HEVC clients sync cleanly
+            if (waitKey && !videoBlob.isKeyFrame) {
+                videoBlob.releaseOne()
                 continue
             }
 
-            // Drop non-keyframes until the first IDR to help HEVC clients sync cleanly
-            if (waitKey && !videoBlob.isKeyFrame) {
-                videoBlob.buf.releaseOne()
+            // Frames over the latency budget are shed with the rest of their GOP, lag never builds up past the budget.
+            // A late keyframe still goes out, it is the quickest way back to a clean picture
+            if (!videoBlob.isKeyFrame && System.nanoTime() - videoBlob.createdAtNs > videoLatencyBudgetNs) {
+                videoBlob.releaseOne()
+                statsReporter.onVideoDrop()
+                stateLock.withLock { waitingForKeyframe = true }
+                keyFrameRequester.request()
                 continue
             }
 
             if (videoBlob.isKeyFrame) stateLock.withLock { waitingForKeyframe = false }
 
-            val buffer = ByteBuffer.wrap(videoBlob.buf.bytes, 0, videoBlob.length)
-            val info =
-                MediaFrame.Info(offset = 0, size = videoBlob.length, timestamp = videoBlob.timestampUs, isKeyFrame = videoBlob.isKeyFrame)
-            val frame = MediaFrame.VideoFrame(buffer, info) {}
-
-            if (videoPacketizer == null) prepareVideoPacketizerIfNeeded()
-
-            // Periodically prepend VPS/SPS/PPS on non‑IDR to help resync strict players.
-            when (val vp = videoPacketizer) {
-                is H264Packet -> paramInjector.maybeInjectForH264(vp, videoBlob.isKeyFrame)
-                is H265Packet -> paramInjector.maybeInjectForH265(vp, videoBlob.isKeyFrame)
-            }
+            if (videoStamp == null) prepareVideoStampIfNeeded()
 
-            val packets = videoPacketizer!!.createPacket(frame)
+            val packets = videoBlob.packets
             try {
                 sender(RtpFrame.VIDEO_TRACK_ID, packets)
                 for (packet in packets) rtcpReporter?.update(packet)
                 val bytes = packets.sumOf { it.length }
                 statsReporter.onVideoSent(packets.size, bytes)
             } catch (_: Throwable) {
+                videoBlob.releaseOne()
                 break
             }
 
-            videoBlob.buf.releaseOne()
+            videoBlob.releaseOne()
         }
     }
 
@@ -639,32 +715,25 @@ internal class RtspServerConnection(
             audioQueueSize.decrementAndGet()
             updateQueueStats()
 
-            if (audioParams.get() == null) {
-                audioBlob.buf.releaseOne()
+            if (audioParams.get() == null || !setupDone) {
+                audioBlob.releaseOne()
                 continue
             }
 
-            if (!setupDone) {
-                audioBlob.buf.releaseOne()
-                continue
-            }
+            if (audioStamp == null) prepareAudioStampIfNeeded()
 
-            val buffer = ByteBuffer.wrap(audioBlob.buf.bytes, 0, audioBlob.length)
-            val info = MediaFrame.Info(offset = 0, size = audioBlob.length, timestamp = audioBlob.timestampUs, isKeyFrame = false)
-            val frame = MediaFrame.AudioFrame(buffer, info) {}
-
-            if (audioPacketizer == null) prepareAudioPacketizerIfNeeded()
-            val packets = audioPacketizer!!.createPacket(frame)
+            val packets = audioBlob.packets
             try {
                 sender(RtpFrame.AUDIO_TRACK_ID, packets)
                 for (packet in packets) rtcpReporter?.update(packet)
                 val bytes = packets.sumOf { it.length }
                 statsReporter.onAudioSent(packets.size, bytes)
             } catch (_: Throwable) {
+                audioBlob.releaseOne()
                 break
             }
 
-            audioBlob.buf.releaseOne()
+            audioBlob.releaseOne()
         }
     }
 
@@ -672,6 +741,7 @@ internal class RtspServerConnection(
         stateLock.withLock {
             isStreaming = false
             waitingForKeyframe = false
+            skipUntilKeyFrame = false
             sendRtpPackets = { _, _ -> }
             videoSetupDone = false
             audioSetupDone = false
@@ -695,12 +765,12 @@ internal class RtspServerConnection(
 
         while (true) {
             val videoBlob = videoQueue.tryReceive().getOrNull() ?: break
-            videoBlob.buf.releaseOne()
+            videoBlob.releaseOne()
             videoQueueSize.decrementAndGet()
         }
         while (true) {
             val audioBlob = audioQueue.tryReceive().getOrNull() ?: break
-            audioBlob.buf.releaseOne()
+            audioBlob.releaseOne()
             audioQueueSize.decrementAndGet()
         }
         updateQueueStats()
@@ -714,40 +784,24 @@ internal class RtspServerConnection(
         videoParamsChanged = true
     }
 
-    private suspend fun prepareVideoPacketizerIfNeeded() {
-        if (videoPacketizer != null) return
-        val videoParams = this@RtspServerConnection.videoParams.get() ?: return
-
-        videoPacketizer = when (videoParams.codec) {
-            Codec.Video.H264 -> H264Packet().apply { setVideoInfo(videoParams.sps, videoParams.pps!!) }
-            Codec.Video.H265 -> H265Packet().apply { setVideoInfo(videoParams.sps, videoParams.pps!!, videoParams.vps!!) }
-            Codec.Video.AV1 -> Av1Packet().apply { setSequenceHeader(videoParams.sps) }
-        }.apply {
-            videoSsrc = secureRandom.nextLong()
-            setSSRC(videoSsrc)
-            val seq = secureRandom.nextInt(0x10000)
-            setInitialSeq(seq)
-            initialVideoSeq = seq
-        }
+    private suspend fun prepareVideoStampIfNeeded() {
+        if (videoStamp != null) return
+        if (videoParams.get() == null) return
+
+        videoSsrc = secureRandom.nextLong()
+        videoStamp = RtpTrackStamp(videoSsrc, secureRandom.nextInt(0x10000))
+        videoRtxCache?.clear()
 
         rtcpReporter?.setSsrcVideo(videoSsrc)
     }
 
-    private suspend fun prepareAudioPacketizerIfNeeded() {
-        if (audioPacketizer != null) return
-        val audioParams = this@RtspServerConnection.audioParams.get() ?: return
-
-        audioPacketizer = when (audioParams.codec) {
-            Codec.Audio.AAC -> AacPacket().apply { setAudioInfo(audioParams.sampleRate) }
-            Codec.Audio.OPUS -> OpusPacket().apply { setAudioInfo(audioParams.sampleRate) }
-            Codec.Audio.G711 -> G711Packet().apply { setAudioInfo(audioParams.sampleRate) }
-        }.apply {
-            audioSsrc = secureRandom.nextLong()
-            setSSRC(audioSsrc)
-            val seq = secureRandom.nextInt(0x10000)
-            setInitialSeq(seq)
-            initialAudioSeq = seq
-        }
+    private suspend fun prepareAudioStampIfNeeded() {
+        if (audioStamp != null) return
+        if (audioParams.get() == null) return
+
+        audioSsrc = secureRandom.nextLong()
+        audioStamp = RtpTrackStamp(audioSsrc, secureRandom.nextInt(0x10000))
+        audioRtxCache?.clear()
 
         rtcpReporter?.setSsrcAudio(audioSsrc)
     }
@@ -755,7 +809,11 @@ internal class RtspServerConnection(
     private suspend fun drainRtcp(sock: UdpStreamSocket?) {
         val buffer = ByteArray(1500)
         while (scope.isActive) {
-            runCatching { sock?.readInto(buffer)?.let { if (it < 0) break } }
+            runCatching {
+                val length = sock?.readInto(buffer) ?: -1
+                if (length < 0) break
+                onRtcp(buffer, length)
+            }
         }
     }
 
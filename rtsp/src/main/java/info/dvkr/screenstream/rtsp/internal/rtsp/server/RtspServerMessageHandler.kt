@@ -25,6 +25,11 @@ internal class RtspServerMessageHandler(
 
     internal fun parseRequest(request: String): Pair<Method, Int> = parseMethod(request) to extractCSeq(request)
 
+    // Content-Base and track URIs follow the stream the client picked
+    internal fun setPath(path: String) {
+        this.path = "/" + path.trimStart('/')
+    }
+
     internal fun getTransport(request: String): String = extractTransport(request)
 
     internal fun getSessionFromRequest(request: String): String? = extractSessionHeader(request)
@@ -43,14 +48,15 @@ internal class RtspServerMessageHandler(
     internal fun createDescribeResponse(
         cSeq: Int,
         videoParams: VideoParams,
-        audioParams: AudioParams?
+        audioParams: AudioParams?,
+        nack: Boolean
     ): RtspMessage =
         ResponseBuilder.ok()
             .withCSeq(cSeq)
             .header(RtspHeaders.CONTENT_BASE, "$baseUri/")
             .header(RtspHeaders.CONTENT_TYPE, "application/sdp")
             .withUserAgent(userAgent)
-            .bodyAscii(SdpBuilder().createSdpBody(videoParams, audioParams, sdpSessionId))
+            .bodyAscii(SdpBuilder().createSdpBody(videoParams, audioParams, sdpSessionId, nack, keyFrameRequests = true))
             .build()
 
     internal fun createSetupResponse(
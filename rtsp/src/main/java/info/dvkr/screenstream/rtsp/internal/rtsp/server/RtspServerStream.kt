@@ -0,0 +1,30 @@
+package info.dvkr.screenstream.rtsp.internal.rtsp.server
+
+import info.dvkr.screenstream.rtsp.internal.VideoParams
+import info.dvkr.screenstream.rtsp.internal.VideoRendition
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * One [VideoRendition] served by [RtspServer] under its own path, with its own video parameters,
+ * packetizer and keyframe requests. Audio is the same for all of them.
+ */
+internal class RtspServerStream(internal val rendition: VideoRendition, onRequestKeyFrame: () -> Unit) {
+    internal val videoParams = AtomicReference<VideoParams?>()
+    internal val packetizer = SharedPacketizer()
+    internal val keyFrameRequester = KeyFrameRequester(onRequestKeyFrame = onRequestKeyFrame)
+
+    internal companion object {
+        private val TRACK_SUFFIX_REGEX = Regex("/trackID=\\d+/?$")
+
+        /**
+         * Picks the stream a request URI asks for: "<path>/sub" is the substream, "<path>" and "<path>/main" the main one.
+         * Any other URI gets the main stream, as before renditions existed.
+         */
+        internal fun select(streams: Map<VideoRendition, RtspServerStream>, requestUri: String?): RtspServerStream {
+            val main = streams.getValue(VideoRendition.MAIN)
+            val path = requestUri?.substringBefore('?')?.replace(TRACK_SUFFIX_REGEX, "")?.trimEnd('/') ?: return main
+            val lastSegment = path.substringAfterLast('/')
+            return streams.values.firstOrNull { it.rendition.pathSuffix == lastSegment } ?: main
+        }
+    }
+}
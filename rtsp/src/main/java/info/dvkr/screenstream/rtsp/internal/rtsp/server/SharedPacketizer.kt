@@ -0,0 +1,138 @@
+package info.dvkr.screenstream.rtsp.internal.rtsp.server
+
+import info.dvkr.screenstream.rtsp.internal.AudioParams
+import info.dvkr.screenstream.rtsp.internal.Codec
+import info.dvkr.screenstream.rtsp.internal.MediaFrame
+import info.dvkr.screenstream.rtsp.internal.RtpFrame
+import info.dvkr.screenstream.rtsp.internal.VideoParams
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.AacPacket
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.Av1Packet
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.BaseRtpPacket
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.G711Packet
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.H264Packet
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.H265Packet
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.OpusPacket
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.RtpPacketPool
+
+/**
+ * Packetizes every access unit once per track and maximum packet size for all server connections.
+ * Produced packets carry SSRC 0 and a shared sequence, each connection stamps its own SSRC and sequence
+ * number over the RTP header with [RtpTrackStamp] while writing. Payload bytes are never modified after packetization.
+ * Packets come from a pool per packet size and go back to it when the last connection releases the blob holding them.
+ */
+internal class SharedPacketizer {
+
+    private class ParamInjector {
+        private var lastInjectNs: Long = 0L
+
+        fun maybeInject(packet: BaseRtpPacket, isKeyFrame: Boolean) {
+            if (isKeyFrame) return
+            val now = System.nanoTime()
+            if (now - lastInjectNs > 2_000_000_000L) {
+                when (packet) {
+                    is H264Packet -> packet.forceStapAOnce()
+                    is H265Packet -> packet.forceParamsOnce()
+                }
+                lastInjectNs = now
+            }
+        }
+    }
+
+    private class VideoPacketizer(val packetizer: BaseRtpPacket, val paramInjector: ParamInjector = ParamInjector())
+
+    private val videoLock = Any()
+    private val audioLock = Any()
+    private var videoParams: VideoParams? = null
+    private var audioParams: AudioParams? = null
+    private val videoPacketizers = HashMap<Int, VideoPacketizer>()
+    private val audioPacketizers = HashMap<Int, BaseRtpPacket>()
+    private val packetPools = HashMap<Int, RtpPacketPool>()
+
+    internal fun setVideoParams(videoParams: VideoParams?) = synchronized(videoLock) {
+        this.videoParams = videoParams
+        videoPacketizers.clear()
+    }
+
+    internal fun setAudioParams(audioParams: AudioParams?) = synchronized(audioLock) {
+        this.audioParams = audioParams
+        audioPacketizers.clear()
+    }
+
+    // Periodically prepends VPS/SPS/PPS on non-IDR to help resync strict players.
+    internal fun packetizeVideo(frame: MediaFrame.VideoFrame, maxPacketSize: Int, out: MutableList<RtpFrame>): Unit =
+        synchronized(videoLock) {
+            val videoPacketizer = videoPacketizer(maxPacketSize) ?: return
+            videoPacketizer.paramInjector.maybeInject(videoPacketizer.packetizer, frame.info.isKeyFrame)
+            videoPacketizer.packetizer.createPacket(frame, out)
+        }
+
+    internal fun packetizeAudio(frame: MediaFrame.AudioFrame, maxPacketSize: Int, out: MutableList<RtpFrame>): Unit =
+        synchronized(audioLock) {
+            audioPacketizer(maxPacketSize)?.createPacket(frame, out)
+        }
+
+    internal fun rtpTimestampFromUs(trackId: Int, maxPacketSize: Int, timestampUs: Long): Long? = when (trackId) {
+        RtpFrame.VIDEO_TRACK_ID -> synchronized(videoLock) { videoPacketizer(maxPacketSize)?.packetizer?.rtpTimestampFromUs(timestampUs) }
+        else -> synchronized(audioLock) { audioPacketizer(maxPacketSize)?.rtpTimestampFromUs(timestampUs) }
+    }
+
+    private fun videoPacketizer(maxPacketSize: Int): VideoPacketizer? {
+        videoPacketizers[maxPacketSize]?.let { return it }
+        val videoParams = videoParams ?: return null
+        val packetizer = when (videoParams.codec) {
+            Codec.Video.H264 -> H264Packet().apply { setVideoInfo(videoParams.sps, videoParams.pps!!) }
+            Codec.Video.H265 -> H265Packet().apply { setVideoInfo(videoParams.sps, videoParams.pps!!, videoParams.vps!!) }
+            Codec.Video.AV1 -> Av1Packet().apply { setSequenceHeader(videoParams.sps) }
+        }.apply {
+            setMaxPacketSize(maxPacketSize)
+            setPacketPool(packetPool(maxPacketSize))
+        }
+        return VideoPacketizer(packetizer).also { videoPacketizers[maxPacketSize] = it }
+    }
+
+    private fun audioPacketizer(maxPacketSize: Int): BaseRtpPacket? {
+        audioPacketizers[maxPacketSize]?.let { return it }
+        val audioParams = audioParams ?: return null
+        return when (audioParams.codec) {
+            Codec.Audio.AAC -> AacPacket().apply { setAudioInfo(audioParams.sampleRate) }
+            Codec.Audio.OPUS -> OpusPacket().apply { setAudioInfo(audioParams.sampleRate) }
+            Codec.Audio.G711 -> G711Packet().apply { setAudioInfo(audioParams.sampleRate) }
+        }.apply {
+            setMaxPacketSize(maxPacketSize)
+            setPacketPool(packetPool(maxPacketSize))
+        }.also { audioPacketizers[maxPacketSize] = it }
+    }
+
+    // Shared by video and audio, the pool is thread safe
+    private fun packetPool(maxPacketSize: Int): RtpPacketPool = synchronized(packetPools) {
+        packetPools.getOrPut(maxPacketSize) { RtpPacketPool(maxPacketSize) }
+    }
+}
+
+/**
+ * Per connection RTP identity of one track: own SSRC and a continuous sequence over the shared packets it actually sends.
+ * Not thread safe, used by the track writer only.
+ */
+internal class RtpTrackStamp(internal val ssrc: Long, initialSeq: Int) {
+    private var seq: Int = initialSeq and 0xFFFF
+    private val header = ByteArray(BaseRtpPacket.RTP_HEADER_LENGTH)
+
+    internal fun peekNextSeq(): Int = (seq + 1) and 0xFFFF
+
+    // Returns the stamped 12 byte RTP header for [packet], valid until the next call
+    internal fun header(packet: RtpFrame): ByteArray {
+        System.arraycopy(packet.buffer, 0, header, 0, BaseRtpPacket.RTP_HEADER_LENGTH)
+        stamp(header)
+        return header
+    }
+
+    private fun stamp(buffer: ByteArray) {
+        seq = (seq + 1) and 0xFFFF
+        buffer[2] = (seq shr 8).toByte()
+        buffer[3] = seq.toByte()
+        buffer[8] = (ssrc shr 24).toByte()
+        buffer[9] = (ssrc shr 16).toByte()
+        buffer[10] = (ssrc shr 8).toByte()
+        buffer[11] = ssrc.toByte()
+    }
+}
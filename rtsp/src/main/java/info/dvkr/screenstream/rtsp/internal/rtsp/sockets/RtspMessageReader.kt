@@ -0,0 +1,81 @@
+package info.dvkr.screenstream.rtsp.internal.rtsp.sockets
+
+import info.dvkr.screenstream.rtsp.internal.rtsp.RtspMessage
+import io.ktor.utils.io.ByteReadChannel
+import io.ktor.utils.io.readFully
+import io.ktor.utils.io.readLine
+import java.io.IOException
+
+/**
+ * Reads a single RTSP request/response message, while skipping RTSP interleaved ($) frames.
+ *
+ * @param allowedInterleavedChannels
+ * - `null`: accept and skip interleaved frames on any channel (client-friendly).
+ * - non-null: only accept channels in the set; otherwise throws (server-strict).
+ */
+@Throws(IOException::class)
+internal suspend fun ByteReadChannel.readRtspMessage(
+    allowedInterleavedChannels: Set<Int>? = emptySet(),
+    maxInterleavedLength: Int = 65535,
+    maxHeaderLength: Int = 16 * 1024,
+    maxBodyLength: Int = 256 * 1024,
+    onInterleavedChunk: (suspend (channel: Int, data: ByteArray, length: Int, isLast: Boolean) -> Unit)? = null
+): RtspMessage? {
+    val ch = this
+    val one = ByteArray(1)
+    val scratch = ByteArray(minOf(4096, maxInterleavedLength))
+
+    while (true) {
+        if (runCatching { ch.readFully(one, 0, 1) }.isFailure) return null
+        val first = one[0]
+
+        if (first == '$'.code.toByte()) {
+            // Interleaved frame: '$' + channel + length(2) + payload
+            val hdr = ByteArray(3)
+            if (runCatching { ch.readFully(hdr, 0, 3) }.isFailure) return null
+            val channel = hdr[0].toInt() and 0xFF
+            val len = ((hdr[1].toInt() and 0xFF) shl 8) or (hdr[2].toInt() and 0xFF)
+
+            if (len > maxInterleavedLength) throw IOException("Interleaved frame length $len exceeds limit $maxInterleavedLength")
+
+            val allowed = allowedInterleavedChannels
+            if (allowed != null && channel !in allowed) throw IOException("Unexpected interleaved channel $channel")
+
+            var remaining = len
+            while (remaining > 0) {
+                val toRead = minOf(remaining, scratch.size)
+                if (runCatching { ch.readFully(scratch, 0, toRead) }.isFailure) return null
+                onInterleavedChunk?.invoke(channel, scratch, toRead, remaining == toRead)
+                remaining -= toRead
+            }
+            continue
+        }
+
+        // Start of RTSP message; assemble start line from first byte + remainder
+        val sb = StringBuilder()
+        var headerBytes = 0
+        var contentLength = 0
+
+        sb.append(first.toInt().toChar())
+        val firstLine = ch.readLine() ?: return null
+        headerBytes += 1 + firstLine.length
+        if (headerBytes > maxHeaderLength) throw IOException("RTSP header too large (> $maxHeaderLength bytes)")
+        sb.append(firstLine).append("\r\n")
+
+        while (true) {
+            val line = ch.readLine() ?: return null
+            if (line.isEmpty()) break
+            headerBytes += line.length + 2
+            if (headerBytes > maxHeaderLength) throw IOException("RTSP header too large (> $maxHeaderLength bytes)")
+            sb.append(line).append("\r\n")
+
+            if (line.startsWith("Content-Length", ignoreCase = true)) {
+                contentLength = line.substringAfter(':', "").trim().toIntOrNull()?.coerceAtLeast(0) ?: contentLength
+            }
+        }
+
+        if (contentLength > maxBodyLength) throw IOException("RTSP body too large ($contentLength > $maxBodyLength bytes)")
+        val body = if (contentLength <= 0) null else ByteArray(contentLength).also { ch.readFully(it, 0, contentLength) }
+        return RtspMessage(header = sb.toString().toByteArray(Charsets.ISO_8859_1), body = body)
+    }
+}
@@ -1,7 +1,10 @@
 package info.dvkr.screenstream.rtsp.internal.rtsp.sockets
 
+import info.dvkr.screenstream.rtsp.internal.RtpFrame
 import info.dvkr.screenstream.rtsp.internal.rtsp.RtspMessage
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.BaseRtpPacket
 import io.ktor.network.selector.SelectorManager
+import io.ktor.network.sockets.ABoundSocket
 import io.ktor.network.sockets.InetSocketAddress
 import io.ktor.network.sockets.ReadWriteSocket
 import io.ktor.network.sockets.Socket
@@ -9,16 +12,16 @@ import io.ktor.network.sockets.aSocket
 import io.ktor.network.sockets.isClosed
 import io.ktor.network.sockets.openReadChannel
 import io.ktor.network.sockets.openWriteChannel
+import io.ktor.network.sockets.toJavaAddress
 import io.ktor.network.tls.tls
 import io.ktor.utils.io.ByteReadChannel
 import io.ktor.utils.io.ByteWriteChannel
-import io.ktor.utils.io.readFully
-import io.ktor.utils.io.readLine
 import io.ktor.utils.io.writeFully
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withTimeout
 import java.io.IOException
+import java.net.InetAddress
 import kotlin.coroutines.CoroutineContext
 import kotlin.time.Duration.Companion.milliseconds
 
@@ -30,6 +33,11 @@ internal class TcpStreamSocket private constructor(
     private val remotePort: Int,
     private val sslEnabled: Boolean
 ) {
+    private companion object {
+        // Longest time an interleaved batch is kept in the channel buffer before a flush
+        private const val BATCH_FLUSH_DEADLINE_NS = 5_000_000L
+    }
+
     // Separate locks for write and read: avoid blocking RTP interleaved writes
     // while the command loop is waiting for next RTSP request.
     private val writeMutex = Mutex()
@@ -40,6 +48,9 @@ internal class TcpStreamSocket private constructor(
     @Volatile
     private var connected = false
 
+    // '$', channel, length and RTP header of one interleaved frame, guarded by writeMutex
+    private val interleavedFrameHeader = ByteArray(4 + BaseRtpPacket.RTP_HEADER_LENGTH)
+
     // For client
     constructor(
         tlsCoroutineContext: CoroutineContext,
@@ -93,6 +104,12 @@ internal class TcpStreamSocket private constructor(
 
     internal fun isConnected(): Boolean = connected && (tcpSocket?.isClosed == false)
 
+    // Local end of the connection, selects the interface MTU for RTP over UDP
+    internal val localAddress: InetAddress?
+        get() = runCatching {
+            ((tcpSocket as? ABoundSocket)?.localAddress?.toJavaAddress() as? java.net.InetSocketAddress)?.address
+        }.getOrNull()
+
     @Throws
     internal suspend fun writeAndFlush(message: RtspMessage) {
         output?.writeFully(message.header)
@@ -113,16 +130,44 @@ internal class TcpStreamSocket private constructor(
         output?.writeFully(bytes2, offset2, size2)
     }
 
+    /**
+     * Writes [packets] as RTSP interleaved frames on [channel] under a single write lock acquisition.
+     * Frames are gathered in the channel buffer and flushed once after the last packet,
+     * or earlier when the batch is older than [BATCH_FLUSH_DEADLINE_NS].
+     * [rtpHeader] returns an array starting with the RTP header to send for the packet, payloads are written from the packet buffers.
+     */
+    @Throws
+    internal suspend fun writeInterleaved(channel: Int, packets: List<RtpFrame>, rtpHeader: (RtpFrame) -> ByteArray) = writeMutex.withLock {
+        val output = output ?: return@withLock
+        if (!isConnected()) return@withLock
+        require(channel in 0..255) { "RTSP interleaved channel must be in 0..255 (got $channel)" }
+        val frameHeader = interleavedFrameHeader
+        frameHeader[0] = '$'.code.toByte()
+        frameHeader[1] = channel.toByte()
+        var batchStartNs = System.nanoTime()
+        for (i in packets.indices) {
+            val packet = packets[i]
+            require(packet.length in BaseRtpPacket.RTP_HEADER_LENGTH..65535) { "RTSP interleaved length must be in 12..65535 (got ${packet.length})" }
+            frameHeader[2] = (packet.length ushr 8).toByte()
+            frameHeader[3] = packet.length.toByte()
+            System.arraycopy(rtpHeader(packet), 0, frameHeader, 4, BaseRtpPacket.RTP_HEADER_LENGTH)
+            output.writeFully(frameHeader)
+            output.writeFully(packet.buffer, BaseRtpPacket.RTP_HEADER_LENGTH, packet.length)
+            if (System.nanoTime() - batchStartNs > BATCH_FLUSH_DEADLINE_NS) {
+                output.flush()
+                batchStartNs = System.nanoTime()
+            }
+        }
+        output.flush()
+    }
+
     internal suspend fun flush() {
         output?.flush()
     }
 
     /**
      * Reads a single RTSP request/response message, while skipping RTSP interleaved ($) frames.
-     *
-     * @param allowedInterleavedChannels
-     * - `null`: accept and skip interleaved frames on any channel (client-friendly).
-     * - non-null: only accept channels in the set; otherwise throws (server-strict).
+     * See [ByteReadChannel.readRtspMessage].
      */
     @Throws(IOException::class)
     internal suspend fun readRtspMessage(
@@ -132,65 +177,6 @@ internal class TcpStreamSocket private constructor(
         maxBodyLength: Int = 256 * 1024,
         onInterleavedChunk: (suspend (channel: Int, data: ByteArray, length: Int, isLast: Boolean) -> Unit)? = null
     ): RtspMessage? = readMutex.withLock {
-        val ch = input ?: return@withLock null
-        val one = ByteArray(1)
-        val scratch = ByteArray(minOf(4096, maxInterleavedLength))
-
-        while (true) {
-            if (runCatching { ch.readFully(one, 0, 1) }.isFailure) return@withLock null
-            val first = one[0]
-
-            if (first == '$'.code.toByte()) {
-                // Interleaved frame: '$' + channel + length(2) + payload
-                val hdr = ByteArray(3)
-                if (runCatching { ch.readFully(hdr, 0, 3) }.isFailure) return@withLock null
-                val channel = hdr[0].toInt() and 0xFF
-                val len = ((hdr[1].toInt() and 0xFF) shl 8) or (hdr[2].toInt() and 0xFF)
-
-                if (len > maxInterleavedLength) throw IOException("Interleaved frame length $len exceeds limit $maxInterleavedLength")
-
-                val allowed = allowedInterleavedChannels
-                if (allowed != null && channel !in allowed) throw IOException("Unexpected interleaved channel $channel")
-
-                var remaining = len
-                while (remaining > 0) {
-                    val toRead = minOf(remaining, scratch.size)
-                    if (runCatching { ch.readFully(scratch, 0, toRead) }.isFailure) return@withLock null
-                    onInterleavedChunk?.invoke(channel, scratch, toRead, remaining == toRead)
-                    remaining -= toRead
-                }
-                continue
-            }
-
-            // Start of RTSP message; assemble start line from first byte + remainder
-            val sb = StringBuilder()
-            var headerBytes = 0
-            var contentLength = 0
-
-            sb.append(first.toInt().toChar())
-            val firstLine = ch.readLine() ?: return@withLock null
-            headerBytes += 1 + firstLine.length
-            if (headerBytes > maxHeaderLength) throw IOException("RTSP header too large (> $maxHeaderLength bytes)")
-            sb.append(firstLine).append("\r\n")
-
-            while (true) {
-                val line = ch.readLine() ?: return@withLock null
-                if (line.isEmpty()) break
-                headerBytes += line.length + 2
-                if (headerBytes > maxHeaderLength) throw IOException("RTSP header too large (> $maxHeaderLength bytes)")
-                sb.append(line).append("\r\n")
-
-                if (line.startsWith("Content-Length", ignoreCase = true)) {
-                    contentLength = line.substringAfter(':', "").trim().toIntOrNull()?.coerceAtLeast(0) ?: contentLength
-                }
-            }
-
-            if (contentLength > maxBodyLength) throw IOException("RTSP body too large ($contentLength > $maxBodyLength bytes)")
-            val body = if (contentLength <= 0) null else ByteArray(contentLength).also { ch.readFully(it, 0, contentLength) }
-            return@withLock RtspMessage(header = sb.toString().toByteArray(Charsets.ISO_8859_1), body = body)
-        }
-
-        // Defensive: gives the lambda an explicit RtspMessage? result type for inference.
-        null
+        input?.readRtspMessage(allowedInterleavedChannels, maxInterleavedLength, maxHeaderLength, maxBodyLength, onInterleavedChunk)
     }
 }
@@ -1,69 +1,118 @@
 package info.dvkr.screenstream.rtsp.internal.rtsp.sockets
 
-import io.ktor.network.selector.SelectorManager
-import io.ktor.network.sockets.ConnectedDatagramSocket
-import io.ktor.network.sockets.Datagram
-import io.ktor.network.sockets.InetSocketAddress
-import io.ktor.network.sockets.aSocket
-import io.ktor.utils.io.core.buildPacket
-import io.ktor.utils.io.core.readFully
-import io.ktor.utils.io.core.remaining
-import io.ktor.utils.io.core.writeFully
+import info.dvkr.screenstream.rtsp.internal.RtpFrame
+import info.dvkr.screenstream.rtsp.internal.rtsp.packets.BaseRtpPacket
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runInterruptible
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
 import java.net.Inet6Address
 import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.PortUnreachableException
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedChannelException
+import java.nio.channels.DatagramChannel
+import java.util.concurrent.atomic.AtomicInteger
 
+/**
+ * Connected UDP socket on a blocking [DatagramChannel].
+ * Datagrams are assembled in one reused direct buffer, so sending allocates nothing per packet.
+ * Writes are expected from [Dispatchers.IO], a connected datagram send only blocks while the socket send buffer is full.
+ */
 internal class UdpStreamSocket(
-    private val selectorManager: SelectorManager,
     private val remoteHost: String,
     private val remotePort: Int,
     private val localPort: Int
 ) {
     private val readMutex = Mutex()
     private val writeMutex = Mutex()
-    private var udpSocket: ConnectedDatagramSocket? = null
-    private var remoteSocketAddress: InetSocketAddress? = null
+    @Volatile
+    private var channel: DatagramChannel? = null
+    private var writeBuffer: ByteBuffer = ByteBuffer.allocateDirect(2048) // Guarded by writeMutex
+    private val queuedPackets = AtomicInteger(0)
+
+    // RTP packets passed to writeBatch and not sent yet, including callers waiting for the write lock
+    internal val sendQueueDepth: Int
+        get() = queuedPackets.get()
 
     suspend fun connect() = writeMutex.withLock {
-        readMutex.withLock {
-            runCatching { udpSocket?.close() }
-            udpSocket = null
+        withContext(Dispatchers.IO) {
+            runCatching { channel?.close() }
+            channel = null
             val remoteAddress = InetAddress.getByName(remoteHost)
-            val resolvedRemote = InetSocketAddress(remoteAddress.hostAddress ?: remoteHost, remotePort)
             val localBindHost = if (remoteAddress is Inet6Address) "::" else "0.0.0.0"
-            udpSocket = aSocket(selectorManager)
-                .udp()
-                .connect(resolvedRemote, InetSocketAddress(localBindHost, localPort))
-            remoteSocketAddress = resolvedRemote
+            channel = DatagramChannel.open().apply {
+                socket().bind(InetSocketAddress(localBindHost, localPort))
+                connect(InetSocketAddress(remoteAddress, remotePort))
+            }
         }
     }
 
+    // Not guarded by readMutex: closing the channel is what releases a blocked read
     suspend fun close() = writeMutex.withLock {
-        readMutex.withLock {
-            runCatching { udpSocket?.close() }
-            udpSocket = null
-        }
+        runCatching { channel?.close() }
+        channel = null
     }
 
-    suspend fun write(bytes: ByteArray) = writeMutex.withLock {
-        val target = remoteSocketAddress ?: return@withLock
-        udpSocket?.send(Datagram(buildPacket { writeFully(bytes) }, target))
-    }
+    suspend fun write(bytes: ByteArray) = write(bytes, 0, bytes.size)
 
     suspend fun write(bytes: ByteArray, offset: Int, length: Int) = writeMutex.withLock {
-        val target = remoteSocketAddress ?: return@withLock
-        udpSocket?.send(Datagram(buildPacket { writeFully(bytes, offset, length) }, target))
+        val channel = channel ?: return@withLock
+        val buffer = writeBuffer(length)
+        buffer.put(bytes, offset, length).flip()
+        send(channel, buffer)
+    }
+
+    /**
+     * Sends each of [packets] as its own datagram under a single write lock acquisition.
+     * [rtpHeader] returns an array starting with the RTP header to send for the packet, payloads are copied from the packet buffers.
+     */
+    suspend fun writeBatch(packets: List<RtpFrame>, rtpHeader: (RtpFrame) -> ByteArray) {
+        var pending = packets.size
+        queuedPackets.addAndGet(pending)
+        try {
+            writeMutex.withLock {
+                val channel = channel ?: return@withLock
+                for (i in packets.indices) {
+                    val packet = packets[i]
+                    val buffer = writeBuffer(packet.length)
+                    buffer.put(rtpHeader(packet), 0, BaseRtpPacket.RTP_HEADER_LENGTH)
+                    buffer.put(packet.buffer, BaseRtpPacket.RTP_HEADER_LENGTH, packet.length - BaseRtpPacket.RTP_HEADER_LENGTH)
+                    buffer.flip()
+                    send(channel, buffer)
+                    pending--
+                    queuedPackets.decrementAndGet()
+                }
+            }
+        } finally {
+            if (pending > 0) queuedPackets.addAndGet(-pending)
+        }
     }
 
     suspend fun readInto(buffer: ByteArray): Int = readMutex.withLock {
-        val socket = udpSocket ?: return@withLock -1
-        val datagram = socket.receive()
-        val packet = datagram.packet
-        val size = minOf(buffer.size, packet.remaining.toInt())
-        packet.readFully(buffer, 0, size)
-        size
+        val channel = channel ?: return@withLock -1
+        try {
+            runInterruptible(Dispatchers.IO) { channel.read(ByteBuffer.wrap(buffer)) }
+        } catch (_: ClosedChannelException) {
+            -1
+        }
+    }
+
+    fun localPort(): Int? = channel?.socket()?.localPort?.takeIf { it > 0 }
+
+    private fun writeBuffer(size: Int): ByteBuffer {
+        if (writeBuffer.capacity() < size) writeBuffer = ByteBuffer.allocateDirect(size)
+        writeBuffer.clear()
+        return writeBuffer
     }
 
-    fun localPort(): Int? = (udpSocket?.localAddress as? InetSocketAddress)?.port
+    // ICMP port unreachable from an earlier datagram surfaces on the next send, the peer may just not listen yet
+    private fun send(channel: DatagramChannel, buffer: ByteBuffer) {
+        try {
+            channel.write(buffer)
+        } catch (_: PortUnreachableException) {
+        }
+    }
 }
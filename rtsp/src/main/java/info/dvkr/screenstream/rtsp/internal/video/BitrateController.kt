@@ -0,0 +1,101 @@
+package info.dvkr.screenstream.rtsp.internal.video
+
+import com.elvishew.xlog.XLog
+import info.dvkr.screenstream.common.getLog
+
+/**
+ * AIMD video bitrate control between [minBitrate] and [maxBitrate] from periodic network feedback.
+ * Congestion cuts the bitrate by [DECREASE_FACTOR] at most once per [DECREASE_INTERVAL_MS],
+ * a clean link adds [INCREASE_STEP] of the ceiling per feedback round after [HOLD_AFTER_DECREASE_MS].
+ * Not thread safe, feed it from one thread.
+ */
+internal class BitrateController(
+    private val minBitrate: Int,
+    private val maxBitrate: Int,
+    private val onBitrate: (Int) -> Unit
+) {
+    /**
+     * Network state of one receiver, [key] tells receivers apart between rounds.
+     * [queueFill] is the send queue occupancy 0..1, [framesDropped] a running total,
+     * [fractionLost] and [rttMs] are from RTCP receiver reports, null when there is no recent report.
+     */
+    internal data class Feedback(
+        val key: String,
+        val queueFill: Float,
+        val framesDropped: Long,
+        val fractionLost: Float? = null,
+        val rttMs: Long? = null
+    )
+
+    private enum class Signal { CLEAR, HOLD, CONGESTED }
+
+    internal var bitrate: Int = maxBitrate
+        private set
+
+    private var lastDecreaseMs: Long = 0L
+    private val lastDropped = HashMap<String, Long>()
+    private val minRttMs = HashMap<String, Long>()
+
+    // The most congested receiver decides, one slow client lowers the bitrate for all of them
+    internal fun onFeedback(feedback: List<Feedback>, nowMs: Long = System.currentTimeMillis()) {
+        val keys = feedback.mapTo(HashSet()) { it.key }
+        lastDropped.keys.retainAll(keys)
+        minRttMs.keys.retainAll(keys)
+        if (feedback.isEmpty()) { // No receivers left, the next one starts at full quality
+            lastDecreaseMs = 0L
+            if (bitrate != maxBitrate) {
+                XLog.d(getLog("onFeedback", "No receivers: $bitrate -> $maxBitrate"))
+                bitrate = maxBitrate
+                onBitrate(maxBitrate)
+            }
+            return
+        }
+
+        val signal = feedback.maxOf { signalOf(it) }
+        val newBitrate = when (signal) {
+            Signal.CONGESTED ->
+                if (nowMs - lastDecreaseMs < DECREASE_INTERVAL_MS) bitrate
+                else (bitrate * DECREASE_FACTOR).toInt().also { lastDecreaseMs = nowMs }
+
+            Signal.HOLD -> bitrate
+
+            Signal.CLEAR ->
+                if (nowMs - lastDecreaseMs < HOLD_AFTER_DECREASE_MS) bitrate
+                else bitrate + (maxBitrate * INCREASE_STEP).toInt()
+        }.coerceIn(minBitrate, maxBitrate)
+
+        if (newBitrate == bitrate) return
+        XLog.d(getLog("onFeedback", "$signal: $bitrate -> $newBitrate"))
+        bitrate = newBitrate
+        onBitrate(newBitrate)
+    }
+
+    private fun signalOf(feedback: Feedback): Signal {
+        val dropped = feedback.framesDropped - (lastDropped.put(feedback.key, feedback.framesDropped) ?: feedback.framesDropped)
+        val loss = feedback.fractionLost ?: 0F
+        val rttRise = feedback.rttMs?.let { rtt ->
+            val minRtt = minOf(minRttMs[feedback.key] ?: rtt, rtt).also { minRttMs[feedback.key] = it }
+            rtt - minRtt
+        } ?: 0L
+
+        return when {
+            dropped > 0 || feedback.queueFill >= QUEUE_CONGESTED || loss >= LOSS_CONGESTED || rttRise >= RTT_RISE_CONGESTED_MS -> Signal.CONGESTED
+            feedback.queueFill >= QUEUE_HOLD || loss >= LOSS_HOLD || rttRise >= RTT_RISE_HOLD_MS -> Signal.HOLD
+            else -> Signal.CLEAR
+        }
+    }
+
+    private companion object {
+        private const val DECREASE_FACTOR = 0.85F
+        private const val INCREASE_STEP = 0.05F
+        private const val DECREASE_INTERVAL_MS = 1000L
+        private const val HOLD_AFTER_DECREASE_MS = 3000L
+
+        private const val QUEUE_CONGESTED = 0.5F
+        private const val QUEUE_HOLD = 0.2F
+        private const val LOSS_CONGESTED = 0.1F
+        private const val LOSS_HOLD = 0.02F
+        private const val RTT_RISE_CONGESTED_MS = 200L
+        private const val RTT_RISE_HOLD_MS = 80L
+    }
+}
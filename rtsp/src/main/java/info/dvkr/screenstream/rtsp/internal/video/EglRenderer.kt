@@ -24,10 +24,23 @@ import java.util.concurrent.atomic.AtomicBoolean
 import kotlin.math.roundToLong
 import kotlin.system.measureTimeMillis
 
+/**
+ * Draws the captured [sourceWidth] x [sourceHeight] frames into the [width] x [height] encoder input surface,
+ * cropped, rotated, flipped and scaled by [transform] in the same draw call.
+ * With [idleRefreshMs] 0 it redraws at the set fps whether the screen changed or not. Otherwise it draws only when the
+ * [SurfaceTexture] delivers a new frame, at most at the set fps, and repeats the last frame after [idleRefreshMs]
+ * without changes to keep decoders alive. Render ticks saved that way are reported to [onFramesSkipped].
+ * Surfaces added with [addOutput] get the same frame drawn at their own size, one draw call each from the shared texture.
+ */
 internal class EglRenderer(
     private val width: Int,
     private val height: Int,
+    private val sourceWidth: Int,
+    private val sourceHeight: Int,
+    private val transform: VideoTransform,
     private val encoderSurface: Surface,
+    private val idleRefreshMs: Long,
+    private val onFramesSkipped: (Int) -> Unit,
     private val onError: (Throwable) -> Unit,
 ) {
 
@@ -91,6 +104,12 @@ internal class EglRenderer(
     private var eglDisplay: EGLDisplay = EGL14.EGL_NO_DISPLAY
     private var eglContext: EGLContext = EGL14.EGL_NO_CONTEXT
     private var eglSurface: EGLSurface = EGL14.EGL_NO_SURFACE
+    private var eglConfig: EGLConfig? = null
+
+    private class Output(val surface: Surface, val eglSurface: EGLSurface, val width: Int, val height: Int, val viewport: IntArray)
+
+    // Accessed on the handler thread only
+    private val extraOutputs = mutableListOf<Output>()
 
     @Volatile
     private var surfaceTexture: SurfaceTexture? = null
@@ -103,11 +122,16 @@ internal class EglRenderer(
     private var aTextureCoordHandle = -1
 
     private val stMatrix = FloatArray(16)
+    private val transformMatrix = transform.textureMatrix()
+    private val textureMatrix = FloatArray(16)
+    private val viewport = transform.viewport(sourceWidth, sourceHeight, width, height)
 
     private val renderFrameTask = Runnable { renderFrame() }
     private var fps = 30
     private var frameIntervalMs = 1000.0 / fps
     private var nextRenderTimeMs = 0.0
+    private var frameAvailable = false
+    private var lastDrawTimeMs = 0.0
 
     private val errorOccurred = AtomicBoolean(false)
 
@@ -177,6 +201,48 @@ internal class EglRenderer(
         handlerThread.quitSafely()
     }
 
+    // Blocks until the [surface] is drawn into along with the encoder surface, the caller keeps owning the [surface]
+    internal fun addOutput(surface: Surface, width: Int, height: Int) {
+        XLog.v(getLog("addOutput", "${width}x$height"))
+        runOnHandlerThread {
+            runSafely {
+                val outputSurface = EGL14.eglCreateWindowSurface(eglDisplay, eglConfig, surface, intArrayOf(EGL14.EGL_NONE), 0)
+                checkEglError("eglCreateWindowSurface")
+                if (outputSurface == EGL14.EGL_NO_SURFACE) throw RuntimeException("eglCreateWindowSurface returned EGL_NO_SURFACE.")
+                extraOutputs.add(Output(surface, outputSurface, width, height, transform.viewport(sourceWidth, sourceHeight, width, height)))
+            }
+        }
+    }
+
+    // Blocks until the [surface] is no longer drawn into, it is not released
+    internal fun removeOutput(surface: Surface) {
+        XLog.v(getLog("removeOutput"))
+        runOnHandlerThread {
+            val output = extraOutputs.firstOrNull { it.surface == surface } ?: return@runOnHandlerThread
+            extraOutputs.remove(output)
+            if (eglDisplay == EGL14.EGL_NO_DISPLAY) return@runOnHandlerThread
+            if (!EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext)) {
+                XLog.w(getLog("removeOutput", "eglMakeCurrent failed: error 0x${Integer.toHexString(EGL14.eglGetError())}"))
+            }
+            runCatching { EGL14.eglDestroySurface(eglDisplay, output.eglSurface) }
+                .onFailure { XLog.w(getLog("removeOutput", "Failed to destroy EGL surface."), it) }
+        }
+    }
+
+    // Skipped once the handler thread is gone, the renderer has released everything by then
+    private fun runOnHandlerThread(block: () -> Unit) {
+        if (Thread.currentThread() == handlerThread.looper?.thread) {
+            block()
+            return
+        }
+        val latch = CountDownLatch(1)
+        val posted = handler.post {
+            runCatching { block() }.onFailure { XLog.w(getLog("runOnHandlerThread", it.message), it) }
+            latch.countDown()
+        }
+        if (posted) latch.await()
+    }
+
     internal fun setFps(fps: Int) {
         XLog.v(getLog("setFps", "$fps"))
         handler.post {
@@ -199,7 +265,19 @@ internal class EglRenderer(
         }
     }
 
+    private fun onFrameAvailable() {
+        frameAvailable = true
+        if (!isRendering.get()) return
+        handler.removeCallbacks(renderFrameTask)
+        handler.post(renderFrameTask)
+    }
+
     private fun renderFrame() {
+        if (idleRefreshMs > 0) {
+            renderChangedFrame()
+            return
+        }
+
         runSafely {
             if (!EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext)) {
                 throw RuntimeException("eglMakeCurrent failed: error 0x${Integer.toHexString(EGL14.eglGetError())}")
@@ -229,16 +307,85 @@ internal class EglRenderer(
         handler.postDelayed(renderFrameTask, (nextRenderTimeMs - nowMs + renderTime).coerceAtLeast(0.0).roundToLong())
     }
 
+    private fun renderChangedFrame() {
+        if (!isRendering.get()) return
+
+        val nowMs = MasterClock.relativeTimeMs().toDouble()
+        val sinceLastDrawMs = nowMs - lastDrawTimeMs
+        if (frameAvailable && lastDrawTimeMs > 0.0 && sinceLastDrawMs < frameIntervalMs) {
+            handler.removeCallbacks(renderFrameTask)
+            handler.postDelayed(renderFrameTask, (frameIntervalMs - sinceLastDrawMs).roundToLong())
+            return
+        }
+
+        runSafely {
+            if (!EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext)) {
+                throw RuntimeException("eglMakeCurrent failed: error 0x${Integer.toHexString(EGL14.eglGetError())}")
+            }
+            if (frameAvailable) surfaceTexture?.apply {
+                updateTexImage()
+                getTransformMatrix(stMatrix)
+            }
+        }
+        frameAvailable = false
+
+        // Ticks a fixed rate renderer would have drawn since the last frame
+        if (lastDrawTimeMs > 0.0) {
+            val skipped = (sinceLastDrawMs / frameIntervalMs).toInt() - 1
+            if (skipped > 0) onFramesSkipped(skipped)
+        }
+
+        runSafely { drawFrame() }
+        lastDrawTimeMs = nowMs
+
+        if (!isRendering.get()) return
+
+        handler.removeCallbacks(renderFrameTask)
+        handler.postDelayed(renderFrameTask, idleRefreshMs)
+    }
+
     @Throws(RuntimeException::class)
     private fun drawFrame() {
         check(Thread.currentThread() == handlerThread.looper?.thread) { "All GL calls must be on EglRenderer HandlerThread!" }
         if (!isRendering.get()) return
 
+        Matrix.multiplyMM(textureMatrix, 0, stMatrix, 0, transformMatrix, 0)
+
+        if (extraOutputs.isEmpty()) {
+            drawInto(eglSurface, width, height, viewport)
+            return
+        }
+
+        makeCurrent(eglSurface)
+        drawInto(eglSurface, width, height, viewport)
+        extraOutputs.forEach { output ->
+            makeCurrent(output.eglSurface)
+            drawInto(output.eglSurface, output.width, output.height, output.viewport)
+        }
+        makeCurrent(eglSurface)
+    }
+
+    @Throws(RuntimeException::class)
+    private fun makeCurrent(surface: EGLSurface) {
+        if (!EGL14.eglMakeCurrent(eglDisplay, surface, surface, eglContext)) {
+            throw RuntimeException("eglMakeCurrent failed: error 0x${Integer.toHexString(EGL14.eglGetError())}")
+        }
+    }
+
+    @Throws(RuntimeException::class)
+    private fun drawInto(surface: EGLSurface, width: Int, height: Int, viewport: IntArray) {
+        // Letterbox bars, the content goes into the viewport only
+        if (transform.hasFixedOutput) {
+            GLES20.glViewport(0, 0, width, height)
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT)
+        }
+        GLES20.glViewport(viewport[0], viewport[1], viewport[2], viewport[3])
+
         GLES20.glUseProgram(programId)
         checkGlError("glUseProgram")
 
         GLES20.glUniformMatrix4fv(uMVPMatrixLoc, 1, false, MVP_MATRIX, 0)
-        GLES20.glUniformMatrix4fv(uSTMatrixLoc, 1, false, stMatrix, 0)
+        GLES20.glUniformMatrix4fv(uSTMatrixLoc, 1, false, textureMatrix, 0)
 
         GLES20.glEnableVertexAttribArray(aPositionHandle)
         GLES20.glVertexAttribPointer(aPositionHandle, 2, GLES20.GL_FLOAT, false, 0, FULL_RECT_VERTICES_BUFFER)
@@ -257,7 +404,7 @@ internal class EglRenderer(
         GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0)
         GLES20.glUseProgram(0)
 
-        if (!EGL14.eglSwapBuffers(eglDisplay, eglSurface)) {
+        if (!EGL14.eglSwapBuffers(eglDisplay, surface)) {
             throw RuntimeException("eglSwapBuffers failed: error 0x${Integer.toHexString(EGL14.eglGetError())}")
         }
     }
@@ -294,6 +441,7 @@ internal class EglRenderer(
         if (numConfigs[0] <= 0) {
             throw RuntimeException("No EGL configs found")
         }
+        eglConfig = configs[0]
 
         val contextAttribs = intArrayOf(EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE)
         eglContext = EGL14.eglCreateContext(eglDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttribs, 0)
@@ -328,7 +476,8 @@ internal class EglRenderer(
         GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0)
 
         surfaceTexture = SurfaceTexture(textureId).apply {
-            setDefaultBufferSize(width, height)
+            setDefaultBufferSize(sourceWidth, sourceHeight)
+            if (idleRefreshMs > 0) setOnFrameAvailableListener({ onFrameAvailable() }, handler)
         }
 
         Matrix.setIdentityM(stMatrix, 0)
@@ -340,7 +489,8 @@ internal class EglRenderer(
         uMVPMatrixLoc = GLES20.glGetUniformLocation(programId, "uMVPMatrix")
         uSTMatrixLoc = GLES20.glGetUniformLocation(programId, "uSTMatrix")
 
-        GLES20.glViewport(0, 0, width, height)
+        GLES20.glClearColor(0f, 0f, 0f, 1f)
+        GLES20.glViewport(viewport[0], viewport[1], viewport[2], viewport[3])
     }
 
     private fun releaseGL(surfaceTextureToRelease: SurfaceTexture?) {
@@ -368,6 +518,12 @@ internal class EglRenderer(
             }
         }
 
+        extraOutputs.forEach { output ->
+            runCatching { EGL14.eglDestroySurface(eglDisplay, output.eglSurface) }
+                .onFailure { XLog.w(getLog("releaseGL", "Failed to destroy output EGL surface."), it) }
+        }
+        extraOutputs.clear()
+
         if (eglSurface != EGL14.EGL_NO_SURFACE) {
             runCatching { EGL14.eglDestroySurface(eglDisplay, eglSurface) }
                 .onFailure { XLog.w(getLog("releaseGL", "Failed to destroy EGL surface."), it) }
@@ -1,16 +1,30 @@
 package info.dvkr.screenstream.rtsp.internal.video
 
-internal class FpsCalculator(private val fpsCallback: (Int) -> Unit) {
+// Frames encoded and render ticks skipped on an unchanged screen, reported once per second. Frames are recorded from several threads
+internal class FpsCalculator(private val fpsCallback: (fps: Int, skipped: Int) -> Unit) {
     private var frameCount = 0
+    private var skippedCount = 0
     private var lastUpdate = System.nanoTime()
 
+    @Synchronized
     fun recordFrame() {
         frameCount++
+        report()
+    }
+
+    @Synchronized
+    fun recordSkippedFrames(count: Int) {
+        skippedCount += count
+        report()
+    }
+
+    private fun report() {
         val now = System.nanoTime()
         if (now - lastUpdate >= 1_000_000_000L) {
-            fpsCallback(frameCount)
+            fpsCallback(frameCount, skippedCount)
             frameCount = 0
+            skippedCount = 0
             lastUpdate = now
         }
     }
-}
\ No newline at end of file
+}
@@ -9,6 +9,7 @@ import android.os.Bundle
 import android.os.Handler
 import android.os.HandlerThread
 import android.os.Process
+import android.view.Surface
 import com.elvishew.xlog.XLog
 import info.dvkr.screenstream.common.getLog
 import info.dvkr.screenstream.rtsp.internal.Codec
@@ -23,22 +24,26 @@ import java.nio.ByteBuffer
 
 internal class VideoEncoder(
     private val codecInfo: VideoCodecInfo,
+    private val keyFrameIntervalSec: Int,
+    private val idleRefreshMs: Long,
     private val onVideoInfo: (sps: ByteArray, pps: ByteArray?, vps: ByteArray?) -> Unit,
     private val onVideoFrame: (MediaFrame.VideoFrame) -> Unit,
-    private val onFps: (Int) -> Unit,
+    private val onFps: (fps: Int, skipped: Int) -> Unit,
     private val onError: (Throwable) -> Unit,
 ) {
     private enum class State { IDLE, PREPARED, RUNNING, STOPPED }
 
     private data class StopSnapshot(
         val eglRenderer: EglRenderer?,
+        val sourceRenderer: EglRenderer?,
+        val inputSurface: Surface?,
         val videoEncoder: MediaCodec?,
         val handler: Handler?,
         val handlerThread: HandlerThread?
     )
 
-    private val fpsCalculator = FpsCalculator { framesPerSecond ->
-        onFps.invoke(framesPerSecond)
+    private val fpsCalculator = FpsCalculator { framesPerSecond, skippedPerSecond ->
+        onFps.invoke(framesPerSecond, skippedPerSecond)
     }
 
     private val encoderLock = Any()
@@ -52,6 +57,8 @@ internal class VideoEncoder(
     private var handlerThread: HandlerThread? = null
     private var handler: Handler? = null
     private var eglRenderer: EglRenderer? = null
+    private var sourceRenderer: EglRenderer? = null
+    private var inputSurface: Surface? = null
     private var isCodecConfigSent: Boolean = false
     private var lastBitrate: Int? = null
     private val adjustedBufferInfo = MediaCodec.BufferInfo()
@@ -65,7 +72,19 @@ internal class VideoEncoder(
     internal val inputSurfaceTexture: SurfaceTexture?
         get() = eglRenderer?.inputSurfaceTexture
 
-    internal fun prepare(width: Int, height: Int, fps: Int, bitRate: Int) {
+    /**
+     * Encodes [width] x [height] frames. The renderer input surface takes [sourceWidth] x [sourceHeight] frames
+     * and applies [transform] while drawing them.
+     */
+    internal fun prepare(
+        width: Int,
+        height: Int,
+        fps: Int,
+        bitRate: Int,
+        sourceWidth: Int = width,
+        sourceHeight: Int = height,
+        transform: VideoTransform = VideoTransform()
+    ) {
         runCatching {
             synchronized(encoderLock) {
                 require(width % 2 == 0 && height % 2 == 0) { "Width and height must be even. Received: $width x $height" }
@@ -75,30 +94,12 @@ internal class VideoEncoder(
                 this.width = width
                 this.height = height
 
-                // H.265, H.264, AV1
-                val format = MediaFormat.createVideoFormat(codecInfo.codec.mimeType, width, height).apply {
-                    setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface)
-                    setInteger(MediaFormat.KEY_FRAME_RATE, fps)
-                    setInteger(MediaFormat.KEY_BIT_RATE, bitRate)
-                    setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1)
-                    setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, 0)
-                    setInteger(MediaFormat.KEY_PRIORITY, 1)
-
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                        setInteger(MediaFormat.KEY_MAX_B_FRAMES, 0)
-                    }
-
-                    if (codecInfo.isCBRModeSupported) {
-                        setInteger(MediaFormat.KEY_BITRATE_MODE, MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR)
-                    } else {
-                        setInteger(MediaFormat.KEY_BITRATE_MODE, MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR)
-                    }
-                }
-
-                val encoder = MediaCodec.createByCodecName(codecInfo.name)
-                encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE)
+                val encoder = createEncoder(width, height, fps, bitRate)
 
-                eglRenderer = EglRenderer(width, height, encoder.createInputSurface(), onError).apply {
+                eglRenderer = EglRenderer(
+                    width, height, sourceWidth, sourceHeight, transform,
+                    encoder.createInputSurface(), idleRefreshMs, fpsCalculator::recordSkippedFrames, onError
+                ).apply {
                     setFps(fps)
                 }
 
@@ -116,6 +117,69 @@ internal class VideoEncoder(
         }
     }
 
+    /**
+     * Encodes [width] x [height] frames drawn by the renderer of the prepared [source] encoder, with the same capture and transform.
+     * Has to be stopped before the [source] encoder, it has no renderer and [inputSurfaceTexture] of its own.
+     */
+    internal fun prepareSecondary(source: VideoEncoder, width: Int, height: Int, fps: Int, bitRate: Int) {
+        runCatching {
+            synchronized(encoderLock) {
+                require(width % 2 == 0 && height % 2 == 0) { "Width and height must be even. Received: $width x $height" }
+                require(fps > 0) { "FPS must be > 0. Received: $fps" }
+                check(currentState == State.IDLE)
+                val renderer = synchronized(source.encoderLock) { source.eglRenderer }
+                    ?: throw IllegalStateException("Source encoder is not prepared")
+
+                this.width = width
+                this.height = height
+
+                val encoder = createEncoder(width, height, fps, bitRate)
+                videoEncoder = encoder
+
+                val surface = encoder.createInputSurface()
+                inputSurface = surface
+                renderer.addOutput(surface, width, height)
+                sourceRenderer = renderer
+
+                handlerThread = HandlerThread("VideoEncoderHandler", Process.THREAD_PRIORITY_DISPLAY).apply { start() }
+                handler = Handler(handlerThread!!.looper)
+                encoder.setCallback(createCodecCallback(), handler)
+
+                lastBitrate = bitRate
+                currentState = State.PREPARED
+            }
+        }.onFailure { cause ->
+            stopInternal(force = true, logTag = "prepareCleanup")
+            onError(cause)
+        }
+    }
+
+    private fun createEncoder(width: Int, height: Int, fps: Int, bitRate: Int): MediaCodec {
+        // H.265, H.264, AV1
+        val format = MediaFormat.createVideoFormat(codecInfo.codec.mimeType, width, height).apply {
+            setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface)
+            setInteger(MediaFormat.KEY_FRAME_RATE, fps)
+            setInteger(MediaFormat.KEY_BIT_RATE, bitRate)
+            setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, keyFrameIntervalSec)
+            setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, 0)
+            setInteger(MediaFormat.KEY_PRIORITY, 1)
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                setInteger(MediaFormat.KEY_MAX_B_FRAMES, 0)
+            }
+
+            if (codecInfo.isCBRModeSupported) {
+                setInteger(MediaFormat.KEY_BITRATE_MODE, MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR)
+            } else {
+                setInteger(MediaFormat.KEY_BITRATE_MODE, MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR)
+            }
+        }
+
+        return MediaCodec.createByCodecName(codecInfo.name).apply {
+            configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE)
+        }
+    }
+
     internal fun start(): Unit = synchronized(encoderLock) {
         XLog.v(getLog("start"))
         if (currentState != State.PREPARED) {
@@ -147,8 +211,10 @@ internal class VideoEncoder(
             isCodecConfigSent = false
             lastBitrate = null
 
-            StopSnapshot(eglRenderer, videoEncoder, handler, handlerThread).also {
+            StopSnapshot(eglRenderer, sourceRenderer, inputSurface, videoEncoder, handler, handlerThread).also {
                 eglRenderer = null
+                sourceRenderer = null
+                inputSurface = null
                 videoEncoder = null
                 handler = null
                 handlerThread = null
@@ -156,6 +222,7 @@ internal class VideoEncoder(
         } ?: return false
 
         snapshot.eglRenderer?.stop()
+        snapshot.inputSurface?.let { surface -> snapshot.sourceRenderer?.removeOutput(surface) }
 
         snapshot.videoEncoder?.runCatching {
             stop()
@@ -164,6 +231,10 @@ internal class VideoEncoder(
             XLog.w(this@VideoEncoder.getLog(logTag, "mediaCodec.stop() exception: ${it.message}"), it)
         }
 
+        snapshot.inputSurface?.runCatching { release() }?.onFailure {
+            XLog.w(this@VideoEncoder.getLog(logTag, "Failed to release input surface."), it)
+        }
+
         snapshot.handler?.removeCallbacksAndMessages(null)
 
         snapshot.handlerThread?.apply {
@@ -0,0 +1,116 @@
+package info.dvkr.screenstream.rtsp.internal.video
+
+import info.dvkr.screenstream.rtsp.settings.RtspSettings
+import kotlin.math.min
+import kotlin.math.roundToInt
+
+/**
+ * Crop, rotation, flip and letterbox scaling applied by [EglRenderer] while drawing a captured frame into the encoder surface.
+ * Crop values are the fractions of the captured image cut off on each side, rotation is clockwise.
+ * With [outputWidth] and [outputHeight] set the result is scaled to fit that size, keeping its aspect ratio.
+ */
+internal data class VideoTransform(
+    val cropLeft: Float = 0F,
+    val cropTop: Float = 0F,
+    val cropRight: Float = 0F,
+    val cropBottom: Float = 0F,
+    val rotation: Int = RtspSettings.Values.ROTATION_0,
+    val flip: Int = RtspSettings.Values.FLIP_NONE,
+    val outputWidth: Int = 0,
+    val outputHeight: Int = 0
+) {
+    private val isRotated: Boolean
+        get() = rotation == RtspSettings.Values.ROTATION_90 || rotation == RtspSettings.Values.ROTATION_270
+
+    internal val hasFixedOutput: Boolean
+        get() = outputWidth > 0 && outputHeight > 0
+
+    // Cropped and rotated size of a [sourceWidth] x [sourceHeight] capture, before scaling
+    internal fun contentSize(sourceWidth: Int, sourceHeight: Int): Pair<Int, Int> {
+        val width = (sourceWidth * (1F - cropLeft - cropRight)).roundToInt().coerceAtLeast(2)
+        val height = (sourceHeight * (1F - cropTop - cropBottom)).roundToInt().coerceAtLeast(2)
+        return if (isRotated) height to width else width to height
+    }
+
+    // Encoder frame size to ask for, codec alignment is applied by the caller
+    internal fun targetSize(sourceWidth: Int, sourceHeight: Int): Pair<Int, Int> =
+        if (hasFixedOutput) outputWidth to outputHeight else contentSize(sourceWidth, sourceHeight)
+
+    /**
+     * Area of a [width] x [height] encoder frame the content is drawn into as x, y, width, height.
+     * Without a fixed output size the content fills the frame, codec alignment may stretch it by a few pixels.
+     */
+    internal fun viewport(sourceWidth: Int, sourceHeight: Int, width: Int, height: Int): IntArray {
+        if (!hasFixedOutput) return intArrayOf(0, 0, width, height)
+        val (contentWidth, contentHeight) = contentSize(sourceWidth, sourceHeight)
+        val scale = min(width.toFloat() / contentWidth, height.toFloat() / contentHeight)
+        val viewportWidth = (contentWidth * scale).roundToInt().coerceIn(1, width)
+        val viewportHeight = (contentHeight * scale).roundToInt().coerceIn(1, height)
+        return intArrayOf((width - viewportWidth) / 2, (height - viewportHeight) / 2, viewportWidth, viewportHeight)
+    }
+
+    /**
+     * Column major 4x4 matrix taking the texture coordinates of the drawn quad to the ones to sample the captured frame at,
+     * to be applied before the [android.graphics.SurfaceTexture] transform.
+     * Quad texture coordinates have (0, 1) at the top left corner of the output, the same as the captured frame.
+     */
+    internal fun textureMatrix(): FloatArray {
+        val (x0, y0) = sourcePoint(0F, 0F)
+        val (x1, y1) = sourcePoint(1F, 0F)
+        val (x2, y2) = sourcePoint(0F, 1F)
+        return FloatArray(16).apply {
+            this[0] = x1 - x0; this[1] = y1 - y0
+            this[4] = x2 - x0; this[5] = y2 - y0
+            this[10] = 1F
+            this[12] = x0; this[13] = y0
+            this[15] = 1F
+        }
+    }
+
+    // Texture coordinate [u], [v] of the output to the captured frame one, walking the transform back
+    private fun sourcePoint(u: Float, v: Float): Pair<Float, Float> {
+        var x = u
+        var y = 1F - v
+        when (flip) {
+            RtspSettings.Values.FLIP_HORIZONTAL -> x = 1F - x
+            RtspSettings.Values.FLIP_VERTICAL -> y = 1F - y
+        }
+        val (rotatedX, rotatedY) = when (rotation) {
+            RtspSettings.Values.ROTATION_90 -> y to 1F - x
+            RtspSettings.Values.ROTATION_180 -> 1F - x to 1F - y
+            RtspSettings.Values.ROTATION_270 -> 1F - y to x
+            else -> x to y
+        }
+        val sourceX = cropLeft + rotatedX * (1F - cropLeft - cropRight)
+        val sourceY = cropTop + rotatedY * (1F - cropTop - cropBottom)
+        return sourceX to 1F - sourceY
+    }
+
+    internal companion object {
+        // Crop margins are set in pixels of the [screenWidth] x [screenHeight] screen, at least 10% of each side is kept
+        internal fun from(settings: RtspSettings.Data, screenWidth: Int, screenHeight: Int): VideoTransform {
+            var left = 0F
+            var top = 0F
+            var right = 0F
+            var bottom = 0F
+            if (settings.videoCrop && screenWidth > 0 && screenHeight > 0) {
+                left = settings.videoCropLeft.toFloat() / screenWidth
+                right = settings.videoCropRight.toFloat() / screenWidth
+                top = settings.videoCropTop.toFloat() / screenHeight
+                bottom = settings.videoCropBottom.toFloat() / screenHeight
+                if (left + right > 0.9F) { left = 0F; right = 0F }
+                if (top + bottom > 0.9F) { top = 0F; bottom = 0F }
+            }
+            return VideoTransform(
+                cropLeft = left.coerceIn(0F, 0.9F),
+                cropTop = top.coerceIn(0F, 0.9F),
+                cropRight = right.coerceIn(0F, 0.9F),
+                cropBottom = bottom.coerceIn(0F, 0.9F),
+                rotation = settings.videoRotation,
+                flip = settings.videoFlip,
+                outputWidth = settings.videoOutputWidth,
+                outputHeight = settings.videoOutputHeight
+            )
+        }
+    }
+}
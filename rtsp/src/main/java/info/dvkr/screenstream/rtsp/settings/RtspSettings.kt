@@ -19,6 +19,10 @@ public interface RtspSettings {
         public val SERVER_ADDRESS: Preferences.Key<String> = stringPreferencesKey("SERVER_ADDRESS")
         public val CLIENT_PROTOCOL: Preferences.Key<String> = stringPreferencesKey("CLIENT_PROTOCOL")
         public val SERVER_PROTOCOL: Preferences.Key<String> = stringPreferencesKey("SERVER_PROTOCOL")
+        public val UDP_PACKET_SIZE: Preferences.Key<Int> = intPreferencesKey("UDP_PACKET_SIZE")
+        public val TCP_PACKET_SIZE: Preferences.Key<Int> = intPreferencesKey("TCP_PACKET_SIZE")
+        public val CLIENT_PACING_BURST_KB: Preferences.Key<Int> = intPreferencesKey("CLIENT_PACING_BURST_KB")
+        public val CLIENT_RECONNECT_ATTEMPTS: Preferences.Key<Int> = intPreferencesKey("CLIENT_RECONNECT_ATTEMPTS")
         public val MODE: Preferences.Key<String> = stringPreferencesKey("MODE")
 
         public val VIDEO_CODEC_AUTO_SELECT: Preferences.Key<Boolean> = booleanPreferencesKey("VIDEO_CODEC_AUTO_SELECT")
@@ -26,6 +30,22 @@ public interface RtspSettings {
         public val VIDEO_RESIZE_FACTOR: Preferences.Key<Float> = floatPreferencesKey("VIDEO_RESIZE_FACTOR")
         public val VIDEO_FPS: Preferences.Key<Int> = intPreferencesKey("VIDEO_FPS")
         public val VIDEO_BITRATE: Preferences.Key<Int> = intPreferencesKey("VIDEO_BITRATE")
+        public val VIDEO_ADAPTIVE_BITRATE: Preferences.Key<Boolean> = booleanPreferencesKey("VIDEO_ADAPTIVE_BITRATE")
+        public val VIDEO_MIN_BITRATE: Preferences.Key<Int> = intPreferencesKey("VIDEO_MIN_BITRATE")
+        public val VIDEO_RENDER_ON_CHANGE: Preferences.Key<Boolean> = booleanPreferencesKey("VIDEO_RENDER_ON_CHANGE")
+        public val VIDEO_IDLE_REFRESH_MS: Preferences.Key<Int> = intPreferencesKey("VIDEO_IDLE_REFRESH_MS")
+        public val VIDEO_CROP: Preferences.Key<Boolean> = booleanPreferencesKey("VIDEO_CROP")
+        public val VIDEO_CROP_LEFT: Preferences.Key<Int> = intPreferencesKey("VIDEO_CROP_LEFT")
+        public val VIDEO_CROP_TOP: Preferences.Key<Int> = intPreferencesKey("VIDEO_CROP_TOP")
+        public val VIDEO_CROP_RIGHT: Preferences.Key<Int> = intPreferencesKey("VIDEO_CROP_RIGHT")
+        public val VIDEO_CROP_BOTTOM: Preferences.Key<Int> = intPreferencesKey("VIDEO_CROP_BOTTOM")
+        public val VIDEO_ROTATION: Preferences.Key<Int> = intPreferencesKey("VIDEO_ROTATION")
+        public val VIDEO_FLIP: Preferences.Key<Int> = intPreferencesKey("VIDEO_FLIP")
+        public val VIDEO_OUTPUT_WIDTH: Preferences.Key<Int> = intPreferencesKey("VIDEO_OUTPUT_WIDTH")
+        public val VIDEO_OUTPUT_HEIGHT: Preferences.Key<Int> = intPreferencesKey("VIDEO_OUTPUT_HEIGHT")
+        public val VIDEO_SUBSTREAM: Preferences.Key<Boolean> = booleanPreferencesKey("VIDEO_SUBSTREAM")
+        public val VIDEO_SUBSTREAM_HEIGHT: Preferences.Key<Int> = intPreferencesKey("VIDEO_SUBSTREAM_HEIGHT")
+        public val VIDEO_SUBSTREAM_BITRATE: Preferences.Key<Int> = intPreferencesKey("VIDEO_SUBSTREAM_BITRATE")
 
         public val AUDIO_CODEC_AUTO_SELECT: Preferences.Key<Boolean> = booleanPreferencesKey("AUDIO_CODEC_AUTO_SELECT")
         public val AUDIO_CODEC: Preferences.Key<String> = stringPreferencesKey("AUDIO_CODEC")
@@ -59,6 +79,10 @@ public interface RtspSettings {
         public const val SERVER_ADDRESS: String = "rtsp://"
         public val CLIENT_PROTOCOL: Values.ProtocolPolicy = Values.ProtocolPolicy.AUTO
         public val SERVER_PROTOCOL: Values.ProtocolPolicy = Values.ProtocolPolicy.AUTO
+        public const val UDP_PACKET_SIZE: Int = 1400
+        public const val TCP_PACKET_SIZE: Int = 8192
+        public const val CLIENT_PACING_BURST_KB: Int = 16
+        public const val CLIENT_RECONNECT_ATTEMPTS: Int = 5
         public val MODE: Values.Mode = Values.Mode.SERVER
 
         public const val VIDEO_CODEC_AUTO_SELECT: Boolean = true
@@ -66,6 +90,22 @@ public interface RtspSettings {
         public const val VIDEO_RESIZE_FACTOR: Float = 50F
         public const val VIDEO_FPS: Int = 30
         public const val VIDEO_BITRATE: Int = 4500 * 1000
+        public const val VIDEO_ADAPTIVE_BITRATE: Boolean = true
+        public const val VIDEO_MIN_BITRATE: Int = 500 * 1000
+        public const val VIDEO_RENDER_ON_CHANGE: Boolean = true
+        public const val VIDEO_IDLE_REFRESH_MS: Int = 1000
+        public const val VIDEO_CROP: Boolean = false
+        public const val VIDEO_CROP_LEFT: Int = 0
+        public const val VIDEO_CROP_TOP: Int = 0
+        public const val VIDEO_CROP_RIGHT: Int = 0
+        public const val VIDEO_CROP_BOTTOM: Int = 0
+        public const val VIDEO_ROTATION: Int = Values.ROTATION_0
+        public const val VIDEO_FLIP: Int = Values.FLIP_NONE
+        public const val VIDEO_OUTPUT_WIDTH: Int = 0
+        public const val VIDEO_OUTPUT_HEIGHT: Int = 0
+        public const val VIDEO_SUBSTREAM: Boolean = false
+        public const val VIDEO_SUBSTREAM_HEIGHT: Int = 480
+        public const val VIDEO_SUBSTREAM_BITRATE: Int = 800 * 1000
 
         public const val AUDIO_CODEC_AUTO_SELECT: Boolean = true
         public const val AUDIO_CODEC: String = ""
@@ -94,6 +134,29 @@ public interface RtspSettings {
         public enum class Mode { SERVER, CLIENT }
         public enum class ProtocolPolicy { AUTO, TCP, UDP }
 
+        // Maximum RTP packet size, RTP header included. UDP up to jumbo frames, TCP up to the interleaved frame limit
+        public val UDP_PACKET_SIZE_RANGE: IntRange = 512..9000
+        public val TCP_PACKET_SIZE_RANGE: IntRange = 512..65535
+        public val CLIENT_PACING_BURST_KB_RANGE: IntRange = 0..256
+        public val CLIENT_RECONNECT_ATTEMPTS_RANGE: IntRange = 0..20
+
+        // How often an unchanged screen is sent again when rendering on change only
+        public val VIDEO_IDLE_REFRESH_MS_RANGE: IntRange = 250..5000
+
+        public const val ROTATION_0: Int = 0
+        public const val ROTATION_90: Int = 90
+        public const val ROTATION_180: Int = 180
+        public const val ROTATION_270: Int = 270
+        public const val FLIP_NONE: Int = 0
+        public const val FLIP_HORIZONTAL: Int = 1
+        public const val FLIP_VERTICAL: Int = 2
+
+        // Fixed encoder output size, 0 for both keeps the cropped capture size
+        public val VIDEO_OUTPUT_SIZE_RANGE: IntRange = 128..4096
+
+        // Server mode substream height, never above the main stream one
+        public val VIDEO_SUBSTREAM_HEIGHT_RANGE: IntRange = 144..1080
+
         @IntDef(flag = true, value = [INTERFACE_WIFI, INTERFACE_MOBILE, INTERFACE_ETHERNET, INTERFACE_VPN])
         @Retention(AnnotationRetention.SOURCE)
         public annotation class InterfaceMask
@@ -123,6 +186,10 @@ public interface RtspSettings {
         public val serverAddress: String = Default.SERVER_ADDRESS,
         public val clientProtocol: Values.ProtocolPolicy = Default.CLIENT_PROTOCOL,
         public val serverProtocol: Values.ProtocolPolicy = Default.SERVER_PROTOCOL,
+        public val udpPacketSize: Int = Default.UDP_PACKET_SIZE,
+        public val tcpPacketSize: Int = Default.TCP_PACKET_SIZE,
+        public val clientPacingBurstKb: Int = Default.CLIENT_PACING_BURST_KB,
+        public val clientReconnectAttempts: Int = Default.CLIENT_RECONNECT_ATTEMPTS,
         public val mode: Values.Mode = Default.MODE,
 
         public val videoCodecAutoSelect: Boolean = Default.VIDEO_CODEC_AUTO_SELECT,
@@ -130,6 +197,22 @@ public interface RtspSettings {
         public val videoResizeFactor: Float = Default.VIDEO_RESIZE_FACTOR,
         public val videoFps: Int = Default.VIDEO_FPS,
         public val videoBitrateBits: Int = Default.VIDEO_BITRATE,
+        public val videoAdaptiveBitrate: Boolean = Default.VIDEO_ADAPTIVE_BITRATE,
+        public val videoMinBitrateBits: Int = Default.VIDEO_MIN_BITRATE,
+        public val videoRenderOnChange: Boolean = Default.VIDEO_RENDER_ON_CHANGE,
+        public val videoIdleRefreshMs: Int = Default.VIDEO_IDLE_REFRESH_MS,
+        public val videoCrop: Boolean = Default.VIDEO_CROP,
+        public val videoCropLeft: Int = Default.VIDEO_CROP_LEFT,
+        public val videoCropTop: Int = Default.VIDEO_CROP_TOP,
+        public val videoCropRight: Int = Default.VIDEO_CROP_RIGHT,
+        public val videoCropBottom: Int = Default.VIDEO_CROP_BOTTOM,
+        public val videoRotation: Int = Default.VIDEO_ROTATION,
+        public val videoFlip: Int = Default.VIDEO_FLIP,
+        public val videoOutputWidth: Int = Default.VIDEO_OUTPUT_WIDTH,
+        public val videoOutputHeight: Int = Default.VIDEO_OUTPUT_HEIGHT,
+        public val videoSubstream: Boolean = Default.VIDEO_SUBSTREAM,
+        public val videoSubstreamHeight: Int = Default.VIDEO_SUBSTREAM_HEIGHT,
+        public val videoSubstreamBitrateBits: Int = Default.VIDEO_SUBSTREAM_BITRATE,
 
         public val audioCodecAutoSelect: Boolean = Default.AUDIO_CODEC_AUTO_SELECT,
         public val audioCodec: String = Default.AUDIO_CODEC,
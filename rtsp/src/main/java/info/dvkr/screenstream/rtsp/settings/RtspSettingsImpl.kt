@@ -82,6 +82,18 @@ internal class RtspSettingsImpl(
                 if (newSettings.serverProtocol != RtspSettings.Default.SERVER_PROTOCOL)
                     set(RtspSettings.Key.SERVER_PROTOCOL, newSettings.serverProtocol.name)
 
+                if (newSettings.udpPacketSize != RtspSettings.Default.UDP_PACKET_SIZE)
+                    set(RtspSettings.Key.UDP_PACKET_SIZE, newSettings.udpPacketSize)
+
+                if (newSettings.tcpPacketSize != RtspSettings.Default.TCP_PACKET_SIZE)
+                    set(RtspSettings.Key.TCP_PACKET_SIZE, newSettings.tcpPacketSize)
+
+                if (newSettings.clientPacingBurstKb != RtspSettings.Default.CLIENT_PACING_BURST_KB)
+                    set(RtspSettings.Key.CLIENT_PACING_BURST_KB, newSettings.clientPacingBurstKb)
+
+                if (newSettings.clientReconnectAttempts != RtspSettings.Default.CLIENT_RECONNECT_ATTEMPTS)
+                    set(RtspSettings.Key.CLIENT_RECONNECT_ATTEMPTS, newSettings.clientReconnectAttempts)
+
                 if (newSettings.mode != RtspSettings.Default.MODE)
                     set(RtspSettings.Key.MODE, newSettings.mode.name)
 
@@ -101,6 +113,54 @@ internal class RtspSettingsImpl(
                 if (newSettings.videoBitrateBits != RtspSettings.Default.VIDEO_BITRATE)
                     set(RtspSettings.Key.VIDEO_BITRATE, newSettings.videoBitrateBits)
 
+                if (newSettings.videoAdaptiveBitrate != RtspSettings.Default.VIDEO_ADAPTIVE_BITRATE)
+                    set(RtspSettings.Key.VIDEO_ADAPTIVE_BITRATE, newSettings.videoAdaptiveBitrate)
+
+                if (newSettings.videoMinBitrateBits != RtspSettings.Default.VIDEO_MIN_BITRATE)
+                    set(RtspSettings.Key.VIDEO_MIN_BITRATE, newSettings.videoMinBitrateBits)
+
+                if (newSettings.videoRenderOnChange != RtspSettings.Default.VIDEO_RENDER_ON_CHANGE)
+                    set(RtspSettings.Key.VIDEO_RENDER_ON_CHANGE, newSettings.videoRenderOnChange)
+
+                if (newSettings.videoIdleRefreshMs != RtspSettings.Default.VIDEO_IDLE_REFRESH_MS)
+                    set(RtspSettings.Key.VIDEO_IDLE_REFRESH_MS, newSettings.videoIdleRefreshMs.coerceIn(RtspSettings.Values.VIDEO_IDLE_REFRESH_MS_RANGE))
+
+                if (newSettings.videoCrop != RtspSettings.Default.VIDEO_CROP)
+                    set(RtspSettings.Key.VIDEO_CROP, newSettings.videoCrop)
+
+                if (newSettings.videoCropLeft != RtspSettings.Default.VIDEO_CROP_LEFT)
+                    set(RtspSettings.Key.VIDEO_CROP_LEFT, newSettings.videoCropLeft)
+
+                if (newSettings.videoCropTop != RtspSettings.Default.VIDEO_CROP_TOP)
+                    set(RtspSettings.Key.VIDEO_CROP_TOP, newSettings.videoCropTop)
+
+                if (newSettings.videoCropRight != RtspSettings.Default.VIDEO_CROP_RIGHT)
+                    set(RtspSettings.Key.VIDEO_CROP_RIGHT, newSettings.videoCropRight)
+
+                if (newSettings.videoCropBottom != RtspSettings.Default.VIDEO_CROP_BOTTOM)
+                    set(RtspSettings.Key.VIDEO_CROP_BOTTOM, newSettings.videoCropBottom)
+
+                if (newSettings.videoRotation != RtspSettings.Default.VIDEO_ROTATION)
+                    set(RtspSettings.Key.VIDEO_ROTATION, newSettings.videoRotation)
+
+                if (newSettings.videoFlip != RtspSettings.Default.VIDEO_FLIP)
+                    set(RtspSettings.Key.VIDEO_FLIP, newSettings.videoFlip)
+
+                if (newSettings.videoOutputWidth != RtspSettings.Default.VIDEO_OUTPUT_WIDTH)
+                    set(RtspSettings.Key.VIDEO_OUTPUT_WIDTH, newSettings.videoOutputWidth)
+
+                if (newSettings.videoOutputHeight != RtspSettings.Default.VIDEO_OUTPUT_HEIGHT)
+                    set(RtspSettings.Key.VIDEO_OUTPUT_HEIGHT, newSettings.videoOutputHeight)
+
+                if (newSettings.videoSubstream != RtspSettings.Default.VIDEO_SUBSTREAM)
+                    set(RtspSettings.Key.VIDEO_SUBSTREAM, newSettings.videoSubstream)
+
+                if (newSettings.videoSubstreamHeight != RtspSettings.Default.VIDEO_SUBSTREAM_HEIGHT)
+                    set(RtspSettings.Key.VIDEO_SUBSTREAM_HEIGHT, newSettings.videoSubstreamHeight)
+
+                if (newSettings.videoSubstreamBitrateBits != RtspSettings.Default.VIDEO_SUBSTREAM_BITRATE)
+                    set(RtspSettings.Key.VIDEO_SUBSTREAM_BITRATE, newSettings.videoSubstreamBitrateBits)
+
 
                 if (newSettings.audioCodecAutoSelect != RtspSettings.Default.AUDIO_CODEC_AUTO_SELECT)
                     set(RtspSettings.Key.AUDIO_CODEC_AUTO_SELECT, newSettings.audioCodecAutoSelect)
@@ -178,6 +238,14 @@ internal class RtspSettingsImpl(
         serverProtocol = runCatching {
             this[RtspSettings.Key.SERVER_PROTOCOL]?.uppercase()?.let { RtspSettings.Values.ProtocolPolicy.valueOf(it) }
         }.getOrNull() ?: RtspSettings.Default.SERVER_PROTOCOL,
+        udpPacketSize = (this[RtspSettings.Key.UDP_PACKET_SIZE] ?: RtspSettings.Default.UDP_PACKET_SIZE)
+            .coerceIn(RtspSettings.Values.UDP_PACKET_SIZE_RANGE),
+        tcpPacketSize = (this[RtspSettings.Key.TCP_PACKET_SIZE] ?: RtspSettings.Default.TCP_PACKET_SIZE)
+            .coerceIn(RtspSettings.Values.TCP_PACKET_SIZE_RANGE),
+        clientPacingBurstKb = (this[RtspSettings.Key.CLIENT_PACING_BURST_KB] ?: RtspSettings.Default.CLIENT_PACING_BURST_KB)
+            .coerceIn(RtspSettings.Values.CLIENT_PACING_BURST_KB_RANGE),
+        clientReconnectAttempts = (this[RtspSettings.Key.CLIENT_RECONNECT_ATTEMPTS] ?: RtspSettings.Default.CLIENT_RECONNECT_ATTEMPTS)
+            .coerceIn(RtspSettings.Values.CLIENT_RECONNECT_ATTEMPTS_RANGE),
         mode = runCatching {
             this[RtspSettings.Key.MODE]?.let { name -> RtspSettings.Values.Mode.valueOf(name) }
         }.getOrNull() ?: RtspSettings.Default.MODE,
@@ -187,6 +255,23 @@ internal class RtspSettingsImpl(
         videoResizeFactor = this[RtspSettings.Key.VIDEO_RESIZE_FACTOR] ?: RtspSettings.Default.VIDEO_RESIZE_FACTOR,
         videoFps = this[RtspSettings.Key.VIDEO_FPS] ?: RtspSettings.Default.VIDEO_FPS,
         videoBitrateBits = this[RtspSettings.Key.VIDEO_BITRATE] ?: RtspSettings.Default.VIDEO_BITRATE,
+        videoAdaptiveBitrate = this[RtspSettings.Key.VIDEO_ADAPTIVE_BITRATE] ?: RtspSettings.Default.VIDEO_ADAPTIVE_BITRATE,
+        videoMinBitrateBits = this[RtspSettings.Key.VIDEO_MIN_BITRATE] ?: RtspSettings.Default.VIDEO_MIN_BITRATE,
+        videoRenderOnChange = this[RtspSettings.Key.VIDEO_RENDER_ON_CHANGE] ?: RtspSettings.Default.VIDEO_RENDER_ON_CHANGE,
+        videoIdleRefreshMs = (this[RtspSettings.Key.VIDEO_IDLE_REFRESH_MS] ?: RtspSettings.Default.VIDEO_IDLE_REFRESH_MS)
+            .coerceIn(RtspSettings.Values.VIDEO_IDLE_REFRESH_MS_RANGE),
+        videoCrop = this[RtspSettings.Key.VIDEO_CROP] ?: RtspSettings.Default.VIDEO_CROP,
+        videoCropLeft = this[RtspSettings.Key.VIDEO_CROP_LEFT] ?: RtspSettings.Default.VIDEO_CROP_LEFT,
+        videoCropTop = this[RtspSettings.Key.VIDEO_CROP_TOP] ?: RtspSettings.Default.VIDEO_CROP_TOP,
+        videoCropRight = this[RtspSettings.Key.VIDEO_CROP_RIGHT] ?: RtspSettings.Default.VIDEO_CROP_RIGHT,
+        videoCropBottom = this[RtspSettings.Key.VIDEO_CROP_BOTTOM] ?: RtspSettings.Default.VIDEO_CROP_BOTTOM,
+        videoRotation = this[RtspSettings.Key.VIDEO_ROTATION] ?: RtspSettings.Default.VIDEO_ROTATION,
+        videoFlip = this[RtspSettings.Key.VIDEO_FLIP] ?: RtspSettings.Default.VIDEO_FLIP,
+        videoOutputWidth = this[RtspSettings.Key.VIDEO_OUTPUT_WIDTH] ?: RtspSettings.Default.VIDEO_OUTPUT_WIDTH,
+        videoOutputHeight = this[RtspSettings.Key.VIDEO_OUTPUT_HEIGHT] ?: RtspSettings.Default.VIDEO_OUTPUT_HEIGHT,
+        videoSubstream = this[RtspSettings.Key.VIDEO_SUBSTREAM] ?: RtspSettings.Default.VIDEO_SUBSTREAM,
+        videoSubstreamHeight = this[RtspSettings.Key.VIDEO_SUBSTREAM_HEIGHT] ?: RtspSettings.Default.VIDEO_SUBSTREAM_HEIGHT,
+        videoSubstreamBitrateBits = this[RtspSettings.Key.VIDEO_SUBSTREAM_BITRATE] ?: RtspSettings.Default.VIDEO_SUBSTREAM_BITRATE,
 
         audioCodecAutoSelect = this[RtspSettings.Key.AUDIO_CODEC_AUTO_SELECT] ?: RtspSettings.Default.AUDIO_CODEC_AUTO_SELECT,
         audioCodec = this[RtspSettings.Key.AUDIO_CODEC] ?: RtspSettings.Default.AUDIO_CODEC,
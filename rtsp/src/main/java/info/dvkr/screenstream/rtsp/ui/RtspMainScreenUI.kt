@@ -154,6 +154,7 @@ internal fun RtspMainScreenUI(
                     isStreaming = state.isStreaming,
                     serverBindings = state.serverBindings,
                     clientStatus = state.clientStatus,
+                    clientSendStats = state.clientSendStats,
                     error = state.error,
                     modifier = Modifier.padding(8.dp)
                 )
@@ -186,6 +187,7 @@ internal fun RtspMainScreenUI(
                     selectedVideoEncoder = state.selectedVideoEncoder,
                     settings = settings,
                     updateSettings = updateSettings,
+                    windowWidthSizeClass = windowWidthSizeClass,
                     modifier = Modifier.padding(8.dp)
                 )
             }
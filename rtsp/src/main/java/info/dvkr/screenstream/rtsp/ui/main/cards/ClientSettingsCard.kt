@@ -5,6 +5,7 @@ import androidx.compose.foundation.layout.Column
 import androidx.compose.foundation.layout.fillMaxWidth
 import androidx.compose.foundation.layout.padding
 import androidx.compose.foundation.text.KeyboardOptions
+import androidx.compose.material3.HorizontalDivider
 import androidx.compose.material3.MaterialTheme
 import androidx.compose.material3.OutlinedTextField
 import androidx.compose.material3.Text
@@ -23,6 +24,12 @@ import info.dvkr.screenstream.rtsp.internal.rtsp.RtspUrl
 import info.dvkr.screenstream.rtsp.settings.RtspSettings
 import info.dvkr.screenstream.rtsp.ui.main.settings.client.ClientProtocolEditor
 import info.dvkr.screenstream.rtsp.ui.main.settings.client.ClientProtocolRow
+import info.dvkr.screenstream.rtsp.ui.main.settings.client.PacingBurstEditor
+import info.dvkr.screenstream.rtsp.ui.main.settings.client.PacingBurstRow
+import info.dvkr.screenstream.rtsp.ui.main.settings.client.ReconnectAttemptsEditor
+import info.dvkr.screenstream.rtsp.ui.main.settings.client.ReconnectAttemptsRow
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.PacketSizeEditor
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.PacketSizeRow
 import info.dvkr.screenstream.rtsp.ui.main.settings.common.RtspSettingModal
 
 @Composable
@@ -78,6 +85,28 @@ internal fun ClientSettingsCard(
             protocol = settings.clientProtocol
         ) { selectedSheet.value = ClientSettingSheet.Protocol }
 
+        HorizontalDivider()
+
+        PacketSizeRow(
+            enabled = enabled,
+            udpPacketSize = settings.udpPacketSize,
+            tcpPacketSize = settings.tcpPacketSize
+        ) { selectedSheet.value = ClientSettingSheet.PacketSize }
+
+        HorizontalDivider()
+
+        PacingBurstRow(
+            enabled = enabled,
+            pacingBurstKb = settings.clientPacingBurstKb
+        ) { selectedSheet.value = ClientSettingSheet.PacingBurst }
+
+        HorizontalDivider()
+
+        ReconnectAttemptsRow(
+            enabled = enabled,
+            reconnectAttempts = settings.clientReconnectAttempts
+        ) { selectedSheet.value = ClientSettingSheet.ReconnectAttempts }
+
         selectedSheet.value?.let { sheet ->
             RtspSettingModal(
                 windowWidthSizeClass = windowWidthSizeClass,
@@ -91,7 +120,10 @@ internal fun ClientSettingsCard(
 }
 
 private enum class ClientSettingSheet(@get:StringRes val titleRes: Int) {
-    Protocol(R.string.rtsp_pref_protocol)
+    Protocol(R.string.rtsp_pref_protocol),
+    PacketSize(R.string.rtsp_pref_packet_size),
+    PacingBurst(R.string.rtsp_pref_pacing_burst),
+    ReconnectAttempts(R.string.rtsp_pref_reconnect_attempts)
 }
 
 @Composable
@@ -108,5 +140,38 @@ private fun ClientSettingSheet.Editor(
                 }
             }
         )
+
+        ClientSettingSheet.PacketSize -> PacketSizeEditor(
+            udpPacketSize = settings.udpPacketSize,
+            tcpPacketSize = settings.tcpPacketSize,
+            onUdpValueChange = { value ->
+                if (settings.udpPacketSize != value) {
+                    updateSettings { copy(udpPacketSize = value) }
+                }
+            },
+            onTcpValueChange = { value ->
+                if (settings.tcpPacketSize != value) {
+                    updateSettings { copy(tcpPacketSize = value) }
+                }
+            }
+        )
+
+        ClientSettingSheet.PacingBurst -> PacingBurstEditor(
+            pacingBurstKb = settings.clientPacingBurstKb,
+            onValueChange = { value ->
+                if (settings.clientPacingBurstKb != value) {
+                    updateSettings { copy(clientPacingBurstKb = value) }
+                }
+            }
+        )
+
+        ClientSettingSheet.ReconnectAttempts -> ReconnectAttemptsEditor(
+            reconnectAttempts = settings.clientReconnectAttempts,
+            onValueChange = { value ->
+                if (settings.clientReconnectAttempts != value) {
+                    updateSettings { copy(clientReconnectAttempts = value) }
+                }
+            }
+        )
     }
 }
@@ -29,6 +29,7 @@ import androidx.compose.ui.unit.dp
 import androidx.compose.ui.zIndex
 import info.dvkr.screenstream.rtsp.R
 import info.dvkr.screenstream.rtsp.internal.RtspEvent
+import info.dvkr.screenstream.rtsp.internal.rtsp.client.ClientSendStats
 import info.dvkr.screenstream.rtsp.settings.RtspSettings
 import info.dvkr.screenstream.rtsp.ui.RtspBinding
 import info.dvkr.screenstream.rtsp.ui.RtspClientStatus
@@ -44,6 +45,7 @@ internal fun ModeCard(
     isStreaming: Boolean,
     serverBindings: List<RtspBinding>,
     clientStatus: RtspClientStatus,
+    clientSendStats: ClientSendStats,
     error: RtspError?,
     modifier: Modifier = Modifier,
 ) {
@@ -84,6 +86,7 @@ internal fun ModeCard(
                     RtspSettings.Values.Mode.CLIENT -> ClientMode(
                         clientStatus = clientStatus,
                         error = error,
+                        sendStats = clientSendStats,
                         modifier = Modifier.padding(top = 16.dp)
                     )
                 }
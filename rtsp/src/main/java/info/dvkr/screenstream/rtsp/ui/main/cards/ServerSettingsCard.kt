@@ -19,6 +19,8 @@ import info.dvkr.screenstream.common.module.StreamingModule
 import info.dvkr.screenstream.common.ui.ExpandableCard
 import info.dvkr.screenstream.rtsp.R
 import info.dvkr.screenstream.rtsp.settings.RtspSettings
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.PacketSizeEditor
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.PacketSizeRow
 import info.dvkr.screenstream.rtsp.ui.main.settings.common.RtspSettingModal
 import info.dvkr.screenstream.rtsp.ui.main.settings.server.AddressFilterEditor
 import info.dvkr.screenstream.rtsp.ui.main.settings.server.AddressFilterRow
@@ -118,6 +120,14 @@ internal fun ServerSettingsCard(
 
         HorizontalDivider()
 
+        PacketSizeRow(
+            enabled = enabled,
+            udpPacketSize = settings.udpPacketSize,
+            tcpPacketSize = settings.tcpPacketSize
+        ) { selectedSheet = ServerSettingSheet.PacketSize }
+
+        HorizontalDivider()
+
         OnvifDiscoveryRow(
             enabled = enabled,
             onvifDiscoveryEnabled = settings.onvifDiscoveryEnabled
@@ -143,7 +153,8 @@ private enum class ServerSettingSheet(@get:StringRes val titleRes: Int) {
     Protocol(R.string.rtsp_pref_protocol),
     InterfaceFilter(R.string.rtsp_pref_interface_filter),
     AddressFilter(R.string.rtsp_pref_address_filter),
-    ServerPort(R.string.rtsp_pref_server_port)
+    ServerPort(R.string.rtsp_pref_server_port),
+    PacketSize(R.string.rtsp_pref_packet_size)
 }
 
 @Composable
@@ -187,5 +198,20 @@ private fun ServerSettingSheet.Editor(
                 }
             }
         )
+
+        ServerSettingSheet.PacketSize -> PacketSizeEditor(
+            udpPacketSize = settings.udpPacketSize,
+            tcpPacketSize = settings.tcpPacketSize,
+            onUdpValueChange = { value ->
+                if (settings.udpPacketSize != value) {
+                    updateSettings { copy(udpPacketSize = value) }
+                }
+            },
+            onTcpValueChange = { value ->
+                if (settings.tcpPacketSize != value) {
+                    updateSettings { copy(tcpPacketSize = value) }
+                }
+            }
+        )
     }
 }
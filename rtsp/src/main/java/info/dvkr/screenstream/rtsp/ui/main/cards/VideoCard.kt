@@ -1,5 +1,6 @@
 package info.dvkr.screenstream.rtsp.ui.main.cards
 
+import androidx.annotation.StringRes
 import androidx.compose.animation.core.Animatable
 import androidx.compose.animation.core.tween
 import androidx.compose.foundation.clickable
@@ -45,6 +46,7 @@ import androidx.compose.ui.res.stringResource
 import androidx.compose.ui.unit.IntSize
 import androidx.compose.ui.unit.dp
 import androidx.window.layout.WindowMetricsCalculator
+import info.dvkr.screenstream.common.module.StreamingModule
 import info.dvkr.screenstream.common.ui.ExpandableCard
 import info.dvkr.screenstream.common.ui.conditional
 import info.dvkr.screenstream.rtsp.R
@@ -55,6 +57,15 @@ import info.dvkr.screenstream.rtsp.internal.EncoderUtils.getFrameRates
 import info.dvkr.screenstream.rtsp.internal.VideoCodecInfo
 import info.dvkr.screenstream.rtsp.settings.RtspSettings
 import info.dvkr.screenstream.rtsp.ui.main.media.EncoderItem
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.RtspSettingModal
+import info.dvkr.screenstream.rtsp.ui.main.settings.video.CropEditor
+import info.dvkr.screenstream.rtsp.ui.main.settings.video.CropRow
+import info.dvkr.screenstream.rtsp.ui.main.settings.video.FlipEditor
+import info.dvkr.screenstream.rtsp.ui.main.settings.video.FlipRow
+import info.dvkr.screenstream.rtsp.ui.main.settings.video.OutputSizeEditor
+import info.dvkr.screenstream.rtsp.ui.main.settings.video.OutputSizeRow
+import info.dvkr.screenstream.rtsp.ui.main.settings.video.RotationEditor
+import info.dvkr.screenstream.rtsp.ui.main.settings.video.RotationRow
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlin.math.roundToInt
@@ -66,8 +77,10 @@ internal fun VideoCard(
     selectedVideoEncoder: VideoCodecInfo?,
     settings: RtspSettings.Data,
     updateSettings: (RtspSettings.Data.() -> RtspSettings.Data) -> Unit,
+    windowWidthSizeClass: StreamingModule.WindowWidthSizeClass,
     modifier: Modifier = Modifier,
 ) {
+    val selectedSheet = rememberSaveable { mutableStateOf<VideoSettingSheet?>(null) }
     val expanded = rememberSaveable { mutableStateOf(false) }
 
     ExpandableCard(
@@ -151,12 +164,187 @@ internal fun VideoCard(
         Bitrate(
             bitrateRangeKbits = bitrateRangeKbits,
             bitrateBits = settings.videoBitrateBits,
-            onValueChange = { updateSettings { copy(videoBitrateBits = it) } },
+            onValueChange = { updateSettings { copy(videoBitrateBits = it, videoMinBitrateBits = videoMinBitrateBits.coerceAtMost(it)) } },
             enabled = isStreaming.not(),
             modifier = Modifier
                 .padding(start = 16.dp, top = 16.dp, end = 16.dp, bottom = 8.dp)
                 .fillMaxWidth()
         )
+
+        AdaptiveBitrate(
+            adaptiveBitrate = settings.videoAdaptiveBitrate,
+            onValueChange = { updateSettings { copy(videoAdaptiveBitrate = videoAdaptiveBitrate.not()) } },
+            enabled = isStreaming.not(),
+            modifier = Modifier
+                .padding(top = 8.dp)
+                .fillMaxWidth()
+        )
+
+        if (settings.videoAdaptiveBitrate) {
+            Bitrate(
+                bitrateRangeKbits = bitrateRangeKbits,
+                bitrateBits = settings.videoMinBitrateBits,
+                onValueChange = { updateSettings { copy(videoMinBitrateBits = it, videoBitrateBits = videoBitrateBits.coerceAtLeast(it)) } },
+                enabled = isStreaming.not(),
+                titleId = R.string.rtsp_video_min_bitrate,
+                modifier = Modifier
+                    .padding(start = 16.dp, top = 8.dp, end = 16.dp, bottom = 8.dp)
+                    .fillMaxWidth()
+            )
+        }
+
+        RenderOnChange(
+            renderOnChange = settings.videoRenderOnChange,
+            onValueChange = { updateSettings { copy(videoRenderOnChange = videoRenderOnChange.not()) } },
+            enabled = isStreaming.not(),
+            modifier = Modifier
+                .padding(top = 8.dp)
+                .fillMaxWidth()
+        )
+
+        if (settings.videoRenderOnChange) {
+            IdleRefresh(
+                idleRefreshMs = settings.videoIdleRefreshMs,
+                onValueChange = { updateSettings { copy(videoIdleRefreshMs = it) } },
+                enabled = isStreaming.not(),
+                modifier = Modifier
+                    .padding(start = 16.dp, top = 8.dp, end = 16.dp, bottom = 8.dp)
+                    .fillMaxWidth()
+            )
+        }
+
+        HorizontalDivider()
+
+        CropRow(
+            enabled = isStreaming.not(),
+            crop = settings.videoCrop,
+            cropLeft = settings.videoCropLeft,
+            cropTop = settings.videoCropTop,
+            cropRight = settings.videoCropRight,
+            cropBottom = settings.videoCropBottom
+        ) { selectedSheet.value = VideoSettingSheet.Crop }
+
+        RotationRow(
+            enabled = isStreaming.not(),
+            rotation = settings.videoRotation
+        ) { selectedSheet.value = VideoSettingSheet.Rotation }
+
+        FlipRow(
+            enabled = isStreaming.not(),
+            flip = settings.videoFlip
+        ) { selectedSheet.value = VideoSettingSheet.Flip }
+
+        OutputSizeRow(
+            enabled = isStreaming.not(),
+            outputWidth = settings.videoOutputWidth,
+            outputHeight = settings.videoOutputHeight
+        ) { selectedSheet.value = VideoSettingSheet.OutputSize }
+
+        if (settings.mode == RtspSettings.Values.Mode.SERVER) {
+            HorizontalDivider()
+
+            Substream(
+                substream = settings.videoSubstream,
+                onValueChange = { updateSettings { copy(videoSubstream = videoSubstream.not()) } },
+                enabled = isStreaming.not(),
+                modifier = Modifier
+                    .padding(top = 8.dp)
+                    .fillMaxWidth()
+            )
+
+            if (settings.videoSubstream) {
+                SubstreamHeight(
+                    height = settings.videoSubstreamHeight,
+                    onValueChange = { updateSettings { copy(videoSubstreamHeight = it) } },
+                    enabled = isStreaming.not(),
+                    modifier = Modifier
+                        .padding(start = 16.dp, top = 8.dp, end = 16.dp, bottom = 8.dp)
+                        .fillMaxWidth()
+                )
+
+                Bitrate(
+                    bitrateRangeKbits = bitrateRangeKbits,
+                    bitrateBits = settings.videoSubstreamBitrateBits,
+                    onValueChange = { updateSettings { copy(videoSubstreamBitrateBits = it) } },
+                    enabled = isStreaming.not(),
+                    titleId = R.string.rtsp_video_substream_bitrate,
+                    modifier = Modifier
+                        .padding(start = 16.dp, top = 8.dp, end = 16.dp, bottom = 8.dp)
+                        .fillMaxWidth()
+                )
+            }
+        }
+
+        selectedSheet.value?.let { sheet ->
+            RtspSettingModal(
+                windowWidthSizeClass = windowWidthSizeClass,
+                title = stringResource(sheet.titleRes),
+                onDismissRequest = { selectedSheet.value = null }
+            ) {
+                sheet.Editor(settings = settings, updateSettings = updateSettings)
+            }
+        }
+    }
+}
+
+private enum class VideoSettingSheet(@get:StringRes val titleRes: Int) {
+    Crop(R.string.rtsp_video_crop),
+    Rotation(R.string.rtsp_video_rotation),
+    Flip(R.string.rtsp_video_flip),
+    OutputSize(R.string.rtsp_video_output_size)
+}
+
+@Composable
+private fun VideoSettingSheet.Editor(
+    settings: RtspSettings.Data,
+    updateSettings: (RtspSettings.Data.() -> RtspSettings.Data) -> Unit
+) {
+    when (this) {
+        VideoSettingSheet.Crop -> CropEditor(
+            crop = settings.videoCrop,
+            cropLeft = settings.videoCropLeft,
+            cropTop = settings.videoCropTop,
+            cropRight = settings.videoCropRight,
+            cropBottom = settings.videoCropBottom,
+            onCropChange = { value -> if (settings.videoCrop != value) updateSettings { copy(videoCrop = value) } },
+            onLeftChange = { value -> if (settings.videoCropLeft != value) updateSettings { copy(videoCropLeft = value) } },
+            onTopChange = { value -> if (settings.videoCropTop != value) updateSettings { copy(videoCropTop = value) } },
+            onRightChange = { value -> if (settings.videoCropRight != value) updateSettings { copy(videoCropRight = value) } },
+            onBottomChange = { value -> if (settings.videoCropBottom != value) updateSettings { copy(videoCropBottom = value) } }
+        )
+
+        VideoSettingSheet.Rotation -> RotationEditor(
+            rotation = settings.videoRotation,
+            onValueChange = { value ->
+                if (settings.videoRotation != value) {
+                    updateSettings { copy(videoRotation = value) }
+                }
+            }
+        )
+
+        VideoSettingSheet.Flip -> FlipEditor(
+            flip = settings.videoFlip,
+            onValueChange = { value ->
+                if (settings.videoFlip != value) {
+                    updateSettings { copy(videoFlip = value) }
+                }
+            }
+        )
+
+        VideoSettingSheet.OutputSize -> OutputSizeEditor(
+            outputWidth = settings.videoOutputWidth,
+            outputHeight = settings.videoOutputHeight,
+            onWidthChange = { value ->
+                if (settings.videoOutputWidth != value) {
+                    updateSettings { copy(videoOutputWidth = value) }
+                }
+            },
+            onHeightChange = { value ->
+                if (settings.videoOutputHeight != value) {
+                    updateSettings { copy(videoOutputHeight = value) }
+                }
+            }
+        )
     }
 }
 
@@ -344,6 +532,131 @@ private fun Fps(
     }
 }
 
+@Composable
+private fun AdaptiveBitrate(
+    adaptiveBitrate: Boolean,
+    onValueChange: (Boolean) -> Unit,
+    enabled: Boolean,
+    modifier: Modifier = Modifier
+) {
+    Row(
+        modifier = modifier
+            .conditional(enabled) { toggleable(value = adaptiveBitrate, onValueChange = onValueChange) }
+            .padding(start = 16.dp, top = 8.dp, end = 4.dp, bottom = 8.dp),
+        verticalAlignment = Alignment.CenterVertically
+    ) {
+        Column(modifier = Modifier.weight(1f)) {
+            Text(text = stringResource(R.string.rtsp_video_adaptive_bitrate))
+            Text(text = stringResource(R.string.rtsp_video_adaptive_bitrate_summary), style = MaterialTheme.typography.bodySmall)
+        }
+        Switch(checked = adaptiveBitrate, enabled = enabled, onCheckedChange = null, modifier = Modifier.scale(0.7F))
+    }
+}
+
+@Composable
+private fun RenderOnChange(
+    renderOnChange: Boolean,
+    onValueChange: (Boolean) -> Unit,
+    enabled: Boolean,
+    modifier: Modifier = Modifier
+) {
+    Row(
+        modifier = modifier
+            .conditional(enabled) { toggleable(value = renderOnChange, onValueChange = onValueChange) }
+            .padding(start = 16.dp, top = 8.dp, end = 4.dp, bottom = 8.dp),
+        verticalAlignment = Alignment.CenterVertically
+    ) {
+        Column(modifier = Modifier.weight(1f)) {
+            Text(text = stringResource(R.string.rtsp_video_render_on_change))
+            Text(text = stringResource(R.string.rtsp_video_render_on_change_summary), style = MaterialTheme.typography.bodySmall)
+        }
+        Switch(checked = renderOnChange, enabled = enabled, onCheckedChange = null, modifier = Modifier.scale(0.7F))
+    }
+}
+
+@Composable
+private fun IdleRefresh(
+    idleRefreshMs: Int,
+    onValueChange: (Int) -> Unit,
+    enabled: Boolean,
+    modifier: Modifier = Modifier,
+) {
+    Column(modifier = modifier) {
+        val range = RtspSettings.Values.VIDEO_IDLE_REFRESH_MS_RANGE
+        var sliderPosition by remember(idleRefreshMs) { mutableFloatStateOf(idleRefreshMs.coerceIn(range).toFloat()) }
+
+        Text(text = stringResource(R.string.rtsp_video_idle_refresh, sliderPosition.roundToInt()))
+
+        Row(modifier = Modifier.fillMaxWidth()) {
+            Text(text = range.first.toString(), modifier = Modifier.align(Alignment.CenterVertically))
+            Slider(
+                value = sliderPosition,
+                onValueChange = { sliderPosition = it },
+                modifier = Modifier
+                    .padding(horizontal = 8.dp)
+                    .weight(1f)
+                    .align(Alignment.CenterVertically),
+                enabled = enabled,
+                valueRange = range.first.toFloat()..range.last.toFloat(),
+                onValueChangeFinished = { onValueChange.invoke(sliderPosition.roundToInt()) }
+            )
+            Text(text = range.last.toString(), modifier = Modifier.align(Alignment.CenterVertically))
+        }
+    }
+}
+
+@Composable
+private fun Substream(
+    substream: Boolean,
+    onValueChange: (Boolean) -> Unit,
+    enabled: Boolean,
+    modifier: Modifier = Modifier
+) {
+    Row(
+        modifier = modifier
+            .conditional(enabled) { toggleable(value = substream, onValueChange = onValueChange) }
+            .padding(start = 16.dp, top = 8.dp, end = 4.dp, bottom = 8.dp),
+        verticalAlignment = Alignment.CenterVertically
+    ) {
+        Column(modifier = Modifier.weight(1f)) {
+            Text(text = stringResource(R.string.rtsp_video_substream))
+            Text(text = stringResource(R.string.rtsp_video_substream_summary), style = MaterialTheme.typography.bodySmall)
+        }
+        Switch(checked = substream, enabled = enabled, onCheckedChange = null, modifier = Modifier.scale(0.7F))
+    }
+}
+
+@Composable
+private fun SubstreamHeight(
+    height: Int,
+    onValueChange: (Int) -> Unit,
+    enabled: Boolean,
+    modifier: Modifier = Modifier,
+) {
+    Column(modifier = modifier) {
+        val range = RtspSettings.Values.VIDEO_SUBSTREAM_HEIGHT_RANGE
+        var sliderPosition by remember(height) { mutableFloatStateOf(height.coerceIn(range).toFloat()) }
+
+        Text(text = stringResource(R.string.rtsp_video_substream_height, sliderPosition.roundToInt()))
+
+        Row(modifier = Modifier.fillMaxWidth()) {
+            Text(text = range.first.toString(), modifier = Modifier.align(Alignment.CenterVertically))
+            Slider(
+                value = sliderPosition,
+                onValueChange = { sliderPosition = it },
+                modifier = Modifier
+                    .padding(horizontal = 8.dp)
+                    .weight(1f)
+                    .align(Alignment.CenterVertically),
+                enabled = enabled,
+                valueRange = range.first.toFloat()..range.last.toFloat(),
+                onValueChangeFinished = { onValueChange.invoke(sliderPosition.roundToInt()) }
+            )
+            Text(text = range.last.toString(), modifier = Modifier.align(Alignment.CenterVertically))
+        }
+    }
+}
+
 @Composable
 private fun Bitrate(
     bitrateRangeKbits: ClosedRange<Int>,
@@ -351,6 +664,7 @@ private fun Bitrate(
     onValueChange: (Int) -> Unit,
     enabled: Boolean,
     modifier: Modifier = Modifier,
+    @StringRes titleId: Int = R.string.rtsp_video_bitrate,
 ) {
     Column(modifier = modifier) {
         var isDragging by remember { mutableStateOf(false) }
@@ -363,7 +677,7 @@ private fun Bitrate(
         }
 
         Text(
-            text = stringResource(R.string.rtsp_video_bitrate, sliderPosition.roundToInt().toKOrMBitString()),
+            text = stringResource(titleId, sliderPosition.roundToInt().toKOrMBitString()),
             modifier = Modifier
         )
 
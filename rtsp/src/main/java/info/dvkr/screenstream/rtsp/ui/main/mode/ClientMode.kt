@@ -10,6 +10,7 @@ import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.res.stringResource
 import androidx.compose.ui.unit.dp
 import info.dvkr.screenstream.rtsp.R
+import info.dvkr.screenstream.rtsp.internal.rtsp.client.ClientSendStats
 import info.dvkr.screenstream.rtsp.ui.RtspClientStatus
 import info.dvkr.screenstream.rtsp.ui.RtspError
 
@@ -17,6 +18,7 @@ import info.dvkr.screenstream.rtsp.ui.RtspError
 internal fun ClientMode(
     clientStatus: RtspClientStatus,
     error: RtspError?,
+    sendStats: ClientSendStats,
     modifier: Modifier = Modifier,
 ) {
     Column(modifier = modifier.padding(horizontal = 12.dp)) {
@@ -44,5 +46,30 @@ internal fun ClientMode(
             color = statusColor,
             modifier = Modifier.padding(vertical = 16.dp)
         )
+
+        if (clientStatus == RtspClientStatus.ACTIVE) {
+            Text(
+                text = stringResource(
+                    R.string.rtsp_client_send_stats,
+                    sendStats.queueSize, sendStats.queueCapacity, sendStats.queueDelayMs,
+                    sendStats.videoFramesDropped, sendStats.audioFramesDropped
+                ),
+                style = MaterialTheme.typography.bodySmall,
+                color = MaterialTheme.colorScheme.onSurfaceVariant,
+                modifier = Modifier.padding(bottom = if (sendStats.reconnects > 0) 4.dp else 16.dp)
+            )
+        }
+
+        if (clientStatus == RtspClientStatus.ACTIVE && sendStats.reconnects > 0) {
+            Text(
+                text = stringResource(
+                    R.string.rtsp_client_reconnect_stats,
+                    sendStats.reconnects, sendStats.lastRecoveryMs, sendStats.videoFramesAwaitingKeyFrame
+                ),
+                style = MaterialTheme.typography.bodySmall,
+                color = MaterialTheme.colorScheme.onSurfaceVariant,
+                modifier = Modifier.padding(bottom = 16.dp)
+            )
+        }
     }
 }
@@ -0,0 +1,92 @@
+package info.dvkr.screenstream.rtsp.ui.main.settings.client
+
+import androidx.compose.foundation.layout.fillMaxWidth
+import androidx.compose.foundation.layout.padding
+import androidx.compose.foundation.text.KeyboardOptions
+import androidx.compose.material3.OutlinedTextField
+import androidx.compose.material3.Text
+import androidx.compose.runtime.Composable
+import androidx.compose.runtime.LaunchedEffect
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.remember
+import androidx.compose.runtime.setValue
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.focus.FocusRequester
+import androidx.compose.ui.focus.focusRequester
+import androidx.compose.ui.res.stringResource
+import androidx.compose.ui.text.TextRange
+import androidx.compose.ui.text.input.ImeAction
+import androidx.compose.ui.text.input.KeyboardType
+import androidx.compose.ui.text.input.TextFieldValue
+import androidx.compose.ui.unit.dp
+import info.dvkr.screenstream.rtsp.R
+import info.dvkr.screenstream.rtsp.settings.RtspSettings
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.SettingEditorLayout
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.SettingValueRow
+
+@Composable
+internal fun PacingBurstRow(
+    enabled: Boolean,
+    pacingBurstKb: Int,
+    onDetailShow: () -> Unit
+) {
+    SettingValueRow(
+        enabled = enabled,
+        iconRes = R.drawable.settings_ethernet_24px,
+        title = stringResource(id = R.string.rtsp_pref_pacing_burst),
+        summary = stringResource(id = R.string.rtsp_pref_pacing_burst_summary),
+        valueText = if (pacingBurstKb > 0) stringResource(id = R.string.rtsp_pref_pacing_burst_value, pacingBurstKb)
+        else stringResource(id = R.string.rtsp_pref_pacing_burst_off),
+        onClick = onDetailShow
+    )
+}
+
+@Composable
+internal fun PacingBurstEditor(
+    pacingBurstKb: Int,
+    onValueChange: (Int) -> Unit
+) {
+    val focusRequester = remember { FocusRequester() }
+    var currentPacingBurst by remember(pacingBurstKb) {
+        val text = pacingBurstKb.toString()
+        mutableStateOf(TextFieldValue(text = text, selection = TextRange(text.length)))
+    }
+    var isError by remember { mutableStateOf(false) }
+
+    SettingEditorLayout {
+        Text(
+            text = stringResource(id = R.string.rtsp_pref_pacing_burst_text),
+            modifier = Modifier.fillMaxWidth()
+        )
+
+        OutlinedTextField(
+            value = currentPacingBurst,
+            onValueChange = { textField ->
+                val digitsOnly = textField.text.filter(Char::isDigit).take(3)
+                val filteredTextField = textField.copy(text = digitsOnly, selection = TextRange(digitsOnly.length))
+                val newPacingBurst = digitsOnly.toIntOrNull()
+                if (newPacingBurst == null || newPacingBurst !in RtspSettings.Values.CLIENT_PACING_BURST_KB_RANGE) {
+                    currentPacingBurst = filteredTextField
+                    isError = true
+                } else {
+                    currentPacingBurst = filteredTextField.copy(
+                        text = newPacingBurst.toString(),
+                        selection = TextRange(newPacingBurst.toString().length)
+                    )
+                    isError = false
+                    onValueChange(newPacingBurst)
+                }
+            },
+            modifier = Modifier
+                .focusRequester(focusRequester)
+                .fillMaxWidth()
+                .padding(vertical = 8.dp),
+            isError = isError,
+            keyboardOptions = KeyboardOptions.Default.copy(keyboardType = KeyboardType.Number, imeAction = ImeAction.Done),
+            singleLine = true,
+        )
+    }
+
+    LaunchedEffect(focusRequester) { focusRequester.requestFocus() }
+}
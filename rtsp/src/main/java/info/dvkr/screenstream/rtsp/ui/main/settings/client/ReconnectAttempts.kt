@@ -0,0 +1,92 @@
+package info.dvkr.screenstream.rtsp.ui.main.settings.client
+
+import androidx.compose.foundation.layout.fillMaxWidth
+import androidx.compose.foundation.layout.padding
+import androidx.compose.foundation.text.KeyboardOptions
+import androidx.compose.material3.OutlinedTextField
+import androidx.compose.material3.Text
+import androidx.compose.runtime.Composable
+import androidx.compose.runtime.LaunchedEffect
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.remember
+import androidx.compose.runtime.setValue
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.focus.FocusRequester
+import androidx.compose.ui.focus.focusRequester
+import androidx.compose.ui.res.stringResource
+import androidx.compose.ui.text.TextRange
+import androidx.compose.ui.text.input.ImeAction
+import androidx.compose.ui.text.input.KeyboardType
+import androidx.compose.ui.text.input.TextFieldValue
+import androidx.compose.ui.unit.dp
+import info.dvkr.screenstream.rtsp.R
+import info.dvkr.screenstream.rtsp.settings.RtspSettings
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.SettingEditorLayout
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.SettingValueRow
+
+@Composable
+internal fun ReconnectAttemptsRow(
+    enabled: Boolean,
+    reconnectAttempts: Int,
+    onDetailShow: () -> Unit
+) {
+    SettingValueRow(
+        enabled = enabled,
+        iconRes = R.drawable.ip_network_24px,
+        title = stringResource(id = R.string.rtsp_pref_reconnect_attempts),
+        summary = stringResource(id = R.string.rtsp_pref_reconnect_attempts_summary),
+        valueText = if (reconnectAttempts > 0) stringResource(id = R.string.rtsp_pref_reconnect_attempts_value, reconnectAttempts)
+        else stringResource(id = R.string.rtsp_pref_reconnect_attempts_off),
+        onClick = onDetailShow
+    )
+}
+
+@Composable
+internal fun ReconnectAttemptsEditor(
+    reconnectAttempts: Int,
+    onValueChange: (Int) -> Unit
+) {
+    val focusRequester = remember { FocusRequester() }
+    var currentReconnectAttempts by remember(reconnectAttempts) {
+        val text = reconnectAttempts.toString()
+        mutableStateOf(TextFieldValue(text = text, selection = TextRange(text.length)))
+    }
+    var isError by remember { mutableStateOf(false) }
+
+    SettingEditorLayout {
+        Text(
+            text = stringResource(id = R.string.rtsp_pref_reconnect_attempts_text),
+            modifier = Modifier.fillMaxWidth()
+        )
+
+        OutlinedTextField(
+            value = currentReconnectAttempts,
+            onValueChange = { textField ->
+                val digitsOnly = textField.text.filter(Char::isDigit).take(2)
+                val filteredTextField = textField.copy(text = digitsOnly, selection = TextRange(digitsOnly.length))
+                val newReconnectAttempts = digitsOnly.toIntOrNull()
+                if (newReconnectAttempts == null || newReconnectAttempts !in RtspSettings.Values.CLIENT_RECONNECT_ATTEMPTS_RANGE) {
+                    currentReconnectAttempts = filteredTextField
+                    isError = true
+                } else {
+                    currentReconnectAttempts = filteredTextField.copy(
+                        text = newReconnectAttempts.toString(),
+                        selection = TextRange(newReconnectAttempts.toString().length)
+                    )
+                    isError = false
+                    onValueChange(newReconnectAttempts)
+                }
+            },
+            modifier = Modifier
+                .focusRequester(focusRequester)
+                .fillMaxWidth()
+                .padding(vertical = 8.dp),
+            isError = isError,
+            keyboardOptions = KeyboardOptions.Default.copy(keyboardType = KeyboardType.Number, imeAction = ImeAction.Done),
+            singleLine = true,
+        )
+    }
+
+    LaunchedEffect(focusRequester) { focusRequester.requestFocus() }
+}
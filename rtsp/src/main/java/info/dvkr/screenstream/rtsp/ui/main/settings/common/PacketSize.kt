@@ -0,0 +1,120 @@
+package info.dvkr.screenstream.rtsp.ui.main.settings.common
+
+import androidx.compose.foundation.layout.fillMaxWidth
+import androidx.compose.foundation.layout.padding
+import androidx.compose.foundation.text.KeyboardOptions
+import androidx.compose.material3.OutlinedTextField
+import androidx.compose.material3.Text
+import androidx.compose.runtime.Composable
+import androidx.compose.runtime.LaunchedEffect
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.remember
+import androidx.compose.runtime.setValue
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.focus.FocusRequester
+import androidx.compose.ui.focus.focusRequester
+import androidx.compose.ui.res.stringResource
+import androidx.compose.ui.text.TextRange
+import androidx.compose.ui.text.input.ImeAction
+import androidx.compose.ui.text.input.KeyboardType
+import androidx.compose.ui.text.input.TextFieldValue
+import androidx.compose.ui.unit.dp
+import info.dvkr.screenstream.rtsp.R
+import info.dvkr.screenstream.rtsp.settings.RtspSettings
+
+@Composable
+internal fun PacketSizeRow(
+    enabled: Boolean,
+    udpPacketSize: Int,
+    tcpPacketSize: Int,
+    onDetailShow: () -> Unit
+) {
+    SettingValueRow(
+        enabled = enabled,
+        iconRes = R.drawable.settings_ethernet_24px,
+        title = stringResource(id = R.string.rtsp_pref_packet_size),
+        summary = stringResource(id = R.string.rtsp_pref_packet_size_summary),
+        valueText = stringResource(id = R.string.rtsp_pref_packet_size_value, udpPacketSize, tcpPacketSize),
+        onClick = onDetailShow
+    )
+}
+
+@Composable
+internal fun PacketSizeEditor(
+    udpPacketSize: Int,
+    tcpPacketSize: Int,
+    onUdpValueChange: (Int) -> Unit,
+    onTcpValueChange: (Int) -> Unit
+) {
+    val focusRequester = remember { FocusRequester() }
+
+    SettingEditorLayout {
+        Text(
+            text = stringResource(id = R.string.rtsp_pref_packet_size_text),
+            modifier = Modifier.fillMaxWidth()
+        )
+
+        PacketSizeField(
+            label = stringResource(id = R.string.rtsp_pref_packet_size_udp),
+            packetSize = udpPacketSize,
+            range = RtspSettings.Values.UDP_PACKET_SIZE_RANGE,
+            onValueChange = onUdpValueChange,
+            modifier = Modifier.focusRequester(focusRequester)
+        )
+
+        PacketSizeField(
+            label = stringResource(id = R.string.rtsp_pref_packet_size_tcp),
+            packetSize = tcpPacketSize,
+            range = RtspSettings.Values.TCP_PACKET_SIZE_RANGE,
+            onValueChange = onTcpValueChange
+        )
+    }
+
+    LaunchedEffect(focusRequester) { focusRequester.requestFocus() }
+}
+
+@Composable
+private fun PacketSizeField(
+    label: String,
+    packetSize: Int,
+    range: IntRange,
+    onValueChange: (Int) -> Unit,
+    modifier: Modifier = Modifier
+) {
+    var currentPacketSize by remember(packetSize) {
+        val text = packetSize.toString()
+        mutableStateOf(TextFieldValue(text = text, selection = TextRange(text.length)))
+    }
+    var isError by remember { mutableStateOf(false) }
+
+    OutlinedTextField(
+        value = currentPacketSize,
+        onValueChange = { textField ->
+            val digitsOnly = textField.text.filter(Char::isDigit).take(5)
+            val filteredTextField = textField.copy(
+                text = digitsOnly,
+                selection = TextRange(digitsOnly.length)
+            )
+            val newPacketSize = digitsOnly.toIntOrNull()
+            if (newPacketSize == null || newPacketSize !in range) {
+                currentPacketSize = filteredTextField
+                isError = true
+            } else {
+                currentPacketSize = filteredTextField.copy(
+                    text = newPacketSize.toString(),
+                    selection = TextRange(newPacketSize.toString().length)
+                )
+                isError = false
+                onValueChange(newPacketSize)
+            }
+        },
+        modifier = modifier
+            .fillMaxWidth()
+            .padding(vertical = 8.dp),
+        label = { Text(text = label) },
+        isError = isError,
+        keyboardOptions = KeyboardOptions.Default.copy(keyboardType = KeyboardType.Number, imeAction = ImeAction.Done),
+        singleLine = true,
+    )
+}
@@ -0,0 +1,123 @@
+package info.dvkr.screenstream.rtsp.ui.main.settings.video
+
+import androidx.annotation.StringRes
+import androidx.compose.foundation.layout.fillMaxWidth
+import androidx.compose.foundation.layout.padding
+import androidx.compose.foundation.text.KeyboardActions
+import androidx.compose.foundation.text.KeyboardOptions
+import androidx.compose.material3.OutlinedTextField
+import androidx.compose.material3.Text
+import androidx.compose.runtime.Composable
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.remember
+import androidx.compose.runtime.setValue
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.focus.FocusDirection
+import androidx.compose.ui.platform.LocalFocusManager
+import androidx.compose.ui.res.stringResource
+import androidx.compose.ui.text.TextRange
+import androidx.compose.ui.text.input.ImeAction
+import androidx.compose.ui.text.input.KeyboardType
+import androidx.compose.ui.text.input.TextFieldValue
+import androidx.compose.ui.unit.dp
+import info.dvkr.screenstream.rtsp.R
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.FilterCheckboxRow
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.SettingEditorLayout
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.SettingValueRow
+
+@Composable
+internal fun CropRow(
+    enabled: Boolean,
+    crop: Boolean,
+    cropLeft: Int,
+    cropTop: Int,
+    cropRight: Int,
+    cropBottom: Int,
+    onDetailShow: () -> Unit
+) {
+    SettingValueRow(
+        enabled = enabled,
+        iconRes = R.drawable.crop_24px,
+        title = stringResource(id = R.string.rtsp_video_crop),
+        summary = stringResource(id = R.string.rtsp_video_crop_summary),
+        valueText = if (crop) stringResource(id = R.string.rtsp_video_crop_value, cropLeft, cropTop, cropRight, cropBottom)
+        else stringResource(id = R.string.rtsp_video_crop_off),
+        onClick = onDetailShow
+    )
+}
+
+@Composable
+internal fun CropEditor(
+    crop: Boolean,
+    cropLeft: Int,
+    cropTop: Int,
+    cropRight: Int,
+    cropBottom: Int,
+    onCropChange: (Boolean) -> Unit,
+    onLeftChange: (Int) -> Unit,
+    onTopChange: (Int) -> Unit,
+    onRightChange: (Int) -> Unit,
+    onBottomChange: (Int) -> Unit
+) {
+    SettingEditorLayout {
+        Text(
+            text = stringResource(id = R.string.rtsp_video_crop_text),
+            modifier = Modifier.fillMaxWidth()
+        )
+
+        FilterCheckboxRow(
+            text = stringResource(id = R.string.rtsp_video_crop_enabled),
+            checked = crop,
+            enabled = true,
+            onCheckedChange = onCropChange
+        )
+
+        CropField(R.string.rtsp_video_crop_left, cropLeft, crop, onLeftChange)
+        CropField(R.string.rtsp_video_crop_top, cropTop, crop, onTopChange)
+        CropField(R.string.rtsp_video_crop_right, cropRight, crop, onRightChange)
+        CropField(R.string.rtsp_video_crop_bottom, cropBottom, crop, onBottomChange, imeAction = ImeAction.Done)
+    }
+}
+
+@Composable
+private fun CropField(
+    @StringRes labelRes: Int,
+    cropValue: Int,
+    enabled: Boolean,
+    onValueChange: (Int) -> Unit,
+    imeAction: ImeAction = ImeAction.Next
+) {
+    var currentValue by remember(cropValue) {
+        val text = cropValue.toString()
+        mutableStateOf(TextFieldValue(text = text, selection = TextRange(text.length)))
+    }
+    var isError by remember { mutableStateOf(false) }
+    val focusManager = LocalFocusManager.current
+
+    OutlinedTextField(
+        value = currentValue,
+        onValueChange = { textField ->
+            val digitsOnly = textField.text.filter(Char::isDigit).take(5)
+            val filteredTextField = textField.copy(text = digitsOnly, selection = TextRange(digitsOnly.length))
+            val newValue = digitsOnly.toIntOrNull()
+            if (newValue == null) {
+                currentValue = filteredTextField
+                isError = true
+            } else {
+                currentValue = filteredTextField.copy(text = newValue.toString(), selection = TextRange(newValue.toString().length))
+                isError = false
+                onValueChange(newValue)
+            }
+        },
+        modifier = Modifier
+            .fillMaxWidth()
+            .padding(vertical = 8.dp),
+        enabled = enabled,
+        label = { Text(text = stringResource(id = labelRes)) },
+        isError = isError,
+        keyboardOptions = KeyboardOptions.Default.copy(keyboardType = KeyboardType.Number, imeAction = imeAction),
+        keyboardActions = KeyboardActions(onNext = { focusManager.moveFocus(FocusDirection.Down) }),
+        singleLine = true
+    )
+}
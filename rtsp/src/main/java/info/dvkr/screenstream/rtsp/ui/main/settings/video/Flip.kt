@@ -0,0 +1,45 @@
+package info.dvkr.screenstream.rtsp.ui.main.settings.video
+
+import androidx.compose.runtime.Composable
+import androidx.compose.ui.res.stringArrayResource
+import androidx.compose.ui.res.stringResource
+import info.dvkr.screenstream.rtsp.R
+import info.dvkr.screenstream.rtsp.settings.RtspSettings
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.SelectionEditor
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.SettingValueRow
+
+@Composable
+internal fun FlipRow(
+    enabled: Boolean,
+    flip: Int,
+    onDetailShow: () -> Unit
+) {
+    val options = stringArrayResource(id = R.array.rtsp_video_flip_options)
+    SettingValueRow(
+        enabled = enabled,
+        iconRes = R.drawable.flip_24px,
+        title = stringResource(id = R.string.rtsp_video_flip),
+        summary = stringResource(id = R.string.rtsp_video_flip_summary),
+        valueText = options[flipOptions.indexOf(flip).coerceAtLeast(0)],
+        onClick = onDetailShow
+    )
+}
+
+@Composable
+internal fun FlipEditor(
+    flip: Int,
+    onValueChange: (Int) -> Unit
+) {
+    SelectionEditor(
+        options = stringArrayResource(id = R.array.rtsp_video_flip_options).toList(),
+        selectedIndex = flipOptions.indexOf(flip).coerceAtLeast(0),
+        onValueChange = { index -> onValueChange(flipOptions[index]) },
+        description = stringResource(id = R.string.rtsp_video_flip_summary)
+    )
+}
+
+private val flipOptions = listOf(
+    RtspSettings.Values.FLIP_NONE,
+    RtspSettings.Values.FLIP_HORIZONTAL,
+    RtspSettings.Values.FLIP_VERTICAL
+)
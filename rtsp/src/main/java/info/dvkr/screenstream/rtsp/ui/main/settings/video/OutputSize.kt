@@ -0,0 +1,134 @@
+package info.dvkr.screenstream.rtsp.ui.main.settings.video
+
+import androidx.annotation.StringRes
+import androidx.compose.foundation.layout.fillMaxWidth
+import androidx.compose.foundation.layout.padding
+import androidx.compose.foundation.text.KeyboardActions
+import androidx.compose.foundation.text.KeyboardOptions
+import androidx.compose.material3.OutlinedTextField
+import androidx.compose.material3.Text
+import androidx.compose.runtime.Composable
+import androidx.compose.runtime.LaunchedEffect
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.remember
+import androidx.compose.runtime.setValue
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.focus.FocusDirection
+import androidx.compose.ui.focus.FocusRequester
+import androidx.compose.ui.focus.focusRequester
+import androidx.compose.ui.platform.LocalFocusManager
+import androidx.compose.ui.res.stringResource
+import androidx.compose.ui.text.TextRange
+import androidx.compose.ui.text.input.ImeAction
+import androidx.compose.ui.text.input.KeyboardType
+import androidx.compose.ui.text.input.TextFieldValue
+import androidx.compose.ui.unit.dp
+import info.dvkr.screenstream.rtsp.R
+import info.dvkr.screenstream.rtsp.settings.RtspSettings
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.SettingEditorLayout
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.SettingValueRow
+
+@Composable
+internal fun OutputSizeRow(
+    enabled: Boolean,
+    outputWidth: Int,
+    outputHeight: Int,
+    onDetailShow: () -> Unit
+) {
+    SettingValueRow(
+        enabled = enabled,
+        iconRes = R.drawable.fit_screen_24px,
+        title = stringResource(id = R.string.rtsp_video_output_size),
+        summary = stringResource(id = R.string.rtsp_video_output_size_summary),
+        valueText = if (outputWidth > 0 && outputHeight > 0) stringResource(id = R.string.rtsp_video_output_size_value, outputWidth, outputHeight)
+        else stringResource(id = R.string.rtsp_video_output_size_auto),
+        onClick = onDetailShow
+    )
+}
+
+// An empty field is stored as 0, the output size is fixed only with both sides set
+@Composable
+internal fun OutputSizeEditor(
+    outputWidth: Int,
+    outputHeight: Int,
+    onWidthChange: (Int) -> Unit,
+    onHeightChange: (Int) -> Unit
+) {
+    val range = RtspSettings.Values.VIDEO_OUTPUT_SIZE_RANGE
+    val focusRequester = remember { FocusRequester() }
+
+    SettingEditorLayout {
+        Text(
+            text = stringResource(id = R.string.rtsp_video_output_size_text, range.first, range.last),
+            modifier = Modifier.fillMaxWidth()
+        )
+
+        OutputSizeField(
+            labelRes = R.string.rtsp_video_output_size_width,
+            size = outputWidth,
+            range = range,
+            onValueChange = onWidthChange,
+            imeAction = ImeAction.Next,
+            modifier = Modifier.focusRequester(focusRequester)
+        )
+
+        OutputSizeField(
+            labelRes = R.string.rtsp_video_output_size_height,
+            size = outputHeight,
+            range = range,
+            onValueChange = onHeightChange,
+            imeAction = ImeAction.Done
+        )
+    }
+
+    LaunchedEffect(focusRequester) { focusRequester.requestFocus() }
+}
+
+@Composable
+private fun OutputSizeField(
+    @StringRes labelRes: Int,
+    size: Int,
+    range: IntRange,
+    onValueChange: (Int) -> Unit,
+    imeAction: ImeAction,
+    modifier: Modifier = Modifier
+) {
+    var currentSize by remember(size) {
+        val text = if (size > 0) size.toString() else ""
+        mutableStateOf(TextFieldValue(text = text, selection = TextRange(text.length)))
+    }
+    var isError by remember { mutableStateOf(false) }
+    val focusManager = LocalFocusManager.current
+
+    OutlinedTextField(
+        value = currentSize,
+        onValueChange = { textField ->
+            val digitsOnly = textField.text.filter(Char::isDigit).take(4)
+            val filteredTextField = textField.copy(text = digitsOnly, selection = TextRange(digitsOnly.length))
+            val newSize = digitsOnly.toIntOrNull()
+            currentSize = filteredTextField
+            when {
+                newSize == null -> {
+                    isError = false
+                    onValueChange(0)
+                }
+
+                newSize !in range -> isError = true
+
+                else -> {
+                    isError = false
+                    onValueChange(newSize)
+                }
+            }
+        },
+        modifier = modifier
+            .fillMaxWidth()
+            .padding(vertical = 8.dp),
+        label = { Text(text = stringResource(id = labelRes)) },
+        isError = isError,
+        keyboardOptions = KeyboardOptions.Default.copy(keyboardType = KeyboardType.Number, imeAction = imeAction),
+        keyboardActions = KeyboardActions(onNext = { focusManager.moveFocus(FocusDirection.Down) }),
+        singleLine = true
+    )
+}
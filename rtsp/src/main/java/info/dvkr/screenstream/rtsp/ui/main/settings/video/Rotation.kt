@@ -0,0 +1,45 @@
+package info.dvkr.screenstream.rtsp.ui.main.settings.video
+
+import androidx.compose.runtime.Composable
+import androidx.compose.ui.res.stringArrayResource
+import androidx.compose.ui.res.stringResource
+import info.dvkr.screenstream.rtsp.R
+import info.dvkr.screenstream.rtsp.settings.RtspSettings
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.SelectionEditor
+import info.dvkr.screenstream.rtsp.ui.main.settings.common.SettingValueRow
+
+@Composable
+internal fun RotationRow(
+    enabled: Boolean,
+    rotation: Int,
+    onDetailShow: () -> Unit
+) {
+    SettingValueRow(
+        enabled = enabled,
+        iconRes = R.drawable.rotate_90_degrees_cw_24px,
+        title = stringResource(id = R.string.rtsp_video_rotation),
+        summary = stringResource(id = R.string.rtsp_video_rotation_summary),
+        valueText = stringResource(id = R.string.rtsp_video_rotation_value, rotation),
+        onClick = onDetailShow
+    )
+}
+
+@Composable
+internal fun RotationEditor(
+    rotation: Int,
+    onValueChange: (Int) -> Unit
+) {
+    SelectionEditor(
+        options = stringArrayResource(id = R.array.rtsp_video_rotation_options).toList(),
+        selectedIndex = rotationOptions.indexOf(rotation).coerceAtLeast(0),
+        onValueChange = { index -> onValueChange(rotationOptions[index]) },
+        description = stringResource(id = R.string.rtsp_video_rotation_summary)
+    )
+}
+
+private val rotationOptions = listOf(
+    RtspSettings.Values.ROTATION_0,
+    RtspSettings.Values.ROTATION_90,
+    RtspSettings.Values.ROTATION_180,
+    RtspSettings.Values.ROTATION_270
+)
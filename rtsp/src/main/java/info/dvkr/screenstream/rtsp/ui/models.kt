@@ -6,7 +6,9 @@ import androidx.compose.runtime.Immutable
 import info.dvkr.screenstream.rtsp.R
 import info.dvkr.screenstream.rtsp.internal.AudioCodecInfo
 import info.dvkr.screenstream.rtsp.internal.VideoCodecInfo
+import info.dvkr.screenstream.rtsp.internal.rtsp.client.ClientSendStats
 import info.dvkr.screenstream.rtsp.internal.rtsp.server.ClientStats
+import info.dvkr.screenstream.rtsp.internal.rtsp.server.KeyFrameRequestStats
 import info.dvkr.screenstream.rtsp.settings.RtspSettings
 
 @Immutable
@@ -23,6 +25,10 @@ internal sealed interface RtspBindError {
 @Immutable
 internal data class RtspBinding(val label: String, val fullAddress: String, val bindError: RtspBindError? = null)
 
+// Frames encoded per second and render ticks per second skipped because the screen did not change
+@Immutable
+internal data class VideoRenderStats(val encodedFps: Int = 0, val skippedFps: Int = 0)
+
 @Immutable
 internal data class RtspState(
     val mode: RtspSettings.Values.Mode = RtspSettings.Default.MODE,
@@ -34,6 +40,9 @@ internal data class RtspState(
     val selectedAudioEncoder: AudioCodecInfo? = null,
     val serverBindings: List<RtspBinding> = emptyList(),
     val serverClientStats: List<ClientStats> = emptyList(),
+    val serverKeyFrameRequests: KeyFrameRequestStats = KeyFrameRequestStats(),
+    val videoRenderStats: VideoRenderStats = VideoRenderStats(),
+    val clientSendStats: ClientSendStats = ClientSendStats(),
     val clientStatus: RtspClientStatus = RtspClientStatus.IDLE,
     val error: RtspError? = null
 ) {
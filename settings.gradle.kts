@@ -28,6 +28,7 @@ enableFeaturePreview("TYPESAFE_PROJECT_ACCESSORS")
 rootProject.name = "ScreenStream"
 
 include(":app")
+include(":benchmark")
 include(":common")
 include(":mjpeg")
 include(":rtsp")